@@ -1,593 +1,1883 @@
-import javax.swing.*;
-import java.awt.*;
-import java.awt.event.*;
-import java.io.*;
-import java.nio.file.*;
-import java.time.LocalDateTime;
-import java.util.*;
-import java.util.regex.*;
-
-public class GitHubCodeAnalyser {
-
-    private static final String USER_DATABASE = "users.csv";
-    private static final String HISTORY_DATABASE = "history.csv";
-    private static final String REPORTS_DATABASE = "reports.csv";
-    private static final String COMMENTS_DATABASE = "comments.csv";
-    private static final String CODE_HISTORY_DATABASE = "code_history.csv";
-    private static final Map<String, String> users = new HashMap<>();
-    private static JFrame mainFrame;
-    private static String currentUser;
-
-    public static void main(String[] args) {
-        loadUsers();
-        SwingUtilities.invokeLater(GitHubCodeAnalyser::showLoginScreen);
-    }
-
-    private static void loadUsers() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(USER_DATABASE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 2) {
-                    users.put(parts[0], parts[1]);
-                }
-            }
-        } catch (IOException e) {
-            System.out.println("User  database not found or could not be read.");
-        }
-    }
-
-    private static void saveUsers() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(USER_DATABASE))) {
-            for (Map.Entry<String, String> entry : users.entrySet()) {
-                writer.write(entry.getKey() + "," + entry.getValue());
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(mainFrame, "Error saving user data!", "Error", JOptionPane.ERROR_MESSAGE);
-        }
-    }
-
-    private static void logHistory(String action, String details) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(HISTORY_DATABASE, true))) {
-            writer.write(currentUser + "," + LocalDateTime.now() + "," + action + "," + details);
-            writer.newLine();
-        } catch (IOException e) {
-            System.out.println("Error logging history.");
-        }
-    }
-
-    private static void logCodeHistory(String changeType, String changeDetails, String filePath) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(CODE_HISTORY_DATABASE, true))) {
-            writer.write(currentUser + "," + filePath + "," + changeType + "," + changeDetails + "," + LocalDateTime.now());
-            writer.newLine();
-        } catch (IOException e) {
-            System.out.println("Error logging code history.");
-        }
-    }
-
-    private static void showLoginScreen() {
-        mainFrame = new JFrame("GitHub Code Analyser - Login");
-        mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        mainFrame.setSize(400, 300);
-
-        JPanel panel = new JPanel();
-        panel.setLayout(new GridLayout(4, 2, 10, 10));
-
-        JLabel usernameLabel = new JLabel("Username:");
-        JTextField usernameField = new JTextField();
-
-        JLabel passwordLabel = new JLabel("Password:");
-        JPasswordField passwordField = new JPasswordField();
-
-        JButton loginButton = new JButton("Login");
-        JButton registerButton = new JButton("Register");
-
-        loginButton.addActionListener(e -> handleLogin(usernameField.getText(), new String(passwordField.getPassword())));
-        registerButton.addActionListener(e -> handleRegister(usernameField.getText(), new String(passwordField.getPassword())));
-
-        panel.add(usernameLabel);
-        panel.add(usernameField);
-        panel.add(passwordLabel);
-        panel.add(passwordField);
-        panel.add(loginButton);
-        panel.add(registerButton);
-
-        mainFrame.add(panel);
-        mainFrame.setVisible(true);
-    }
-
-    private static void handleLogin(String username, String password) {
-        if (users.containsKey(username) && users.get(username).equals(password)) {
-            currentUser = username;
-            logHistory("Login", "User  logged in.");
-            JOptionPane.showMessageDialog(mainFrame, "Login successful!");
-            showRepositoryManagerScreen();
-        } else {
-            JOptionPane.showMessageDialog(mainFrame, "Invalid credentials!", "Error", JOptionPane.ERROR_MESSAGE);
-        }
-    }
-
-    private static void handleRegister(String username, String password) {
-        if (users.containsKey(username)) {
-            JOptionPane.showMessageDialog(mainFrame, "Username already exists!", "Error", JOptionPane.ERROR_MESSAGE);
-        } else {
-            users.put(username, password);
-            saveUsers();
-            JOptionPane.showMessageDialog(mainFrame, "Registration successful!");
-        }
-    }
-
-    private static void showRepositoryManagerScreen() {
-        mainFrame.getContentPane().removeAll();
-        mainFrame.setTitle("GitHub Code Analyser");
-        mainFrame.setSize(600, 400);
-
-        JPanel panel = new JPanel(new BorderLayout());
-
-        JButton uploadButton = new JButton("Upload Repository");
-        JButton historyButton = new JButton("Check History");
-        JButton shareReportButton = new JButton("Share Report");
-        JButton createFileButton = new JButton("Create New File");
-        JButton viewCodeHistoryButton = new JButton("View Code History");
-        DefaultListModel<String> fileListModel = new DefaultListModel<>();
-        JList<String> fileList = new JList<>(fileListModel);
-        JTextArea fileViewer = new JTextArea();
-        fileViewer.setEditable(true);
-
-        JButton analyzeButton = new JButton("Analyze File");
-        JButton saveButton = new JButton("Save File");
-        JButton searchButton = new JButton("Search in File");
-        JButton commentButton = new JButton("Comment on Line");
-
-        uploadButton.addActionListener(e -> handleRepositoryUpload(fileListModel));
-        historyButton.addActionListener(e -> showHistory());
-        shareReportButton.addActionListener(e -> shareReport());
-        createFileButton.addActionListener(e -> createNewFile(fileListModel, fileViewer));
-        viewCodeHistoryButton.addActionListener(e -> showCodeHistory());
-        fileList.addListSelectionListener(e -> {
-            if (!e.getValueIsAdjusting()) {
-                String selectedFile = fileList.getSelectedValue();
-                if (selectedFile != null) {
-                    displayFileContent(selectedFile, fileViewer);
-                }
-            }
-        });
-
-        analyzeButton.addActionListener(e -> {
-            String selectedFile = fileList.getSelectedValue();
-            if (selectedFile != null) {
-                analyzeFile(selectedFile);
-            } else {
-                JOptionPane.showMessageDialog(mainFrame, "Please select a file to analyze!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
-
-        saveButton.addActionListener(e -> {
-            String selectedFile = fileList.getSelectedValue();
-            if (selectedFile != null) {
-                saveFileContent(selectedFile, fileViewer);
-                logHistory("File Saved", selectedFile);
-            } else {
-                JOptionPane.showMessageDialog(mainFrame, "Please select a file to save!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
-
-        searchButton.addActionListener(e -> {
-            String selectedFile = fileList.getSelectedValue();
-            if (selectedFile != null) {
-                String searchTerm = JOptionPane.showInputDialog(mainFrame, "Enter term to search:");
-                if (searchTerm != null && !searchTerm.isEmpty()) {
-                    searchInFile(selectedFile, searchTerm);
-                    logHistory("Search Performed", "Term: " + searchTerm);
-                }
-            } else {
-                JOptionPane.showMessageDialog(mainFrame, "Please select a file to search!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
-
-        commentButton.addActionListener(e -> {
-            String selectedFile = fileList.getSelectedValue();
-            if (selectedFile != null) {
-                String[] fileTypes = {"Java", "Python", "HTML", "CSS", "JavaScript"};
-                String fileType = (String) JOptionPane.showInputDialog(mainFrame, "Select file type:", "Select File Type",
-                        JOptionPane.PLAIN_MESSAGE, null, fileTypes, fileTypes[0]);
-
-                if (fileType != null) {
-                    String[] commentTypes = {"Single Line", "Multi Line", "TODO", "FIXME"};
-                    String commentType = (String) JOptionPane.showInputDialog(mainFrame, "Select comment type:", "Select Comment Type",
-                            JOptionPane.PLAIN_MESSAGE, null, commentTypes, commentTypes[0]);
-
-                    if (commentType != null) {
-                        String lineNumberStr = JOptionPane.showInputDialog(mainFrame, "Enter line number to comment:");
-                        if (lineNumberStr != null && !lineNumberStr.isEmpty()) {
-                            try {
-                                int lineNumber = Integer.parseInt(lineNumberStr);
-                                String comment = "";
-                                if (commentType.equals("TODO")) {
-                                    comment = JOptionPane.showInputDialog(mainFrame, "Enter TODO comment:");
-                                    comment = "TODO: " + comment;
-                                } else if (commentType.equals("FIXME")) {
-                                    comment = JOptionPane.showInputDialog(mainFrame, "Enter FIXME comment:");
-                                    comment = "FIXME: " + comment;
-                                } else {
-                                    comment = JOptionPane.showInputDialog(mainFrame, "Enter your comment:");
-                                }
-                                if (comment != null && !comment.isEmpty()) {
-                                    saveComment(selectedFile, lineNumber, comment);
-                                    logHistory("Comment Added", "File: " + selectedFile + ", Line: " + lineNumber);
-
-                                    // Display the comment in the file viewer
-                                    java.util.List<String> lines = new ArrayList<>(Arrays.asList(fileViewer.getText().split("\n")));
-                                    if (lineNumber > 0 && lineNumber <= lines.size()) {
-                                        String formattedComment = formatComment(fileType, commentType, comment);
-                                        lines.add(lineNumber - 1, formattedComment);
-                                        fileViewer.setText(String.join("\n", lines));
-                                        saveFileContent(selectedFile, fileViewer); // Save the file with the new comment
-                                    } else {
-                                        JOptionPane.showMessageDialog(mainFrame, "Line number out of range!", "Error", JOptionPane.ERROR_MESSAGE);
-                                    }
-                                }
-                            } catch (NumberFormatException ex) {
-                                JOptionPane.showMessageDialog(mainFrame, "Invalid line number!", "Error", JOptionPane.ERROR_MESSAGE);
-                            }
-                        }
-                    }
-                }
-            } else {
-                JOptionPane.showMessageDialog(mainFrame, "Please select a file to comment on!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
-
-        JPanel buttonPanel = new JPanel();
-        buttonPanel.add(uploadButton);
-        buttonPanel.add(shareReportButton);
-        buttonPanel.add(createFileButton);
-        buttonPanel.add(viewCodeHistoryButton);
-        buttonPanel.add(analyzeButton);
-        buttonPanel.add(saveButton);
-        buttonPanel.add(searchButton);
-        buttonPanel.add(commentButton);
-
-        panel.add(new JScrollPane(fileList), BorderLayout.WEST);
-        panel.add(new JScrollPane(fileViewer), BorderLayout.CENTER);
-        panel.add(buttonPanel, BorderLayout.SOUTH);
-
-        mainFrame.add(panel);
-        mainFrame.revalidate();
-        mainFrame.repaint();
-    }
-
-    private static void handleRepositoryUpload(DefaultListModel<String> fileListModel) {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-
-        int returnValue = fileChooser.showOpenDialog(mainFrame);
-        if (returnValue == JFileChooser.APPROVE_OPTION) {
-            File selectedFolder = fileChooser.getSelectedFile();
-            fileListModel.clear();
-
-            try {
-                Files.walk(selectedFolder.toPath())
-                        .filter(Files::isRegularFile)
-                        .forEach(filePath -> fileListModel.addElement(filePath.toString()));
-
-                logHistory("Repository Uploaded", selectedFolder.getAbsolutePath());
-                JOptionPane.showMessageDialog(mainFrame, "Repository uploaded successfully!");
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(mainFrame, "Error reading files from the folder!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        }
-    }
-
-    private static void displayFileContent(String filePath, JTextArea fileViewer) {
-        try {
-            java.util.List<String> lines = Files.readAllLines(Paths.get(filePath));
-            StringBuilder content = new StringBuilder();
-            for (String line : lines) {
-                content.append(line).append("\n");
-            }
-            fileViewer.setText(content.toString());
-        } catch (IOException e) {
-            fileViewer.setText("Error reading file: " + filePath);
-        }
-    }
-
-    private static void analyzeFile(String filePath) {
-        try {
-            java.util.List<String> lines = Files.readAllLines(Paths.get(filePath));
-            int lineCount = lines.size();
-            int blankLineCount = 0;
-            int commentLineCount = 0;
-            int todoCount = 0;
-            int fixmeCount = 0;
-
-            String fileType = filePath.substring(filePath.lastIndexOf('.') + 1);
-            String commentPattern = getCommentPattern(fileType);
-
-            StringBuilder commentReport = new StringBuilder();
-
-            for (int i = 0; i < lines.size(); i++) {
-                String line = lines.get(i);
-                String trimmedLine = line.trim();
-                if (trimmedLine.isEmpty()) {
-                    blankLineCount++;
-                } else if (trimmedLine.startsWith("//") || trimmedLine.startsWith("#") || trimmedLine.startsWith("/*") || trimmedLine.startsWith("<!--")) {
-                    commentLineCount++;
-                    if (trimmedLine.contains("TODO")) {
-                        todoCount++;
-                        commentReport.append("TODO: ").append(trimmedLine).append(" (Line ").append(i + 1).append(")\n");
-                    }
-                    if (trimmedLine.contains("FIXME")) {
-                        fixmeCount++;
-                        commentReport.append("FIXME: ").append(trimmedLine).append(" (Line ").append(i + 1).append(")\n");
-                    }
-                }
-            }
-
-            String report = "File Type: " + fileType + "\nLines of Code: " + lineCount +
-                    "\nBlank Lines: " + blankLineCount + "\nComment Lines: " + commentLineCount +
-                    "\nTODOs: " + todoCount + "\nFIXMEs: " + fixmeCount + "\n\nComment Report:\n" + commentReport.toString();
-
-            JOptionPane.showMessageDialog(mainFrame, report, "File Analysis", JOptionPane.INFORMATION_MESSAGE);
-            saveReport(filePath, report);
-            logHistory("File Analyzed", filePath);
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(mainFrame, "Error analyzing file: " + filePath, "Error", JOptionPane.ERROR_MESSAGE);
-        }
-    }
-
-    private static String getCommentPattern(String fileType) {
-        switch (fileType) {
-            case "java":
-            case "js":
-            case "c":
-            case "cpp":
-                return "^\\s*(//|/\\*|\\*|\\*/)"; // Java, JavaScript, C, C++
-            case "py":
-                return "^\\s*(#|\"\"\"|''')"; // Python
-            case "html":
-            case "xml":
-                return "^\\s*<!--|-->"; // HTML, XML
-            case "css":
-                return "^\\s*/\\*|\\*/"; // CSS
-            default:
-                return "^\\s*#"; // Default to hash comments
-        }
-    }
-
-    private static void saveFileContent(String filePath, JTextArea fileViewer) {
-        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filePath))) {
-            writer.write(fileViewer.getText());
-            JOptionPane.showMessageDialog(mainFrame, "File saved successfully!");
-            logCodeHistory("modified", "Modified file content", filePath);
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(mainFrame, "Error saving file: " + filePath, "Error", JOptionPane.ERROR_MESSAGE);
-        }
-    }
-
-    private static void searchInFile(String filePath, String searchTerm) {
-        try {
-            java.util.List<String> lines = Files.readAllLines(Paths.get(filePath));
-            int totalOccurrences = 0;
-            StringBuilder result = new StringBuilder("Search results for '" + searchTerm + "':\n");
-
-            Pattern pattern = Pattern.compile(Pattern.quote(searchTerm));
-
-            for (int i = 0; i < lines.size(); i++) {
-                String line = lines.get(i);
-                Matcher matcher = pattern.matcher(line);
-                int occurrencesInLine = 0;
-                while (matcher.find()) {
-                    occurrencesInLine++;
-                }
-
-                if (occurrencesInLine > 0) {
-                    result.append("Line ").append(i + 1).append(": ").append(occurrencesInLine).append(" occurrence(s)\n");
-                    totalOccurrences += occurrencesInLine;
-                }
-            }
-
-            if (totalOccurrences > 0) {
-                result.append("\nTotal occurrences: ").append(totalOccurrences);
-                JOptionPane.showMessageDialog(mainFrame, result.toString(), "Search Results", JOptionPane.INFORMATION_MESSAGE);
-            } else {
-                JOptionPane.showMessageDialog(mainFrame, "No occurrences found for '" + searchTerm + "'.", "Search Results", JOptionPane.INFORMATION_MESSAGE);
-            }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(mainFrame, "Error searching file: " + filePath, "Error", JOptionPane.ERROR_MESSAGE);
-        }
-    }
-
-    private static void showHistory() {
-        JFrame historyFrame = new JFrame("User  History");
-        historyFrame.setSize(600, 400);
-
-        JTextArea historyArea = new JTextArea();
-        historyArea.setEditable(false);
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(HISTORY_DATABASE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",", 4);
-                if (parts.length == 4 && parts[0].equals(currentUser)) {
-                    historyArea.append("Date: " + parts[1] + "\nAction: " + parts[2] + "\nDetails: " + parts[3] + "\n\n");
-                }
-            }
-        } catch (IOException e) {
-            historyArea.setText("No history available or error reading history.");
-        }
-
-        historyFrame.add(new JScrollPane(historyArea));
-        historyFrame.setVisible(true);
-    }
-
-    private static void saveReport(String filePath, String report) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(REPORTS_DATABASE, true))) {
-            writer.write(currentUser + "," + filePath + "," + report.replace("\n", "\\n"));
-            writer.newLine();
-        } catch (IOException e) {
-            System.out.println("Error saving report.");
-        }
-    }
-
-    private static void shareReport() {
-        JFrame shareFrame = new JFrame("Share Analysis Reports");
-        shareFrame.setSize(600, 400);
-
-        JTextArea reportArea = new JTextArea();
-        reportArea.setEditable(false);
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(REPORTS_DATABASE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",", 3);
-                if (parts.length == 3) {
-                    reportArea.append(":User  " + parts[0] + "\nFile: " + parts[1] + "\nReport: " + parts[2].replace("\\n", "\n") + "\n\n");
-                }
-            }
-        } catch (IOException e) {
-            reportArea.setText("No reports available or error reading reports.");
-        }
-
-        shareFrame.add(new JScrollPane(reportArea));
-        shareFrame.setVisible(true);
-    }
-
-    private static void saveComment(String filePath, int lineNumber, String comment) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(COMMENTS_DATABASE, true))) {
-            writer.write(currentUser + "," + filePath + "," + lineNumber + "," + comment.replace("\n", "\\n"));
-            writer.newLine();
-        } catch (IOException e) {
-            System.out.println("Error saving comment.");
-        }
-    }
-
-    private static String formatComment(String fileType, String commentType, String comment) {
-        switch (fileType) {
-            case "Java":
-            case "JavaScript":
-            case "C":
-            case "C++":
-                if (commentType.equals("TODO")) {
-                    return "// TODO: " + comment;
-                } else if (commentType.equals("FIXME")) {
-                    return "// FIXME: " + comment;
-                } else if (commentType.equals("Single Line")) {
-                    return "// " + comment;
-                } else {
-                    return "/* " + comment + " */";
-                }
-            case "Python":
-                if (commentType.equals("TODO")) {
-                    return "# TODO: " + comment;
-                } else if (commentType.equals("FIXME")) {
-                    return "# FIXME: " + comment;
-                } else if (commentType.equals("Single Line")) {
-                    return "# " + comment;
-                } else {
-                    return "\"\"\"\n" + comment + "\n\"\"\"";
-                }
-            case "HTML":
-            case "XML":
-                if (commentType.equals("TODO")) {
-                    return "<!-- TODO: " + comment + " -->";
-                } else if (commentType.equals("FIXME")) {
-                    return "<!-- FIXME: " + comment + " -->";
-                } else if (commentType.equals("Single Line")) {
-                    return "<!-- " + comment + " -->";
-                } else {
-                    return "<!--\n" + comment + "\n-->";
-                }
-            case "CSS":
-                if (commentType.equals("TODO")) {
-                    return "/* TODO: " + comment + " */";
-                } else if (commentType.equals("FIXME")) {
-                    return "/* FIXME: " + comment + " */";
-                } else if (commentType.equals("Single Line")) {
-                    return "/* " + comment + " */";
-                } else {
-                    return "/*\n" + comment + "\n*/";
-                }
-            default:
-                throw new UnsupportedOperationException("Unsupported file type: " + fileType);
-        }
-    }
-
-    private static void createNewFile(DefaultListModel<String> fileListModel, JTextArea fileViewer) {
-        String[] fileTypes = {"Java", "Python", "HTML", "CSS", "JavaScript"};
-        String fileType = (String) JOptionPane.showInputDialog(mainFrame, "Select file type:", "Create New File",
-                JOptionPane.PLAIN_MESSAGE, null, fileTypes, fileTypes[0]);
-
-        if (fileType != null) {
-            String fileName = JOptionPane.showInputDialog(mainFrame, "Enter file name (without extension):");
-            if (fileName != null && !fileName.trim().isEmpty()) {
-                JFileChooser fileChooser = new JFileChooser();
-                fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-
-                int returnValue = fileChooser.showSaveDialog(mainFrame);
-                if (returnValue == JFileChooser.APPROVE_OPTION) {
-                    File selectedFolder = fileChooser.getSelectedFile();
-                    String extension = getFileExtension(fileType);
-                    File newFile = new File(selectedFolder, fileName + extension);
-                    try {
-                        if (newFile.createNewFile()) {
-                            JOptionPane.showMessageDialog(mainFrame, "File created successfully: " + newFile.getName());
-                            logHistory("File Created", newFile.getName());
-                            fileListModel.addElement(newFile.getAbsolutePath());
-                            displayFileContent(newFile.getAbsolutePath(), fileViewer);
-                        } else {
-                            JOptionPane.showMessageDialog(mainFrame, "File already exists!", "Error", JOptionPane.ERROR_MESSAGE);
-                        }
-                    } catch (IOException e) {
-                        JOptionPane.showMessageDialog(mainFrame, "Error creating file: " + newFile.getName(), "Error", JOptionPane.ERROR_MESSAGE);
-                    }
-                }
-            } else {
-                JOptionPane.showMessageDialog(mainFrame, "File name cannot be empty!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        }
-    }
-
-    private static String getFileExtension(String fileType) {
-        switch (fileType) {
-            case "Java":
-                return ".java";
-            case "Python":
-                return ".py";
-            case "HTML":
-                return ".html";
-            case "CSS":
-                return ".css";
-            case "JavaScript":
-                return ".js";
-            case "C":
-                return ".c";
-            default:
-                return "";
-        }
-    }
-
-    private static void showCodeHistory() {
-        JFrame codeHistoryFrame = new JFrame("Code History");
-        codeHistoryFrame.setSize(600, 400);
-
-        JTextArea codeHistoryArea = new JTextArea();
-        codeHistoryArea.setEditable(false);
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(CODE_HISTORY_DATABASE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",", 5);
-                if (parts.length == 5) {
-                    codeHistoryArea.append(":User  " + parts[0] + "\nFile: " + parts[1] + "\nChange Type: " + parts[2] + "\nChange Details: " + parts[3] + "\nTimestamp: " + parts[4] + "\n\n");
-                }
-            }
-        } catch (IOException e) {
-            codeHistoryArea.setText("No code history available or error reading code history.");
-        }
-
-        codeHistoryFrame.add(new JScrollPane(codeHistoryArea));
-        codeHistoryFrame.setVisible(true);
-    }
+import analyser.*;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.*;
+
+public class GitHubCodeAnalyser {
+
+    private static final String USER_DATABASE = "users.csv";
+    private static final String HISTORY_DATABASE = "history.csv";
+    private static final String REPORTS_DATABASE = "reports.csv";
+    private static final String COMMENTS_DATABASE = "comments.csv";
+    private static final String CODE_HISTORY_DATABASE = "code_history.csv";
+    private static final String STORE_DATABASE = "analyser.db";
+    private static final byte USERS_TABLE = 1;
+    private static final byte HISTORY_TABLE = 2;
+    private static final byte REPORTS_TABLE = 3;
+    private static final byte COMMENTS_TABLE = 4;
+    private static final byte CODE_HISTORY_TABLE = 5;
+    private static final byte METRICS_TABLE = 6;
+    private static final String SEARCH_INDEX_DATABASE = "search_index.bin";
+    private static final String ANALYSIS_CACHE_DATABASE = "analysis_cache.bin";
+    private static final String ROLLUPS_DATABASE = "rollups.bin";
+    private static final String SNAPSHOTS_DATABASE = "snapshots.bin";
+    private static final int SEARCH_INDEX_REBUILD_THRESHOLD = 1000;
+    private static final int SEARCH_RESULT_LIMIT = 10_000;
+    private static final long LARGE_FILE_THRESHOLD = Long.getLong("analyser.largeFileBytes", 16L * 1024 * 1024);
+    private static final int DUPLICATE_MIN_LINES = Integer.getInteger("analyser.duplicates.minLines", DuplicateFinder.DEFAULT_MIN_LINES);
+    private static final int DUPLICATE_REPORT_LIMIT = 200;
+    private static final int GIT_REPORT_LIMIT = 20;
+    private static JFrame mainFrame;
+    private static String currentUser;
+    private static Path currentRepository;
+    private static volatile SearchIndex searchIndex;
+    private static volatile DuplicateFinder.Report duplicateReport;
+    private static volatile GitHistory gitHistory;
+    private static AnalysisCache analysisCache = new AnalysisCache();
+    private static final FileContentCache fileContents = FileContentCache.shared();
+    private static AnalysisRollups rollups;
+    private static SnapshotStore snapshotStore;
+    private static RepositoryWatcher repositoryWatcher;
+    private static RepositoryWalker repositoryWalker = new RepositoryWalker();
+    private static LogAppender logAppender;
+    private static RecordStore recordStore;
+    private static CredentialStore credentialStore;
+    private static AnnotationStore annotationStore;
+    private static DefaultListModel<AnnotationStore.Annotation> annotationModel;
+    private static String annotatedFile;
+    private static JTextArea textViewer;
+    private static TaskExecutor taskExecutor;
+    private static AnalysisServer analysisServer;
+    private static Path metricsFile;
+    private static final java.util.List<TaskExecutor.Handle> runningTasks = new ArrayList<>();
+    private static JLabel taskStatusLabel;
+    private static JProgressBar taskProgressBar;
+    private static JButton cancelTaskButton;
+    private static JPanel viewerPanel;
+    private static JLabel largeFileStatus;
+    private static LargeFileListModel largeFileModel;
+    private static LargeFileDocument largeDocument;
+
+    public static void main(String[] args) {
+        boolean serverMode = args.length > 0 && args[0].equals("--server");
+        if (args.length > 0 && !serverMode) {
+            // batch mode for build agents: no window, no AWT
+            System.exit(BatchRunner.run(args, System.out, System.err));
+        }
+        if (serverMode) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        logAppender = new LogAppender(Integer.getInteger("analyser.log.capacity", 65536),
+                Long.getLong("analyser.log.flushMillis", 200),
+                LogAppender.FsyncPolicy.valueOf(System.getProperty("analyser.log.fsync", "ON_FLUSH")));
+        openRecordStore();
+        annotationStore = new AnnotationStore(recordStore, COMMENTS_TABLE);
+        loadUsers();
+        loadSearchIndex();
+        loadAnalysisCache();
+        loadRollups();
+        openSnapshots();
+        repositoryWalker = new RepositoryWalker(propertySet("analyser.walk.extensions", ""),
+                Long.getLong("analyser.walk.maxFileBytes", Long.MAX_VALUE),
+                Boolean.parseBoolean(System.getProperty("analyser.walk.gitignore", "true")),
+                propertySet("analyser.walk.excludeDirs", String.join(",", RepositoryWalker.DEFAULT_EXCLUDED_DIRECTORIES)));
+        taskExecutor = new TaskExecutor(Integer.getInteger("analyser.tasks.threads", Math.max(2, Runtime.getRuntime().availableProcessors())),
+                SwingUtilities::invokeLater);
+        taskExecutor.startLatencyProbe(100, 100);
+        if (Boolean.getBoolean("analyser.metrics.jmx")) {
+            Metrics.enableJmx();
+        }
+        String metricsPath = System.getProperty("analyser.metrics.file");
+        metricsFile = metricsPath == null ? null : Paths.get(metricsPath);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (analysisServer != null) {
+                analysisServer.close();
+            }
+            taskExecutor.close();
+            logAppender.close();
+            closeRecordStore();
+            closeSnapshots();
+            saveAnalysisCache();
+            saveRollups();
+            saveMetrics();
+        }));
+        if (serverMode) {
+            startServer(args);
+        } else {
+            SwingUtilities.invokeLater(GitHubCodeAnalyser::showLoginScreen);
+        }
+    }
+
+    private static void startServer(String[] args) {
+        int port = AnalysisServer.DEFAULT_PORT;
+        if (args.length == 3 && args[1].equals("--port")) {
+            try {
+                port = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                port = -1;
+            }
+        }
+        if ((args.length != 1 && args.length != 3) || port < 0 || port > 65535) {
+            System.err.println("Usage: GitHubCodeAnalyser --server [--port <n>]");
+            System.exit(BatchRunner.EXIT_USAGE);
+        }
+        try {
+            Files.createDirectories(AnalysisServer.DEFAULT_ROOT);
+            analysisServer = new AnalysisServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), AnalysisServer.DEFAULT_ROOT,
+                    recordStore, credentialStore, analysisCache, rollups, repositoryWalker, HISTORY_TABLE, REPORTS_TABLE);
+            analysisServer.start();
+            System.out.println("Serving repositories under " + AnalysisServer.DEFAULT_ROOT.toAbsolutePath() + " on http://127.0.0.1:" +
+                    analysisServer.getPort() + "/api/");
+        } catch (IOException e) {
+            System.out.println("Server could not be started: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void saveMetrics() {
+        if (metricsFile == null) {
+            return;
+        }
+        try {
+            Metrics.writePrometheus(metricsFile);
+        } catch (IOException e) {
+            System.out.println("Error writing metrics: " + metricsFile);
+        }
+    }
+
+    private static Set<String> propertySet(String name, String defaultValue) {
+        return Arrays.stream(System.getProperty(name, defaultValue).split(","))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .collect(Collectors.toSet());
+    }
+
+    private static void openRecordStore() {
+        try {
+            recordStore = RecordStore.open(Paths.get(STORE_DATABASE), logAppender, new byte[]{USERS_TABLE}, new byte[]{COMMENTS_TABLE});
+            migrateLegacyDatabases();
+        } catch (IOException e) {
+            System.out.println("Database could not be opened: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void closeRecordStore() {
+        try {
+            recordStore.close();
+        } catch (IOException e) {
+            System.out.println("Error saving database index.");
+        }
+    }
+
+    /**
+     * Imports the CSV files once.
+     */
+    private static void migrateLegacyDatabases() throws IOException {
+        CsvMigrator migrator = new CsvMigrator();
+        // cleartext passwords: hashed by loadUsers, and the file itself is wiped rather than kept
+        migrator.addSensitive(Paths.get(USER_DATABASE), 2,
+                (fields, fallback) -> new StoredRecord(USERS_TABLE, fallback, fields[0], null, null, fields[1]));
+        migrator.add(Paths.get(HISTORY_DATABASE), 4, (fields, fallback) -> new StoredRecord(HISTORY_TABLE,
+                CsvMigrator.parseTimestamp(fields[1], fallback), fields[0], null, fields[2], fields[3]));
+        migrator.add(Paths.get(REPORTS_DATABASE), 3, (fields, fallback) -> new StoredRecord(REPORTS_TABLE,
+                fallback, fields[0], fields[1], null, fields[2].replace("\\n", "\n")));
+        migrator.add(Paths.get(COMMENTS_DATABASE), 4, (fields, fallback) -> AnnotationStore.imported(COMMENTS_TABLE,
+                fallback, fields[0], fields[1], fields[2], fields[3].replace("\\n", "\n")));
+        migrator.add(Paths.get(CODE_HISTORY_DATABASE), 5, (fields, fallback) -> new StoredRecord(CODE_HISTORY_TABLE,
+                CsvMigrator.parseTimestamp(fields[4], fallback), fields[0], fields[1], fields[2], fields[3]));
+        int imported = migrator.migrate(recordStore);
+        if (imported > 0) {
+            System.out.println("Migrated " + imported + " records into " + STORE_DATABASE + ".");
+        }
+    }
+
+    private static void loadUsers() {
+        try {
+            credentialStore = CredentialStore.open(recordStore, USERS_TABLE, Integer.getInteger("analyser.auth.iterations", 210_000));
+        } catch (IOException e) {
+            System.out.println("User  database could not be read.");
+            System.exit(1);
+        }
+    }
+
+    private static void loadSearchIndex() {
+        try {
+            if (Files.exists(Paths.get(SEARCH_INDEX_DATABASE))) {
+                searchIndex = SearchIndex.open(Paths.get(SEARCH_INDEX_DATABASE));
+            }
+        } catch (IOException e) {
+            System.out.println("Search index could not be read, it will be rebuilt on upload.");
+        }
+    }
+
+    private static void loadAnalysisCache() {
+        try {
+            analysisCache = AnalysisCache.load(Paths.get(ANALYSIS_CACHE_DATABASE));
+        } catch (IOException e) {
+            System.out.println("Analysis cache could not be read, files will be re-analyzed.");
+        }
+    }
+
+    private static void saveAnalysisCache() {
+        try {
+            analysisCache.save(Paths.get(ANALYSIS_CACHE_DATABASE));
+        } catch (IOException e) {
+            System.out.println("Error saving analysis cache.");
+        }
+    }
+
+    private static void loadRollups() {
+        try {
+            rollups = AnalysisRollups.open(Paths.get(ROLLUPS_DATABASE), recordStore, METRICS_TABLE);
+        } catch (IOException e) {
+            System.out.println("Analysis history could not be read: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void saveRollups() {
+        try {
+            rollups.save();
+        } catch (IOException e) {
+            System.out.println("Error saving analysis rollups.");
+        }
+    }
+
+    /**
+     * Opens the snapshot store. Snapshots are an extra on top of the code history, so a store that cannot be
+     * opened leaves them off for this run instead of keeping the application from starting.
+     */
+    private static void openSnapshots() {
+        try {
+            snapshotStore = SnapshotStore.open(Paths.get(SNAPSHOTS_DATABASE));
+        } catch (IOException e) {
+            String message = "Code history snapshots could not be opened and are off until restart: " + e.getMessage();
+            System.err.println(message);
+            if (!GraphicsEnvironment.isHeadless()) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, message, "Code History", JOptionPane.WARNING_MESSAGE));
+            }
+        }
+    }
+
+    private static void closeSnapshots() {
+        if (snapshotStore == null) {
+            return;
+        }
+        try {
+            snapshotStore.close();
+        } catch (IOException e) {
+            System.out.println("Error closing code history snapshots.");
+        }
+    }
+
+    private static void logHistory(String action, String details) {
+        recordStore.append(new StoredRecord(HISTORY_TABLE, System.currentTimeMillis(), currentUser, null, action, details));
+    }
+
+    private static void logCodeHistory(String changeType, String changeDetails, String filePath, SnapshotStore.Version version) {
+        recordStore.append(new StoredRecord(CODE_HISTORY_TABLE, System.currentTimeMillis(), currentUser, filePath, changeType, changeDetails,
+                version == null ? "" : String.valueOf(version.getNumber())));
+    }
+
+    private static void showLoginScreen() {
+        mainFrame = new JFrame("GitHub Code Analyser - Login");
+        mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        mainFrame.setSize(400, 300);
+
+        JPanel panel = new JPanel();
+        panel.setLayout(new GridLayout(4, 2, 10, 10));
+
+        JLabel usernameLabel = new JLabel("Username:");
+        JTextField usernameField = new JTextField();
+
+        JLabel passwordLabel = new JLabel("Password:");
+        JPasswordField passwordField = new JPasswordField();
+
+        JButton loginButton = new JButton("Login");
+        JButton registerButton = new JButton("Register");
+
+        loginButton.addActionListener(e -> handleLogin(usernameField.getText(), passwordField.getPassword()));
+        registerButton.addActionListener(e -> handleRegister(usernameField.getText(), passwordField.getPassword()));
+
+        panel.add(usernameLabel);
+        panel.add(usernameField);
+        panel.add(passwordLabel);
+        panel.add(passwordField);
+        panel.add(loginButton);
+        panel.add(registerButton);
+
+        mainFrame.add(panel);
+        mainFrame.setVisible(true);
+    }
+
+    private static void handleLogin(String username, char[] password) {
+        runTask("Login", "user:" + username, context -> {
+            try {
+                return credentialStore.verify(username, password);
+            } finally {
+                Arrays.fill(password, '\0');
+            }
+        }, verified -> {
+            if (verified) {
+                currentUser = username;
+                logHistory("Login", "User  logged in.");
+                JOptionPane.showMessageDialog(mainFrame, "Login successful!");
+                showRepositoryManagerScreen();
+            } else {
+                JOptionPane.showMessageDialog(mainFrame, "Invalid credentials!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }, e -> JOptionPane.showMessageDialog(mainFrame, "Error checking credentials!", "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private static void handleRegister(String username, char[] password) {
+        if (credentialStore.contains(username)) {
+            Arrays.fill(password, '\0');
+            JOptionPane.showMessageDialog(mainFrame, "Username already exists!", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        runTask("Register", "user:" + username, context -> {
+            try {
+                return credentialStore.register(username, password);
+            } finally {
+                Arrays.fill(password, '\0');
+            }
+        }, registered -> {
+            if (registered) {
+                JOptionPane.showMessageDialog(mainFrame, "Registration successful!");
+            } else {
+                JOptionPane.showMessageDialog(mainFrame, "Username already exists!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }, e -> JOptionPane.showMessageDialog(mainFrame, "Error saving user data!", "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private static void showRepositoryManagerScreen() {
+        mainFrame.getContentPane().removeAll();
+        mainFrame.setTitle("GitHub Code Analyser");
+        mainFrame.setSize(600, 400);
+
+        JPanel panel = new JPanel(new BorderLayout());
+
+        JButton uploadButton = new JButton("Upload Repository");
+        JButton historyButton = new JButton("Check History");
+        JButton shareReportButton = new JButton("Share Report");
+        JButton createFileButton = new JButton("Create New File");
+        JButton viewCodeHistoryButton = new JButton("View Code History");
+        FileListModel fileListModel = new FileListModel();
+        JList<String> fileList = new JList<>(fileListModel);
+        fileList.setFixedCellHeight(fileList.getFontMetrics(fileList.getFont()).getHeight() + 2);
+        fileList.setFixedCellWidth(400);
+        JTextArea fileViewer = new JTextArea();
+        fileViewer.setEditable(true);
+        textViewer = fileViewer;
+
+        largeFileModel = new LargeFileListModel();
+        JList<String> largeFileList = new JList<>(largeFileModel);
+        largeFileList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        largeFileList.setFixedCellHeight(largeFileList.getFontMetrics(largeFileList.getFont()).getHeight());
+        largeFileList.setFixedCellWidth(4000);
+        largeFileList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int line = largeFileList.locationToIndex(e.getPoint());
+                if (e.getClickCount() == 2 && line >= 0) {
+                    editLargeFileLine(line);
+                }
+            }
+        });
+        largeFileStatus = new JLabel(" ");
+        JPanel largeFilePanel = new JPanel(new BorderLayout());
+        largeFilePanel.add(new JScrollPane(largeFileList), BorderLayout.CENTER);
+        largeFilePanel.add(largeFileStatus, BorderLayout.SOUTH);
+
+        viewerPanel = new JPanel(new CardLayout());
+        viewerPanel.add(new JScrollPane(fileViewer), "text");
+        viewerPanel.add(largeFilePanel, "large");
+
+        annotationModel = new DefaultListModel<>();
+        annotatedFile = null;
+        JList<AnnotationStore.Annotation> annotationList = new JList<>(annotationModel);
+        annotationList.setVisibleRowCount(4);
+        annotationList.setToolTipText("Double-click to go to the line, Delete to remove the comment");
+        annotationList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                AnnotationStore.Annotation annotation = annotationList.getSelectedValue();
+                if (e.getClickCount() == 2 && annotation != null) {
+                    goToLine(annotation.getLine(), fileViewer, largeFileList);
+                }
+            }
+        });
+        annotationList.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                AnnotationStore.Annotation annotation = annotationList.getSelectedValue();
+                if (e.getKeyCode() == KeyEvent.VK_DELETE && annotation != null && JOptionPane.showConfirmDialog(mainFrame,
+                        "Delete this comment?", "Delete Comment", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                    annotationStore.delete(annotation);
+                    annotationModel.removeElement(annotation);
+                    highlightAnnotations(fileViewer);
+                    logHistory("Comment Deleted", "File: " + annotation.getFile() + ", Line: " + (annotation.getLine() + 1));
+                }
+            }
+        });
+        JPanel centerPanel = new JPanel(new BorderLayout());
+        centerPanel.add(viewerPanel, BorderLayout.CENTER);
+        centerPanel.add(new JScrollPane(annotationList), BorderLayout.SOUTH);
+
+        JButton analyzeButton = new JButton("Analyze File");
+        JButton analyzeRepositoryButton = new JButton("Analyze Repository");
+        JButton saveButton = new JButton("Save File");
+        JButton searchButton = new JButton("Search in File");
+        JButton searchRepositoryButton = new JButton("Search Repository");
+        JButton commentButton = new JButton("Comment on Line");
+        JButton taskStatsButton = new JButton("Task Statistics");
+        JButton performanceButton = new JButton("Performance");
+        JButton dashboardButton = new JButton("Dashboard");
+
+        taskStatusLabel = new JLabel("Ready");
+        taskProgressBar = new JProgressBar();
+        taskProgressBar.setStringPainted(true);
+        taskProgressBar.setString("");
+        cancelTaskButton = new JButton("Cancel");
+        cancelTaskButton.setEnabled(false);
+        cancelTaskButton.addActionListener(e -> {
+            if (!runningTasks.isEmpty()) {
+                runningTasks.get(runningTasks.size() - 1).cancel();
+                taskStatusLabel.setText("Cancelling...");
+            }
+        });
+        taskStatsButton.addActionListener(e -> showTaskStatistics());
+        performanceButton.addActionListener(e -> showPerformance());
+        dashboardButton.addActionListener(e -> {
+            if (currentRepository != null) {
+                showDashboard(currentRepository);
+            } else {
+                JOptionPane.showMessageDialog(mainFrame, "Please upload a repository first!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        uploadButton.addActionListener(e -> handleRepositoryUpload(fileListModel));
+        historyButton.addActionListener(e -> showHistory());
+        shareReportButton.addActionListener(e -> shareReport());
+        createFileButton.addActionListener(e -> createNewFile(fileListModel, fileViewer));
+        viewCodeHistoryButton.addActionListener(e -> showCodeHistory());
+        fileList.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                String selectedFile = fileList.getSelectedValue();
+                if (selectedFile != null) {
+                    displayFileContent(selectedFile, fileViewer);
+                }
+            }
+        });
+
+        analyzeButton.addActionListener(e -> {
+            String selectedFile = fileList.getSelectedValue();
+            if (selectedFile != null) {
+                analyzeFile(selectedFile);
+            } else {
+                JOptionPane.showMessageDialog(mainFrame, "Please select a file to analyze!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        analyzeRepositoryButton.addActionListener(e -> {
+            if (currentRepository != null) {
+                analyzeRepository(currentRepository, fileListModel);
+            } else {
+                JOptionPane.showMessageDialog(mainFrame, "Please upload a repository to analyze!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        saveButton.addActionListener(e -> {
+            String selectedFile = fileList.getSelectedValue();
+            if (selectedFile != null) {
+                saveFileContent(selectedFile, fileViewer);
+            } else {
+                JOptionPane.showMessageDialog(mainFrame, "Please select a file to save!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        searchButton.addActionListener(e -> {
+            String selectedFile = fileList.getSelectedValue();
+            if (selectedFile != null) {
+                SearchRequest request = askSearchTerms("Search in File");
+                if (request != null) {
+                    searchFiles("Search File", request, java.util.List.of(Paths.get(selectedFile)), null);
+                    logHistory("Search Performed", "Terms: " + request.search.getTerms());
+                }
+            } else {
+                JOptionPane.showMessageDialog(mainFrame, "Please select a file to search!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        searchRepositoryButton.addActionListener(e -> {
+            if (currentRepository != null) {
+                SearchRequest request = askSearchTerms("Search Repository");
+                if (request != null) {
+                    searchRepository(request, fileListModel.getPaths());
+                    logHistory("Repository Search Performed", "Terms: " + request.search.getTerms());
+                }
+            } else {
+                JOptionPane.showMessageDialog(mainFrame, "Please upload a repository to search!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        commentButton.addActionListener(e -> {
+            String selectedFile = fileList.getSelectedValue();
+            if (selectedFile == null) {
+                JOptionPane.showMessageDialog(mainFrame, "Please select a file to comment on!", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            String[] commentTypes = {"Comment", "TODO", "FIXME"};
+            String commentType = (String) JOptionPane.showInputDialog(mainFrame, "Select comment type:", "Select Comment Type",
+                    JOptionPane.PLAIN_MESSAGE, null, commentTypes, commentTypes[0]);
+            if (commentType == null) {
+                return;
+            }
+            String lineNumberStr = JOptionPane.showInputDialog(mainFrame, "Enter line number to comment:");
+            if (lineNumberStr == null || lineNumberStr.isEmpty()) {
+                return;
+            }
+            int lineNumber;
+            try {
+                lineNumber = Integer.parseInt(lineNumberStr.trim());
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(mainFrame, "Invalid line number!", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            boolean large = isLargeFileOpen(selectedFile);
+            int lineCount = large ? largeDocument.getLineCount() : fileViewer.getLineCount();
+            if (lineNumber <= 0 || lineNumber > lineCount) {
+                JOptionPane.showMessageDialog(mainFrame, "Line number out of range!", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            String comment = JOptionPane.showInputDialog(mainFrame, commentType.equals("Comment") ? "Enter your comment:" : "Enter " + commentType + " comment:");
+            if (comment == null || comment.isEmpty()) {
+                return;
+            }
+            String text = commentType.equals("Comment") ? comment : commentType + ": " + comment;
+            String lineText = large ? largeDocument.getLine(lineNumber - 1) : textLine(fileViewer, lineNumber - 1);
+            runTask("Add Comment", Paths.get(selectedFile), false, context -> annotationStore.add(selectedFile, lineNumber - 1, lineText, currentUser, text), annotation -> {
+                logHistory("Comment Added", "File: " + selectedFile + ", Line: " + lineNumber);
+                if (selectedFile.equals(annotatedFile)) {
+                    int index = 0;
+                    while (index < annotationModel.size() && annotationModel.get(index).getLine() <= annotation.getLine()) {
+                        index++;
+                    }
+                    annotationModel.add(index, annotation);
+                    highlightAnnotations(fileViewer);
+                }
+            }, ex -> JOptionPane.showMessageDialog(mainFrame, "Error saving comment!", "Error", JOptionPane.ERROR_MESSAGE));
+        });
+
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.add(uploadButton);
+        buttonPanel.add(historyButton);
+        buttonPanel.add(shareReportButton);
+        buttonPanel.add(createFileButton);
+        buttonPanel.add(viewCodeHistoryButton);
+        buttonPanel.add(analyzeButton);
+        buttonPanel.add(analyzeRepositoryButton);
+        buttonPanel.add(saveButton);
+        buttonPanel.add(searchButton);
+        buttonPanel.add(searchRepositoryButton);
+        buttonPanel.add(commentButton);
+        buttonPanel.add(taskStatsButton);
+        buttonPanel.add(performanceButton);
+        buttonPanel.add(dashboardButton);
+
+        JPanel statusPanel = new JPanel(new BorderLayout(10, 0));
+        statusPanel.add(taskStatusLabel, BorderLayout.WEST);
+        statusPanel.add(taskProgressBar, BorderLayout.CENTER);
+        statusPanel.add(cancelTaskButton, BorderLayout.EAST);
+
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(buttonPanel, BorderLayout.CENTER);
+        southPanel.add(statusPanel, BorderLayout.SOUTH);
+
+        panel.add(new JScrollPane(fileList), BorderLayout.WEST);
+        panel.add(centerPanel, BorderLayout.CENTER);
+        panel.add(southPanel, BorderLayout.SOUTH);
+
+        mainFrame.add(panel);
+        mainFrame.revalidate();
+        mainFrame.repaint();
+    }
+
+    private static void handleRepositoryUpload(FileListModel fileListModel) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+
+        int returnValue = fileChooser.showOpenDialog(mainFrame);
+        if (returnValue == JFileChooser.APPROVE_OPTION) {
+            File selectedFolder = fileChooser.getSelectedFile();
+            if (repositoryWatcher != null && repositoryWatcher.getRoot().equals(selectedFolder.toPath())) {
+                logHistory("Repository Uploaded", selectedFolder.getAbsolutePath());
+                JOptionPane.showMessageDialog(mainFrame, "Repository is already up to date, changes are tracked automatically.");
+                return;
+            }
+            loadRepository(selectedFolder.toPath(), fileListModel, () -> {
+                logHistory("Repository Uploaded", selectedFolder.getAbsolutePath());
+                JOptionPane.showMessageDialog(mainFrame, "Repository uploaded successfully!");
+            });
+        }
+    }
+
+    private static void loadRepository(Path repository, FileListModel fileListModel, Runnable onLoaded) {
+        runTask("Upload Repository", "repository", context -> {
+            analysisCache.retainUnder(repository);
+            SwingUtilities.invokeLater(() -> {
+                currentRepository = repository;
+                duplicateReport = null;
+                gitHistory = null;
+                fileListModel.clear();
+            });
+            // Batches are queued behind the clear above and ahead of the completion callback
+            return repositoryWalker.walk(repository, ForkJoinPool.commonPool(),
+                    batch -> SwingUtilities.invokeLater(() -> fileListModel.addAll(batch)), context);
+        }, fileCount -> {
+            buildSearchIndex(repository, fileListModel.getPaths());
+            if (GitRepository.isRepository(repository)) {
+                readGitHistory(repository);
+            }
+            watchRepository(repository, fileListModel);
+            onLoaded.run();
+        }, e -> JOptionPane.showMessageDialog(mainFrame, "Error reading files from the folder!", "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private static void watchRepository(Path repository, FileListModel fileListModel) {
+        RepositoryWatcher.Listener listener = new RepositoryWatcher.Listener() {
+            @Override
+            public void onChanges(Set<Path> created, Set<Path> modified, Set<Path> deleted) {
+                applyRepositoryChanges(repository, fileListModel, created, modified, deleted);
+            }
+
+            @Override
+            public void onOverflow() {
+                SwingUtilities.invokeLater(() -> loadRepository(repository, fileListModel, () -> {
+                }));
+            }
+        };
+        runTask("Watch Repository", "repository", context -> RepositoryWatcher.start(repository,
+                directory -> repositoryWalker.acceptsDirectory(repository, directory), listener), watcher -> {
+            RepositoryWatcher previous = repositoryWatcher;
+            repositoryWatcher = watcher;
+            if (previous != null) {
+                try {
+                    previous.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing repository watcher.");
+                }
+            }
+        }, e -> System.out.println("Repository changes will not be tracked automatically."));
+    }
+
+    private static void applyRepositoryChanges(Path repository, FileListModel fileListModel,
+                                               Set<Path> created, Set<Path> modified, Set<Path> deleted) {
+        SearchIndex index = searchIndex;
+        boolean indexed = index != null && index.getRoot().equals(repository);
+        for (Path path : deleted) {
+            fileContents.invalidate(path);
+            analysisCache.remove(path);
+            rollups.remove(repository, path, currentUser);
+            if (indexed) {
+                index.remove(path);
+            }
+        }
+        java.util.List<Path> added = new ArrayList<>();
+        for (Path path : created) {
+            if (repositoryWalker.accepts(repository, path)) {
+                added.add(path);
+            }
+        }
+        java.util.List<Path> changed = new ArrayList<>(added);
+        for (Path path : modified) {
+            if (repositoryWalker.accepts(repository, path)) {
+                changed.add(path);
+            }
+        }
+        for (Path path : changed) {
+            fileContents.invalidate(path);
+            try {
+                if (analysisCache.refresh(path)) {
+                    if (indexed) {
+                        index.update(path);
+                    }
+                    try {
+                        rollups.update(repository, analysisCache.analyze(path), currentUser);
+                    } catch (BinaryFileException e) {
+                        rollups.remove(repository, path, currentUser);
+                    }
+                }
+            } catch (IOException e) {
+                analysisCache.remove(path);
+            }
+        }
+        if (indexed && index.getPendingChanges() > SEARCH_INDEX_REBUILD_THRESHOLD) {
+            SwingUtilities.invokeLater(() -> buildSearchIndex(repository, fileListModel.getPaths()));
+        }
+
+        SwingUtilities.invokeLater(() -> {
+            for (Path path : deleted) {
+                fileListModel.remove(path);
+            }
+            for (Path path : added) {
+                if (!fileListModel.contains(path)) {
+                    fileListModel.add(path);
+                }
+            }
+        });
+    }
+
+    /**
+     * The repository's files, kept in a {@link PathTable} so the list stays small however large the
+     * repository; rows are only turned into strings when the list paints them.
+     */
+    private static final class FileListModel extends AbstractListModel<String> {
+        private static final long serialVersionUID = 1L;
+        private final transient PathTable files = new PathTable();
+
+        @Override
+        public int getSize() {
+            return files.size();
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            return files.get(index);
+        }
+
+        private void add(Path file) {
+            files.add(file);
+            fireIntervalAdded(this, files.size() - 1, files.size() - 1);
+        }
+
+        private void addAll(java.util.List<Path> batch) {
+            int from = files.size();
+            files.addAll(batch);
+            if (files.size() > from) {
+                fireIntervalAdded(this, from, files.size() - 1);
+            }
+        }
+
+        private boolean contains(Path file) {
+            return files.indexOf(file) >= 0;
+        }
+
+        private void remove(Path path) {
+            int[] removed = files.removeUnder(path);
+            for (int end = removed.length - 1; end >= 0; ) {
+                int start = end;
+                while (start > 0 && removed[start - 1] == removed[start] - 1) {
+                    start--;
+                }
+                fireIntervalRemoved(this, removed[start], removed[end]);
+                end = start - 1;
+            }
+        }
+
+        private void clear() {
+            int size = files.size();
+            files.clear();
+            if (size > 0) {
+                fireIntervalRemoved(this, 0, size - 1);
+            }
+        }
+
+        private java.util.List<Path> getPaths() {
+            return files.toPaths();
+        }
+    }
+
+    private static void buildSearchIndex(Path repository, java.util.List<Path> files) {
+        runTask("Build Search Index", SEARCH_INDEX_DATABASE,
+                context -> SearchIndex.build(repository, files, Paths.get(SEARCH_INDEX_DATABASE), ForkJoinPool.commonPool()),
+                index -> searchIndex = index,
+                e -> System.out.println("Error building search index."));
+    }
+
+    private static void readGitHistory(Path repository) {
+        runTask("Read Git History", "git",
+                context -> GitHistory.read(repository, GitHistory.DEFAULT_MAX_COMMITS, context),
+                history -> {
+                    if (repository.equals(currentRepository)) {
+                        gitHistory = history;
+                    }
+                },
+                e -> System.out.println("Error reading Git history: " + e.getMessage()));
+    }
+
+    private static void searchRepository(SearchRequest request, java.util.List<Path> files) {
+        // the index only narrows the files to read, so a missing or stale one just means reading them all
+        SearchIndex index = searchIndex;
+        searchFiles("Search Repository", request, files, index != null && index.getRoot().equals(currentRepository) ? index : null);
+    }
+
+    private static void displayFileContent(String filePath, JTextArea fileViewer) {
+        Path path = Paths.get(filePath);
+        // Rapid selection changes coalesce on the viewer, so only the last selected file is read
+        runTask("Display File", fileViewer, context -> Files.size(path) >= LARGE_FILE_THRESHOLD ? openLargeFile(path) : fileContents.readText(path), content -> {
+            closeLargeFile();
+            if (content instanceof LargeFileDocument) {
+                showLargeFile((LargeFileDocument) content);
+            } else {
+                ((CardLayout) viewerPanel.getLayout()).show(viewerPanel, "text");
+                fileViewer.setText(content != null ? (String) content : "Binary file not shown: " + filePath);
+            }
+            loadAnnotations(filePath, content, fileViewer);
+        }, e -> {
+            closeLargeFile();
+            ((CardLayout) viewerPanel.getLayout()).show(viewerPanel, "text");
+            fileViewer.setText("Error reading file: " + filePath);
+        });
+    }
+
+    private static LargeFileDocument openLargeFile(Path path) throws IOException {
+        return LargeFileDocument.open(path, (lineCount, complete) -> SwingUtilities.invokeLater(() -> {
+            if (largeFileModel.getDocument() != null && largeFileModel.getDocument().getPath().equals(path)) {
+                largeFileModel.refresh();
+                largeFileStatus.setText(path.getFileName() + ": " + lineCount + " lines" + (complete ? "" : " (indexing...)"));
+            }
+        }));
+    }
+
+    private static void showLargeFile(LargeFileDocument document) {
+        largeDocument = document;
+        largeFileModel.setDocument(document);
+        largeFileStatus.setText(document.getPath().getFileName() + (document.isIndexComplete() ? ": " + document.getLineCount() + " lines" : ": indexing..."));
+        ((CardLayout) viewerPanel.getLayout()).show(viewerPanel, "large");
+    }
+
+    private static void closeLargeFile() {
+        if (largeDocument != null) {
+            closeQuietly(largeDocument);
+            largeDocument = null;
+            largeFileModel.setDocument(null);
+        }
+    }
+
+    private static void closeQuietly(LargeFileDocument document) {
+        try {
+            document.close();
+        } catch (IOException e) {
+            System.out.println("Error closing large file.");
+        }
+    }
+
+    private static boolean isLargeFileOpen(String filePath) {
+        return largeDocument != null && largeDocument.getPath().equals(Paths.get(filePath));
+    }
+
+    /**
+     * Loads the comments of the file now shown; {@code content} is the viewer's text or its large document.
+     */
+    private static void loadAnnotations(String filePath, Object content, JTextArea fileViewer) {
+        annotatedFile = filePath;
+        annotationModel.clear();
+        highlightAnnotations(fileViewer);
+        runTask("Load Comments", annotationModel, context -> {
+            if (content instanceof LargeFileDocument) {
+                LargeFileDocument document = (LargeFileDocument) content;
+                boolean indexed = document.isIndexComplete();
+                return annotationStore.forFile(filePath, indexed ? document::getLine : null, document.getLineCount());
+            }
+            java.util.List<String> lines = content == null ? Collections.<String>emptyList() : LineDiff.lines((String) content);
+            return annotationStore.forFile(filePath, lines::get, lines.size());
+        }, annotations -> {
+            if (filePath.equals(annotatedFile)) {
+                annotations.forEach(annotationModel::addElement);
+                highlightAnnotations(fileViewer);
+            }
+        }, e -> System.out.println("Error loading comments for " + filePath));
+    }
+
+    private static void highlightAnnotations(JTextArea fileViewer) {
+        fileViewer.getHighlighter().removeAllHighlights();
+        javax.swing.text.Highlighter.HighlightPainter painter = new javax.swing.text.DefaultHighlighter.DefaultHighlightPainter(new Color(255, 245, 200));
+        for (int i = 0; i < annotationModel.size(); i++) {
+            int line = annotationModel.get(i).getLine();
+            try {
+                if (line < fileViewer.getLineCount()) {
+                    fileViewer.getHighlighter().addHighlight(fileViewer.getLineStartOffset(line), fileViewer.getLineEndOffset(line), painter);
+                }
+            } catch (javax.swing.text.BadLocationException e) {
+                // the text changed underneath; highlights are rebuilt on the next load
+            }
+        }
+    }
+
+    private static void goToLine(int line, JTextArea fileViewer, JList<String> largeFileList) {
+        if (largeDocument != null) {
+            largeFileList.setSelectedIndex(line);
+            largeFileList.ensureIndexIsVisible(line);
+            return;
+        }
+        try {
+            fileViewer.setCaretPosition(fileViewer.getLineStartOffset(Math.min(line, fileViewer.getLineCount() - 1)));
+            fileViewer.requestFocusInWindow();
+        } catch (javax.swing.text.BadLocationException e) {
+            // line no longer exists
+        }
+    }
+
+    private static String textLine(JTextArea fileViewer, int line) {
+        try {
+            int start = fileViewer.getLineStartOffset(line);
+            return fileViewer.getText(start, fileViewer.getLineEndOffset(line) - start).replace("\n", "").replace("\r", "");
+        } catch (javax.swing.text.BadLocationException e) {
+            return "";
+        }
+    }
+
+    private static void editLargeFileLine(int line) {
+        if (largeDocument == null || !largeDocument.isIndexComplete()) {
+            JOptionPane.showMessageDialog(mainFrame, "The file is still being indexed, please try again shortly.", "Edit Line", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        String text = (String) JOptionPane.showInputDialog(mainFrame, "Edit line " + (line + 1) + ":", "Edit Line",
+                JOptionPane.PLAIN_MESSAGE, null, null, largeDocument.getLine(line));
+        if (text != null) {
+            largeDocument.replaceLine(line, text);
+            largeFileModel.refresh();
+        }
+    }
+
+    private static final class LargeFileListModel extends AbstractListModel<String> {
+        private static final long serialVersionUID = 1L;
+        private transient LargeFileDocument document;
+        private int size;
+
+        private LargeFileDocument getDocument() {
+            return document;
+        }
+
+        private void setDocument(LargeFileDocument document) {
+            this.document = document;
+            refresh();
+        }
+
+        private void refresh() {
+            int oldSize = size;
+            size = document == null ? 0 : document.getLineCount();
+            if (size < oldSize) {
+                fireIntervalRemoved(this, size, oldSize - 1);
+            } else if (size > oldSize) {
+                fireIntervalAdded(this, oldSize, size - 1);
+            }
+            if (Math.min(size, oldSize) > 0) {
+                fireContentsChanged(this, 0, Math.min(size, oldSize) - 1);
+            }
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            return document == null ? "" : String.format("%7d  %s", index + 1, document.getLine(index));
+        }
+    }
+
+    private static void analyzeFile(String filePath) {
+        Path path = Paths.get(filePath);
+        runTask("Analyze File", path, context -> {
+            FileAnalysis analysis = analysisCache.analyze(path);
+            Path repository = currentRepository;
+            if (repository != null && path.startsWith(repository)) {
+                rollups.update(repository, analysis, currentUser);
+            }
+            String report = analysis.toReport();
+            GitHistory history = gitHistory;
+            if (history != null && path.startsWith(history.getRoot())) {
+                report += "\nGit History:\n" + history.toReport(path);
+            }
+            DuplicateFinder.Report duplicates = duplicateReport;
+            return duplicates == null ? report : report + "\nDuplicate Blocks:\n" + duplicates.toReport(path);
+        }, report -> {
+            JOptionPane.showMessageDialog(mainFrame, report, "File Analysis", JOptionPane.INFORMATION_MESSAGE);
+            saveReport(filePath, report);
+            logHistory("File Analyzed", filePath);
+        }, e -> JOptionPane.showMessageDialog(mainFrame, "Error analyzing file: " + filePath, "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private static void analyzeRepository(Path repository, FileListModel fileListModel) {
+        java.util.List<Path> files = fileListModel.getPaths();
+        runTask("Analyze Repository", repository, context -> {
+            RepositoryAnalysis analysis = CodeAnalyzer.analyzeFiles(repository, files, ForkJoinPool.commonPool(), analysisCache, context);
+            saveAnalysisCache();
+            rollups.update(analysis, currentUser);
+            saveRollups();
+            DuplicateFinder.Report duplicates = DuplicateFinder.find(files, DUPLICATE_MIN_LINES, ForkJoinPool.commonPool(), context);
+            duplicateReport = duplicates;
+            GitHistory history = gitHistory;
+            String report = analysis.toReport() + "\n" + duplicates.toReport(DUPLICATE_REPORT_LIMIT);
+            return history == null || !history.getRoot().equals(repository) ? report : report + "\n" + history.toReport(GIT_REPORT_LIMIT);
+        }, report -> {
+            JFrame reportFrame = new JFrame("Repository Analysis");
+            reportFrame.setSize(600, 400);
+            JTextArea reportArea = new JTextArea(report);
+            reportArea.setEditable(false);
+            reportFrame.add(new JScrollPane(reportArea));
+            reportFrame.setVisible(true);
+            saveReport(repository.toString(), report);
+            logHistory("Repository Analyzed", repository.toString());
+        }, e -> JOptionPane.showMessageDialog(mainFrame, "Error analyzing repository: " + repository, "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private static void saveFileContent(String filePath, JTextArea fileViewer) {
+        Path path = Paths.get(filePath);
+        if (isLargeFileOpen(filePath)) {
+            LargeFileDocument document = largeDocument;
+            runTask("Save File", path, context -> {
+                document.save();
+                fileContents.invalidate(path);
+                annotationStore.remap(filePath, document::currentLine, document::getLine, document.getLineCount());
+                return openLargeFile(path);
+            }, reopened -> {
+                if (largeDocument == document) {
+                    closeLargeFile();
+                    showLargeFile(reopened);
+                    loadAnnotations(filePath, reopened, fileViewer);
+                } else {
+                    closeQuietly(reopened);
+                }
+                logHistory("File Saved", filePath);
+                JOptionPane.showMessageDialog(mainFrame, "File saved successfully!");
+                logCodeHistory("modified", "Modified file content", filePath, null);
+            }, e -> JOptionPane.showMessageDialog(mainFrame, "Error saving file: " + filePath, "Error", JOptionPane.ERROR_MESSAGE));
+            return;
+        }
+        String content = fileViewer.getText();
+        runTask("Save File", path, context -> writeFileContent(filePath, content), version -> {
+            if (filePath.equals(annotatedFile) && !isLargeFileOpen(filePath)) {
+                loadAnnotations(filePath, content, fileViewer);
+            }
+            logHistory("File Saved", filePath);
+            JOptionPane.showMessageDialog(mainFrame, "File saved successfully!");
+            logCodeHistory("modified", version == null ? "Modified file content"
+                    : "Modified file content: +" + version.getLinesAdded() + " -" + version.getLinesRemoved() + " lines", filePath, version);
+        }, e -> JOptionPane.showMessageDialog(mainFrame, "Error saving file: " + filePath, "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    /**
+     * Writes {@code content} over {@code filePath}, carries its annotations over to the new lines and keeps the
+     * text as a new snapshot. A text on disk that differs from the latest snapshot was changed elsewhere and is
+     * kept first, exactly as it was on disk, so that it can be restored too.
+     *
+     * @return the new snapshot, or null when the content is the latest snapshot already
+     */
+    private static SnapshotStore.Version writeFileContent(String filePath, String content) throws IOException {
+        Path path = Paths.get(filePath);
+        boolean existed = Files.exists(path);
+        // the viewer's form of the text, with \n line ends, for mapping annotations
+        String previous = existed ? fileContents.readText(path) : null;
+        String previousOnDisk = existed ? new String(Files.readAllBytes(path), java.nio.charset.StandardCharsets.UTF_8) : null;
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write(content);
+        } finally {
+            fileContents.invalidate(path);
+        }
+        if (previous != null && annotationStore.hasAnnotations(filePath)) {
+            java.util.List<String> lines = LineDiff.lines(content);
+            int[] map = LineDiff.map(LineDiff.lines(previous), lines);
+            annotationStore.remap(filePath, line -> line < map.length ? map[line] : -1, lines::get, lines.size());
+        }
+        if (snapshotStore == null) {
+            return null;
+        }
+        if (previousOnDisk != null) {
+            snapshotStore.record(filePath, previousOnDisk, null);
+        }
+        return snapshotStore.record(filePath, content, currentUser);
+    }
+
+    private static final class SearchRequest {
+        private final MultiPatternSearch search;
+        private final int contextLines;
+
+        private SearchRequest(MultiPatternSearch search, int contextLines) {
+            this.search = search;
+            this.contextLines = contextLines;
+        }
+    }
+
+    /**
+     * Asks for one search term per line; {@code re:} starts a regular expression and {@code i:} a
+     * case-insensitive term.
+     *
+     * @return null if the dialog was cancelled or no term was entered
+     */
+    private static SearchRequest askSearchTerms(String title) {
+        JTextArea termsArea = new JTextArea(8, 30);
+        JSpinner contextSpinner = new JSpinner(new SpinnerNumberModel(2, 0, 20, 1));
+        JPanel contextPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        contextPanel.add(new JLabel("Context lines:"));
+        contextPanel.add(contextSpinner);
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(new JLabel("<html>Enter one term per line.<br>Prefix with re: for a regular expression, i: to ignore case.</html>"), BorderLayout.NORTH);
+        panel.add(new JScrollPane(termsArea), BorderLayout.CENTER);
+        panel.add(contextPanel, BorderLayout.SOUTH);
+        while (JOptionPane.showConfirmDialog(mainFrame, panel, title, JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) == JOptionPane.OK_OPTION) {
+            java.util.List<MultiPatternSearch.Term> terms = new ArrayList<>();
+            for (String line : termsArea.getText().split("\\R")) {
+                if (!line.isEmpty()) {
+                    terms.add(MultiPatternSearch.Term.parse(line));
+                }
+            }
+            if (terms.isEmpty()) {
+                return null;
+            }
+            try {
+                return new SearchRequest(MultiPatternSearch.compile(terms), (Integer) contextSpinner.getValue());
+            } catch (IllegalArgumentException e) {
+                JOptionPane.showMessageDialog(mainFrame, "Invalid search term: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens a results window and fills it while the files are searched; hits are queued by the workers and
+     * moved into the list by a timer, so the list grows in batches rather than one event per line. When the
+     * search ends the list is re-sorted by {@link MultiPatternSearch#rank}, files with the most matches first.
+     */
+    private static void searchFiles(String operation, SearchRequest request, java.util.List<Path> files, SearchIndex index) {
+        MultiPatternSearch search = request.search;
+        JFrame resultFrame = new JFrame(operation + " Results");
+        resultFrame.setSize(900, 600);
+        resultFrame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        DefaultListModel<MultiPatternSearch.Hit> hitModel = new DefaultListModel<>();
+        JList<MultiPatternSearch.Hit> hitList = new JList<>(hitModel);
+        JTextArea detailArea = new JTextArea();
+        detailArea.setEditable(false);
+        detailArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JLabel statusLabel = new JLabel("Searching " + files.size() + " file(s) for " + search.getTerms().size() + " term(s)...");
+        JButton stopButton = new JButton("Stop");
+
+        hitList.addListSelectionListener(e -> {
+            MultiPatternSearch.Hit hit = hitList.getSelectedValue();
+            if (!e.getValueIsAdjusting() && hit != null) {
+                StringBuilder detail = new StringBuilder(hit.getFile().toString()).append('\n');
+                int lineNumber = hit.getLineNumber() - hit.getBefore().size();
+                for (String line : hit.getBefore()) {
+                    detail.append(String.format("%6d  %s%n", lineNumber++, line));
+                }
+                detail.append(String.format("%6d> %s%n", lineNumber++, hit.getLine()));
+                for (String line : hit.getAfter()) {
+                    detail.append(String.format("%6d  %s%n", lineNumber++, line));
+                }
+                detail.append('\n');
+                for (int i = 0; i < hit.getMatchCount(); i++) {
+                    detail.append(search.getTerms().get(hit.getTerm(i))).append(" at column ").append(hit.getStart(i) + 1)
+                            .append(": ").append(hit.getLine(), hit.getStart(i), hit.getEnd(i)).append('\n');
+                }
+                detailArea.setText(detail.toString());
+                detailArea.setCaretPosition(0);
+            }
+        });
+
+        java.util.Queue<MultiPatternSearch.Hit> pending = new java.util.concurrent.ConcurrentLinkedQueue<>();
+        Runnable drain = () -> {
+            for (MultiPatternSearch.Hit hit; (hit = pending.poll()) != null; ) {
+                hitModel.addElement(hit);
+            }
+        };
+        Runnable rank = () -> {
+            drain.run();
+            java.util.List<MultiPatternSearch.Hit> ranked = Collections.list(hitModel.elements());
+            MultiPatternSearch.rank(ranked);
+            MultiPatternSearch.Hit selected = hitList.getSelectedValue();
+            hitModel.clear();
+            hitModel.addAll(ranked);
+            hitList.setSelectedValue(selected, true);
+        };
+        javax.swing.Timer drainTimer = new javax.swing.Timer(200, e -> drain.run());
+        TaskExecutor.Handle handle = runTask(operation, resultFrame, context -> {
+            java.util.List<Path> candidates = search.candidates(files, index);
+            return search.search(candidates, ForkJoinPool.commonPool(), request.contextLines, SEARCH_RESULT_LIMIT, pending::add, context);
+        }, summary -> {
+            drainTimer.stop();
+            rank.run();
+            stopButton.setEnabled(false);
+            StringBuilder status = new StringBuilder("<html>").append(summary.getHitCount()).append(" line(s) in ")
+                    .append(summary.getMatchedFiles()).append(" of ").append(summary.getFileCount()).append(" file(s) read, ")
+                    .append(summary.getElapsedMillis()).append(" ms");
+            if (summary.isTruncated()) {
+                status.append(" (stopped at ").append(SEARCH_RESULT_LIMIT).append(" lines)");
+            }
+            status.append("<br>");
+            for (int i = 0; i < search.getTerms().size(); i++) {
+                status.append(i > 0 ? ", " : "").append(search.getTerms().get(i)).append(": ").append(summary.getTermMatches(i));
+            }
+            statusLabel.setText(status.append("</html>").toString());
+        }, e -> {
+            drainTimer.stop();
+            stopButton.setEnabled(false);
+            statusLabel.setText("Search failed");
+            JOptionPane.showMessageDialog(resultFrame, "Error searching: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        });
+        stopButton.addActionListener(e -> {
+            handle.cancel();
+            drainTimer.stop();
+            rank.run();
+            stopButton.setEnabled(false);
+            statusLabel.setText("Stopped after " + hitModel.size() + " line(s)");
+        });
+        resultFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                handle.cancel();
+                drainTimer.stop();
+            }
+        });
+
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(statusLabel, BorderLayout.CENTER);
+        statusPanel.add(stopButton, BorderLayout.EAST);
+        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(hitList), new JScrollPane(detailArea));
+        splitPane.setResizeWeight(0.6);
+        resultFrame.add(splitPane, BorderLayout.CENTER);
+        resultFrame.add(statusPanel, BorderLayout.SOUTH);
+        drainTimer.start();
+        resultFrame.setVisible(true);
+    }
+
+    /**
+     * Runs {@code task} off the event thread and delivers its result or failure back on it, showing progress
+     * and a cancel button in the status bar while it runs.
+     *
+     * @return the handle, for callers that offer their own way to cancel
+     */
+    private static <T> TaskExecutor.Handle runTask(String operation, Object key, TaskExecutor.Task<T> task, Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+        return runTask(operation, key, true, task, onSuccess, onFailure);
+    }
+
+    /**
+     * Like {@link #runTask(String, Object, TaskExecutor.Task, Consumer, Consumer)}, but with {@code coalesce}
+     * false the task is not replaced by a later one of the same operation on the same key.
+     */
+    private static <T> TaskExecutor.Handle runTask(String operation, Object key, boolean coalesce, TaskExecutor.Task<T> task,
+                                                   Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+        TaskExecutor.Handle[] handle = new TaskExecutor.Handle[1];
+        handle[0] = taskExecutor.submit(operation, key, coalesce, task, new TaskExecutor.Callback<T>() {
+            @Override
+            public void progress(long done, long total) {
+                if (!runningTasks.isEmpty() && runningTasks.get(runningTasks.size() - 1) == handle[0]) {
+                    showTaskProgress(operation, done, total);
+                }
+            }
+
+            @Override
+            public void succeeded(T result) {
+                finishTask(handle[0]);
+                onSuccess.accept(result);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                finishTask(handle[0]);
+                onFailure.accept(e);
+            }
+
+            @Override
+            public void cancelled() {
+                finishTask(handle[0]);
+            }
+        });
+        runningTasks.removeIf(TaskExecutor.Handle::isDone);
+        runningTasks.add(handle[0]);
+        showTaskProgress(operation, 0, -1);
+        return handle[0];
+    }
+
+    private static void finishTask(TaskExecutor.Handle handle) {
+        runningTasks.remove(handle);
+        runningTasks.removeIf(TaskExecutor.Handle::isDone);
+        if (taskStatusLabel == null) {
+            return;
+        }
+        if (runningTasks.isEmpty()) {
+            taskStatusLabel.setText(handle.isCancelled() ? handle.getOperation() + " cancelled" : "Ready");
+            taskProgressBar.setIndeterminate(false);
+            taskProgressBar.setValue(0);
+            taskProgressBar.setString("");
+            cancelTaskButton.setEnabled(false);
+        } else {
+            showTaskProgress(runningTasks.get(runningTasks.size() - 1).getOperation(), 0, -1);
+        }
+    }
+
+    private static void showTaskProgress(String operation, long done, long total) {
+        if (taskStatusLabel == null) {
+            return;
+        }
+        taskStatusLabel.setText(operation + "...");
+        cancelTaskButton.setEnabled(true);
+        if (total > 0) {
+            taskProgressBar.setIndeterminate(false);
+            taskProgressBar.setValue((int) (done * 100 / total));
+            taskProgressBar.setString(done + " / " + total);
+        } else {
+            taskProgressBar.setIndeterminate(true);
+            taskProgressBar.setString(done > 0 ? String.valueOf(done) : "");
+        }
+    }
+
+    private static void showTaskStatistics() {
+        JFrame statsFrame = new JFrame("Task Statistics");
+        statsFrame.setSize(600, 400);
+        JTextArea statsArea = new JTextArea(taskExecutor.getStats() + "\n\nFile Content Cache:\n" + fileContents.getStats() +
+                "\n\nAnalysis Cache:\nEntries: " + analysisCache.size() + ", Hits: " + analysisCache.getHits() + ", Misses: " + analysisCache.getMisses());
+        statsArea.setEditable(false);
+        statsFrame.add(new JScrollPane(statsArea));
+        statsFrame.setVisible(true);
+    }
+
+    private static void showPerformance() {
+        JFrame performanceFrame = new JFrame("Performance");
+        performanceFrame.setSize(900, 400);
+        performanceFrame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        PerformanceTableModel tableModel = new PerformanceTableModel();
+        JTable table = new JTable(tableModel);
+        table.setAutoCreateRowSorter(true);
+
+        JButton exportButton = new JButton("Export Prometheus...");
+        exportButton.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setSelectedFile(new File("analyser.prom"));
+            if (fileChooser.showSaveDialog(performanceFrame) == JFileChooser.APPROVE_OPTION) {
+                Path target = fileChooser.getSelectedFile().toPath();
+                runTask("Export Metrics", target, context -> {
+                    Metrics.writePrometheus(target);
+                    return target;
+                }, saved -> JOptionPane.showMessageDialog(performanceFrame, "Metrics written to " + saved),
+                        ex -> JOptionPane.showMessageDialog(performanceFrame, "Error writing metrics: " + target, "Error", JOptionPane.ERROR_MESSAGE));
+            }
+        });
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            Metrics.reset();
+            tableModel.refresh();
+        });
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.add(exportButton);
+        buttonPanel.add(resetButton);
+        buttonPanel.add(new JLabel("JFR event: analyser.Operation"));
+
+        javax.swing.Timer refreshTimer = new javax.swing.Timer(1000, e -> tableModel.refresh());
+        performanceFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                refreshTimer.stop();
+            }
+        });
+        performanceFrame.add(new JScrollPane(table), BorderLayout.CENTER);
+        performanceFrame.add(buttonPanel, BorderLayout.SOUTH);
+        tableModel.refresh();
+        refreshTimer.start();
+        performanceFrame.setVisible(true);
+    }
+
+    /**
+     * Shows the precomputed rollups of {@code repository}; nothing is re-read or re-parsed, so it opens at once
+     * even for a large repository. Totals reflect the last analysis of each file.
+     */
+    private static void showDashboard(Path repository) {
+        runTask("Dashboard", "dashboard", context -> rollups.snapshot(repository), snapshot -> {
+            JFrame dashboardFrame = new JFrame("Dashboard - " + repository);
+            dashboardFrame.setSize(900, 600);
+            dashboardFrame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+            AnalysisTotals totals = snapshot.getTotals();
+            JLabel totalsLabel = new JLabel(snapshot.getDays().isEmpty()
+                    ? "No analysis recorded for this repository yet; run Analyze Repository first."
+                    : "<html>" + totals + "<br>Last change: " + snapshot.getDays().lastKey() + "</html>");
+            totalsLabel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+
+            JTable dayTable = new JTable(new TotalsTableModel("Day", snapshot.getDays(), snapshot.getChanges()));
+            dayTable.setAutoCreateRowSorter(true);
+            JSplitPane trendPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new TrendChart(snapshot.getDays()), new JScrollPane(dayTable));
+            trendPane.setResizeWeight(0.5);
+            JTable languageTable = new JTable(new TotalsTableModel("Language", snapshot.getLanguages(), null));
+            languageTable.setAutoCreateRowSorter(true);
+            JTable directoryTable = new JTable(new TotalsTableModel("Directory", snapshot.getDirectories(), null));
+            directoryTable.setAutoCreateRowSorter(true);
+
+            JTabbedPane tabs = new JTabbedPane();
+            tabs.addTab("Trend", trendPane);
+            tabs.addTab("Languages", new JScrollPane(languageTable));
+            tabs.addTab("Directories", new JScrollPane(directoryTable));
+            JButton refreshButton = new JButton("Refresh");
+            refreshButton.addActionListener(e -> {
+                dashboardFrame.dispose();
+                showDashboard(repository);
+            });
+            JPanel buttonPanel = new JPanel();
+            buttonPanel.add(refreshButton);
+            dashboardFrame.add(totalsLabel, BorderLayout.NORTH);
+            dashboardFrame.add(tabs, BorderLayout.CENTER);
+            dashboardFrame.add(buttonPanel, BorderLayout.SOUTH);
+            dashboardFrame.setVisible(true);
+            logHistory("Dashboard Viewed", repository.toString());
+        }, e -> JOptionPane.showMessageDialog(mainFrame, "Error reading analysis history.", "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private static final class TotalsTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+        private static final String[] COLUMNS = {"Files", "Lines", "Code", "Comments", "Blank", "TODOs", "FIXMEs", "Complexity", "Changed Files"};
+        private final String keyName;
+        private final int columnCount;
+        private final transient Object[][] rows;
+
+        private TotalsTableModel(String keyName, Map<?, AnalysisTotals> totals, Map<?, Long> changes) {
+            this.keyName = keyName;
+            this.columnCount = changes == null ? COLUMNS.length : COLUMNS.length + 1;
+            rows = new Object[totals.size()][];
+            int row = 0;
+            for (Map.Entry<?, AnalysisTotals> entry : totals.entrySet()) {
+                AnalysisTotals value = entry.getValue();
+                rows[row++] = new Object[]{entry.getKey().toString(), value.getFileCount(), value.getLineCount(), value.getCodeLineCount(),
+                        value.getCommentLineCount(), value.getBlankLineCount(), value.getTodoCount(), value.getFixmeCount(),
+                        value.getComplexity(), changes == null ? 0L : changes.getOrDefault(entry.getKey(), 0L)};
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columnCount;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return column == 0 ? keyName : COLUMNS[column - 1];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 ? String.class : Long.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows[row][column];
+        }
+    }
+
+    /**
+     * Code lines and TODOs per day, each scaled to its own range.
+     */
+    private static final class TrendChart extends JComponent {
+        private static final long serialVersionUID = 1L;
+        private final transient java.util.List<Map.Entry<LocalDate, AnalysisTotals>> days;
+
+        private TrendChart(Map<LocalDate, AnalysisTotals> days) {
+            this.days = new ArrayList<>(days.entrySet());
+            setPreferredSize(new Dimension(800, 240));
+        }
+
+        @Override
+        protected void paintComponent(Graphics graphics) {
+            Graphics2D g = (Graphics2D) graphics.create();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            int left = 60;
+            int top = 20;
+            int width = getWidth() - left - 20;
+            int height = getHeight() - top - 40;
+            g.setColor(Color.GRAY);
+            g.drawRect(left, top, width, height);
+            if (days.isEmpty() || width <= 0 || height <= 0) {
+                g.dispose();
+                return;
+            }
+            g.drawString(days.get(0).getKey().toString(), left, top + height + 15);
+            String last = days.get(days.size() - 1).getKey().toString();
+            g.drawString(last, left + width - g.getFontMetrics().stringWidth(last), top + height + 15);
+            drawSeries(g, Color.BLUE, "Code lines", 0, AnalysisTotals::getCodeLineCount, left, top, width, height);
+            drawSeries(g, Color.RED, "TODOs", 1, AnalysisTotals::getTodoCount, left, top, width, height);
+            g.dispose();
+        }
+
+        private void drawSeries(Graphics2D g, Color color, String name, int legendRow, java.util.function.ToLongFunction<AnalysisTotals> value,
+                                int left, int top, int width, int height) {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (Map.Entry<LocalDate, AnalysisTotals> day : days) {
+                min = Math.min(min, value.applyAsLong(day.getValue()));
+                max = Math.max(max, value.applyAsLong(day.getValue()));
+            }
+            long range = Math.max(1, max - min);
+            int previousX = -1;
+            int previousY = -1;
+            g.setColor(color);
+            for (int i = 0; i < days.size(); i++) {
+                int x = left + (days.size() == 1 ? width / 2 : (int) ((long) width * i / (days.size() - 1)));
+                int y = top + height - (int) ((value.applyAsLong(days.get(i).getValue()) - min) * height / range);
+                if (previousX >= 0) {
+                    g.drawLine(previousX, previousY, x, y);
+                }
+                g.fillOval(x - 2, y - 2, 5, 5);
+                previousX = x;
+                previousY = y;
+            }
+            g.drawString(name + ": " + min + " - " + max, left + 8, top + 15 + legendRow * 15);
+        }
+    }
+
+    private static final class PerformanceTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+        private static final String[] COLUMNS = {"Operation", "Language", "Count", "Errors", "Mean ms", "p50 ms", "p90 ms", "p99 ms", "Max ms", "MB"};
+        private transient Object[][] rows = new Object[0][];
+
+        private void refresh() {
+            java.util.List<Metrics.Operation> operations = Metrics.operations();
+            rows = new Object[operations.size()][];
+            for (int i = 0; i < rows.length; i++) {
+                Metrics.Operation operation = operations.get(i);
+                rows[i] = new Object[]{operation.getOperation(), operation.getLanguage(), operation.getCount(), operation.getErrors(),
+                        round(operation.getMeanMillis()), round(operation.getP50Millis()), round(operation.getP90Millis()),
+                        round(operation.getP99Millis()), round(operation.getMaxMillis()), round(operation.getBytes() / 1e6)};
+            }
+            fireTableDataChanged();
+        }
+
+        private static double round(double value) {
+            return Math.round(value * 1000) / 1000.0;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column < 2 ? String.class : column < 4 ? Long.class : Double.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows[row][column];
+        }
+    }
+
+    private static void showHistory() {
+        showLogViewer("User  History", HISTORY_TABLE, new String[]{"User", "Date", "Action", "Details"},
+                record -> new String[]{record.getUser(), record.getTimestamp().toString(), record.getAction(), record.getValue(0)},
+                currentUser, false, true, null);
+    }
+
+    /**
+     * @param onOpen called with the selected record when it is double-clicked or opened, or null when records
+     *               have nothing more to show than their row
+     */
+    private static void showLogViewer(String title, byte storeTable, String[] columns, Function<StoredRecord, String[]> toRow,
+                                      String defaultUser, boolean hasFiles, boolean hasActions, Consumer<StoredRecord> onOpen) {
+        JFrame viewerFrame = new JFrame(title);
+        viewerFrame.setSize(800, 500);
+
+        JTextField userField = new JTextField(defaultUser == null ? "" : defaultUser, 10);
+        JTextField fileField = new JTextField(12);
+        fileField.setEnabled(hasFiles);
+        JTextField fromField = new JTextField(8);
+        JTextField toField = new JTextField(8);
+        JComboBox<String> actionBox = new JComboBox<>(new String[]{""});
+        actionBox.setEditable(true);
+        actionBox.setEnabled(hasActions);
+        JButton applyButton = new JButton("Apply");
+        JLabel statusLabel = new JLabel(" ");
+
+        JPanel filterPanel = new JPanel();
+        filterPanel.add(new JLabel("User:"));
+        filterPanel.add(userField);
+        filterPanel.add(new JLabel("File:"));
+        filterPanel.add(fileField);
+        filterPanel.add(new JLabel("From (yyyy-mm-dd):"));
+        filterPanel.add(fromField);
+        filterPanel.add(new JLabel("To:"));
+        filterPanel.add(toField);
+        filterPanel.add(new JLabel("Action:"));
+        filterPanel.add(actionBox);
+        filterPanel.add(applyButton);
+
+        LogTableModel tableModel = new LogTableModel(columns, toRow);
+        JTable table = new JTable(tableModel);
+        table.setAutoCreateRowSorter(false);
+        JTextArea detailArea = new JTextArea(5, 40);
+        detailArea.setEditable(false);
+        table.getSelectionModel().addListSelectionListener(e -> {
+            int row = table.getSelectedRow();
+            String[] record = row >= 0 ? tableModel.getRecord(row) : null;
+            if (!e.getValueIsAdjusting() && record != null) {
+                StringBuilder detail = new StringBuilder();
+                for (int i = 0; i < columns.length; i++) {
+                    detail.append(columns[i]).append(": ").append(record[i]).append("\n");
+                }
+                detailArea.setText(detail.toString());
+                detailArea.setCaretPosition(0);
+            }
+        });
+
+        Runnable runQuery = () -> {
+            LogFilter filter;
+            try {
+                filter = new LogFilter(userField.getText(), fileField.getText(),
+                        fromField.getText().trim().isEmpty() ? null : LocalDate.parse(fromField.getText().trim()),
+                        toField.getText().trim().isEmpty() ? null : LocalDate.parse(toField.getText().trim()),
+                        (String) actionBox.getSelectedItem());
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(viewerFrame, "Dates must be in yyyy-mm-dd format!", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            statusLabel.setText("Loading...");
+            long[] elapsedMillis = {0};
+            java.util.List<String> actions = new ArrayList<>();
+            runTask("Load " + title, tableModel, context -> {
+                long start = System.nanoTime();
+                LogView view = recordStore.query(storeTable, filter);
+                if (hasActions) {
+                    actions.addAll(recordStore.actions(storeTable));
+                }
+                elapsedMillis[0] = (System.nanoTime() - start) / 1_000_000;
+                return view;
+            }, view -> {
+                tableModel.setView(view);
+                detailArea.setText("");
+                statusLabel.setText(view.size() == 0 ? "No records match the filter." : view.size() + " record(s) in " + elapsedMillis[0] + " ms");
+                if (hasActions && actionBox.getItemCount() != actions.size() + 1) {
+                    Object selected = actionBox.getSelectedItem();
+                    actionBox.removeAllItems();
+                    actionBox.addItem("");
+                    actions.forEach(actionBox::addItem);
+                    actionBox.setSelectedItem(selected);
+                }
+            }, e -> statusLabel.setText("No records available or error reading records."));
+        };
+        applyButton.addActionListener(e -> runQuery.run());
+
+        JPanel bottomPanel = new JPanel(new BorderLayout());
+        bottomPanel.add(new JScrollPane(detailArea), BorderLayout.CENTER);
+        bottomPanel.add(statusLabel, BorderLayout.SOUTH);
+        if (onOpen != null) {
+            Runnable openSelected = () -> {
+                int row = table.getSelectedRow();
+                if (row >= 0) {
+                    onOpen.accept(tableModel.getStoredRecord(row));
+                }
+            };
+            JButton openButton = new JButton("Open Selected");
+            openButton.addActionListener(e -> openSelected.run());
+            table.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    if (e.getClickCount() == 2) {
+                        openSelected.run();
+                    }
+                }
+            });
+            bottomPanel.add(openButton, BorderLayout.EAST);
+        }
+
+        viewerFrame.add(filterPanel, BorderLayout.NORTH);
+        viewerFrame.add(new JScrollPane(table), BorderLayout.CENTER);
+        viewerFrame.add(bottomPanel, BorderLayout.SOUTH);
+        viewerFrame.setVisible(true);
+        runQuery.run();
+    }
+
+    private static final class LogTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+        private final String[] columns;
+        private final transient Function<StoredRecord, String[]> toRow;
+        private transient LogView view;
+
+        private LogTableModel(String[] columns, Function<StoredRecord, String[]> toRow) {
+            this.columns = columns;
+            this.toRow = toRow;
+        }
+
+        private void setView(LogView view) {
+            this.view = view;
+            fireTableDataChanged();
+        }
+
+        private String[] getRecord(int row) {
+            return view == null ? null : toRow.apply(view.get(row));
+        }
+
+        private StoredRecord getStoredRecord(int row) {
+            return view.get(row);
+        }
+
+        @Override
+        public int getRowCount() {
+            return view == null ? 0 : view.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            String[] record = getRecord(row);
+            return record == null ? "" : record[column];
+        }
+    }
+
+    private static void saveReport(String filePath, String report) {
+        recordStore.append(new StoredRecord(REPORTS_TABLE, System.currentTimeMillis(), currentUser, filePath, null, report));
+    }
+
+    private static void shareReport() {
+        showLogViewer("Share Analysis Reports", REPORTS_TABLE, new String[]{"User", "Date", "File", "Report"},
+                record -> new String[]{record.getUser(), record.getTimestamp().toString(), record.getFile(), record.getValue(0)},
+                null, true, false, null);
+    }
+
+    private static void createNewFile(FileListModel fileListModel, JTextArea fileViewer) {
+        String[] fileTypes = {"Java", "Python", "HTML", "CSS", "JavaScript"};
+        String fileType = (String) JOptionPane.showInputDialog(mainFrame, "Select file type:", "Create New File",
+                JOptionPane.PLAIN_MESSAGE, null, fileTypes, fileTypes[0]);
+
+        if (fileType != null) {
+            String fileName = JOptionPane.showInputDialog(mainFrame, "Enter file name (without extension):");
+            if (fileName != null && !fileName.trim().isEmpty()) {
+                JFileChooser fileChooser = new JFileChooser();
+                fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+
+                int returnValue = fileChooser.showSaveDialog(mainFrame);
+                if (returnValue == JFileChooser.APPROVE_OPTION) {
+                    File selectedFolder = fileChooser.getSelectedFile();
+                    String extension = getFileExtension(fileType);
+                    File newFile = new File(selectedFolder, fileName + extension);
+                    try {
+                        if (newFile.createNewFile()) {
+                            JOptionPane.showMessageDialog(mainFrame, "File created successfully: " + newFile.getName());
+                            logHistory("File Created", newFile.getName());
+                            fileListModel.add(newFile.toPath().toAbsolutePath());
+                            displayFileContent(newFile.getAbsolutePath(), fileViewer);
+                        } else {
+                            JOptionPane.showMessageDialog(mainFrame, "File already exists!", "Error", JOptionPane.ERROR_MESSAGE);
+                        }
+                    } catch (IOException e) {
+                        JOptionPane.showMessageDialog(mainFrame, "Error creating file: " + newFile.getName(), "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            } else {
+                JOptionPane.showMessageDialog(mainFrame, "File name cannot be empty!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    private static String getFileExtension(String fileType) {
+        switch (fileType) {
+            case "Java":
+                return ".java";
+            case "Python":
+                return ".py";
+            case "HTML":
+                return ".html";
+            case "CSS":
+                return ".css";
+            case "JavaScript":
+                return ".js";
+            case "C":
+                return ".c";
+            default:
+                return "";
+        }
+    }
+
+    private static void showCodeHistory() {
+        showLogViewer("Code History", CODE_HISTORY_TABLE, new String[]{"User", "File", "Change Type", "Change Details", "Timestamp"},
+                record -> new String[]{record.getUser(), record.getFile(), record.getAction(), record.getValue(0), record.getTimestamp().toString()},
+                null, true, true, GitHubCodeAnalyser::showSnapshot);
+    }
+
+    /**
+     * Shows the lines a saved change removed and added, with the option of putting the file back as it was then.
+     */
+    private static void showSnapshot(StoredRecord record) {
+        String filePath = record.getFile();
+        int number;
+        try {
+            number = Integer.parseInt(record.getValue(1));
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(mainFrame, "No snapshot was kept for this change.", "Code History", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        if (snapshotStore == null) {
+            JOptionPane.showMessageDialog(mainFrame, "Code history snapshots could not be opened.", "Code History", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        runTask("Load Version", filePath + " version " + number, context -> {
+            String changes = snapshotStore.changes(filePath, number);
+            return snapshotStore.version(filePath, number) + "\n\n" + changes;
+        }, changes -> {
+            JFrame versionFrame = new JFrame("Version " + number + " of " + filePath);
+            versionFrame.setSize(700, 500);
+            JTextArea changesArea = new JTextArea(changes);
+            changesArea.setEditable(false);
+            changesArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JButton restoreButton = new JButton("Restore This Version");
+            restoreButton.addActionListener(e -> restoreSnapshot(versionFrame, filePath, number));
+            JPanel buttonPanel = new JPanel();
+            buttonPanel.add(restoreButton);
+            versionFrame.add(new JScrollPane(changesArea), BorderLayout.CENTER);
+            versionFrame.add(buttonPanel, BorderLayout.SOUTH);
+            versionFrame.setVisible(true);
+        }, e -> JOptionPane.showMessageDialog(mainFrame, "Error reading version " + number + " of " + filePath, "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private static void restoreSnapshot(JFrame versionFrame, String filePath, int number) {
+        if (JOptionPane.showConfirmDialog(versionFrame, "Replace " + filePath + " with version " + number + "?", "Restore Version",
+                JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+        runTask("Restore Version", Paths.get(filePath), context -> writeFileContent(filePath, snapshotStore.text(filePath, number)), version -> {
+            if (filePath.equals(annotatedFile)) {
+                // the viewer still holds the newer text, which the next save would write back
+                displayFileContent(filePath, textViewer);
+            }
+            JOptionPane.showMessageDialog(versionFrame, "File restored to version " + number + ".");
+            logCodeHistory("restored", "Restored version " + number, filePath, version);
+        }, e -> JOptionPane.showMessageDialog(versionFrame, "Error restoring file: " + filePath, "Error", JOptionPane.ERROR_MESSAGE));
+    }
 }
\ No newline at end of file
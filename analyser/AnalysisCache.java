@@ -0,0 +1,256 @@
+package analyser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Per-file analysis results keyed by path, validated against size and modification time, with a
+ * CRC32C of the content so callers can tell a touched file from an edited one.
+ * <p>
+ * Entries are sorted so that every directory is directly followed by everything under it, which lets a
+ * deleted directory or a repository that is no longer loaded be dropped as one range.
+ */
+public final class AnalysisCache {
+
+    private static final int MAGIC = 0x47434143;
+    private static final int VERSION = 2;
+
+    private final NavigableMap<Path, Entry> entries = new ConcurrentSkipListMap<>(AnalysisCache::compareInTreeOrder);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean dirty;
+
+    private static final class Entry {
+        private final long size;
+        private final long modifiedMillis;
+        private final long contentHash;
+        private final FileAnalysis analysis;
+
+        private Entry(long size, long modifiedMillis, long contentHash, FileAnalysis analysis) {
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+            this.contentHash = contentHash;
+            this.analysis = analysis;
+        }
+    }
+
+    public FileAnalysis analyze(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == attributes.size() && entry.modifiedMillis == attributes.lastModifiedTime().toMillis()) {
+            hits.incrementAndGet();
+            if (entry.analysis == null) {
+                throw new BinaryFileException(path);
+            }
+            return entry.analysis;
+        }
+        misses.incrementAndGet();
+        return load(path, attributes).analysis;
+    }
+
+    /**
+     * Re-analyzes {@code path} unconditionally and reports whether its content differs from the cached version.
+     */
+    public boolean refresh(Path path) throws IOException {
+        Entry previous = entries.get(path);
+        Entry current = load(path, Files.readAttributes(path, BasicFileAttributes.class));
+        return previous == null || previous.size != current.size || previous.contentHash != current.contentHash;
+    }
+
+    private Entry load(Path path, BasicFileAttributes attributes) throws IOException {
+        CRC32C checksum = new CRC32C();
+        Entry entry;
+        try {
+            FileAnalysis analysis = CodeAnalyzer.analyzeFile(path, checksum);
+            entry = new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), checksum.getValue(), analysis);
+        } catch (BinaryFileException e) {
+            entry = new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), checksum.getValue(), null);
+        }
+        entries.put(path, entry);
+        dirty = true;
+        return entry;
+    }
+
+    /**
+     * Drops {@code path} and, if it is a directory, everything under it.
+     */
+    public void remove(Path path) {
+        Iterator<Path> keys = entries.tailMap(path, true).keySet().iterator();
+        while (keys.hasNext() && keys.next().startsWith(path)) {
+            keys.remove();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Drops every entry outside {@code root}, so results for repositories that are no longer loaded do not
+     * accumulate.
+     */
+    public void retainUnder(Path root) {
+        if (!entries.headMap(root, false).isEmpty()) {
+            entries.headMap(root, false).clear();
+            dirty = true;
+        }
+        for (Path key : entries.tailMap(root, true).keySet()) {
+            if (!key.startsWith(root)) {
+                entries.tailMap(key, true).clear();
+                dirty = true;
+                break;
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public static AnalysisCache load(Path cacheFile) throws IOException {
+        AnalysisCache cache = new AnalysisCache();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an analysis cache: " + cacheFile);
+            }
+            if (in.readInt() != VERSION) {
+                // written by an older analyzer, whose results are no longer comparable
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Path path = Paths.get(readString(in));
+                long size = in.readLong();
+                long modifiedMillis = in.readLong();
+                long contentHash = in.readLong();
+                FileAnalysis analysis = null;
+                if (in.readBoolean()) {
+                    String fileType = readString(in);
+                    String language = readString(in);
+                    int lineCount = in.readInt();
+                    int codeLineCount = in.readInt();
+                    int blankLineCount = in.readInt();
+                    int commentLineCount = in.readInt();
+                    int todoCount = in.readInt();
+                    int fixmeCount = in.readInt();
+                    int complexity = in.readInt();
+                    List<String> commentReport = new ArrayList<>();
+                    for (int j = in.readInt(); j > 0; j--) {
+                        commentReport.add(readString(in));
+                    }
+                    analysis = new FileAnalysis(path, fileType, language, lineCount, codeLineCount, blankLineCount,
+                            commentLineCount, todoCount, fixmeCount, complexity, commentReport);
+                }
+                cache.entries.put(path, new Entry(size, modifiedMillis, contentHash, analysis));
+            }
+        } catch (NoSuchFileException e) {
+            return cache;
+        }
+        return cache;
+    }
+
+    public synchronized void save(Path cacheFile) throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        Metrics.Sample sample = Metrics.start("cache.save");
+        Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        List<Map.Entry<Path, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<Path, Entry> mapEntry : snapshot) {
+                Entry entry = mapEntry.getValue();
+                writeString(out, mapEntry.getKey().toString());
+                out.writeLong(entry.size);
+                out.writeLong(entry.modifiedMillis);
+                out.writeLong(entry.contentHash);
+                out.writeBoolean(entry.analysis != null);
+                if (entry.analysis != null) {
+                    FileAnalysis analysis = entry.analysis;
+                    writeString(out, analysis.getFileType());
+                    writeString(out, analysis.getLanguage());
+                    out.writeInt(analysis.getLineCount());
+                    out.writeInt(analysis.getCodeLineCount());
+                    out.writeInt(analysis.getBlankLineCount());
+                    out.writeInt(analysis.getCommentLineCount());
+                    out.writeInt(analysis.getTodoCount());
+                    out.writeInt(analysis.getFixmeCount());
+                    out.writeInt(analysis.getComplexity());
+                    out.writeInt(analysis.getCommentReport().size());
+                    for (String line : analysis.getCommentReport()) {
+                        writeString(out, line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            sample.fail("");
+            dirty = true;
+            throw e;
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sample.stop(Files.size(cacheFile));
+    }
+
+    /**
+     * Orders paths by their text, with the name separator before every other character, so that
+     * {@code a/b/c} sorts right after {@code a/b} and ahead of {@code a/b-c}.
+     */
+    static int compareInTreeOrder(Path first, Path second) {
+        String a = first.toString();
+        String b = second.toString();
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                if (x == File.separatorChar) {
+                    return -1;
+                }
+                if (y == File.separatorChar) {
+                    return 1;
+                }
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
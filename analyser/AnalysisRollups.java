@@ -0,0 +1,403 @@
+package analyser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Repository totals kept up to date as files are analyzed, broken down by directory, by language and by day.
+ * Every change is appended to a {@link RecordStore} table as a structured record, one per file with its
+ * counts as separate fields, so the history can be replayed; the rollups themselves are saved to a file
+ * together with the number of records they include, and on open any records written after that are
+ * replayed. A re-analysis that changes nothing writes nothing.
+ */
+public final class AnalysisRollups {
+
+    private static final int MAGIC = 0x47434152;
+    private static final int VERSION = 1;
+    private static final String ANALYZED = "analyzed";
+    private static final String REMOVED = "removed";
+
+    private final Path file;
+    private final RecordStore store;
+    private final byte table;
+    private final Map<Path, Rollup> repositories = new HashMap<>();
+    private int appliedRecords;
+    private boolean dirty;
+
+    /**
+     * The state of one repository: the last counts of every file, and the sums derived from them.
+     */
+    private static final class Rollup {
+        private final Path root;
+        private final Map<Path, FileAnalysis> files = new HashMap<>();
+        private final AnalysisTotals totals = new AnalysisTotals();
+        private final Map<String, AnalysisTotals> directories = new HashMap<>();
+        private final Map<String, AnalysisTotals> languages = new HashMap<>();
+        private final TreeMap<LocalDate, AnalysisTotals> days = new TreeMap<>();
+        private final TreeMap<LocalDate, Long> changes = new TreeMap<>();
+
+        private Rollup(Path root) {
+            this.root = root;
+        }
+
+        private void add(FileAnalysis analysis, int sign) {
+            apply(totals, analysis, sign);
+            apply(languages.computeIfAbsent(analysis.getLanguage(), k -> new AnalysisTotals()), analysis, sign);
+            Path directory = analysis.getPath().getParent();
+            while (directory != null && directory.startsWith(root)) {
+                apply(directories.computeIfAbsent(CodeAnalyzer.directoryKey(root, directory), k -> new AnalysisTotals()), analysis, sign);
+                directory = directory.getParent();
+            }
+        }
+
+        private static void apply(AnalysisTotals totals, FileAnalysis analysis, int sign) {
+            if (sign > 0) {
+                totals.add(analysis);
+            } else {
+                totals.remove(analysis);
+            }
+        }
+
+        private void recordDay(long timestampMillis) {
+            LocalDate day = Instant.ofEpochMilli(timestampMillis).atZone(ZoneId.systemDefault()).toLocalDate();
+            AnalysisTotals dayTotals = days.get(day);
+            if (dayTotals == null) {
+                days.put(day, totals.copy());
+            } else {
+                dayTotals.set(totals);
+            }
+            changes.merge(day, 1L, Long::sum);
+        }
+    }
+
+    /**
+     * A copy of one repository's rollups, safe to read while analysis goes on.
+     */
+    public static final class Snapshot {
+        private final Path root;
+        private final AnalysisTotals totals;
+        private final SortedMap<String, AnalysisTotals> directories;
+        private final SortedMap<String, AnalysisTotals> languages;
+        private final SortedMap<LocalDate, AnalysisTotals> days;
+        private final SortedMap<LocalDate, Long> changes;
+
+        private Snapshot(Rollup rollup) {
+            this.root = rollup.root;
+            this.totals = rollup.totals.copy();
+            this.directories = copy(rollup.directories);
+            this.languages = copy(rollup.languages);
+            this.days = Collections.unmodifiableSortedMap(copy(rollup.days));
+            this.changes = Collections.unmodifiableSortedMap(new TreeMap<>(rollup.changes));
+        }
+
+        private static <K> SortedMap<K, AnalysisTotals> copy(Map<K, AnalysisTotals> source) {
+            TreeMap<K, AnalysisTotals> copy = new TreeMap<>();
+            source.forEach((key, value) -> {
+                if (value.getFileCount() > 0) {
+                    copy.put(key, value.copy());
+                }
+            });
+            return Collections.unmodifiableSortedMap(copy);
+        }
+
+        public Path getRoot() {
+            return root;
+        }
+
+        public AnalysisTotals getTotals() {
+            return totals;
+        }
+
+        /**
+         * Totals of every directory, including all subdirectories, keyed by path relative to the root.
+         */
+        public SortedMap<String, AnalysisTotals> getDirectories() {
+            return directories;
+        }
+
+        public SortedMap<String, AnalysisTotals> getLanguages() {
+            return languages;
+        }
+
+        /**
+         * The repository totals at the end of each day on which something changed.
+         */
+        public SortedMap<LocalDate, AnalysisTotals> getDays() {
+            return days;
+        }
+
+        /**
+         * How many file changes were recorded on each day.
+         */
+        public SortedMap<LocalDate, Long> getChanges() {
+            return changes;
+        }
+    }
+
+    private AnalysisRollups(Path file, RecordStore store, byte table) {
+        this.file = file;
+        this.store = store;
+        this.table = table;
+    }
+
+    /**
+     * Loads the rollups saved in {@code file}, if any, and replays the records of {@code table} they do not
+     * include yet.
+     */
+    public static AnalysisRollups open(Path file, RecordStore store, byte table) throws IOException {
+        AnalysisRollups rollups = new AnalysisRollups(file, store, table);
+        try {
+            rollups.load();
+        } catch (NoSuchFileException e) {
+            // first run, or the file was deleted: everything is replayed
+        } catch (IOException e) {
+            System.err.println("Rollups could not be read, they will be rebuilt from the records.");
+            rollups.repositories.clear();
+            rollups.appliedRecords = 0;
+        }
+        LogView records = store.query(table, new LogFilter(null, null, null, null, null));
+        if (records.size() < rollups.appliedRecords) {
+            // the saved rollups include records that never reached the store; start again from what did
+            rollups.repositories.clear();
+            rollups.appliedRecords = 0;
+        }
+        for (int row = rollups.appliedRecords; row < records.size(); row++) {
+            rollups.replay(records.get(row));
+        }
+        return rollups;
+    }
+
+    /**
+     * Records the analysis of one file of the repository at {@code root}.
+     *
+     * @return whether its counts differ from the ones recorded last
+     */
+    public synchronized boolean update(Path root, FileAnalysis analysis, String user) {
+        Rollup rollup = repositories.computeIfAbsent(root, Rollup::new);
+        FileAnalysis previous = rollup.files.get(analysis.getPath());
+        if (previous != null && sameCounts(previous, analysis)) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        apply(rollup, analysis.getPath(), strip(analysis), now);
+        store.append(new StoredRecord(table, now, user, analysis.getPath().toString(), ANALYZED, root.toString(),
+                analysis.getFileType(), analysis.getLanguage(), String.valueOf(analysis.getLineCount()),
+                String.valueOf(analysis.getCodeLineCount()), String.valueOf(analysis.getBlankLineCount()),
+                String.valueOf(analysis.getCommentLineCount()), String.valueOf(analysis.getTodoCount()),
+                String.valueOf(analysis.getFixmeCount()), String.valueOf(analysis.getComplexity())));
+        appliedRecords++;
+        return true;
+    }
+
+    /**
+     * Records a whole repository analysis: every analyzed file, and the removal of files recorded earlier
+     * that are no longer part of it.
+     *
+     * @return the number of files whose counts changed
+     */
+    public synchronized int update(RepositoryAnalysis analysis, String user) {
+        Path root = analysis.getRoot();
+        int changed = 0;
+        Set<Path> present = new HashSet<>();
+        for (FileAnalysis fileAnalysis : analysis.getFiles()) {
+            present.add(fileAnalysis.getPath());
+            if (update(root, fileAnalysis, user)) {
+                changed++;
+            }
+        }
+        present.addAll(analysis.getFailedFiles());
+        Rollup rollup = repositories.get(root);
+        if (rollup != null) {
+            for (Path path : new ArrayList<>(rollup.files.keySet())) {
+                if (!present.contains(path)) {
+                    remove(root, path, user);
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Records the removal of {@code path}, or of every file under it if it was a directory.
+     */
+    public synchronized void remove(Path root, Path path, String user) {
+        Rollup rollup = repositories.get(root);
+        if (rollup == null) {
+            return;
+        }
+        for (Path file : new ArrayList<>(rollup.files.keySet())) {
+            if (file.startsWith(path)) {
+                long now = System.currentTimeMillis();
+                apply(rollup, file, null, now);
+                store.append(new StoredRecord(table, now, user, file.toString(), REMOVED, root.toString()));
+                appliedRecords++;
+            }
+        }
+    }
+
+    /**
+     * The current rollups of the repository at {@code root}; empty if nothing was recorded for it.
+     */
+    public synchronized Snapshot snapshot(Path root) {
+        Rollup rollup = repositories.get(root);
+        return new Snapshot(rollup != null ? rollup : new Rollup(root));
+    }
+
+    private void replay(StoredRecord record) {
+        Path root = Paths.get(record.getValue(0));
+        Path path = Paths.get(record.getFile());
+        Rollup rollup = repositories.computeIfAbsent(root, Rollup::new);
+        FileAnalysis analysis = null;
+        if (ANALYZED.equals(record.getAction())) {
+            try {
+                analysis = new FileAnalysis(path, record.getValue(1), record.getValue(2), Integer.parseInt(record.getValue(3)),
+                        Integer.parseInt(record.getValue(4)), Integer.parseInt(record.getValue(5)), Integer.parseInt(record.getValue(6)),
+                        Integer.parseInt(record.getValue(7)), Integer.parseInt(record.getValue(8)), Integer.parseInt(record.getValue(9)),
+                        Collections.emptyList());
+            } catch (NumberFormatException e) {
+                appliedRecords++;
+                return;
+            }
+        }
+        apply(rollup, path, analysis, record.getTimestampMillis());
+        appliedRecords++;
+    }
+
+    /**
+     * Replaces the counts of {@code path}, or drops them if {@code analysis} is null.
+     */
+    private void apply(Rollup rollup, Path path, FileAnalysis analysis, long timestampMillis) {
+        FileAnalysis previous = analysis == null ? rollup.files.remove(path) : rollup.files.put(path, analysis);
+        if (previous != null) {
+            rollup.add(previous, -1);
+        }
+        if (analysis != null) {
+            rollup.add(analysis, 1);
+        }
+        rollup.recordDay(timestampMillis);
+        dirty = true;
+    }
+
+    private static boolean sameCounts(FileAnalysis a, FileAnalysis b) {
+        return a.getLineCount() == b.getLineCount() && a.getCodeLineCount() == b.getCodeLineCount()
+                && a.getBlankLineCount() == b.getBlankLineCount() && a.getCommentLineCount() == b.getCommentLineCount()
+                && a.getTodoCount() == b.getTodoCount() && a.getFixmeCount() == b.getFixmeCount()
+                && a.getComplexity() == b.getComplexity() && a.getLanguage().equals(b.getLanguage());
+    }
+
+    /**
+     * The analysis without its comment report, which the rollups have no use for.
+     */
+    private static FileAnalysis strip(FileAnalysis analysis) {
+        return new FileAnalysis(analysis.getPath(), analysis.getFileType(), analysis.getLanguage(), analysis.getLineCount(),
+                analysis.getCodeLineCount(), analysis.getBlankLineCount(), analysis.getCommentLineCount(), analysis.getTodoCount(),
+                analysis.getFixmeCount(), analysis.getComplexity(), Collections.emptyList());
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a rollup file: " + file);
+            }
+            if (in.readInt() != VERSION) {
+                // replayed from the records instead
+                return;
+            }
+            appliedRecords = in.readInt();
+            for (int repositoryCount = in.readInt(); repositoryCount > 0; repositoryCount--) {
+                Rollup rollup = new Rollup(Paths.get(readString(in)));
+                for (int fileCount = in.readInt(); fileCount > 0; fileCount--) {
+                    FileAnalysis analysis = new FileAnalysis(Paths.get(readString(in)), readString(in), readString(in), in.readInt(),
+                            in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), Collections.emptyList());
+                    rollup.files.put(analysis.getPath(), analysis);
+                    rollup.add(analysis, 1);
+                }
+                for (int dayCount = in.readInt(); dayCount > 0; dayCount--) {
+                    LocalDate day = LocalDate.ofEpochDay(in.readLong());
+                    rollup.days.put(day, new AnalysisTotals(in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                            in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+                    rollup.changes.put(day, in.readLong());
+                }
+                repositories.put(rollup.root, rollup);
+            }
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(appliedRecords);
+            out.writeInt(repositories.size());
+            for (Rollup rollup : repositories.values()) {
+                writeString(out, rollup.root.toString());
+                out.writeInt(rollup.files.size());
+                for (FileAnalysis analysis : rollup.files.values()) {
+                    writeString(out, analysis.getPath().toString());
+                    writeString(out, analysis.getFileType());
+                    writeString(out, analysis.getLanguage());
+                    out.writeInt(analysis.getLineCount());
+                    out.writeInt(analysis.getCodeLineCount());
+                    out.writeInt(analysis.getBlankLineCount());
+                    out.writeInt(analysis.getCommentLineCount());
+                    out.writeInt(analysis.getTodoCount());
+                    out.writeInt(analysis.getFixmeCount());
+                    out.writeInt(analysis.getComplexity());
+                }
+                out.writeInt(rollup.days.size());
+                for (Map.Entry<LocalDate, AnalysisTotals> entry : rollup.days.entrySet()) {
+                    AnalysisTotals totals = entry.getValue();
+                    out.writeLong(entry.getKey().toEpochDay());
+                    out.writeLong(totals.getFileCount());
+                    out.writeLong(totals.getLineCount());
+                    out.writeLong(totals.getCodeLineCount());
+                    out.writeLong(totals.getBlankLineCount());
+                    out.writeLong(totals.getCommentLineCount());
+                    out.writeLong(totals.getTodoCount());
+                    out.writeLong(totals.getFixmeCount());
+                    out.writeLong(totals.getComplexity());
+                    out.writeLong(rollup.changes.getOrDefault(entry.getKey(), 0L));
+                }
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,748 @@
+package analyser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Serves login, upload, analysis, search, history and reports as a JSON API over HTTP, for many users sharing
+ * one set of stores. Each request runs on its own virtual thread where the runtime has them, and on a bounded
+ * pool of platform threads ({@code analyser.server.threads}) before Java 21.
+ * <p>
+ * Logging in returns a token to send as {@code Authorization: Bearer <token>}. Everything a request needs to
+ * know about its user, including the repository they uploaded, lives in that token's session, so records are
+ * attributed to the user who made the request. Uploaded repositories are shared between sessions by path and
+ * guarded by a fixed table of read-write locks chosen by the path's hash: an upload walks the tree under the
+ * write lock while analyses and searches of the same tree proceed together under the read lock.
+ * <p>
+ * Any session can send regular expressions, so searches share their own pool of
+ * {@code analyser.server.searchThreads} workers and give up after {@code analyser.server.searchSeconds},
+ * answering 503 and letting go of the read lock, instead of holding a tree and the common pool indefinitely.
+ * <pre>
+ * POST /api/register     {"user":..,"password":..}
+ * POST /api/login        {"user":..,"password":..}            -&gt; {"token":..}
+ * POST /api/logout
+ * POST /api/repositories {"path":..,"refresh":false}           -&gt; {"path":..,"files":n}
+ * GET  /api/files?offset=0&amp;limit=100
+ * GET  /api/analysis[?file=relative/path]
+ * GET  /api/search?term=..[&amp;term=..][&amp;context=0][&amp;limit=100]
+ * GET  /api/history[?action=..][&amp;limit=100]
+ * GET  /api/reports[?file=..][&amp;limit=100]
+ * GET  /api/health
+ * </pre>
+ * Any user can register, so uploads are confined to one directory, {@code analyser.server.root}: an uploaded
+ * path is resolved against it and must lead to a directory inside it once symbolic links are resolved. Files
+ * of the tree whose links lead outside it are left out, and files named in requests are checked the same way.
+ * <p>
+ * Bind it to the loopback interface unless it sits behind a proxy that terminates TLS.
+ */
+public final class AnalysisServer implements Closeable {
+
+    public static final int DEFAULT_PORT = Integer.getInteger("analyser.server.port", 8377);
+    public static final Path DEFAULT_ROOT = Paths.get(System.getProperty("analyser.server.root", "repositories"));
+
+    private static final int THREADS = Integer.getInteger("analyser.server.threads", 200);
+    private static final int SEARCH_THREADS = Integer.getInteger("analyser.server.searchThreads", Runtime.getRuntime().availableProcessors());
+    private static final long SEARCH_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("analyser.server.searchSeconds", 10));
+    private static final long SESSION_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("analyser.server.sessionMinutes", 30));
+    private static final int LOCK_STRIPES = 64;
+    private static final int TOKEN_BYTES = 32;
+    private static final int MAX_BODY_BYTES = 1 << 16;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+    private static final int MAX_CONTEXT_LINES = 10;
+    private static final Set<String> ENDPOINTS = Set.of("register", "login", "logout", "repositories", "files",
+            "analysis", "search", "history", "reports", "health");
+
+    private final Path root;
+    private final RecordStore records;
+    private final CredentialStore credentials;
+    private final AnalysisCache cache;
+    private final AnalysisRollups rollups;
+    private final RepositoryWalker walker;
+    private final byte historyTable;
+    private final byte reportsTable;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ForkJoinPool searchPool = new ForkJoinPool(SEARCH_THREADS);
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<Path, Repository> repositories = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[LOCK_STRIPES];
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong lastSweepMillis = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * One logged in user.
+     */
+    private static final class Session {
+        private final String user;
+        private volatile Repository repository;
+        private volatile long lastUsedMillis;
+
+        private Session(String user) {
+            this.user = user;
+            this.lastUsedMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * An uploaded tree and its files, replaced whole on refresh under the tree's write lock.
+     */
+    private static final class Repository {
+        private final Path root;
+        private volatile List<Path> files;
+
+        private Repository(Path root) {
+            this.root = root;
+        }
+    }
+
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private HttpError(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+
+    /**
+     * @param root the directory uploaded repositories must be inside
+     * @param rollups may be null, to keep repository analyses out of the dashboard
+     * @throws IOException if {@code root} is not an existing directory, or the address cannot be bound
+     */
+    public AnalysisServer(InetSocketAddress address, Path root, RecordStore records, CredentialStore credentials, AnalysisCache cache,
+                          AnalysisRollups rollups, RepositoryWalker walker, byte historyTable, byte reportsTable) throws IOException {
+        this.root = root.toRealPath();
+        if (!Files.isDirectory(this.root)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        this.records = records;
+        this.credentials = credentials;
+        this.cache = cache;
+        this.rollups = rollups;
+        this.walker = walker;
+        this.historyTable = historyTable;
+        this.reportsTable = reportsTable;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        this.server = HttpServer.create(address, 1024);
+        this.executor = newExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/", this::handle);
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "analysis-server-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * The port the server listens on, which differs from the requested one when that was 0.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for those in flight, and ends every session.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        searchPool.shutdownNow();
+        sessions.clear();
+    }
+
+    private void handle(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        String endpoint = path.substring("/api/".length());
+        Metrics.Sample sample = Metrics.start(ENDPOINTS.contains(endpoint) ? "server." + endpoint : "server.unknown");
+        try {
+            byte[] response = dispatch(endpoint, exchange).getBytes(StandardCharsets.UTF_8);
+            send(exchange, 200, response);
+            sample.stop(response.length);
+        } catch (HttpError e) {
+            sendError(exchange, e.status, e.getMessage());
+            sample.fail("");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error serving " + path + ": " + e);
+            sendError(exchange, 500, "Internal error");
+            sample.fail("");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String dispatch(String endpoint, HttpExchange exchange) throws HttpError, IOException {
+        switch (endpoint) {
+            case "health":
+                return "{\"status\":\"ok\",\"sessions\":" + sessions.size() + ",\"repositories\":" + repositories.size() + "}";
+            case "register":
+                return register(body(exchange));
+            case "login":
+                return login(body(exchange));
+            case "logout":
+                requirePost(exchange);
+                return logout(exchange);
+            case "repositories":
+                return upload(session(exchange), body(exchange));
+            case "files":
+                return files(session(exchange), query(exchange));
+            case "analysis":
+                return analysis(session(exchange), query(exchange));
+            case "search":
+                return search(session(exchange), query(exchange));
+            case "history":
+                return history(session(exchange), query(exchange));
+            case "reports":
+                return reports(session(exchange), query(exchange));
+            default:
+                throw new HttpError(404, "Unknown endpoint: " + endpoint);
+        }
+    }
+
+    private String register(Map<String, String> body) throws HttpError {
+        String user = required(body, "user");
+        char[] password = required(body, "password").toCharArray();
+        try {
+            if (!credentials.register(user, password)) {
+                throw new HttpError(409, "Username already exists");
+            }
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+        return "{\"user\":" + BatchRunner.json(user) + "}";
+    }
+
+    private String login(Map<String, String> body) throws HttpError {
+        String user = required(body, "user");
+        char[] password = required(body, "password").toCharArray();
+        try {
+            if (!credentials.verify(user, password)) {
+                throw new HttpError(401, "Invalid credentials");
+            }
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+        expireSessions();
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(user));
+        logHistory(user, "Login", "User  logged in.");
+        return "{\"token\":" + BatchRunner.json(token) + ",\"user\":" + BatchRunner.json(user) + "}";
+    }
+
+    private String logout(HttpExchange exchange) throws HttpError {
+        Session session = sessions.remove(token(exchange));
+        if (session == null) {
+            throw new HttpError(401, "Not logged in");
+        }
+        logHistory(session.user, "Logout", "User  logged out.");
+        return "{}";
+    }
+
+    private String upload(Session session, Map<String, String> body) throws HttpError, IOException {
+        String requested = required(body, "path");
+        Path tree;
+        try {
+            tree = insideRoot(root.resolve(requested));
+        } catch (InvalidPathException e) {
+            throw new HttpError(400, "Invalid path");
+        }
+        if (tree == null || !Files.isDirectory(tree)) {
+            throw new HttpError(404, "Not a directory under the repository root: " + requested);
+        }
+        boolean refresh = Boolean.parseBoolean(body.get("refresh"));
+        Repository repository = repositories.computeIfAbsent(tree, Repository::new);
+        Lock lock = lockFor(tree).writeLock();
+        lock.lock();
+        try {
+            // a second session uploading the same tree waits for the first walk and reuses its result
+            if (repository.files == null || refresh) {
+                List<Path> files = new ArrayList<>();
+                for (Path file : walker.list(tree, ForkJoinPool.commonPool())) {
+                    // the walker follows links, which may lead out of the root
+                    if (insideRoot(file) != null) {
+                        files.add(file);
+                    }
+                }
+                if (refresh) {
+                    cache.remove(tree);
+                }
+                repository.files = Collections.unmodifiableList(files);
+            }
+        } finally {
+            lock.unlock();
+        }
+        session.repository = repository;
+        logHistory(session.user, "Repository Uploaded", tree.toString());
+        return "{\"path\":" + BatchRunner.json(tree.toString()) + ",\"files\":" + repository.files.size() + "}";
+    }
+
+    /**
+     * The real path of {@code path}, with every symbolic link resolved, or null if it does not exist or is not
+     * inside the repository root.
+     */
+    private Path insideRoot(Path path) {
+        try {
+            Path real = path.toRealPath();
+            return real.startsWith(root) ? real : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private String files(Session session, Map<String, List<String>> query) throws HttpError {
+        Repository repository = repository(session);
+        List<Path> files = repository.files;
+        int offset = (int) Math.min(number(query, "offset", 0, Integer.MAX_VALUE, 0), files.size());
+        int limit = (int) number(query, "limit", 1, MAX_LIMIT, DEFAULT_LIMIT);
+        StringBuilder response = new StringBuilder("{\"total\":").append(files.size()).append(",\"files\":[");
+        for (int i = offset; i < Math.min(files.size(), offset + limit); i++) {
+            response.append(i > offset ? "," : "").append(BatchRunner.json(relative(repository, files.get(i))));
+        }
+        return response.append("]}").toString();
+    }
+
+    private String analysis(Session session, Map<String, List<String>> query) throws HttpError, IOException {
+        Repository repository = repository(session);
+        String file = first(query, "file");
+        Lock lock = lockFor(repository.root).readLock();
+        lock.lock();
+        try {
+            if (file != null) {
+                Path path = resolve(repository, file);
+                FileAnalysis analysis;
+                try {
+                    analysis = cache.analyze(path);
+                } catch (BinaryFileException e) {
+                    throw new HttpError(415, "Binary file: " + file);
+                }
+                String report = analysis.toReport();
+                saveReport(session.user, path.toString(), report);
+                logHistory(session.user, "File Analyzed", path.toString());
+                return "{\"file\":" + BatchRunner.json(file) + ",\"language\":" + BatchRunner.json(analysis.getLanguage()) +
+                        ",\"lines\":" + analysis.getLineCount() + ",\"code\":" + analysis.getCodeLineCount() +
+                        ",\"comment\":" + analysis.getCommentLineCount() + ",\"blank\":" + analysis.getBlankLineCount() +
+                        ",\"todo\":" + analysis.getTodoCount() + ",\"fixme\":" + analysis.getFixmeCount() +
+                        ",\"complexity\":" + analysis.getComplexity() + ",\"report\":" + BatchRunner.json(report) + "}";
+            }
+            RepositoryAnalysis analysis = CodeAnalyzer.analyzeFiles(repository.root, repository.files, ForkJoinPool.commonPool(), cache);
+            if (rollups != null) {
+                rollups.update(analysis, session.user);
+            }
+            String report = analysis.toReport();
+            saveReport(session.user, repository.root.toString(), report);
+            logHistory(session.user, "Repository Analyzed", repository.root.toString());
+            AnalysisTotals totals = analysis.getTotals();
+            return "{\"path\":" + BatchRunner.json(repository.root.toString()) + ",\"files\":" + totals.getFileCount() +
+                    ",\"lines\":" + totals.getLineCount() + ",\"code\":" + totals.getCodeLineCount() +
+                    ",\"comment\":" + totals.getCommentLineCount() + ",\"blank\":" + totals.getBlankLineCount() +
+                    ",\"todo\":" + totals.getTodoCount() + ",\"fixme\":" + totals.getFixmeCount() +
+                    ",\"complexity\":" + totals.getComplexity() + ",\"failed\":" + analysis.getFailedFiles().size() +
+                    ",\"binary\":" + analysis.getBinaryFiles().size() + ",\"elapsedMillis\":" + analysis.getElapsedMillis() + "}";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String search(Session session, Map<String, List<String>> query) throws HttpError, IOException {
+        Repository repository = repository(session);
+        List<String> specs = query.getOrDefault("term", List.of());
+        if (specs.isEmpty()) {
+            throw new HttpError(400, "Missing parameter: term");
+        }
+        List<MultiPatternSearch.Term> terms = new ArrayList<>();
+        try {
+            for (String spec : specs) {
+                terms.add(MultiPatternSearch.Term.parse(spec));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "Invalid term: " + e.getMessage());
+        }
+        MultiPatternSearch search = MultiPatternSearch.compile(terms);
+        int contextLines = (int) number(query, "context", 0, MAX_CONTEXT_LINES, 0);
+        int limit = (int) number(query, "limit", 1, MAX_LIMIT, DEFAULT_LIMIT);
+        List<MultiPatternSearch.Hit> hits = Collections.synchronizedList(new ArrayList<>());
+        MultiPatternSearch.Summary summary;
+        Lock lock = lockFor(repository.root).readLock();
+        lock.lock();
+        try {
+            summary = search.search(repository.files, searchPool, contextLines, limit, hits::add, null, SEARCH_TIMEOUT_MILLIS);
+        } catch (SearchTimeoutException e) {
+            throw new HttpError(503, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+        logHistory(session.user, "Repository Search Performed", "Terms: " + search.getTerms());
+        StringBuilder response = new StringBuilder("{\"files\":").append(summary.getFileCount())
+                .append(",\"matchedFiles\":").append(summary.getMatchedFiles())
+                .append(",\"truncated\":").append(summary.isTruncated())
+                .append(",\"hits\":[");
+        synchronized (hits) {
+            for (int i = 0; i < hits.size(); i++) {
+                MultiPatternSearch.Hit hit = hits.get(i);
+                response.append(i > 0 ? "," : "").append("{\"file\":").append(BatchRunner.json(relative(repository, hit.getFile())))
+                        .append(",\"line\":").append(hit.getLineNumber())
+                        .append(",\"text\":").append(BatchRunner.json(hit.getLine()));
+                if (contextLines > 0) {
+                    response.append(",\"before\":").append(jsonArray(hit.getBefore()))
+                            .append(",\"after\":").append(jsonArray(hit.getAfter()));
+                }
+                response.append("}");
+            }
+        }
+        return response.append("]}").toString();
+    }
+
+    private String history(Session session, Map<String, List<String>> query) throws HttpError, IOException {
+        LogView view = records.query(historyTable, new LogFilter(session.user, null, null, null, first(query, "action")));
+        return recordsJson(view, (int) number(query, "limit", 1, MAX_LIMIT, DEFAULT_LIMIT));
+    }
+
+    private String reports(Session session, Map<String, List<String>> query) throws HttpError, IOException {
+        String file = first(query, "file");
+        if (file != null && session.repository != null) {
+            file = resolve(session.repository, file).toString();
+        }
+        LogView view = records.query(reportsTable, new LogFilter(session.user, file, null, null, null));
+        return recordsJson(view, (int) number(query, "limit", 1, MAX_LIMIT, DEFAULT_LIMIT));
+    }
+
+    /**
+     * The newest {@code limit} records of {@code view}, newest first.
+     */
+    private static String recordsJson(LogView view, int limit) {
+        StringBuilder response = new StringBuilder("{\"total\":").append(view.size()).append(",\"records\":[");
+        for (int row = view.size() - 1; row >= Math.max(0, view.size() - limit); row--) {
+            StoredRecord record = view.get(row);
+            response.append(row < view.size() - 1 ? "," : "")
+                    .append("{\"timestamp\":").append(BatchRunner.json(record.getTimestamp().toString()))
+                    .append(",\"file\":").append(BatchRunner.json(record.getFile() == null ? "" : record.getFile()))
+                    .append(",\"action\":").append(BatchRunner.json(record.getAction() == null ? "" : record.getAction()))
+                    .append(",\"value\":").append(BatchRunner.json(record.getValue(0)))
+                    .append("}");
+        }
+        return response.append("]}").toString();
+    }
+
+    private void logHistory(String user, String action, String details) {
+        records.append(new StoredRecord(historyTable, System.currentTimeMillis(), user, null, action, details));
+    }
+
+    private void saveReport(String user, String filePath, String report) {
+        records.append(new StoredRecord(reportsTable, System.currentTimeMillis(), user, filePath, null, report));
+    }
+
+    private ReentrantReadWriteLock lockFor(Path root) {
+        return locks[Math.floorMod(root.hashCode() * 0x9E3779B9, LOCK_STRIPES)];
+    }
+
+    private Session session(HttpExchange exchange) throws HttpError {
+        String token = token(exchange);
+        Session session = token == null ? null : sessions.get(token);
+        long now = System.currentTimeMillis();
+        if (session == null || now - session.lastUsedMillis > SESSION_IDLE_MILLIS) {
+            if (session != null) {
+                sessions.remove(token, session);
+            }
+            throw new HttpError(401, "Not logged in");
+        }
+        session.lastUsedMillis = now;
+        return session;
+    }
+
+    private static String token(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring("Bearer ".length()).trim() : null;
+    }
+
+    /**
+     * Drops idle sessions, at most once a minute, so abandoned tokens do not accumulate.
+     */
+    private void expireSessions() {
+        long now = System.currentTimeMillis();
+        long last = lastSweepMillis.get();
+        if (now - last > TimeUnit.MINUTES.toMillis(1) && lastSweepMillis.compareAndSet(last, now)) {
+            sessions.values().removeIf(session -> now - session.lastUsedMillis > SESSION_IDLE_MILLIS);
+        }
+    }
+
+    private static Repository repository(Session session) throws HttpError {
+        Repository repository = session.repository;
+        if (repository == null) {
+            throw new HttpError(409, "No repository uploaded");
+        }
+        return repository;
+    }
+
+    /**
+     * Resolves a path relative to the repository, refusing any that would leave it, also through a symbolic link.
+     */
+    private Path resolve(Repository repository, String file) throws HttpError {
+        Path path;
+        try {
+            path = repository.root.resolve(file).normalize();
+        } catch (InvalidPathException e) {
+            throw new HttpError(400, "Invalid path: " + file);
+        }
+        if (!path.startsWith(repository.root) || insideRoot(path) == null || !Files.isRegularFile(path)) {
+            throw new HttpError(404, "No such file: " + file);
+        }
+        return path;
+    }
+
+    private static String relative(Repository repository, Path file) {
+        return repository.root.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static void requirePost(HttpExchange exchange) throws HttpError {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            throw new HttpError(405, "Use POST");
+        }
+    }
+
+    private static Map<String, String> body(HttpExchange exchange) throws HttpError, IOException {
+        requirePost(exchange);
+        byte[] bytes;
+        try (InputStream in = exchange.getRequestBody()) {
+            bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (bytes.length > MAX_BODY_BYTES) {
+            throw new HttpError(413, "Request body too large");
+        }
+        return parseObject(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, List<String>> query(HttpExchange exchange) {
+        Map<String, List<String>> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            parameters.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+        return parameters;
+    }
+
+    private static String first(Map<String, List<String>> query, String name) {
+        List<String> values = query.get(name);
+        return values == null || values.get(0).isEmpty() ? null : values.get(0);
+    }
+
+    private static long number(Map<String, List<String>> query, String name, long min, long max, long defaultValue) throws HttpError {
+        String value = first(query, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(min, Math.min(max, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Not a number: " + name);
+        }
+    }
+
+    private static String required(Map<String, String> body, String name) throws HttpError {
+        String value = body.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new HttpError(400, "Missing field: " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Parses a flat JSON object whose values are strings, numbers, booleans or null; nested values are refused.
+     */
+    static Map<String, String> parseObject(String text) throws HttpError {
+        Map<String, String> object = new HashMap<>();
+        int[] position = {skipSpace(text, 0)};
+        expect(text, position, '{');
+        if (peek(text, position) == '}') {
+            position[0]++;
+        } else {
+            while (true) {
+                String name = parseString(text, position);
+                expect(text, position, ':');
+                char c = peek(text, position);
+                String value;
+                if (c == '"') {
+                    value = parseString(text, position);
+                } else {
+                    int start = position[0];
+                    while (position[0] < text.length() && ",} \t\r\n".indexOf(text.charAt(position[0])) < 0) {
+                        position[0]++;
+                    }
+                    value = text.substring(start, position[0]);
+                    if (value.isEmpty() || value.charAt(0) == '{' || value.charAt(0) == '[') {
+                        throw new HttpError(400, "Unsupported JSON value for " + name);
+                    }
+                    value = "null".equals(value) ? null : value;
+                }
+                object.put(name, value);
+                if (peek(text, position) == ',') {
+                    position[0]++;
+                    continue;
+                }
+                expect(text, position, '}');
+                break;
+            }
+        }
+        if (skipSpace(text, position[0]) != text.length()) {
+            throw new HttpError(400, "Trailing characters after JSON object");
+        }
+        return object;
+    }
+
+    private static String parseString(String text, int[] position) throws HttpError {
+        expect(text, position, '"');
+        StringBuilder value = new StringBuilder();
+        int i = position[0];
+        while (i < text.length()) {
+            char c = text.charAt(i++);
+            if (c == '"') {
+                position[0] = i;
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (i == text.length()) {
+                break;
+            }
+            char escape = text.charAt(i++);
+            switch (escape) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 > text.length()) {
+                        throw new HttpError(400, "Invalid JSON escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new HttpError(400, "Invalid JSON escape");
+                    }
+                    i += 4;
+                    break;
+                default:
+                    value.append(escape);
+            }
+        }
+        throw new HttpError(400, "Unterminated JSON string");
+    }
+
+    private static void expect(String text, int[] position, char expected) throws HttpError {
+        if (peek(text, position) != expected) {
+            throw new HttpError(400, "Malformed JSON: expected '" + expected + "' at " + position[0]);
+        }
+        position[0]++;
+    }
+
+    /**
+     * Skips whitespace and returns the next character, or 0 at the end of the text.
+     */
+    private static char peek(String text, int[] position) {
+        position[0] = skipSpace(text, position[0]);
+        return position[0] < text.length() ? text.charAt(position[0]) : 0;
+    }
+
+    private static int skipSpace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String jsonArray(List<String> values) {
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < values.size(); i++) {
+            array.append(i > 0 ? "," : "").append(BatchRunner.json(values.get(i)));
+        }
+        return array.append("]").toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            send(exchange, status, ("{\"error\":" + BatchRunner.json(message) + "}").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // the client has gone; nothing left to tell it
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package analyser;
+
+public final class AnalysisTotals {
+
+    private long fileCount;
+    private long lineCount;
+    private long codeLineCount;
+    private long blankLineCount;
+    private long commentLineCount;
+    private long todoCount;
+    private long fixmeCount;
+    private long complexity;
+
+    public AnalysisTotals() {
+    }
+
+    AnalysisTotals(long fileCount, long lineCount, long codeLineCount, long blankLineCount, long commentLineCount,
+                   long todoCount, long fixmeCount, long complexity) {
+        this.fileCount = fileCount;
+        this.lineCount = lineCount;
+        this.codeLineCount = codeLineCount;
+        this.blankLineCount = blankLineCount;
+        this.commentLineCount = commentLineCount;
+        this.todoCount = todoCount;
+        this.fixmeCount = fixmeCount;
+        this.complexity = complexity;
+    }
+
+    public void add(FileAnalysis analysis) {
+        fileCount++;
+        lineCount += analysis.getLineCount();
+        codeLineCount += analysis.getCodeLineCount();
+        blankLineCount += analysis.getBlankLineCount();
+        commentLineCount += analysis.getCommentLineCount();
+        todoCount += analysis.getTodoCount();
+        fixmeCount += analysis.getFixmeCount();
+        complexity += Math.max(0, analysis.getComplexity());
+    }
+
+    /**
+     * Takes back an earlier {@link #add} of the same analysis.
+     */
+    public void remove(FileAnalysis analysis) {
+        fileCount--;
+        lineCount -= analysis.getLineCount();
+        codeLineCount -= analysis.getCodeLineCount();
+        blankLineCount -= analysis.getBlankLineCount();
+        commentLineCount -= analysis.getCommentLineCount();
+        todoCount -= analysis.getTodoCount();
+        fixmeCount -= analysis.getFixmeCount();
+        complexity -= Math.max(0, analysis.getComplexity());
+    }
+
+    public AnalysisTotals copy() {
+        return new AnalysisTotals(fileCount, lineCount, codeLineCount, blankLineCount, commentLineCount, todoCount, fixmeCount, complexity);
+    }
+
+    void set(AnalysisTotals other) {
+        fileCount = other.fileCount;
+        lineCount = other.lineCount;
+        codeLineCount = other.codeLineCount;
+        blankLineCount = other.blankLineCount;
+        commentLineCount = other.commentLineCount;
+        todoCount = other.todoCount;
+        fixmeCount = other.fixmeCount;
+        complexity = other.complexity;
+    }
+
+    public void merge(AnalysisTotals other) {
+        fileCount += other.fileCount;
+        lineCount += other.lineCount;
+        codeLineCount += other.codeLineCount;
+        blankLineCount += other.blankLineCount;
+        commentLineCount += other.commentLineCount;
+        todoCount += other.todoCount;
+        fixmeCount += other.fixmeCount;
+        complexity += other.complexity;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    public long getCodeLineCount() {
+        return codeLineCount;
+    }
+
+    public long getBlankLineCount() {
+        return blankLineCount;
+    }
+
+    public long getCommentLineCount() {
+        return commentLineCount;
+    }
+
+    public long getTodoCount() {
+        return todoCount;
+    }
+
+    public long getFixmeCount() {
+        return fixmeCount;
+    }
+
+    public long getComplexity() {
+        return complexity;
+    }
+
+    @Override
+    public String toString() {
+        return "Files: " + fileCount + ", Lines: " + lineCount + ", Code: " + codeLineCount + ", Blank: " + blankLineCount +
+                ", Comments: " + commentLineCount + ", TODOs: " + todoCount + ", FIXMEs: " + fixmeCount +
+                ", Complexity: " + complexity;
+    }
+}
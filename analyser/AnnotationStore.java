@@ -0,0 +1,247 @@
+package analyser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Line comments kept beside the source files instead of in them. Each annotation is anchored to a line
+ * number and a hash of that line's text, and is stored as a record in a {@link RecordStore} table, where
+ * the file index finds a file's annotations without reading anyone else's. The table is keyed by id (see
+ * {@link RecordStore#open(java.nio.file.Path, LogAppender, byte[], byte[])}): moving an annotation appends a
+ * newer record with the same id and deleting one appends a tombstone, so the records they replace are dead
+ * and compaction removes them, deleted text included.
+ *
+ * <p>Edits saved through the application carry the anchors along with a line mapping ({@link #remap});
+ * edits made elsewhere are caught when the file is next loaded, by looking for the anchored text nearby.
+ */
+public final class AnnotationStore {
+
+    private static final String ANNOTATE = "annotate";
+    private static final int SEARCH_WINDOW = 100;
+    private static final int FALLBACK_DISTANCE = 64;
+
+    private final RecordStore store;
+    private final byte table;
+
+    public static final class Annotation {
+        private final String id;
+        private final String file;
+        private final int line;
+        private final String lineHash;
+        private final String user;
+        private final String text;
+        private final long createdMillis;
+        private final boolean stale;
+
+        private Annotation(String id, String file, int line, String lineHash, String user, String text, long createdMillis, boolean stale) {
+            this.id = id;
+            this.file = file;
+            this.line = line;
+            this.lineHash = lineHash;
+            this.user = user;
+            this.text = text;
+            this.createdMillis = createdMillis;
+            this.stale = stale;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * Zero-based line the annotation is attached to.
+         */
+        public int getLine() {
+            return line;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+
+        /**
+         * Whether the anchored line was changed outside the application and could not be found again.
+         */
+        public boolean isStale() {
+            return stale;
+        }
+
+        private Annotation at(int newLine, String newHash, boolean isStale) {
+            return new Annotation(id, file, newLine, newHash, user, text, createdMillis, isStale);
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + (line + 1) + (stale ? " (changed)" : "") + " [" + user + "]: " + text;
+        }
+    }
+
+    public AnnotationStore(RecordStore store, byte table) {
+        this.store = store;
+        this.table = table;
+    }
+
+    public Annotation add(String file, int line, String lineText, String user, String text) {
+        Annotation annotation = new Annotation(UUID.randomUUID().toString(), file, line, hash(lineText), user, text, System.currentTimeMillis(), false);
+        save(annotation);
+        return annotation;
+    }
+
+    public void delete(Annotation annotation) {
+        store.append(StoredRecord.deletion(table, System.currentTimeMillis(), annotation.user, annotation.file, annotation.id));
+    }
+
+    public boolean hasAnnotations(String file) throws IOException {
+        return !load(file).isEmpty();
+    }
+
+    /**
+     * The annotations of {@code file} ordered by line. With the file's current lines at hand, an annotation
+     * whose line no longer matches is moved to the nearest line with its anchored text, or marked stale.
+     *
+     * @param lineAt the current text of a line, or {@code null} to take the stored positions as they are
+     */
+    public List<Annotation> forFile(String file, IntFunction<String> lineAt, int lineCount) throws IOException {
+        List<Annotation> annotations = new ArrayList<>();
+        for (Annotation annotation : load(file)) {
+            if (lineAt == null || lineCount == 0) {
+                annotations.add(annotation);
+                continue;
+            }
+            int line = Math.min(annotation.line, lineCount - 1);
+            if (annotation.lineHash.isEmpty()) {
+                // imported without an anchor: adopt the line it points at
+                Annotation anchored = annotation.at(line, hash(lineAt.apply(line)), false);
+                save(anchored);
+                annotations.add(anchored);
+                continue;
+            }
+            int found = find(annotation.lineHash, line, lineAt, lineCount);
+            if (found == annotation.line) {
+                annotations.add(annotation);
+            } else if (found >= 0) {
+                Annotation moved = annotation.at(found, annotation.lineHash, false);
+                save(moved);
+                annotations.add(moved);
+            } else {
+                annotations.add(annotation.at(line, annotation.lineHash, true));
+            }
+        }
+        annotations.sort(Comparator.comparingInt(Annotation::getLine));
+        return annotations;
+    }
+
+    /**
+     * Carries the annotations of {@code file} across an edit. A line that was removed or replaced hands its
+     * annotations to the line that now follows the nearest surviving line above it.
+     *
+     * @param oldToNew maps a line of the previous version to the new one, or to -1 if it is gone
+     * @return the number of annotations that moved
+     */
+    public int remap(String file, IntUnaryOperator oldToNew, IntFunction<String> newLineAt, int newLineCount) throws IOException {
+        int moved = 0;
+        for (Annotation annotation : load(file)) {
+            int line = oldToNew.applyAsInt(annotation.line);
+            if (line < 0) {
+                line = 0;
+                for (int previous = annotation.line - 1; previous >= Math.max(0, annotation.line - FALLBACK_DISTANCE); previous--) {
+                    int mapped = oldToNew.applyAsInt(previous);
+                    if (mapped >= 0) {
+                        line = mapped + 1;
+                        break;
+                    }
+                }
+            }
+            line = Math.max(0, Math.min(line, newLineCount - 1));
+            String lineHash = newLineCount == 0 ? "" : hash(newLineAt.apply(line));
+            if (line != annotation.line || !lineHash.equals(annotation.lineHash)) {
+                save(annotation.at(line, lineHash, false));
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * A record for a line of comments.csv, with its one-based line number; it has no anchor yet and adopts
+     * the line it points at when the file is next loaded.
+     */
+    public static StoredRecord imported(byte table, long timestampMillis, String user, String file, String line, String text) {
+        String id = "imported-" + timestampMillis + "-" + Integer.toHexString((user + '\n' + line + '\n' + text).hashCode());
+        return new StoredRecord(table, timestampMillis, user, file, ANNOTATE,
+                id, String.valueOf(Math.max(0, parseLine(line) - 1)), "", text, String.valueOf(timestampMillis));
+    }
+
+    /**
+     * The file's live annotations; costs one read per annotation, however often they were moved.
+     */
+    private List<Annotation> load(String file) throws IOException {
+        LogView records = store.query(table, new LogFilter(null, file, null, null, null));
+        List<Annotation> annotations = new ArrayList<>();
+        for (int row = 0; row < records.size(); row++) {
+            StoredRecord record = records.get(row);
+            if (file.equals(record.getFile()) && record.getAction().equals(ANNOTATE)) {
+                annotations.add(new Annotation(record.getValue(0), file, parseLine(record.getValue(1)),
+                        record.getValue(2), record.getUser(), record.getValue(3), parseMillis(record.getValue(4)), false));
+            }
+        }
+        return annotations;
+    }
+
+    private void save(Annotation annotation) {
+        store.append(new StoredRecord(table, System.currentTimeMillis(), annotation.user, annotation.file, ANNOTATE,
+                annotation.id, String.valueOf(annotation.line), annotation.lineHash, annotation.text, String.valueOf(annotation.createdMillis)));
+    }
+
+    private static int find(String lineHash, int line, IntFunction<String> lineAt, int lineCount) {
+        for (int distance = 0; distance <= SEARCH_WINDOW; distance++) {
+            if (line - distance >= 0 && hash(lineAt.apply(line - distance)).equals(lineHash)) {
+                return line - distance;
+            }
+            if (distance > 0 && line + distance < lineCount && hash(lineAt.apply(line + distance)).equals(lineHash)) {
+                return line + distance;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Identifies a line by its text, ignoring indentation and trailing whitespace.
+     */
+    private static String hash(String lineText) {
+        return Integer.toHexString(lineText.trim().hashCode());
+    }
+
+    private static int parseLine(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long parseMillis(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
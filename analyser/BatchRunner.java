@@ -0,0 +1,539 @@
+package analyser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+
+/**
+ * Headless entry point for build agents: walks a repository, analyzes every file and searches it for the
+ * given terms, all on one fork/join pool so files are analyzed while the walk is still listing others.
+ * Results are streamed as JSON Lines or CSV, one record per file and per matching line, followed by a
+ * summary; the exit status reports whether any threshold was exceeded. Nothing here touches AWT.
+ */
+public final class BatchRunner {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_THRESHOLD_EXCEEDED = 1;
+    public static final int EXIT_USAGE = 2;
+    public static final int EXIT_ERROR = 3;
+
+    private static final String USAGE = String.join("\n",
+            "Usage: GitHubCodeAnalyser <repository> [options]",
+            "  --format jsonl|csv        output format (default jsonl)",
+            "  --output <file>           write results to a file instead of stdout",
+            "  --search <term>           report lines containing term; may be repeated",
+            "                            re:<regex> for a regular expression, i:<term> to ignore case",
+            "  --context <n>             include n lines around each match (jsonl only)",
+            "  --max-todo <n>            fail if the repository has more than n TODOs",
+            "  --max-fixme <n>           fail if the repository has more than n FIXMEs",
+            "  --max-complexity <n>      fail if any file's cyclomatic complexity exceeds n",
+            "  --max-matches <n>         fail if the search terms match more than n times",
+            "  --duplicates <n>          report blocks of n or more code lines copied elsewhere (jsonl only)",
+            "  --max-duplicate-lines <n> fail if more than n code lines are duplicated",
+            "  --git                     add commits, authors and last change from the local .git (jsonl only)",
+            "  --threads <n>             worker threads (default: available processors)",
+            "  --cache <file>            reuse and update an analysis cache between runs",
+            "  --metrics <file>          write timings in the Prometheus text format",
+            "  --extensions <a,b,...>    only analyze files with these extensions",
+            "  --max-file-bytes <n>      skip files larger than n bytes",
+            "  --exclude-dirs <a,b,...>  directory names to skip (default .git,.hg,.svn,node_modules)",
+            "  --no-gitignore            do not apply .gitignore rules",
+            "Exit status: 0 ok, 1 threshold exceeded, 2 usage error, 3 error");
+
+    private static final String[] CSV_COLUMNS = {"type", "path", "language", "lines", "code", "comment", "blank",
+            "todo", "fixme", "complexity", "term", "line", "count"};
+
+    private final Path root;
+    private final boolean csv;
+    private final List<String> terms;
+    private final MultiPatternSearch search;
+    private final int contextLines;
+    private final long maxTodo;
+    private final long maxFixme;
+    private final long maxComplexity;
+    private final long maxMatches;
+    private final DuplicateFinder duplicates;
+    private final long maxDuplicateLines;
+    private final GitHistory history;
+    private final AnalysisCache cache;
+    private final Writer out;
+
+    private final AnalysisTotals totals = new AnalysisTotals();
+    private final AtomicLong binaryFiles = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private final AtomicLong worstComplexity = new AtomicLong();
+    private final AtomicLongArray matches;
+
+    private BatchRunner(Path root, boolean csv, MultiPatternSearch search, int contextLines, long maxTodo, long maxFixme,
+                        long maxComplexity, long maxMatches, DuplicateFinder duplicates, long maxDuplicateLines,
+                        GitHistory history, AnalysisCache cache, Writer out) {
+        this.root = root;
+        this.csv = csv;
+        this.terms = search == null ? Collections.emptyList()
+                : search.getTerms().stream().map(MultiPatternSearch.Term::toString).collect(Collectors.toList());
+        this.search = search;
+        this.contextLines = contextLines;
+        this.maxTodo = maxTodo;
+        this.maxFixme = maxFixme;
+        this.maxComplexity = maxComplexity;
+        this.maxMatches = maxMatches;
+        this.duplicates = duplicates;
+        this.maxDuplicateLines = maxDuplicateLines;
+        this.history = history;
+        this.cache = cache;
+        this.out = out;
+        this.matches = new AtomicLongArray(terms.size());
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs one batch analysis as described by {@code args} and returns the process exit status.
+     */
+    public static int run(String[] args, PrintStream stdout, PrintStream stderr) {
+        System.setProperty("java.awt.headless", "true");
+        Path root = null;
+        String format = "jsonl";
+        Path output = null;
+        List<MultiPatternSearch.Term> terms = new ArrayList<>();
+        MultiPatternSearch search = null;
+        int contextLines = 0;
+        long maxTodo = Long.MAX_VALUE;
+        long maxFixme = Long.MAX_VALUE;
+        long maxComplexity = Long.MAX_VALUE;
+        long maxMatches = Long.MAX_VALUE;
+        int duplicateLines = 0;
+        long maxDuplicateLines = Long.MAX_VALUE;
+        boolean git = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path cacheFile = null;
+        Path metricsFile = null;
+        Set<String> extensions = Collections.emptySet();
+        long maxFileBytes = Long.MAX_VALUE;
+        Set<String> excludedDirectories = RepositoryWalker.DEFAULT_EXCLUDED_DIRECTORIES;
+        boolean useGitignore = true;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--format":
+                        format = value(args, ++i, arg);
+                        if (!format.equals("jsonl") && !format.equals("csv")) {
+                            throw new IllegalArgumentException("Unknown format: " + format);
+                        }
+                        break;
+                    case "--output":
+                        output = Paths.get(value(args, ++i, arg));
+                        break;
+                    case "--search":
+                        terms.add(MultiPatternSearch.Term.parse(value(args, ++i, arg)));
+                        break;
+                    case "--context":
+                        contextLines = (int) Math.max(0, Math.min(100, number(args, ++i, arg)));
+                        break;
+                    case "--max-todo":
+                        maxTodo = number(args, ++i, arg);
+                        break;
+                    case "--max-fixme":
+                        maxFixme = number(args, ++i, arg);
+                        break;
+                    case "--max-complexity":
+                        maxComplexity = number(args, ++i, arg);
+                        break;
+                    case "--max-matches":
+                        maxMatches = number(args, ++i, arg);
+                        break;
+                    case "--duplicates":
+                        duplicateLines = (int) Math.max(2, Math.min(10_000, number(args, ++i, arg)));
+                        break;
+                    case "--max-duplicate-lines":
+                        maxDuplicateLines = number(args, ++i, arg);
+                        break;
+                    case "--git":
+                        git = true;
+                        break;
+                    case "--threads":
+                        threads = (int) Math.max(1, number(args, ++i, arg));
+                        break;
+                    case "--cache":
+                        cacheFile = Paths.get(value(args, ++i, arg));
+                        break;
+                    case "--metrics":
+                        metricsFile = Paths.get(value(args, ++i, arg));
+                        break;
+                    case "--extensions":
+                        extensions = split(value(args, ++i, arg));
+                        break;
+                    case "--max-file-bytes":
+                        maxFileBytes = number(args, ++i, arg);
+                        break;
+                    case "--exclude-dirs":
+                        excludedDirectories = split(value(args, ++i, arg));
+                        break;
+                    case "--no-gitignore":
+                        useGitignore = false;
+                        break;
+                    case "--help":
+                    case "-h":
+                        stdout.println(USAGE);
+                        return EXIT_OK;
+                    default:
+                        if (arg.startsWith("--") || root != null) {
+                            throw new IllegalArgumentException("Unexpected argument: " + arg);
+                        }
+                        root = Paths.get(arg).toAbsolutePath().normalize();
+                }
+            }
+            if (root == null) {
+                throw new IllegalArgumentException("No repository given");
+            }
+            if (!terms.isEmpty()) {
+                search = MultiPatternSearch.compile(terms);
+            }
+        } catch (IllegalArgumentException e) {
+            stderr.println(e.getMessage());
+            stderr.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (Writer out = new BufferedWriter(output == null
+                ? new OutputStreamWriter(stdout, StandardCharsets.UTF_8)
+                : Files.newBufferedWriter(output, StandardCharsets.UTF_8), 1 << 16)) {
+            AnalysisCache cache = cacheFile == null ? null : AnalysisCache.load(cacheFile);
+            if (cache != null) {
+                cache.retainUnder(root);
+            }
+            GitHistory history = null;
+            if (git) {
+                history = GitHistory.read(root, GitHistory.DEFAULT_MAX_COMMITS, null);
+                if (history == null) {
+                    throw new IOException("not a Git working tree");
+                }
+            }
+            BatchRunner runner = new BatchRunner(root, format.equals("csv"), search, contextLines, maxTodo, maxFixme, maxComplexity, maxMatches,
+                    duplicateLines > 0 || maxDuplicateLines != Long.MAX_VALUE
+                            ? new DuplicateFinder(duplicateLines > 0 ? duplicateLines : DuplicateFinder.DEFAULT_MIN_LINES) : null,
+                    maxDuplicateLines, history, cache, out);
+            RepositoryWalker walker = new RepositoryWalker(extensions, maxFileBytes, useGitignore, excludedDirectories);
+            List<String> violations = runner.execute(walker, pool, start);
+            if (cache != null) {
+                cache.save(cacheFile);
+            }
+            if (metricsFile != null) {
+                Metrics.writePrometheus(metricsFile);
+            }
+            out.flush();
+            for (String violation : violations) {
+                stderr.println("Threshold exceeded: " + violation);
+            }
+            return violations.isEmpty() ? EXIT_OK : EXIT_THRESHOLD_EXCEEDED;
+        } catch (IOException | UncheckedIOException e) {
+            stderr.println("Error analyzing " + root + ": " + e.getMessage());
+            return EXIT_ERROR;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private List<String> execute(RepositoryWalker walker, ForkJoinPool pool, long start) throws IOException {
+        if (csv) {
+            write(String.join(",", CSV_COLUMNS));
+        }
+        // Files are handed to the pool batch by batch while the walk goes on
+        walker.walk(root, pool, batch -> {
+            for (Path file : batch) {
+                pool.execute(() -> process(file));
+            }
+        }, null);
+        pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        List<String> violations = new ArrayList<>();
+        if (totals.getTodoCount() > maxTodo) {
+            violations.add("TODO count " + totals.getTodoCount() + " > " + maxTodo);
+        }
+        if (totals.getFixmeCount() > maxFixme) {
+            violations.add("FIXME count " + totals.getFixmeCount() + " > " + maxFixme);
+        }
+        if (worstComplexity.get() > maxComplexity) {
+            violations.add("file complexity " + worstComplexity.get() + " > " + maxComplexity);
+        }
+        long totalMatches = 0;
+        for (int i = 0; i < terms.size(); i++) {
+            totalMatches += matches.get(i);
+        }
+        if (totalMatches > maxMatches) {
+            violations.add("search matches " + totalMatches + " > " + maxMatches);
+        }
+        DuplicateFinder.Report duplicateReport = null;
+        if (duplicates != null) {
+            duplicateReport = duplicates.find();
+            writeDuplicates(duplicateReport);
+            if (duplicateReport.getDuplicatedLines() > maxDuplicateLines) {
+                violations.add("duplicated lines " + duplicateReport.getDuplicatedLines() + " > " + maxDuplicateLines);
+            }
+        }
+        writeSummary(totalMatches, duplicateReport, violations, start);
+        return violations;
+    }
+
+    private void process(Path file) {
+        String path = relative(file);
+        FileAnalysis analysis;
+        try {
+            analysis = cache != null ? cache.analyze(file) : CodeAnalyzer.analyzeFile(file);
+        } catch (BinaryFileException e) {
+            binaryFiles.incrementAndGet();
+            return;
+        } catch (IOException e) {
+            failedFiles.incrementAndGet();
+            writeError(path, e);
+            return;
+        }
+        synchronized (totals) {
+            totals.add(analysis);
+        }
+        worstComplexity.accumulateAndGet(analysis.getComplexity(), Math::max);
+        if (csv) {
+            writeCsv("file", path, analysis.getLanguage(), analysis.getLineCount(), analysis.getCodeLineCount(),
+                    analysis.getCommentLineCount(), analysis.getBlankLineCount(), analysis.getTodoCount(), analysis.getFixmeCount(),
+                    analysis.getComplexity(), "", "", "");
+        } else {
+            write("{\"type\":\"file\",\"path\":" + json(path) + ",\"language\":" + json(analysis.getLanguage()) +
+                    ",\"lines\":" + analysis.getLineCount() + ",\"code\":" + analysis.getCodeLineCount() +
+                    ",\"comment\":" + analysis.getCommentLineCount() + ",\"blank\":" + analysis.getBlankLineCount() +
+                    ",\"todo\":" + analysis.getTodoCount() + ",\"fixme\":" + analysis.getFixmeCount() +
+                    ",\"complexity\":" + analysis.getComplexity() + gitFields(file) + "}");
+        }
+        if (search != null) {
+            search(file, path);
+        }
+        if (duplicates != null) {
+            try {
+                duplicates.add(file);
+            } catch (IOException e) {
+                writeError(path, e);
+            }
+        }
+    }
+
+    private void search(Path file, String path) {
+        StringBuilder records = new StringBuilder();
+        long[] termMatches = new long[terms.size()];
+        int[] lineCounts = new int[terms.size()];
+        try {
+            search.searchFile(file, contextLines, hit -> {
+                Arrays.fill(lineCounts, 0);
+                for (int i = 0; i < hit.getMatchCount(); i++) {
+                    lineCounts[hit.getTerm(i)]++;
+                }
+                for (int i = 0; i < lineCounts.length; i++) {
+                    if (lineCounts[i] == 0) {
+                        continue;
+                    }
+                    if (csv) {
+                        records.append(csvRow("match", path, "", "", "", "", "", "", "", "", terms.get(i), hit.getLineNumber(), lineCounts[i])).append('\n');
+                    } else {
+                        records.append("{\"type\":\"match\",\"path\":").append(json(path)).append(",\"term\":").append(json(terms.get(i)))
+                                .append(",\"line\":").append(hit.getLineNumber()).append(",\"count\":").append(lineCounts[i]);
+                        if (contextLines > 0) {
+                            records.append(",\"text\":").append(json(hit.getLine()))
+                                    .append(",\"before\":[").append(hit.getBefore().stream().map(BatchRunner::json).collect(Collectors.joining(",")))
+                                    .append("],\"after\":[").append(hit.getAfter().stream().map(BatchRunner::json).collect(Collectors.joining(",")))
+                                    .append(']');
+                        }
+                        records.append("}\n");
+                    }
+                }
+            }, termMatches);
+        } catch (IOException e) {
+            writeError(path, e);
+            return;
+        }
+        for (int i = 0; i < termMatches.length; i++) {
+            if (termMatches[i] > 0) {
+                matches.addAndGet(i, termMatches[i]);
+            }
+        }
+        if (records.length() > 0) {
+            records.setLength(records.length() - 1);
+            write(records.toString());
+        }
+    }
+
+    private void writeDuplicates(DuplicateFinder.Report report) {
+        if (csv) {
+            return;
+        }
+        for (DuplicateFinder.Duplicate duplicate : report.getDuplicates()) {
+            write("{\"type\":\"duplicate\",\"path\":" + json(relative(duplicate.getFirst())) + ",\"start\":" + duplicate.getFirstStart() +
+                    ",\"end\":" + duplicate.getFirstEnd() + ",\"otherPath\":" + json(relative(duplicate.getSecond())) +
+                    ",\"otherStart\":" + duplicate.getSecondStart() + ",\"otherEnd\":" + duplicate.getSecondEnd() +
+                    ",\"lines\":" + duplicate.getLines() + "}");
+        }
+    }
+
+    private String relative(Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private String gitFields(Path file) {
+        GitHistory.FileHistory fileHistory = history == null ? null : history.get(file);
+        if (fileHistory == null) {
+            return history == null ? "" : ",\"commits\":0";
+        }
+        return ",\"commits\":" + fileHistory.getCommitCount() + ",\"authors\":" + fileHistory.getAuthorCount() +
+                ",\"lastChanged\":" + json(fileHistory.getLastChanged().toString()) +
+                ",\"lastAuthor\":" + json(fileHistory.getLastAuthor());
+    }
+
+    private void writeSummary(long totalMatches, DuplicateFinder.Report duplicateReport, List<String> violations, long start) {
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        long startupMillis = ProcessHandle.current().info().startInstant()
+                .map(started -> Duration.between(started, Instant.now()).toMillis() - elapsedMillis)
+                .orElse(-1L);
+        if (csv) {
+            writeCsv("summary", "", "", totals.getLineCount(), totals.getCodeLineCount(), totals.getCommentLineCount(),
+                    totals.getBlankLineCount(), totals.getTodoCount(), totals.getFixmeCount(), totals.getComplexity(), "", "", totalMatches);
+            return;
+        }
+        Map<String, Long> termMatches = new LinkedHashMap<>();
+        for (int i = 0; i < terms.size(); i++) {
+            termMatches.put(terms.get(i), matches.get(i));
+        }
+        write("{\"type\":\"summary\",\"root\":" + json(root.toString()) + ",\"files\":" + totals.getFileCount() +
+                ",\"binaryFiles\":" + binaryFiles.get() + ",\"failedFiles\":" + failedFiles.get() +
+                ",\"lines\":" + totals.getLineCount() + ",\"code\":" + totals.getCodeLineCount() +
+                ",\"comment\":" + totals.getCommentLineCount() + ",\"blank\":" + totals.getBlankLineCount() +
+                ",\"todo\":" + totals.getTodoCount() + ",\"fixme\":" + totals.getFixmeCount() +
+                ",\"complexity\":" + totals.getComplexity() + ",\"maxFileComplexity\":" + worstComplexity.get() +
+                ",\"matches\":{" + termMatches.entrySet().stream().map(e -> json(e.getKey()) + ":" + e.getValue()).collect(Collectors.joining(",")) + "}" +
+                (duplicateReport == null ? "" : ",\"duplicates\":" + duplicateReport.getDuplicates().size() +
+                        ",\"duplicatedLines\":" + duplicateReport.getDuplicatedLines()) +
+                (history == null ? "" : ",\"commits\":" + history.getCommitCount() + ",\"authors\":" + history.getAuthorCount() +
+                        ",\"head\":" + json(String.valueOf(history.getHead()))) +
+                ",\"violations\":[" + violations.stream().map(BatchRunner::json).collect(Collectors.joining(",")) + "]" +
+                ",\"elapsedMillis\":" + elapsedMillis + ",\"startupMillis\":" + startupMillis + "}");
+    }
+
+    private void writeError(String path, IOException e) {
+        if (csv) {
+            writeCsv("error", path, "", "", "", "", "", "", "", "", String.valueOf(e.getMessage()), "", "");
+        } else {
+            write("{\"type\":\"error\",\"path\":" + json(path) + ",\"message\":" + json(String.valueOf(e.getMessage())) + "}");
+        }
+    }
+
+    private void writeCsv(Object... fields) {
+        write(csvRow(fields));
+    }
+
+    /**
+     * Writes complete records only, so lines from different worker threads never interleave.
+     */
+    private void write(String records) {
+        synchronized (out) {
+            try {
+                out.write(records);
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static String csvRow(Object... fields) {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            String field = String.valueOf(fields[i]);
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                row.append('"').append(field.replace("\"", "\"\"")).append('"');
+            } else {
+                row.append(field);
+            }
+        }
+        return row.toString();
+    }
+
+    static String json(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    escaped.append("\\\"");
+                    break;
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.append('"').toString();
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static long number(String[] args, int index, String option) {
+        String value = value(args, index, option);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+        }
+    }
+
+    private static Set<String> split(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(part -> !part.isEmpty())
+                .collect(Collectors.toSet());
+    }
+}
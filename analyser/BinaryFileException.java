@@ -0,0 +1,13 @@
+package analyser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class BinaryFileException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BinaryFileException(Path path) {
+        super("Binary file: " + path);
+    }
+}
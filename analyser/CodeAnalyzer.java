@@ -0,0 +1,237 @@
+package analyser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Checksum;
+
+public final class CodeAnalyzer {
+
+    private static final int FILES_PER_TASK = 32;
+
+    private CodeAnalyzer() {
+    }
+
+    public static FileAnalysis analyzeFile(Path path) throws IOException {
+        return analyzeFile(path, null);
+    }
+
+    public static FileAnalysis analyzeFile(Path path, Checksum checksum) throws IOException {
+        String fileType = fileTypeOf(path);
+        Language language = Languages.forFileType(fileType);
+        LineCounter counter = new LineCounter(language.newLexer());
+        LineScanner scanner = LineScanner.shared();
+        Metrics.Sample sample = Metrics.start("analyze");
+        long lineCount;
+        long bytesRead;
+        try {
+            // a file the user has open is analyzed from memory; anything else streams from disk
+            FileContentCache.Content content = FileContentCache.shared().getIfPresent(path);
+            lineCount = content != null ? content.scan(counter, checksum) : scanner.scan(path, counter, checksum);
+            bytesRead = content != null ? content.getSize() : scanner.getBytesRead();
+        } catch (IOException e) {
+            sample.fail(language.getName());
+            throw e;
+        }
+        sample.stop(language.getName(), bytesRead);
+        if (lineCount == LineScanner.BINARY_FILE) {
+            throw new BinaryFileException(path);
+        }
+        int decisionPoints = counter.lexer.getDecisionPoints();
+        return new FileAnalysis(path, fileType, language.getName(), (int) lineCount, counter.codeLineCount, counter.blankLineCount,
+                counter.commentLineCount, counter.todoCount, counter.fixmeCount, decisionPoints < 0 ? -1 : decisionPoints + 1,
+                counter.commentReport);
+    }
+
+    public static RepositoryAnalysis analyzeRepository(Path root) throws IOException {
+        return analyzeRepository(root, ForkJoinPool.commonPool());
+    }
+
+    public static RepositoryAnalysis analyzeRepository(Path root, ForkJoinPool pool) throws IOException {
+        return analyzeFiles(root, new RepositoryWalker().list(root, pool), pool);
+    }
+
+    public static RepositoryAnalysis analyzeFiles(Path root, List<Path> files, ForkJoinPool pool) {
+        return analyzeFiles(root, files, pool, null);
+    }
+
+    public static RepositoryAnalysis analyzeFiles(Path root, List<Path> files, ForkJoinPool pool, AnalysisCache cache) {
+        return analyzeFiles(root, files, pool, cache, null);
+    }
+
+    /**
+     * Reports each analyzed file to {@code context}, if given, and stops early once it is cancelled.
+     */
+    public static RepositoryAnalysis analyzeFiles(Path root, List<Path> files, ForkJoinPool pool, AnalysisCache cache,
+                                                  TaskExecutor.Context context) {
+        long start = System.nanoTime();
+        if (context != null) {
+            context.setTotal(files.size());
+        }
+        Partial result = pool.invoke(new AnalyzeTask(root, files, cache, context, 0, files.size()));
+        if (context != null) {
+            context.checkCancelled();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        AnalysisTotals totals = new AnalysisTotals();
+        for (AnalysisTotals extensionTotal : result.extensionTotals.values()) {
+            totals.merge(extensionTotal);
+        }
+        return new RepositoryAnalysis(root, result.files, result.failedFiles, result.binaryFiles, new TreeMap<>(result.directoryTotals),
+                new TreeMap<>(result.extensionTotals), totals, elapsedMillis);
+    }
+
+    public static String fileTypeOf(Path path) {
+        Path fileName = path.getFileName();
+        if (fileName == null) {
+            return "";
+        }
+        String name = fileName.toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1);
+    }
+
+    /**
+     * The name of the language {@code path} is analyzed as, for reports and metrics.
+     */
+    public static String languageOf(Path path) {
+        return Languages.forFileType(fileTypeOf(path)).getName();
+    }
+
+    static String directoryKey(Path root, Path directory) {
+        if (directory == null || directory.equals(root)) {
+            return ".";
+        }
+        return root.relativize(directory).toString().replace('\\', '/');
+    }
+
+    private static final class LineCounter implements LineScanner.LineVisitor {
+        private final Lexer lexer;
+        private int codeLineCount;
+        private int blankLineCount;
+        private int commentLineCount;
+        private int todoCount;
+        private int fixmeCount;
+        private final List<String> commentReport = new ArrayList<>();
+
+        private LineCounter(Lexer lexer) {
+            this.lexer = lexer;
+        }
+
+        @Override
+        public void visit(byte[] buffer, int start, int end, int lineNumber) {
+            int flags = lexer.scanLine(buffer, start, end);
+            if ((flags & Lexer.CODE) != 0) {
+                codeLineCount++;
+            } else if ((flags & Lexer.COMMENT) != 0) {
+                commentLineCount++;
+            } else {
+                blankLineCount++;
+                return;
+            }
+            if ((flags & (Lexer.TODO | Lexer.FIXME)) == 0) {
+                return;
+            }
+            int first = LineScanner.firstNonBlank(buffer, start, end);
+            int last = LineScanner.lastNonBlank(buffer, first, end);
+            if ((flags & Lexer.TODO) != 0) {
+                todoCount++;
+                commentReport.add("TODO: " + LineScanner.decode(buffer, first, last) + " (Line " + lineNumber + ")");
+            }
+            if ((flags & Lexer.FIXME) != 0) {
+                fixmeCount++;
+                commentReport.add("FIXME: " + LineScanner.decode(buffer, first, last) + " (Line " + lineNumber + ")");
+            }
+        }
+    }
+
+    private static final class Partial {
+        private final List<FileAnalysis> files = new ArrayList<>();
+        private final List<Path> failedFiles = new ArrayList<>();
+        private final List<Path> binaryFiles = new ArrayList<>();
+        private final Map<String, AnalysisTotals> directoryTotals = new HashMap<>();
+        private final Map<String, AnalysisTotals> extensionTotals = new HashMap<>();
+
+        private void add(Path root, FileAnalysis analysis) {
+            files.add(analysis);
+            extensionTotals.computeIfAbsent(analysis.getFileType(), k -> new AnalysisTotals()).add(analysis);
+            Path directory = analysis.getPath().getParent();
+            while (directory != null && directory.startsWith(root)) {
+                directoryTotals.computeIfAbsent(directoryKey(root, directory), k -> new AnalysisTotals()).add(analysis);
+                directory = directory.getParent();
+            }
+        }
+
+        private Partial merge(Partial other) {
+            files.addAll(other.files);
+            failedFiles.addAll(other.failedFiles);
+            binaryFiles.addAll(other.binaryFiles);
+            other.directoryTotals.forEach((key, value) -> directoryTotals.merge(key, value, (a, b) -> {
+                a.merge(b);
+                return a;
+            }));
+            other.extensionTotals.forEach((key, value) -> extensionTotals.merge(key, value, (a, b) -> {
+                a.merge(b);
+                return a;
+            }));
+            return this;
+        }
+    }
+
+    private static final class AnalyzeTask extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path root;
+        private final List<Path> files;
+        private final AnalysisCache cache;
+        private final TaskExecutor.Context context;
+        private final int from;
+        private final int to;
+
+        private AnalyzeTask(Path root, List<Path> files, AnalysisCache cache, TaskExecutor.Context context, int from, int to) {
+            this.root = root;
+            this.files = files;
+            this.cache = cache;
+            this.context = context;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from <= FILES_PER_TASK) {
+                Partial partial = new Partial();
+                if (context != null && context.isCancelled()) {
+                    return partial;
+                }
+                for (int i = from; i < to; i++) {
+                    Path file = files.get(i);
+                    try {
+                        partial.add(root, cache != null ? cache.analyze(file) : analyzeFile(file));
+                    } catch (BinaryFileException e) {
+                        partial.binaryFiles.add(file);
+                    } catch (IOException | RuntimeException e) {
+                        partial.failedFiles.add(file);
+                    }
+                }
+                if (context != null) {
+                    context.advance(to - from);
+                }
+                return partial;
+            }
+            int middle = (from + to) >>> 1;
+            AnalyzeTask left = new AnalyzeTask(root, files, cache, context, from, middle);
+            left.fork();
+            Partial right = new AnalyzeTask(root, files, cache, context, middle, to).compute();
+            return left.join().merge(right);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package analyser;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User credentials kept as salted PBKDF2 hashes in a keyed table of a {@link RecordStore}. Registering or
+ * upgrading a user appends one record; the table is only rewritten once, to purge imported cleartext
+ * passwords. A successful login is remembered for {@value #SESSION_MINUTES} minutes as an HMAC of the
+ * password under a per-process key, so repeated logins and re-authentication skip the key derivation.
+ * Unknown users still pay for one derivation, so response time does not reveal which names exist.
+ */
+public final class CredentialStore {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int SESSION_MINUTES = 15;
+    private static final int MAX_SESSIONS = 1024;
+
+    private final RecordStore store;
+    private final byte table;
+    private final int iterations;
+    private final Map<String, Credential> credentials = new ConcurrentHashMap<>();
+    private final Map<String, Session> sessions = new LinkedHashMap<String, Session>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+            return size() > MAX_SESSIONS;
+        }
+    };
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] sessionKey = new byte[32];
+    private final Credential unknownUser;
+    private final AtomicLong derivations = new AtomicLong();
+    private final AtomicLong derivationNanos = new AtomicLong();
+    private final AtomicLong sessionHits = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private static final class Credential {
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private Credential(int iterations, byte[] salt, byte[] hash) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+
+    private static final class Session {
+        private final Credential credential;
+        private final byte[] mac;
+        private final long expiresNanos;
+
+        private Session(Credential credential, byte[] mac, long expiresNanos) {
+            this.credential = credential;
+            this.mac = mac;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    private CredentialStore(RecordStore store, byte table, int iterations) {
+        this.store = store;
+        this.table = table;
+        this.iterations = iterations;
+        random.nextBytes(sessionKey);
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        this.unknownUser = new Credential(iterations, salt, new byte[HASH_BITS / 8]);
+    }
+
+    /**
+     * Loads the users of {@code table}. Records still holding a cleartext password, as imported from the
+     * old user file, are hashed here, once, and the store is compacted so the cleartext is not left on disk.
+     * Like {@link RecordStore#compact}, that requires that nothing has been appended to the store yet.
+     *
+     * @param iterations PBKDF2 iterations for new hashes; older hashes are upgraded on their next login
+     */
+    public static CredentialStore open(RecordStore store, byte table, int iterations) throws IOException {
+        CredentialStore credentialStore = new CredentialStore(store, table, iterations);
+        List<StoredRecord> hashed = new ArrayList<>();
+        for (StoredRecord record : store.latest(table).values()) {
+            if (record.getValueCount() == 4 && record.getValue(0).equals(ALGORITHM)) {
+                try {
+                    Base64.Decoder decoder = Base64.getDecoder();
+                    credentialStore.credentials.put(record.getUser(), new Credential(Integer.parseInt(record.getValue(1)),
+                            decoder.decode(record.getValue(2)), decoder.decode(record.getValue(3))));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Ignoring unreadable credentials of user " + record.getUser());
+                }
+            } else if (record.getValueCount() == 1) {
+                char[] password = record.getValue(0).toCharArray();
+                Credential credential = credentialStore.hash(password);
+                Arrays.fill(password, '\0');
+                credentialStore.credentials.put(record.getUser(), credential);
+                hashed.add(credentialStore.record(record.getUser(), credential));
+            }
+        }
+        if (!hashed.isEmpty()) {
+            // written durably first, so the cleartext records are superseded before compaction drops them
+            store.importRecords(hashed);
+            store.compact();
+        }
+        return credentialStore;
+    }
+
+    public boolean contains(String user) {
+        return credentials.containsKey(user);
+    }
+
+    public int size() {
+        return credentials.size();
+    }
+
+    /**
+     * Checks {@code password} against the stored hash, or against the remembered session if there is one.
+     */
+    public boolean verify(String user, char[] password) {
+        Credential credential = credentials.get(user);
+        byte[] mac = sessionMac(user, password);
+        Session session;
+        synchronized (sessions) {
+            session = sessions.get(user);
+        }
+        if (credential != null && session != null && session.credential == credential
+                && System.nanoTime() - session.expiresNanos < 0 && MessageDigest.isEqual(session.mac, mac)) {
+            sessionHits.incrementAndGet();
+            return true;
+        }
+        Credential expected = credential == null ? unknownUser : credential;
+        boolean matches = MessageDigest.isEqual(derive(password, expected.salt, expected.iterations), expected.hash) && credential != null;
+        if (!matches) {
+            failures.incrementAndGet();
+            return false;
+        }
+        if (credential.iterations < iterations) {
+            Credential upgraded = hash(password);
+            store.append(record(user, upgraded));
+            credential = credentials.replace(user, credential, upgraded) ? upgraded : credential;
+        }
+        synchronized (sessions) {
+            sessions.put(user, new Session(credential, mac, System.nanoTime() + TimeUnit.MINUTES.toNanos(SESSION_MINUTES)));
+        }
+        return true;
+    }
+
+    /**
+     * Adds {@code user} unless the name is taken; of two concurrent registrations of one name, only one succeeds.
+     */
+    public boolean register(String user, char[] password) {
+        if (credentials.containsKey(user)) {
+            return false;
+        }
+        Credential credential = hash(password);
+        if (credentials.putIfAbsent(user, credential) != null) {
+            return false;
+        }
+        store.append(record(user, credential));
+        return true;
+    }
+
+    /**
+     * Forgets the remembered session of {@code user}, so the next login derives the hash again.
+     */
+    public void invalidate(String user) {
+        synchronized (sessions) {
+            sessions.remove(user);
+        }
+    }
+
+    public String getStats() {
+        long count = derivations.get();
+        return "Users: " + credentials.size() + ", Iterations: " + iterations +
+                "\nKey Derivations: " + count + " (avg " + (count == 0 ? 0 : derivationNanos.get() / count / 1_000_000) + " ms)" +
+                "\nSession Hits: " + sessionHits.get() + ", Failed Logins: " + failures.get();
+    }
+
+    private Credential hash(char[] password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return new Credential(iterations, salt, derive(password, salt, iterations));
+    }
+
+    private StoredRecord record(String user, Credential credential) {
+        Base64.Encoder encoder = Base64.getEncoder();
+        return new StoredRecord(table, System.currentTimeMillis(), user, null, null,
+                ALGORITHM, String.valueOf(credential.iterations), encoder.encodeToString(credential.salt), encoder.encodeToString(credential.hash));
+    }
+
+    private byte[] derive(char[] password, byte[] salt, int rounds) {
+        long start = System.nanoTime();
+        Metrics.Sample sample = Metrics.start("auth.derive");
+        PBEKeySpec spec = new PBEKeySpec(password, salt, rounds, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+            sample.stop(0);
+            derivations.incrementAndGet();
+            derivationNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private byte[] sessionMac(String user, char[] password) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(sessionKey, "HmacSHA256"));
+            mac.update(user.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(bytes);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+            if (encoded.hasArray()) {
+                Arrays.fill(encoded.array(), (byte) 0);
+            }
+        }
+    }
+}
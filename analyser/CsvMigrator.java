@@ -0,0 +1,130 @@
+package analyser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * One-time import of the comma-separated files the application used to keep its data in. The lines of each
+ * CSV file are split the way they were written, converted to records and imported into a {@link RecordStore}
+ * in timestamp order. Each source is renamed with a {@code .migrated} suffix afterwards so it is not imported
+ * again, except sources holding secrets, which are overwritten and deleted.
+ */
+public final class CsvMigrator {
+
+    private static final String MIGRATED_SUFFIX = ".migrated";
+
+    private final List<StoredRecord> records = new ArrayList<>();
+    private final List<Path> sources = new ArrayList<>();
+    private final List<Path> sensitiveSources = new ArrayList<>();
+
+    public interface Converter {
+        /**
+         * @param fallbackMillis the file's modification time, for lines without a usable timestamp
+         * @return the record for {@code fields}, or {@code null} to drop the line
+         */
+        StoredRecord convert(String[] fields, long fallbackMillis);
+    }
+
+    /**
+     * Reads {@code source} if it exists; lines that do not split into {@code fieldCount} fields are dropped.
+     */
+    public void add(Path source, int fieldCount, Converter converter) throws IOException {
+        if (!Files.isRegularFile(source)) {
+            return;
+        }
+        read(source, fieldCount, converter, Files.getLastModifiedTime(source).toMillis());
+        sources.add(source);
+    }
+
+    /**
+     * Like {@link #add}, for a file such as the old cleartext user file: once imported it is overwritten
+     * with zeros and deleted instead of being kept.
+     */
+    public void addSensitive(Path source, int fieldCount, Converter converter) throws IOException {
+        int before = sources.size();
+        add(source, fieldCount, converter);
+        if (sources.size() > before) {
+            sensitiveSources.add(sources.remove(before));
+        }
+    }
+
+    /**
+     * Imports everything added so far and retires the sources.
+     *
+     * @return the number of records imported
+     */
+    public int migrate(RecordStore store) throws IOException {
+        if (sources.isEmpty() && sensitiveSources.isEmpty()) {
+            return 0;
+        }
+        records.sort(Comparator.comparingLong(StoredRecord::getTimestampMillis));
+        store.importRecords(records);
+        for (Path source : sources) {
+            Files.move(source, source.resolveSibling(source.getFileName() + MIGRATED_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        }
+        for (Path source : sensitiveSources) {
+            wipe(source);
+        }
+        int imported = records.size();
+        records.clear();
+        sources.clear();
+        sensitiveSources.clear();
+        return imported;
+    }
+
+    private static void wipe(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer zeros = ByteBuffer.allocate(8192);
+            for (long position = 0, size = channel.size(); position < size; position += zeros.capacity()) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), size - position));
+                while (zeros.hasRemaining()) {
+                    channel.write(zeros, position + zeros.position());
+                }
+            }
+            channel.force(true);
+        }
+        Files.delete(file);
+    }
+
+    /**
+     * Parses a timestamp written by {@link LocalDateTime#toString()}.
+     */
+    public static long parseTimestamp(String value, long fallbackMillis) {
+        try {
+            return toMillis(LocalDateTime.parse(value.trim()));
+        } catch (DateTimeParseException e) {
+            return fallbackMillis;
+        }
+    }
+
+    private void read(Path file, int fieldCount, Converter converter, long fallbackMillis) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",", fieldCount);
+                StoredRecord record = fields.length == fieldCount ? converter.convert(fields, fallbackMillis) : null;
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+        }
+    }
+
+    private static long toMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
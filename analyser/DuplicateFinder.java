@@ -0,0 +1,480 @@
+package analyser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Finds blocks of code repeated across a repository. Each file is read with its language's lexer, the same one
+ * the analysis uses, so blank and comment lines are dropped; the remaining code lines are hashed with their
+ * whitespace removed, which makes re-indented copies match. A Rabin-Karp rolling hash over every run of
+ * {@code minLines} such lines gives one fingerprint per position, and winnowing keeps the smallest of every
+ * {@value #WINNOW_WINDOW} consecutive ones. Any copied run of {@code minLines + WINNOW_WINDOW - 1} code lines is
+ * always found, shorter ones usually are. Fingerprints go into a {@link FingerprintTable}; once every file is
+ * added, {@link #find()} joins fingerprints shared by two places into blocks and extends each block line by
+ * line as far as both copies agree. Besides the table, each code line keeps its hash and line number, 12 bytes.
+ * <p>
+ * {@link #add} may be called from many threads at once.
+ */
+public final class DuplicateFinder {
+
+    public static final int DEFAULT_MIN_LINES = 6;
+    static final int WINNOW_WINDOW = 4;
+    /** Lines shorter than this without whitespace, like a lone brace, match everywhere and are skipped. */
+    private static final int MIN_LINE_BYTES = 4;
+    private static final long BASE = 0x100000001B3L;
+
+    private final int minLines;
+    private final long basePower;
+    private final PathTable files = new PathTable();
+    private final List<int[]> lineNumbers = new ArrayList<>();
+    private final List<long[]> lineHashes = new ArrayList<>();
+    private final FingerprintTable table = new FingerprintTable();
+    private long codeLines;
+    private long lineBytes;
+    private final long start = System.nanoTime();
+
+    /**
+     * A block of {@link #getLines()} code lines that appears at both places; line numbers are 1-based and
+     * inclusive, and may span blank or comment lines that differ between the two copies.
+     */
+    public static final class Duplicate {
+        private final Path first;
+        private final int firstStart;
+        private final int firstEnd;
+        private final Path second;
+        private final int secondStart;
+        private final int secondEnd;
+        private final int lines;
+
+        private Duplicate(Path first, int firstStart, int firstEnd, Path second, int secondStart, int secondEnd, int lines) {
+            this.first = first;
+            this.firstStart = firstStart;
+            this.firstEnd = firstEnd;
+            this.second = second;
+            this.secondStart = secondStart;
+            this.secondEnd = secondEnd;
+            this.lines = lines;
+        }
+
+        public Path getFirst() {
+            return first;
+        }
+
+        public int getFirstStart() {
+            return firstStart;
+        }
+
+        public int getFirstEnd() {
+            return firstEnd;
+        }
+
+        public Path getSecond() {
+            return second;
+        }
+
+        public int getSecondStart() {
+            return secondStart;
+        }
+
+        public int getSecondEnd() {
+            return secondEnd;
+        }
+
+        public int getLines() {
+            return lines;
+        }
+
+        @Override
+        public String toString() {
+            return lines + " lines: " + first + ":" + firstStart + "-" + firstEnd + " = " + second + ":" + secondStart + "-" + secondEnd;
+        }
+    }
+
+    public static final class Report {
+        private final List<Duplicate> duplicates;
+        private final int fileCount;
+        private final long codeLines;
+        private final long duplicatedLines;
+        private final int fingerprints;
+        private final long tableBytes;
+        private final long elapsedMillis;
+
+        private Report(List<Duplicate> duplicates, int fileCount, long codeLines, long duplicatedLines, int fingerprints,
+                       long tableBytes, long elapsedMillis) {
+            this.duplicates = Collections.unmodifiableList(duplicates);
+            this.fileCount = fileCount;
+            this.codeLines = codeLines;
+            this.duplicatedLines = duplicatedLines;
+            this.fingerprints = fingerprints;
+            this.tableBytes = tableBytes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * The duplicate blocks, longest first.
+         */
+        public List<Duplicate> getDuplicates() {
+            return duplicates;
+        }
+
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        public long getCodeLines() {
+            return codeLines;
+        }
+
+        public int getFingerprints() {
+            return fingerprints;
+        }
+
+        public long getTableBytes() {
+            return tableBytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Code lines that are part of at least one copy of a duplicate block.
+         */
+        public long getDuplicatedLines() {
+            return duplicatedLines;
+        }
+
+        public String toReport(int limit) {
+            StringBuilder report = new StringBuilder("Duplicate Blocks: ").append(duplicates.size())
+                    .append(" (").append(getDuplicatedLines()).append(" of ").append(codeLines).append(" code lines, ")
+                    .append(fileCount).append(" files, ").append(fingerprints).append(" fingerprints, ")
+                    .append(tableBytes / 1024).append(" KB, ").append(elapsedMillis).append(" ms)\n");
+            for (int i = 0; i < Math.min(limit, duplicates.size()); i++) {
+                report.append(duplicates.get(i)).append("\n");
+            }
+            if (duplicates.size() > limit) {
+                report.append("... and ").append(duplicates.size() - limit).append(" more\n");
+            }
+            return report.toString();
+        }
+
+        /**
+         * The blocks {@code file} shares with itself or other files, for the single-file report.
+         */
+        public String toReport(Path file) {
+            StringBuilder report = new StringBuilder();
+            for (Duplicate duplicate : duplicates) {
+                if (duplicate.first.equals(file)) {
+                    report.append("Lines ").append(duplicate.firstStart).append("-").append(duplicate.firstEnd).append(" = ")
+                            .append(duplicate.second).append(":").append(duplicate.secondStart).append("-").append(duplicate.secondEnd).append("\n");
+                } else if (duplicate.second.equals(file)) {
+                    report.append("Lines ").append(duplicate.secondStart).append("-").append(duplicate.secondEnd).append(" = ")
+                            .append(duplicate.first).append(":").append(duplicate.firstStart).append("-").append(duplicate.firstEnd).append("\n");
+                }
+            }
+            return report.length() == 0 ? "No duplicate blocks\n" : report.toString();
+        }
+    }
+
+    public DuplicateFinder(int minLines) {
+        if (minLines < 2) {
+            throw new IllegalArgumentException("A duplicate needs at least 2 lines: " + minLines);
+        }
+        this.minLines = minLines;
+        long power = 1;
+        for (int i = 1; i < minLines; i++) {
+            power *= BASE;
+        }
+        this.basePower = power;
+    }
+
+    /**
+     * Fingerprints every file in {@code files} on {@code pool} and returns the duplicates among them.
+     */
+    public static Report find(List<Path> files, int minLines, ForkJoinPool pool, TaskExecutor.Context context) throws IOException {
+        DuplicateFinder finder = new DuplicateFinder(minLines);
+        if (context != null) {
+            context.setTotal(files.size());
+        }
+        try {
+            pool.submit(() -> files.parallelStream().forEach(file -> {
+                if (context != null && context.isCancelled()) {
+                    return;
+                }
+                try {
+                    finder.add(file);
+                } catch (IOException e) {
+                    System.err.println("Error reading file for duplicates: " + file);
+                }
+                if (context != null) {
+                    context.advance(1);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Duplicate search interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Duplicate search failed", e.getCause());
+        }
+        if (context != null) {
+            context.checkCancelled();
+        }
+        return finder.find();
+    }
+
+    /**
+     * Reads and fingerprints one file; binary files are ignored.
+     */
+    public void add(Path file) throws IOException {
+        Lexer lexer = Languages.forFileType(CodeAnalyzer.fileTypeOf(file)).newLexer();
+        LineHasher hasher = new LineHasher(lexer);
+        LineScanner scanner = LineScanner.shared();
+        Metrics.Sample sample = Metrics.start("duplicates");
+        long lineCount;
+        try {
+            lineCount = scanner.scan(file, hasher);
+        } catch (IOException e) {
+            sample.fail(CodeAnalyzer.languageOf(file));
+            throw e;
+        }
+        sample.stop(CodeAnalyzer.languageOf(file), scanner.getBytesRead());
+        if (lineCount == LineScanner.BINARY_FILE || hasher.count < minLines) {
+            synchronized (this) {
+                codeLines += lineCount == LineScanner.BINARY_FILE ? 0 : hasher.count;
+            }
+            return;
+        }
+
+        long[] windows = new long[hasher.count - minLines + 1];
+        long hash = 0;
+        for (int i = 0; i < hasher.count; i++) {
+            if (i >= minLines) {
+                hash -= hasher.hashes[i - minLines] * basePower;
+            }
+            hash = hash * BASE + hasher.hashes[i];
+            if (i >= minLines - 1) {
+                windows[i - minLines + 1] = mix(hash);
+            }
+        }
+        int[] selected = winnow(windows);
+
+        synchronized (this) {
+            int fileId = files.size();
+            files.add(file);
+            lineNumbers.add(Arrays.copyOf(hasher.lineNumbers, hasher.count));
+            lineHashes.add(Arrays.copyOf(hasher.hashes, hasher.count));
+            codeLines += hasher.count;
+            lineBytes += hasher.count * 12L;
+            for (int position : selected) {
+                table.add(windows[position], (long) fileId << 32 | position);
+            }
+        }
+    }
+
+    /**
+     * Joins the shared fingerprints into duplicate blocks. Of the places a fingerprint occurs, the first in
+     * path order is paired with each of the others, so a block copied three times is reported at least twice.
+     */
+    public synchronized Report find() {
+        List<long[]> pairs = new ArrayList<>();
+        table.forEachRepeated((fingerprint, positions, count) -> {
+            int anchor = 0;
+            for (int i = 1; i < count; i++) {
+                if (comparePositions(positions[i], positions[anchor]) < 0) {
+                    anchor = i;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (i != anchor) {
+                    pairs.add(new long[]{positions[anchor], positions[i]});
+                }
+            }
+        });
+        // pairs on the same diagonal of the same two files, overlapping or touching, belong to one block
+        pairs.sort(Comparator.<long[]>comparingLong(pair -> fileOf(pair[0]))
+                .thenComparingLong(pair -> fileOf(pair[1]))
+                .thenComparingLong(pair -> indexOf(pair[1]) - indexOf(pair[0]))
+                .thenComparingLong(pair -> indexOf(pair[0])));
+        List<Duplicate> duplicates = new ArrayList<>();
+        long[] previous = null;
+        Map<Integer, BitSet> covered = new HashMap<>();
+        for (int i = 0; i < pairs.size(); ) {
+            long[] first = pairs.get(i);
+            int last = indexOf(first[0]);
+            int j = i + 1;
+            while (j < pairs.size() && sameDiagonal(pairs.get(j), first) && indexOf(pairs.get(j)[0]) <= last + minLines) {
+                last = indexOf(pairs.get(j++)[0]);
+            }
+            long[] block = extend(first, last);
+            // runs on one diagonal separated by a gap the winnowing skipped can extend into the same block
+            if (block != null && !Arrays.equals(block, previous)) {
+                duplicates.add(toDuplicate(block));
+                covered.computeIfAbsent((int) block[0], k -> new BitSet()).set((int) block[2], (int) (block[2] + block[4]));
+                covered.computeIfAbsent((int) block[1], k -> new BitSet()).set((int) block[3], (int) (block[3] + block[4]));
+                previous = block;
+            }
+            i = j;
+        }
+        duplicates.sort(Comparator.comparingInt(Duplicate::getLines).reversed()
+                .thenComparing(duplicate -> duplicate.first.toString())
+                .thenComparingInt(Duplicate::getFirstStart));
+        long duplicatedLines = covered.values().stream().mapToLong(BitSet::cardinality).sum();
+        return new Report(duplicates, files.size(), codeLines, duplicatedLines, table.size(), table.memoryBytes() + lineBytes,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static boolean sameDiagonal(long[] pair, long[] other) {
+        return fileOf(pair[0]) == fileOf(other[0]) && fileOf(pair[1]) == fileOf(other[1])
+                && indexOf(pair[1]) - indexOf(pair[0]) == indexOf(other[1]) - indexOf(other[0]);
+    }
+
+    /**
+     * Grows the windows from {@code first} to {@code lastIndex} in both directions while the line hashes of the
+     * two copies agree, and checks the lines in between, which rules out fingerprint collisions.
+     *
+     * @return the two files, the first line index in each and the length; null if the block does not hold up,
+     *         a copy overlaps itself or every line is the same
+     */
+    private long[] extend(long[] first, int lastIndex) {
+        int firstFile = fileOf(first[0]);
+        int secondFile = fileOf(first[1]);
+        long[] firstHashes = lineHashes.get(firstFile);
+        long[] secondHashes = lineHashes.get(secondFile);
+        int firstIndex = indexOf(first[0]);
+        int secondIndex = indexOf(first[1]);
+        int lines = lastIndex - firstIndex + minLines;
+        for (int i = 0; i < lines; i++) {
+            if (firstHashes[firstIndex + i] != secondHashes[secondIndex + i]) {
+                return null;
+            }
+        }
+        while (firstIndex > 0 && secondIndex > 0 && firstHashes[firstIndex - 1] == secondHashes[secondIndex - 1]) {
+            firstIndex--;
+            secondIndex--;
+            lines++;
+        }
+        while (firstIndex + lines < firstHashes.length && secondIndex + lines < secondHashes.length
+                && firstHashes[firstIndex + lines] == secondHashes[secondIndex + lines]) {
+            lines++;
+        }
+        if (firstFile == secondFile && Math.abs(secondIndex - firstIndex) < lines) {
+            // a run of repeated lines matching itself a little further down
+            return null;
+        }
+        boolean varied = false;
+        for (int i = 1; i < lines && !varied; i++) {
+            varied = firstHashes[firstIndex + i] != firstHashes[firstIndex];
+        }
+        if (!varied) {
+            // the same line over and over, like a table of constants, is not a copied block
+            return null;
+        }
+        return new long[]{firstFile, secondFile, firstIndex, secondIndex, lines};
+    }
+
+    private Duplicate toDuplicate(long[] block) {
+        int[] firstLines = lineNumbers.get((int) block[0]);
+        int[] secondLines = lineNumbers.get((int) block[1]);
+        int firstIndex = (int) block[2];
+        int secondIndex = (int) block[3];
+        int lines = (int) block[4];
+        return new Duplicate(files.getPath((int) block[0]), firstLines[firstIndex], firstLines[firstIndex + lines - 1],
+                files.getPath((int) block[1]), secondLines[secondIndex], secondLines[secondIndex + lines - 1], lines);
+    }
+
+    private int comparePositions(long a, long b) {
+        int byPath = files.get(fileOf(a)).compareTo(files.get(fileOf(b)));
+        return byPath != 0 ? byPath : Integer.compare(indexOf(a), indexOf(b));
+    }
+
+    private static int fileOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int indexOf(long position) {
+        return (int) position;
+    }
+
+    /**
+     * The positions of the rightmost smallest hash in every window of {@value #WINNOW_WINDOW}, each once.
+     */
+    static int[] winnow(long[] hashes) {
+        int[] selected = new int[hashes.length];
+        int count = 0;
+        int previous = -1;
+        int windows = Math.max(1, hashes.length - WINNOW_WINDOW + 1);
+        for (int start = 0; start < windows; start++) {
+            int minimum = start;
+            for (int i = start + 1; i < Math.min(hashes.length, start + WINNOW_WINDOW); i++) {
+                if (hashes[i] <= hashes[minimum]) {
+                    minimum = i;
+                }
+            }
+            if (minimum != previous) {
+                selected[count++] = minimum;
+                previous = minimum;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * Spreads the polynomial hash over all 64 bits so the winnowing minimum and the table slots are unbiased.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Hashes the code lines of one file, whitespace removed, with FNV-1a.
+     */
+    private static final class LineHasher implements LineScanner.LineVisitor {
+        private final Lexer lexer;
+        private long[] hashes = new long[256];
+        private int[] lineNumbers = new int[256];
+        private int count;
+
+        private LineHasher(Lexer lexer) {
+            this.lexer = lexer;
+        }
+
+        @Override
+        public void visit(byte[] buffer, int start, int end, int lineNumber) {
+            if ((lexer.scanLine(buffer, start, end) & Lexer.CODE) == 0) {
+                return;
+            }
+            long hash = 0xCBF29CE484222325L;
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                byte b = buffer[i];
+                if (b != ' ' && b != '\t' && b != '\r' && b != '\f') {
+                    hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+                    length++;
+                }
+            }
+            if (length < MIN_LINE_BYTES) {
+                return;
+            }
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+                lineNumbers = Arrays.copyOf(lineNumbers, count * 2);
+            }
+            hashes[count] = hash;
+            lineNumbers[count++] = lineNumber;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package analyser;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+public final class FileAnalysis {
+
+    private final Path path;
+    private final String fileType;
+    private final String language;
+    private final int lineCount;
+    private final int codeLineCount;
+    private final int blankLineCount;
+    private final int commentLineCount;
+    private final int todoCount;
+    private final int fixmeCount;
+    private final int complexity;
+    private final List<String> commentReport;
+
+    /**
+     * @param complexity estimated cyclomatic complexity, or {@code -1} for languages without control flow
+     */
+    public FileAnalysis(Path path, String fileType, String language, int lineCount, int codeLineCount, int blankLineCount,
+                        int commentLineCount, int todoCount, int fixmeCount, int complexity, List<String> commentReport) {
+        this.path = path;
+        this.fileType = fileType;
+        this.language = language;
+        this.lineCount = lineCount;
+        this.codeLineCount = codeLineCount;
+        this.blankLineCount = blankLineCount;
+        this.commentLineCount = commentLineCount;
+        this.todoCount = todoCount;
+        this.fixmeCount = fixmeCount;
+        this.complexity = complexity;
+        this.commentReport = Collections.unmodifiableList(commentReport);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getFileType() {
+        return fileType;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getCodeLineCount() {
+        return codeLineCount;
+    }
+
+    public int getBlankLineCount() {
+        return blankLineCount;
+    }
+
+    public int getCommentLineCount() {
+        return commentLineCount;
+    }
+
+    public int getTodoCount() {
+        return todoCount;
+    }
+
+    public int getFixmeCount() {
+        return fixmeCount;
+    }
+
+    public int getComplexity() {
+        return complexity;
+    }
+
+    public List<String> getCommentReport() {
+        return commentReport;
+    }
+
+    public String toReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("File Type: ").append(fileType).append(" (").append(language).append(")")
+                .append("\nLines of Code: ").append(lineCount)
+                .append("\nCode Lines: ").append(codeLineCount)
+                .append("\nBlank Lines: ").append(blankLineCount)
+                .append("\nComment Lines: ").append(commentLineCount)
+                .append("\nTODOs: ").append(todoCount)
+                .append("\nFIXMEs: ").append(fixmeCount);
+        if (complexity >= 0) {
+            report.append("\nCyclomatic Complexity: ").append(complexity);
+        }
+        report.append("\n\nComment Report:\n");
+        for (String entry : commentReport) {
+            report.append(entry).append("\n");
+        }
+        return report.toString();
+    }
+}
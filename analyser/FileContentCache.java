@@ -0,0 +1,602 @@
+package analyser;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Checksum;
+
+/**
+ * File contents shared by the viewer, search and analysis, so a file that is opened, analyzed and searched in
+ * turn is read from disk once. An entry holds the file's bytes and the offsets of its lines, and stays valid
+ * while the file's size and modification time are unchanged.
+ * <p>
+ * The cache holds at most {@code analyser.contentCache.maxBytes} of content and line tables, however many
+ * files are opened. Eviction is W-TinyLFU weighted by size: a new entry enters an LRU window of a quarter of
+ * the capacity, and when it leaves the window it displaces the least recently used entries of the main area
+ * only if it has been asked for more often than they have, judged by a small frequency sketch. One pass over
+ * a repository therefore cannot flush the files in use. Files larger than the window are not cached.
+ * <p>
+ * With {@link Storage#SOFT} the collector may also drop entries under memory pressure; with
+ * {@link Storage#DIRECT} the bytes live outside the heap and only the line tables stay on it.
+ */
+public final class FileContentCache {
+
+    public enum Storage {
+        HEAP, SOFT, DIRECT
+    }
+
+    private static final FileContentCache SHARED = new FileContentCache(Long.getLong("analyser.contentCache.maxBytes", 64L << 20),
+            Storage.valueOf(System.getProperty("analyser.contentCache.storage", "HEAP").toUpperCase(Locale.ROOT)));
+
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final byte WINDOW = 0;
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+
+    private final long maxBytes;
+    private final long windowMaxBytes;
+    private final long protectedMaxBytes;
+    private final Storage storage;
+    private final Map<Path, Node> nodes = new HashMap<>();
+    private final LinkedHashMap<Path, Node> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Path, Node> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Path, Node> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<Content> collected = new ReferenceQueue<>();
+    private final FrequencySketch sketch;
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+    private long hits;
+    private long misses;
+    private long loads;
+    private long loadedBytes;
+    private long evictions;
+    private long evictedBytes;
+    private long rejections;
+    private long collections;
+
+    private static final class Node {
+        private final Path path;
+        private final long size;
+        private final FileTime modified;
+        private final long weight;
+        private final Content content;
+        private final SoftContent softContent;
+        private byte segment;
+
+        private Node(Path path, long size, FileTime modified, Content content, Storage storage, ReferenceQueue<Content> queue) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.weight = content.weight();
+            this.content = storage == Storage.SOFT ? null : content;
+            this.softContent = storage == Storage.SOFT ? new SoftContent(content, this, queue) : null;
+        }
+
+        private Content content() {
+            return content != null ? content : softContent.get();
+        }
+    }
+
+    private static final class SoftContent extends SoftReference<Content> {
+        private final Node node;
+
+        private SoftContent(Content content, Node node, ReferenceQueue<Content> queue) {
+            super(content, queue);
+            this.node = node;
+        }
+    }
+
+    public FileContentCache(long maxBytes, Storage storage) {
+        this.maxBytes = Math.max(maxBytes, 0);
+        this.windowMaxBytes = this.maxBytes / 4;
+        this.protectedMaxBytes = (this.maxBytes - windowMaxBytes) * 4 / 5;
+        this.storage = storage;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, this.maxBytes / 4096)));
+    }
+
+    /**
+     * The cache the analyser's own operations share, configured by {@code analyser.contentCache.maxBytes} and
+     * {@code analyser.contentCache.storage} ({@code heap}, {@code soft} or {@code direct}).
+     */
+    public static FileContentCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * The current content of {@code path}, read into the cache if it is not there yet.
+     *
+     * @return null when the file is too large to cache; read it from disk instead
+     */
+    public Content get(Path path) throws IOException {
+        return lookup(path, true);
+    }
+
+    /**
+     * The current content of {@code path} if it is cached already. Bulk operations use this, so they reuse what
+     * the user has open without reading every file they visit into memory.
+     */
+    public Content getIfPresent(Path path) throws IOException {
+        return lookup(path, false);
+    }
+
+    /**
+     * Decodes {@code path} for display like {@link LineScanner#readText}, from the cache where it fits.
+     */
+    public String readText(Path path) throws IOException {
+        Content content = get(path);
+        if (content == null) {
+            return LineScanner.readText(path);
+        }
+        return content.isBinary() ? null : content.getText();
+    }
+
+    private Content lookup(Path path, boolean load) throws IOException {
+        synchronized (this) {
+            expungeCollected();
+            sketch.increment(path);
+            if (!load && !nodes.containsKey(path)) {
+                // nothing to validate, so a bulk pass over uncached files costs no extra stat
+                misses++;
+                return null;
+            }
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        synchronized (this) {
+            Node node = nodes.get(path);
+            if (node != null) {
+                Content content = node.content();
+                if (content != null && node.size == attributes.size() && node.modified.equals(attributes.lastModifiedTime())) {
+                    hits++;
+                    touch(node);
+                    return content;
+                }
+                unlink(node);
+            }
+            misses++;
+        }
+        if (!load || attributes.size() > Math.min(windowMaxBytes, Integer.MAX_VALUE - 8)) {
+            return null;
+        }
+        Metrics.Sample sample = Metrics.start("contentCache.load");
+        Content content;
+        try {
+            content = storage == Storage.DIRECT ? Content.readDirect(path, attributes.size()) : Content.read(path, attributes.size());
+        } catch (IOException e) {
+            sample.fail("");
+            throw e;
+        }
+        sample.stop(content.getSize());
+        synchronized (this) {
+            loads++;
+            loadedBytes += content.getSize();
+            Node previous = nodes.get(path);
+            if (previous != null) {
+                unlink(previous);
+            }
+            insert(new Node(path, attributes.size(), attributes.lastModifiedTime(), content, storage, collected));
+        }
+        return content;
+    }
+
+    /**
+     * Forgets {@code path}, for writers that may leave its size and modification time as they were.
+     */
+    public synchronized void invalidate(Path path) {
+        Node node = nodes.get(path);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    public synchronized void clear() {
+        nodes.clear();
+        window.clear();
+        probation.clear();
+        protectedEntries.clear();
+        windowBytes = 0;
+        probationBytes = 0;
+        protectedBytes = 0;
+    }
+
+    private void touch(Node node) {
+        switch (node.segment) {
+            case WINDOW:
+                window.get(node.path);
+                break;
+            case PROTECTED:
+                protectedEntries.get(node.path);
+                break;
+            default:
+                // a second use promotes an entry out of probation; protected entries over budget go back
+                probation.remove(node.path);
+                probationBytes -= node.weight;
+                node.segment = PROTECTED;
+                protectedEntries.put(node.path, node);
+                protectedBytes += node.weight;
+                Iterator<Node> eldest = protectedEntries.values().iterator();
+                while (protectedBytes > protectedMaxBytes && eldest.hasNext()) {
+                    Node demoted = eldest.next();
+                    eldest.remove();
+                    protectedBytes -= demoted.weight;
+                    demoted.segment = PROBATION;
+                    probation.put(demoted.path, demoted);
+                    probationBytes += demoted.weight;
+                }
+        }
+    }
+
+    private void insert(Node node) {
+        nodes.put(node.path, node);
+        node.segment = WINDOW;
+        window.put(node.path, node);
+        windowBytes += node.weight;
+        Iterator<Node> eldest = window.values().iterator();
+        while (windowBytes > windowMaxBytes && eldest.hasNext()) {
+            Node candidate = eldest.next();
+            eldest.remove();
+            windowBytes -= candidate.weight;
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Moves an entry leaving the window into probation, evicting main entries used less often than it, or
+     * evicts the entry itself if they are used as often.
+     */
+    private void admit(Node candidate) {
+        long mainMaxBytes = maxBytes - windowMaxBytes;
+        while (probationBytes + protectedBytes + candidate.weight > mainMaxBytes) {
+            Map<Path, Node> segment = probation.isEmpty() ? protectedEntries : probation;
+            if (segment.isEmpty()) {
+                break;
+            }
+            Node victim = segment.values().iterator().next();
+            if (sketch.frequency(candidate.path) <= sketch.frequency(victim.path)) {
+                nodes.remove(candidate.path, candidate);
+                rejections++;
+                evictions++;
+                evictedBytes += candidate.weight;
+                return;
+            }
+            unlink(victim);
+            evictions++;
+            evictedBytes += victim.weight;
+        }
+        candidate.segment = PROBATION;
+        probation.put(candidate.path, candidate);
+        probationBytes += candidate.weight;
+    }
+
+    private void unlink(Node node) {
+        nodes.remove(node.path, node);
+        Map<Path, Node> segment = node.segment == WINDOW ? window : node.segment == PROBATION ? probation : protectedEntries;
+        if (segment.remove(node.path, node)) {
+            if (node.segment == WINDOW) {
+                windowBytes -= node.weight;
+            } else if (node.segment == PROBATION) {
+                probationBytes -= node.weight;
+            } else {
+                protectedBytes -= node.weight;
+            }
+        }
+    }
+
+    private void expungeCollected() {
+        for (Object reference; (reference = collected.poll()) != null; ) {
+            Node node = ((SoftContent) reference).node;
+            if (nodes.get(node.path) == node) {
+                unlink(node);
+                collections++;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * The bytes held, counting content, line tables and a fixed overhead per entry.
+     */
+    public synchronized long getWeightedSize() {
+        return windowBytes + probationBytes + protectedBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized String getStats() {
+        long lookups = hits + misses;
+        return "Entries: " + nodes.size() + ", Size: " + (getWeightedSize() >> 10) + " of " + (maxBytes >> 10) + " KB (" +
+                storage.name().toLowerCase(Locale.ROOT) + ")" +
+                "\nHits: " + hits + ", Misses: " + misses + ", Hit Rate: " + (lookups == 0 ? 0 : hits * 100 / lookups) + "%" +
+                "\nLoads: " + loads + " (" + (loadedBytes >> 10) + " KB)" +
+                ", Evictions: " + evictions + " (" + (evictedBytes >> 10) + " KB, " + rejections + " not admitted)" +
+                ", Collected: " + collections;
+    }
+
+    /**
+     * One version of a file: its bytes, or only the fact that it is binary, and where each line starts. Lines
+     * end as {@link LineScanner} ends them, at {@code \n}, {@code \r} or {@code \r\n}.
+     */
+    public static final class Content {
+        private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[8192]);
+
+        private final Path path;
+        private final byte[] bytes;
+        private final ByteBuffer direct;
+        private final int length;
+        private final int[] lineStarts;
+        private final boolean plain;
+
+        private Content(Path path, byte[] bytes, ByteBuffer direct, int length, int[] lineStarts, boolean plain) {
+            this.path = path;
+            this.bytes = bytes;
+            this.direct = direct;
+            this.length = length;
+            this.lineStarts = lineStarts;
+            this.plain = plain;
+        }
+
+        private static Content read(Path path, long size) throws IOException {
+            byte[] bytes = new byte[(int) size];
+            int length;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // a file that shrinks while it is read ends early; one that grows is cut at the size it had
+                }
+                length = buffer.position();
+            }
+            if (LineScanner.looksBinary(bytes, 0, Math.min(length, LineScanner.SNIFF_LENGTH))) {
+                return new Content(path, null, null, length, null, false);
+            }
+            return new Content(path, bytes, null, length, lineStarts(bytes, length), isPlain(bytes, length));
+        }
+
+        private static Content readDirect(Path path, long size) throws IOException {
+            Content heap = read(path, size);
+            if (heap.isBinary()) {
+                return heap;
+            }
+            ByteBuffer direct = ByteBuffer.allocateDirect(heap.length);
+            direct.put(heap.bytes, 0, heap.length).flip();
+            return new Content(path, null, direct.asReadOnlyBuffer(), heap.length, heap.lineStarts, heap.plain);
+        }
+
+        /**
+         * The start of every line, followed by the end of the content.
+         */
+        private static int[] lineStarts(byte[] bytes, int length) {
+            int[] starts = new int[Math.max(16, length / 32)];
+            int count = 1;
+            for (int i = 0; i < length; i++) {
+                byte b = bytes[i];
+                if (b == '\n' || b == '\r') {
+                    if (b == '\r' && i + 1 < length && bytes[i + 1] == '\n') {
+                        i++;
+                    }
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                    }
+                    starts[count++] = i + 1;
+                }
+            }
+            if (starts[count - 1] < length) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count + 1);
+                }
+                starts[count++] = length;
+            }
+            return Arrays.copyOf(starts, count);
+        }
+
+        /**
+         * Whether the text already reads as {@link LineScanner#readText} would return it: only {@code \n}
+         * line ends and one after the last line.
+         */
+        private static boolean isPlain(byte[] bytes, int length) {
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] == '\r') {
+                    return false;
+                }
+            }
+            return length == 0 || bytes[length - 1] == '\n';
+        }
+
+        private long weight() {
+            return ENTRY_OVERHEAD + (isBinary() ? 0 : length + 4L * lineStarts.length);
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * The number of bytes in the file.
+         */
+        public int getSize() {
+            return length;
+        }
+
+        public boolean isBinary() {
+            return lineStarts == null;
+        }
+
+        public int getLineCount() {
+            return isBinary() ? 0 : lineStarts.length - 1;
+        }
+
+        /**
+         * Visits every line like {@link LineScanner#scan(Path, LineScanner.LineVisitor, Checksum)}, without
+         * touching the disk.
+         *
+         * @param checksum if not null, receives every byte of the file
+         * @return the number of lines, or {@link LineScanner#BINARY_FILE}
+         */
+        public long scan(LineScanner.LineVisitor visitor, Checksum checksum) {
+            if (isBinary()) {
+                return LineScanner.BINARY_FILE;
+            }
+            if (checksum != null) {
+                if (bytes != null) {
+                    checksum.update(bytes, 0, length);
+                } else {
+                    checksum.update(direct.duplicate());
+                }
+            }
+            int lineCount = getLineCount();
+            for (int line = 0; line < lineCount; line++) {
+                int start = lineStarts[line];
+                // a line beyond the scanner's limit is cut short as the scanner cuts it
+                int end = Math.min(lineEnd(line), start + LineScanner.MAX_LINE_LENGTH);
+                if (bytes != null) {
+                    visitor.visit(bytes, start, end, line + 1);
+                } else {
+                    byte[] scratch = scratch(end - start);
+                    direct.get(start, scratch, 0, end - start);
+                    visitor.visit(scratch, 0, end - start, line + 1);
+                }
+            }
+            return lineCount;
+        }
+
+        /**
+         * Line {@code line}, counted from 0, decoded as lenient UTF-8 without its line end.
+         */
+        public String getLine(int line) {
+            int start = lineStarts[line];
+            int end = lineEnd(line);
+            if (bytes != null) {
+                return LineScanner.decode(bytes, start, end);
+            }
+            byte[] scratch = scratch(end - start);
+            direct.get(start, scratch, 0, end - start);
+            return LineScanner.decode(scratch, 0, end - start);
+        }
+
+        /**
+         * The whole text with {@code \n} line ends, as {@link LineScanner#readText} returns it.
+         */
+        public String getText() {
+            if (plain) {
+                if (bytes != null) {
+                    return LineScanner.decode(bytes, 0, length);
+                }
+                byte[] scratch = new byte[length];
+                direct.get(0, scratch, 0, length);
+                return LineScanner.decode(scratch, 0, length);
+            }
+            StringBuilder text = new StringBuilder(length + 16);
+            for (int line = 0; line < getLineCount(); line++) {
+                text.append(getLine(line)).append('\n');
+            }
+            return text.toString();
+        }
+
+        private int lineEnd(int line) {
+            int start = lineStarts[line];
+            int end = lineStarts[line + 1];
+            if (end > start && byteAt(end - 1) == '\n') {
+                end--;
+            }
+            if (end > start && byteAt(end - 1) == '\r') {
+                end--;
+            }
+            return end;
+        }
+
+        private byte byteAt(int index) {
+            return bytes != null ? bytes[index] : direct.get(index);
+        }
+
+        private static byte[] scratch(int length) {
+            byte[] scratch = SCRATCH.get();
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+                SCRATCH.set(scratch);
+            }
+            return scratch;
+        }
+    }
+
+    /**
+     * Approximate use counts in a count-min sketch of four rows of 4-bit counters, halved after every
+     * {@code 10 * width} increments so that past popularity fades.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int width) {
+            int size = Integer.highestOneBit(width - 1) << 1;
+            this.counters = new byte[SEEDS.length * size];
+            this.mask = size - 1;
+            this.sampleSize = 10 * size;
+        }
+
+        private int index(int row, int hash) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 17;
+            return row * (mask + 1) + (h & mask);
+        }
+
+        private void increment(Path path) {
+            int hash = path.hashCode();
+            int minimum = frequency(path);
+            if (minimum == 15) {
+                return;
+            }
+            for (int row = 0; row < SEEDS.length; row++) {
+                int index = index(row, hash);
+                // conservative update: only the counters at the minimum grow, which keeps collisions from inflating
+                if (counters[index] == minimum) {
+                    counters[index]++;
+                }
+            }
+            if (++additions == sampleSize) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int frequency(Path path) {
+            int hash = path.hashCode();
+            int minimum = 15;
+            for (int row = 0; row < SEEDS.length; row++) {
+                minimum = Math.min(minimum, counters[index(row, hash)]);
+            }
+            return minimum;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package analyser;
+
+import java.util.Arrays;
+
+/**
+ * A multimap from 64-bit fingerprints to 64-bit positions, in primitive arrays: an open-addressing table of
+ * keys and chain heads, and one shared array of positions linked newest first. Each stored position costs
+ * under 64 bytes even with the spare capacity of both, and no object is allocated per entry. Not thread-safe.
+ */
+final class FingerprintTable {
+
+    private static final long EMPTY = 0;
+
+    private long[] keys = new long[1024];
+    private int[] heads = new int[1024];
+    private int[] counts = new int[1024];
+    private int keyCount;
+    private long[] positions = new long[1024];
+    private int[] next = new int[1024];
+    private int size;
+
+    /**
+     * Records {@code position} under {@code fingerprint}.
+     */
+    void add(long fingerprint, long position) {
+        if (fingerprint == EMPTY) {
+            fingerprint = 1;
+        }
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        if (keyCount * 2 >= keys.length) {
+            rehash(keys.length * 2);
+        }
+        int slot = slotOf(keys, fingerprint);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = fingerprint;
+            heads[slot] = -1;
+            keyCount++;
+        }
+        positions[size] = position;
+        next[size] = heads[slot];
+        heads[slot] = size++;
+        counts[slot]++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int keyCount() {
+        return keyCount;
+    }
+
+    /**
+     * The heap held by the arrays, for reports.
+     */
+    long memoryBytes() {
+        return keys.length * (8L + 4 + 4) + positions.length * (8L + 4);
+    }
+
+    interface Visitor {
+        void visit(long fingerprint, long[] positions, int count);
+    }
+
+    /**
+     * Calls {@code visitor} once for each fingerprint stored at two or more positions. The positions array is
+     * reused between calls; only its first {@code count} entries are valid.
+     */
+    void forEachRepeated(Visitor visitor) {
+        long[] buffer = new long[16];
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] == EMPTY || counts[slot] < 2) {
+                continue;
+            }
+            if (buffer.length < counts[slot]) {
+                buffer = new long[Integer.highestOneBit(counts[slot]) * 2];
+            }
+            int count = 0;
+            for (int entry = heads[slot]; entry >= 0; entry = next[entry]) {
+                buffer[count++] = positions[entry];
+            }
+            visitor.visit(keys[slot], buffer, count);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldHeads = heads;
+        int[] oldCounts = counts;
+        keys = new long[capacity];
+        heads = new int[capacity];
+        counts = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotOf(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                heads[slot] = oldHeads[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private static int slotOf(long[] keys, long fingerprint) {
+        int mask = keys.length - 1;
+        // fingerprints are already well mixed, so the low bits are a fine index
+        int slot = (int) fingerprint & mask;
+        while (keys[slot] != EMPTY && keys[slot] != fingerprint) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,375 @@
+package analyser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-file commit history of a repository, read from its object database with {@link GitRepository}. Every
+ * commit reachable from HEAD is diffed against its parent, descending only into subtrees whose ids differ, and
+ * each changed path is credited with the commit. Merge commits are not diffed, as in {@code git log}, so a
+ * change counts once, on the commit that made it. Churn is the number of commits touching a file.
+ */
+public final class GitHistory {
+
+    public static final int DEFAULT_MAX_COMMITS = Integer.getInteger("analyser.git.maxCommits", 1_000_000);
+
+    private final Path root;
+    private final String branch;
+    private final String head;
+    private final Map<String, FileHistory> files;
+    private final Map<String, Author> authors;
+    private final int commitCount;
+    private final boolean truncated;
+    private final long elapsedMillis;
+
+    private GitHistory(Path root, String branch, String head, Map<String, FileHistory> files, Map<String, Author> authors,
+                       int commitCount, boolean truncated, long elapsedMillis) {
+        this.root = root;
+        this.branch = branch;
+        this.head = head;
+        this.files = files;
+        this.authors = authors;
+        this.commitCount = commitCount;
+        this.truncated = truncated;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Reads the history of the repository at {@code root}, stopping after {@code maxCommits} commits.
+     *
+     * @return null when {@code root} is not a Git working tree
+     */
+    public static GitHistory read(Path root, int maxCommits, TaskExecutor.Context context) throws IOException {
+        Metrics.Sample sample = Metrics.start("git.history");
+        try (GitRepository repository = GitRepository.open(root)) {
+            if (repository == null) {
+                sample.stop(0);
+                return null;
+            }
+            GitHistory history = read(root, repository, maxCommits, context);
+            sample.stop(repository.getBytesInflated());
+            return history;
+        } catch (IOException | RuntimeException e) {
+            sample.fail("");
+            throw e;
+        }
+    }
+
+    private static GitHistory read(Path root, GitRepository repository, int maxCommits, TaskExecutor.Context context) throws IOException {
+        Instant started = Instant.now();
+        Map<String, FileHistory> files = new HashMap<>();
+        Map<String, Author> authors = new HashMap<>();
+        GitRepository.ObjectId headId = repository.resolve("HEAD");
+        int commitCount = 0;
+        boolean truncated = false;
+        if (headId != null) {
+            ArrayDeque<GitRepository.ObjectId> pending = new ArrayDeque<>();
+            Set<GitRepository.ObjectId> seen = new HashSet<>();
+            Set<GitRepository.ObjectId> done = new HashSet<>();
+            // parents read early to diff against are kept until their own turn, so no commit is parsed twice
+            Map<GitRepository.ObjectId, GitRepository.Commit> parsed = new HashMap<>();
+            pending.add(headId);
+            seen.add(headId);
+            TreeDiff diff = new TreeDiff(repository);
+            while (!pending.isEmpty()) {
+                if (commitCount == maxCommits) {
+                    truncated = true;
+                    break;
+                }
+                if (context != null) {
+                    context.checkCancelled();
+                }
+                GitRepository.ObjectId id = pending.poll();
+                GitRepository.Commit commit = parsed.remove(id);
+                if (commit == null) {
+                    commit = repository.readCommit(id);
+                }
+                done.add(id);
+                commitCount++;
+                Author author = authors.computeIfAbsent(commit.getAuthorEmail(), Author::new);
+                author.record(commit);
+                List<GitRepository.ObjectId> parents = repository.isShallow(id) ? List.of() : commit.getParents();
+                for (GitRepository.ObjectId parent : parents) {
+                    if (seen.add(parent)) {
+                        pending.add(parent);
+                    }
+                }
+                if (parents.size() <= 1) {
+                    GitRepository.ObjectId parentTree = null;
+                    if (parents.size() == 1) {
+                        GitRepository.Commit parent = parsed.get(parents.get(0));
+                        if (parent == null) {
+                            parent = repository.readCommit(parents.get(0));
+                            if (!done.contains(parent.getId())) {
+                                parsed.put(parent.getId(), parent);
+                            }
+                        }
+                        parentTree = parent.getTree();
+                    }
+                    for (String path : diff.changedPaths(parentTree, commit.getTree())) {
+                        files.computeIfAbsent(path, FileHistory::new).record(commit, author);
+                    }
+                }
+                if (context != null) {
+                    context.advance(1);
+                }
+            }
+        }
+        return new GitHistory(root, repository.getBranch(), headId == null ? null : headId.toString(), files, authors,
+                commitCount, truncated, Duration.between(started, Instant.now()).toMillis());
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * The checked out branch, or null when HEAD is detached.
+     */
+    public String getBranch() {
+        return branch;
+    }
+
+    /**
+     * The commit HEAD resolved to, or null for a repository without commits.
+     */
+    public String getHead() {
+        return head;
+    }
+
+    public int getCommitCount() {
+        return commitCount;
+    }
+
+    public int getAuthorCount() {
+        return authors.size();
+    }
+
+    /**
+     * Whether the walk stopped at its commit limit, leaving older history uncounted.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * The history of {@code file}, or null when no commit reachable from HEAD touched it.
+     */
+    public FileHistory get(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        Path base = root.toAbsolutePath().normalize();
+        if (!absolute.startsWith(base) || absolute.equals(base)) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        for (Path part : base.relativize(absolute)) {
+            if (key.length() > 0) {
+                key.append('/');
+            }
+            key.append(part);
+        }
+        return files.get(key.toString());
+    }
+
+    public String toReport(Path file) {
+        FileHistory history = get(file);
+        return history == null ? "Not in the Git history\n" : history.toString() + "\n";
+    }
+
+    /**
+     * The most changed files and the most active authors, {@code limit} of each.
+     */
+    public String toReport(int limit) {
+        StringBuilder report = new StringBuilder("Git History:\n");
+        report.append("Commits: ").append(commitCount).append(truncated ? " (limit reached)" : "")
+                .append(", Authors: ").append(authors.size())
+                .append(", Files: ").append(files.size())
+                .append(", Branch: ").append(branch == null ? "(detached)" : branch)
+                .append(", Head: ").append(head == null ? "(none)" : head.substring(0, 12))
+                .append(", Read in ").append(elapsedMillis).append(" ms\n");
+        report.append("Most Changed Files:\n");
+        files.values().stream()
+                .sorted(Comparator.comparingInt(FileHistory::getCommitCount).reversed().thenComparing(FileHistory::getPath))
+                .limit(limit)
+                .forEach(history -> report.append(history.getCommitCount()).append("  ").append(history.getPath()).append("\n"));
+        report.append("Most Active Authors:\n");
+        authors.values().stream()
+                .sorted(Comparator.comparingInt(Author::getCommitCount).reversed().thenComparing(Author::getEmail))
+                .limit(limit)
+                .forEach(author -> report.append(author.getCommitCount()).append("  ").append(author).append("\n"));
+        return report.toString();
+    }
+
+    private static LocalDateTime localTime(long epochSeconds) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSeconds), ZoneId.systemDefault()).truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    /**
+     * Commits, authors and dates of the changes to one file, with paths relative to the repository root.
+     */
+    public static final class FileHistory {
+        private final String path;
+        private final Set<Author> authors = new HashSet<>(4);
+        private int commitCount;
+        private long firstChangedSeconds = Long.MAX_VALUE;
+        private long lastChangedSeconds = Long.MIN_VALUE;
+        private Author lastAuthor;
+
+        private FileHistory(String path) {
+            this.path = path;
+        }
+
+        private void record(GitRepository.Commit commit, Author author) {
+            commitCount++;
+            authors.add(author);
+            long time = commit.getAuthorTimeSeconds();
+            firstChangedSeconds = Math.min(firstChangedSeconds, time);
+            if (time >= lastChangedSeconds) {
+                lastChangedSeconds = time;
+                lastAuthor = author;
+            }
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getCommitCount() {
+            return commitCount;
+        }
+
+        public int getAuthorCount() {
+            return authors.size();
+        }
+
+        public String getLastAuthor() {
+            return lastAuthor.toString();
+        }
+
+        public Instant getLastChanged() {
+            return Instant.ofEpochSecond(lastChangedSeconds);
+        }
+
+        public Instant getFirstChanged() {
+            return Instant.ofEpochSecond(firstChangedSeconds);
+        }
+
+        @Override
+        public String toString() {
+            return "Commits: " + commitCount + ", Authors: " + authors.size() +
+                    ", Last Changed: " + localTime(lastChangedSeconds) + " by " + lastAuthor +
+                    ", First Changed: " + localTime(firstChangedSeconds);
+        }
+    }
+
+    /**
+     * A commit author, keyed by email and shown with the name on their latest commit.
+     */
+    private static final class Author {
+        private final String email;
+        private String name = "";
+        private long latestSeconds = Long.MIN_VALUE;
+        private int commitCount;
+
+        private Author(String email) {
+            this.email = email;
+        }
+
+        private void record(GitRepository.Commit commit) {
+            commitCount++;
+            if (commit.getAuthorTimeSeconds() >= latestSeconds) {
+                latestSeconds = commit.getAuthorTimeSeconds();
+                name = commit.getAuthorName();
+            }
+        }
+
+        private String getEmail() {
+            return email;
+        }
+
+        private int getCommitCount() {
+            return commitCount;
+        }
+
+        @Override
+        public String toString() {
+            return name.isEmpty() ? "<" + email + ">" : name + " <" + email + ">";
+        }
+    }
+
+    /**
+     * Paths whose blobs differ between two trees, found by a merge pass over their sorted entries that skips
+     * identical subtrees without reading them. A path that changes between file and directory is reported
+     * for both sides; submodule entries are ignored.
+     */
+    private static final class TreeDiff {
+        private final GitRepository repository;
+        private final List<String> changed = new ArrayList<>();
+
+        private TreeDiff(GitRepository repository) {
+            this.repository = repository;
+        }
+
+        private List<String> changedPaths(GitRepository.ObjectId oldTree, GitRepository.ObjectId newTree) throws IOException {
+            changed.clear();
+            diff(oldTree == null ? null : repository.readTree(oldTree), repository.readTree(newTree), "");
+            return changed;
+        }
+
+        private void diff(GitRepository.Tree oldTree, GitRepository.Tree newTree, String prefix) throws IOException {
+            int oldSize = oldTree == null ? 0 : oldTree.size();
+            int newSize = newTree == null ? 0 : newTree.size();
+            int i = 0;
+            int j = 0;
+            while (i < oldSize || j < newSize) {
+                int comparison = i == oldSize ? 1 : j == newSize ? -1 : oldTree.compare(i, newTree, j);
+                if (comparison < 0) {
+                    addAll(oldTree, i++, prefix);
+                } else if (comparison > 0) {
+                    addAll(newTree, j++, prefix);
+                } else {
+                    if (!oldTree.sameEntry(i, newTree, j)) {
+                        if (oldTree.isTree(i) && newTree.isTree(j)) {
+                            diff(repository.readTree(oldTree.getId(i)), repository.readTree(newTree.getId(j)), prefix + oldTree.getName(i) + "/");
+                        } else if (oldTree.isTree(i) || newTree.isTree(j)) {
+                            addAll(oldTree, i, prefix);
+                            addAll(newTree, j, prefix);
+                        } else if (!oldTree.isGitlink(i) || !newTree.isGitlink(j)) {
+                            changed.add(prefix + newTree.getName(j));
+                        }
+                    }
+                    i++;
+                    j++;
+                }
+            }
+        }
+
+        /**
+         * Reports an entry present on one side only: the file itself, or every file below a subtree.
+         */
+        private void addAll(GitRepository.Tree tree, int entry, String prefix) throws IOException {
+            if (tree.isTree(entry)) {
+                diff(null, repository.readTree(tree.getId(entry)), prefix + tree.getName(entry) + "/");
+            } else if (!tree.isGitlink(entry)) {
+                changed.add(prefix + tree.getName(entry));
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package analyser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The ignore rules of one directory, chained to those of its ancestors. Rules follow gitignore semantics:
+ * the last matching rule wins, {@code !} re-includes, a trailing {@code /} matches directories only, and a
+ * pattern containing {@code /} is anchored to the directory holding the file. A pattern without {@code /}
+ * can only match the last name of a path, so it is matched against that name alone, and a plain name or
+ * {@code *.ext} is compared without a regex; most rules in real ignore files are one of those.
+ */
+final class GitIgnore {
+
+    private final GitIgnore parent;
+    private final Path base;
+    private final List<Rule> rules;
+
+    private static final class Rule {
+        private final Pattern pattern;
+        private final boolean negated;
+        private final boolean directoryOnly;
+        private final boolean nameOnly;
+        // for a name-only rule without wildcards other than a leading *, the name or the suffix it matches
+        private final String literal;
+        private final boolean suffix;
+
+        private Rule(Pattern pattern, boolean negated, boolean directoryOnly, boolean nameOnly, String literal, boolean suffix) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.nameOnly = nameOnly;
+            this.literal = literal;
+            this.suffix = suffix;
+        }
+
+        private boolean matches(String subject) {
+            if (literal == null) {
+                return pattern.matcher(subject).matches();
+            }
+            return suffix ? subject.endsWith(literal) : subject.equals(literal);
+        }
+    }
+
+    private GitIgnore(GitIgnore parent, Path base, List<Rule> rules) {
+        this.parent = parent;
+        this.base = base;
+        this.rules = rules;
+    }
+
+    /**
+     * Returns the rules for {@code directory}, or {@code parent} itself when none of {@code ruleFiles} adds any.
+     */
+    static GitIgnore load(GitIgnore parent, Path directory, Path... ruleFiles) {
+        List<Rule> rules = new ArrayList<>();
+        for (Path ruleFile : ruleFiles) {
+            try {
+                for (String line : Files.readAllLines(ruleFile)) {
+                    Rule rule = parse(line);
+                    if (rule != null) {
+                        rules.add(rule);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // no rules at this level
+            } catch (IOException e) {
+                System.err.println("Error reading ignore rules: " + ruleFile);
+            }
+        }
+        return rules.isEmpty() ? parent : new GitIgnore(parent, directory, rules);
+    }
+
+    boolean isIgnored(Path path, boolean directory) {
+        String name = null;
+        for (GitIgnore ignore = this; ignore != null; ignore = ignore.parent) {
+            String relative = null;
+            for (int i = ignore.rules.size() - 1; i >= 0; i--) {
+                Rule rule = ignore.rules.get(i);
+                if (!directory && rule.directoryOnly) {
+                    continue;
+                }
+                String subject;
+                if (rule.nameOnly) {
+                    if (name == null) {
+                        name = path.getFileName().toString();
+                    }
+                    subject = name;
+                } else {
+                    if (relative == null) {
+                        relative = ignore.base.relativize(path).toString().replace('\\', '/');
+                    }
+                    subject = relative;
+                }
+                if (rule.matches(subject)) {
+                    return !rule.negated;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Rule parse(String line) {
+        String pattern = line;
+        while (pattern.endsWith(" ") && !pattern.endsWith("\\ ")) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        if (pattern.isEmpty() || pattern.startsWith("#")) {
+            return null;
+        }
+        boolean negated = pattern.startsWith("!");
+        if (negated || pattern.startsWith("\\!") || pattern.startsWith("\\#")) {
+            pattern = pattern.substring(1);
+        }
+        boolean directoryOnly = pattern.endsWith("/");
+        if (directoryOnly) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        boolean anchored = pattern.contains("/");
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        if (pattern.isEmpty()) {
+            return null;
+        }
+        if (anchored || pattern.contains("**")) {
+            return new Rule(Pattern.compile((anchored ? "" : "(?:.*/)?") + toRegex(pattern)), negated, directoryOnly, false, null, false);
+        }
+        boolean suffix = pattern.startsWith("*");
+        String literal = suffix ? pattern.substring(1) : pattern;
+        if (literal.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '\\')) {
+            return new Rule(Pattern.compile(toRegex(pattern)), negated, directoryOnly, true, null, false);
+        }
+        return new Rule(null, negated, directoryOnly, true, literal, suffix);
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && glob.startsWith("**/", i)) {
+                regex.append("(?:.*/)?");
+                i += 2;
+            } else if (c == '*' && glob.startsWith("**", i)) {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+                int end = glob.indexOf(']', i + 1);
+                String range = glob.substring(i + 1, end);
+                regex.append('[').append(range.startsWith("!") ? "^" + range.substring(1) : range).append(']');
+                i = end;
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+}
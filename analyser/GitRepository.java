@@ -0,0 +1,981 @@
+package analyser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the object database of a local Git repository directly from its {@code .git} directory: loose objects,
+ * and packfiles whose {@code .idx} and {@code .pack} files are memory-mapped, with offset and reference deltas
+ * resolved through a cache of recently inflated pack entries bounded by bytes. Only SHA-1 repositories are
+ * supported. Reads are serialised on the repository, which owns a single {@link Inflater}.
+ */
+public final class GitRepository implements Closeable {
+
+    public static final int OBJ_COMMIT = 1;
+    public static final int OBJ_TREE = 2;
+    public static final int OBJ_BLOB = 3;
+    public static final int OBJ_TAG = 4;
+    private static final int OBJ_OFS_DELTA = 6;
+    private static final int OBJ_REF_DELTA = 7;
+    private static final int ID_LENGTH = 20;
+    private static final long REGION_SIZE = 1L << 30;
+    private static final int MAX_SYMBOLIC_REFS = 5;
+    private static final long DEFAULT_CACHE_BYTES = Long.getLong("analyser.git.cacheBytes", 32L * 1024 * 1024);
+    private static final String[] TYPE_NAMES = {null, "commit", "tree", "blob", "tag"};
+
+    private final Path gitDirectory;
+    private final Path commonDirectory;
+    private final List<Path> objectDirectories;
+    private final List<Pack> packs = new ArrayList<>();
+    private final Set<ObjectId> shallowCommits = new HashSet<>();
+    private final ObjectCache cache;
+    private final Inflater inflater = new Inflater();
+    private long bytesInflated;
+
+    private GitRepository(Path gitDirectory, Path commonDirectory, long cacheBytes) throws IOException {
+        this.gitDirectory = gitDirectory;
+        this.commonDirectory = commonDirectory;
+        this.objectDirectories = objectDirectories(commonDirectory.resolve("objects"));
+        this.cache = new ObjectCache(cacheBytes);
+        try {
+            for (Path objects : objectDirectories) {
+                openPacks(objects.resolve("pack"));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        Path shallow = commonDirectory.resolve("shallow");
+        if (Files.isRegularFile(shallow)) {
+            for (String line : Files.readAllLines(shallow, StandardCharsets.US_ASCII)) {
+                if (!line.trim().isEmpty()) {
+                    shallowCommits.add(ObjectId.parse(line.trim()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the repository whose working tree is {@code workTree}, following a {@code .git} file to a linked
+     * worktree or submodule directory.
+     *
+     * @return null when {@code workTree} has no {@code .git}
+     */
+    public static GitRepository open(Path workTree) throws IOException {
+        return open(workTree, DEFAULT_CACHE_BYTES);
+    }
+
+    public static GitRepository open(Path workTree, long cacheBytes) throws IOException {
+        Path gitDirectory = findGitDirectory(workTree);
+        if (gitDirectory == null) {
+            return null;
+        }
+        Path commonDirectory = gitDirectory;
+        Path commonFile = gitDirectory.resolve("commondir");
+        if (Files.isRegularFile(commonFile)) {
+            commonDirectory = gitDirectory.resolve(readFirstLine(commonFile)).normalize();
+        }
+        Path config = commonDirectory.resolve("config");
+        if (Files.isRegularFile(config)) {
+            for (String line : Files.readAllLines(config, StandardCharsets.UTF_8)) {
+                String setting = line.replace(" ", "").replace("\t", "").toLowerCase();
+                if (setting.startsWith("objectformat=") && !setting.equals("objectformat=sha1")) {
+                    throw new IOException("Unsupported Git object format: " + line.trim());
+                }
+            }
+        }
+        return new GitRepository(gitDirectory, commonDirectory, cacheBytes);
+    }
+
+    public static boolean isRepository(Path workTree) {
+        return Files.exists(workTree.resolve(".git"));
+    }
+
+    private static Path findGitDirectory(Path workTree) throws IOException {
+        Path dotGit = workTree.resolve(".git");
+        if (Files.isDirectory(dotGit)) {
+            return dotGit;
+        }
+        if (Files.isRegularFile(dotGit)) {
+            String line = readFirstLine(dotGit);
+            if (line.startsWith("gitdir:")) {
+                return workTree.resolve(line.substring("gitdir:".length()).trim()).normalize();
+            }
+        }
+        return null;
+    }
+
+    private static List<Path> objectDirectories(Path objects) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        directories.add(objects);
+        Path alternates = objects.resolve("info").resolve("alternates");
+        if (Files.isRegularFile(alternates)) {
+            for (String line : Files.readAllLines(alternates, StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    directories.add(objects.resolve(line.trim()).normalize());
+                }
+            }
+        }
+        return directories;
+    }
+
+    private void openPacks(Path packDirectory) throws IOException {
+        if (!Files.isDirectory(packDirectory)) {
+            return;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(packDirectory, "*.idx")) {
+            for (Path index : entries) {
+                String name = index.getFileName().toString();
+                Path pack = index.resolveSibling(name.substring(0, name.length() - ".idx".length()) + ".pack");
+                if (Files.isRegularFile(pack)) {
+                    packs.add(new Pack(packs.size(), index, pack));
+                }
+            }
+        }
+    }
+
+    public Path getGitDirectory() {
+        return gitDirectory;
+    }
+
+    /**
+     * The branch HEAD points at, or null when HEAD is detached.
+     */
+    public String getBranch() throws IOException {
+        String head = readFirstLine(gitDirectory.resolve("HEAD"));
+        return head.startsWith("ref: refs/heads/") ? head.substring("ref: refs/heads/".length()) : null;
+    }
+
+    /**
+     * Resolves {@code HEAD}, a full ref name, a branch or tag name, or a full object id, peeling annotated tags.
+     *
+     * @return null for an unknown name or an unborn branch
+     */
+    public synchronized ObjectId resolve(String revision) throws IOException {
+        ObjectId id = null;
+        if (revision.length() == ID_LENGTH * 2 && revision.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            id = ObjectId.parse(revision);
+        } else {
+            for (String name : new String[]{revision, "refs/" + revision, "refs/tags/" + revision, "refs/heads/" + revision}) {
+                id = resolveRef(name, 0);
+                if (id != null) {
+                    break;
+                }
+            }
+        }
+        while (id != null) {
+            RawObject object = readObject(id);
+            if (object.type != OBJ_TAG) {
+                return id;
+            }
+            id = ObjectId.parse(headerValue(object.data, "object"));
+        }
+        return null;
+    }
+
+    private ObjectId resolveRef(String name, int depth) throws IOException {
+        if (depth > MAX_SYMBOLIC_REFS) {
+            throw new IOException("Too many symbolic refs resolving " + name);
+        }
+        // HEAD and the other per-worktree refs live in the worktree's directory, branches and tags in the shared one
+        Path file = (name.equals("HEAD") ? gitDirectory : commonDirectory).resolve(name);
+        if (Files.isRegularFile(file)) {
+            String content = readFirstLine(file);
+            if (content.startsWith("ref:")) {
+                return resolveRef(content.substring("ref:".length()).trim(), depth + 1);
+            }
+            return content.length() >= ID_LENGTH * 2 ? ObjectId.parse(content.substring(0, ID_LENGTH * 2)) : null;
+        }
+        Path packedRefs = commonDirectory.resolve("packed-refs");
+        if (Files.isRegularFile(packedRefs)) {
+            for (String line : Files.readAllLines(packedRefs, StandardCharsets.UTF_8)) {
+                if (line.length() > ID_LENGTH * 2 && line.charAt(0) != '#' && line.charAt(0) != '^'
+                        && line.substring(ID_LENGTH * 2 + 1).equals(name)) {
+                    return ObjectId.parse(line.substring(0, ID_LENGTH * 2));
+                }
+            }
+        }
+        return null;
+    }
+
+    public boolean isShallow(ObjectId commit) {
+        return shallowCommits.contains(commit);
+    }
+
+    /**
+     * Bytes inflated since the repository was opened, deltas included.
+     */
+    public synchronized long getBytesInflated() {
+        return bytesInflated;
+    }
+
+    public synchronized Commit readCommit(ObjectId id) throws IOException {
+        return Commit.parse(id, expect(id, OBJ_COMMIT));
+    }
+
+    public synchronized Tree readTree(ObjectId id) throws IOException {
+        return new Tree(expect(id, OBJ_TREE));
+    }
+
+    public synchronized byte[] readBlob(ObjectId id) throws IOException {
+        return expect(id, OBJ_BLOB);
+    }
+
+    private byte[] expect(ObjectId id, int type) throws IOException {
+        RawObject object = readObject(id);
+        if (object.type != type) {
+            throw new IOException("Object " + id + " is a " + TYPE_NAMES[object.type] + ", not a " + TYPE_NAMES[type]);
+        }
+        return object.data;
+    }
+
+    private RawObject readObject(ObjectId id) throws IOException {
+        for (Pack pack : packs) {
+            long offset = pack.offsetOf(id.bytes);
+            if (offset >= 0) {
+                return readPacked(pack, offset);
+            }
+        }
+        for (Path objects : objectDirectories) {
+            String hex = id.toString();
+            Path loose = objects.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+            try {
+                return readLoose(Files.readAllBytes(loose), id);
+            } catch (NoSuchFileException e) {
+                // try the next object directory
+            }
+        }
+        // the pack may have been repacked away since it was opened
+        int opened = packs.size();
+        for (Path objects : objectDirectories) {
+            rescanPacks(objects.resolve("pack"));
+        }
+        for (int i = opened; i < packs.size(); i++) {
+            long offset = packs.get(i).offsetOf(id.bytes);
+            if (offset >= 0) {
+                return readPacked(packs.get(i), offset);
+            }
+        }
+        throw new IOException("Missing Git object " + id);
+    }
+
+    private void rescanPacks(Path packDirectory) throws IOException {
+        Set<Path> known = new HashSet<>();
+        for (Pack pack : packs) {
+            known.add(pack.packFile);
+        }
+        if (!Files.isDirectory(packDirectory)) {
+            return;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(packDirectory, "*.idx")) {
+            for (Path index : entries) {
+                String name = index.getFileName().toString();
+                Path pack = index.resolveSibling(name.substring(0, name.length() - ".idx".length()) + ".pack");
+                if (!known.contains(pack) && Files.isRegularFile(pack)) {
+                    packs.add(new Pack(packs.size(), index, pack));
+                }
+            }
+        }
+    }
+
+    private RawObject readLoose(byte[] compressed, ObjectId id) throws IOException {
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] header = new byte[64];
+        int headerLength = 0;
+        int terminator = -1;
+        try {
+            while (terminator < 0) {
+                int n = inflater.inflate(header, headerLength, header.length - headerLength);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || headerLength == header.length)) {
+                    throw new IOException("Corrupt loose object " + id);
+                }
+                for (int i = headerLength; i < headerLength + n && terminator < 0; i++) {
+                    if (header[i] == 0) {
+                        terminator = i;
+                    }
+                }
+                headerLength += n;
+            }
+            String[] typeAndSize = new String(header, 0, terminator, StandardCharsets.US_ASCII).split(" ");
+            int type = Arrays.asList(TYPE_NAMES).indexOf(typeAndSize[0]);
+            int size = Integer.parseInt(typeAndSize[1]);
+            if (type < OBJ_COMMIT) {
+                throw new IOException("Corrupt loose object " + id);
+            }
+            byte[] data = new byte[size];
+            int filled = Math.min(size, headerLength - terminator - 1);
+            System.arraycopy(header, terminator + 1, data, 0, filled);
+            while (filled < size) {
+                int n = inflater.inflate(data, filled, size - filled);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated loose object " + id);
+                }
+                filled += n;
+            }
+            bytesInflated += size;
+            return new RawObject(type, data);
+        } catch (DataFormatException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt loose object " + id, e);
+        }
+    }
+
+    /**
+     * Reads the pack entry at {@code offset}, walking down its delta chain to the nearest cached or whole object
+     * and then applying the deltas back up, caching each intermediate result for the entries that share them.
+     */
+    private RawObject readPacked(Pack pack, long offset) throws IOException {
+        List<PackEntry> deltas = new ArrayList<>();
+        Pack current = pack;
+        long position = offset;
+        RawObject base;
+        while (true) {
+            base = cache.get(current.key(position));
+            if (base != null) {
+                break;
+            }
+            PackEntry entry = current.entryAt(position);
+            if (entry.type == OBJ_OFS_DELTA) {
+                deltas.add(entry);
+                position = entry.baseOffset;
+            } else if (entry.type == OBJ_REF_DELTA) {
+                deltas.add(entry);
+                long baseOffset = current.offsetOf(entry.baseId);
+                if (baseOffset >= 0) {
+                    position = baseOffset;
+                } else {
+                    // thin packs are fixed on receipt, but a base may still sit in another pack or loose
+                    base = readObject(new ObjectId(entry.baseId));
+                    break;
+                }
+            } else if (entry.type >= OBJ_COMMIT && entry.type <= OBJ_TAG) {
+                base = new RawObject(entry.type, inflate(current, entry.dataPosition, entry.size));
+                cache.put(current.key(position), base);
+                break;
+            } else {
+                throw new IOException("Corrupt pack entry at " + position + " in " + current.packFile);
+            }
+        }
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            PackEntry entry = deltas.get(i);
+            base = new RawObject(base.type, applyDelta(base.data, inflate(entry.pack, entry.dataPosition, entry.size), entry));
+            cache.put(entry.pack.key(entry.position), base);
+        }
+        return base;
+    }
+
+    private byte[] inflate(Pack pack, long position, int size) throws IOException {
+        byte[] data = new byte[size];
+        if (size == 0) {
+            return data;
+        }
+        inflater.reset();
+        long input = position;
+        inflater.setInput(pack.slice(input));
+        int filled = 0;
+        try {
+            while (filled < size) {
+                int n = inflater.inflate(data, filled, size - filled);
+                filled += n;
+                if (n == 0 && inflater.needsInput()) {
+                    // the stream runs past the end of a mapped region
+                    input = (input / REGION_SIZE + 1) * REGION_SIZE;
+                    if (input >= pack.size) {
+                        throw new IOException("Truncated pack entry at " + position + " in " + pack.packFile);
+                    }
+                    inflater.setInput(pack.slice(input));
+                } else if (n == 0 && (inflater.finished() || inflater.needsDictionary())) {
+                    throw new IOException("Corrupt pack entry at " + position + " in " + pack.packFile);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt pack entry at " + position + " in " + pack.packFile, e);
+        }
+        bytesInflated += size;
+        return data;
+    }
+
+    private static byte[] applyDelta(byte[] base, byte[] delta, PackEntry entry) throws IOException {
+        int[] cursor = {0};
+        long baseSize = readDeltaSize(delta, cursor);
+        long resultSize = readDeltaSize(delta, cursor);
+        if (baseSize != base.length || resultSize > Integer.MAX_VALUE) {
+            throw new IOException("Delta does not fit its base at " + entry.position + " in " + entry.pack.packFile);
+        }
+        byte[] result = new byte[(int) resultSize];
+        int written = 0;
+        int i = cursor[0];
+        try {
+            while (i < delta.length) {
+                int command = delta[i++] & 0xff;
+                if ((command & 0x80) != 0) {
+                    int copyOffset = 0;
+                    int copySize = 0;
+                    for (int bit = 0; bit < 4; bit++) {
+                        if ((command & (1 << bit)) != 0) {
+                            copyOffset |= (delta[i++] & 0xff) << (8 * bit);
+                        }
+                    }
+                    for (int bit = 0; bit < 3; bit++) {
+                        if ((command & (0x10 << bit)) != 0) {
+                            copySize |= (delta[i++] & 0xff) << (8 * bit);
+                        }
+                    }
+                    if (copySize == 0) {
+                        copySize = 0x10000;
+                    }
+                    System.arraycopy(base, copyOffset, result, written, copySize);
+                    written += copySize;
+                } else if (command != 0) {
+                    System.arraycopy(delta, i, result, written, command);
+                    i += command;
+                    written += command;
+                } else {
+                    throw new IOException("Reserved delta instruction at " + entry.position + " in " + entry.pack.packFile);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt delta at " + entry.position + " in " + entry.pack.packFile, e);
+        }
+        if (written != result.length) {
+            throw new IOException("Short delta at " + entry.position + " in " + entry.pack.packFile);
+        }
+        return result;
+    }
+
+    private static long readDeltaSize(byte[] delta, int[] cursor) {
+        long size = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = delta[cursor[0]++] & 0xff;
+            size |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return size;
+    }
+
+    private static String readFirstLine(Path file) throws IOException {
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        int end = content.indexOf('\n');
+        return (end < 0 ? content : content.substring(0, end)).trim();
+    }
+
+    private static String headerValue(byte[] data, String key) throws IOException {
+        int start = 0;
+        while (start < data.length && data[start] != '\n') {
+            int end = indexOf(data, (byte) '\n', start);
+            String line = new String(data, start, end - start, StandardCharsets.UTF_8);
+            if (line.startsWith(key + " ")) {
+                return line.substring(key.length() + 1);
+            }
+            start = end + 1;
+        }
+        throw new IOException("Missing " + key + " header");
+    }
+
+    private static int indexOf(byte[] data, byte value, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return data.length;
+    }
+
+    @Override
+    public synchronized void close() {
+        inflater.end();
+        cache.clear();
+        packs.clear();
+    }
+
+    /**
+     * A 20-byte SHA-1 object name.
+     */
+    public static final class ObjectId {
+        private final byte[] bytes;
+        private final int hash;
+
+        private ObjectId(byte[] bytes) {
+            this.bytes = bytes;
+            // object names are uniformly distributed, so their first bytes already make a good hash
+            this.hash = (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+        }
+
+        static ObjectId fromBytes(byte[] source, int offset) {
+            return new ObjectId(Arrays.copyOfRange(source, offset, offset + ID_LENGTH));
+        }
+
+        public static ObjectId parse(String hex) throws IOException {
+            if (hex.length() != ID_LENGTH * 2) {
+                throw new IOException("Invalid Git object id: " + hex);
+            }
+            byte[] bytes = new byte[ID_LENGTH];
+            for (int i = 0; i < ID_LENGTH; i++) {
+                int high = Character.digit(hex.charAt(2 * i), 16);
+                int low = Character.digit(hex.charAt(2 * i + 1), 16);
+                if (high < 0 || low < 0) {
+                    throw new IOException("Invalid Git object id: " + hex);
+                }
+                bytes[i] = (byte) (high << 4 | low);
+            }
+            return new ObjectId(bytes);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ObjectId && Arrays.equals(bytes, ((ObjectId) other).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder hex = new StringBuilder(ID_LENGTH * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+    }
+
+    public static final class Commit {
+        private final ObjectId id;
+        private final ObjectId tree;
+        private final List<ObjectId> parents;
+        private final String authorName;
+        private final String authorEmail;
+        private final long authorTimeSeconds;
+        private final long commitTimeSeconds;
+
+        private Commit(ObjectId id, ObjectId tree, List<ObjectId> parents, String authorName, String authorEmail,
+                       long authorTimeSeconds, long commitTimeSeconds) {
+            this.id = id;
+            this.tree = tree;
+            this.parents = parents;
+            this.authorName = authorName;
+            this.authorEmail = authorEmail;
+            this.authorTimeSeconds = authorTimeSeconds;
+            this.commitTimeSeconds = commitTimeSeconds;
+        }
+
+        private static Commit parse(ObjectId id, byte[] data) throws IOException {
+            ObjectId tree = null;
+            List<ObjectId> parents = new ArrayList<>(1);
+            String authorName = "";
+            String authorEmail = "";
+            long authorTime = 0;
+            long commitTime = 0;
+            int start = 0;
+            // headers run up to the first empty line; the message after it is not needed
+            while (start < data.length && data[start] != '\n') {
+                int end = indexOf(data, (byte) '\n', start);
+                if (startsWith(data, start, "tree ")) {
+                    tree = ObjectId.parse(new String(data, start + 5, end - start - 5, StandardCharsets.US_ASCII));
+                } else if (startsWith(data, start, "parent ")) {
+                    parents.add(ObjectId.parse(new String(data, start + 7, end - start - 7, StandardCharsets.US_ASCII)));
+                } else if (startsWith(data, start, "author ")) {
+                    String ident = new String(data, start + 7, end - start - 7, StandardCharsets.UTF_8);
+                    int emailStart = ident.indexOf('<');
+                    int emailEnd = ident.indexOf('>', emailStart + 1);
+                    if (emailStart >= 0 && emailEnd > emailStart) {
+                        authorName = ident.substring(0, emailStart).trim();
+                        authorEmail = ident.substring(emailStart + 1, emailEnd);
+                        authorTime = identTime(ident.substring(emailEnd + 1));
+                    }
+                } else if (startsWith(data, start, "committer ")) {
+                    String ident = new String(data, start + 10, end - start - 10, StandardCharsets.UTF_8);
+                    commitTime = identTime(ident.substring(ident.lastIndexOf('>') + 1));
+                }
+                start = end + 1;
+            }
+            if (tree == null) {
+                throw new IOException("Commit " + id + " has no tree");
+            }
+            return new Commit(id, tree, parents, authorName, authorEmail, authorTime, commitTime);
+        }
+
+        private static long identTime(String timeAndZone) {
+            String[] parts = timeAndZone.trim().split(" ");
+            try {
+                return Long.parseLong(parts[0]);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private static boolean startsWith(byte[] data, int start, String prefix) {
+            if (start + prefix.length() > data.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (data[start + i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public ObjectId getId() {
+            return id;
+        }
+
+        public ObjectId getTree() {
+            return tree;
+        }
+
+        public List<ObjectId> getParents() {
+            return Collections.unmodifiableList(parents);
+        }
+
+        public String getAuthorName() {
+            return authorName;
+        }
+
+        public String getAuthorEmail() {
+            return authorEmail;
+        }
+
+        public long getAuthorTimeSeconds() {
+            return authorTimeSeconds;
+        }
+
+        public long getCommitTimeSeconds() {
+            return commitTimeSeconds;
+        }
+    }
+
+    /**
+     * The entries of one tree object, parsed in place: names stay as bytes until asked for.
+     */
+    public static final class Tree {
+        private static final int MODE_TREE = 040000;
+        private static final int MODE_GITLINK = 0160000;
+
+        private final byte[] data;
+        private int[] nameStarts = new int[16];
+        private int[] nameEnds = new int[16];
+        private int[] modes = new int[16];
+        private int size;
+
+        private Tree(byte[] data) throws IOException {
+            this.data = data;
+            int position = 0;
+            while (position < data.length) {
+                int mode = 0;
+                while (position < data.length && data[position] != ' ') {
+                    mode = mode << 3 | (data[position++] - '0');
+                }
+                int nameStart = position + 1;
+                int nameEnd = indexOf(data, (byte) 0, nameStart);
+                if (nameEnd + 1 + ID_LENGTH > data.length) {
+                    throw new IOException("Corrupt tree object");
+                }
+                if (size == modes.length) {
+                    nameStarts = Arrays.copyOf(nameStarts, size * 2);
+                    nameEnds = Arrays.copyOf(nameEnds, size * 2);
+                    modes = Arrays.copyOf(modes, size * 2);
+                }
+                nameStarts[size] = nameStart;
+                nameEnds[size] = nameEnd;
+                modes[size++] = mode;
+                position = nameEnd + 1 + ID_LENGTH;
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String getName(int entry) {
+            return new String(data, nameStarts[entry], nameEnds[entry] - nameStarts[entry], StandardCharsets.UTF_8);
+        }
+
+        public ObjectId getId(int entry) {
+            return ObjectId.fromBytes(data, nameEnds[entry] + 1);
+        }
+
+        public boolean isTree(int entry) {
+            return modes[entry] == MODE_TREE;
+        }
+
+        /**
+         * A submodule commit, which lives in another repository.
+         */
+        public boolean isGitlink(int entry) {
+            return modes[entry] == MODE_GITLINK;
+        }
+
+        /**
+         * Whether two entries name the same object with the same mode, without allocating either id.
+         */
+        public boolean sameEntry(int entry, Tree other, int otherEntry) {
+            return modes[entry] == other.modes[otherEntry]
+                    && Arrays.equals(data, nameEnds[entry] + 1, nameEnds[entry] + 1 + ID_LENGTH,
+                    other.data, other.nameEnds[otherEntry] + 1, other.nameEnds[otherEntry] + 1 + ID_LENGTH);
+        }
+
+        /**
+         * Compares entries in Git's tree order, where a subtree sorts as if its name ended with a slash; trees
+         * are stored in this order, so two of them can be diffed with a single merge pass.
+         */
+        public int compare(int entry, Tree other, int otherEntry) {
+            int start = nameStarts[entry];
+            int length = nameEnds[entry] - start;
+            int otherStart = other.nameStarts[otherEntry];
+            int otherLength = other.nameEnds[otherEntry] - otherStart;
+            int common = Math.min(length, otherLength);
+            for (int i = 0; i < common; i++) {
+                int difference = (data[start + i] & 0xff) - (other.data[otherStart + i] & 0xff);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            int next = length > common ? data[start + common] & 0xff : isTree(entry) ? '/' : 0;
+            int otherNext = otherLength > common ? other.data[otherStart + common] & 0xff : other.isTree(otherEntry) ? '/' : 0;
+            return next - otherNext;
+        }
+    }
+
+    private static final class RawObject {
+        private final int type;
+        private final byte[] data;
+
+        private RawObject(int type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private static final class PackEntry {
+        private final Pack pack;
+        private final long position;
+        private final int type;
+        private final int size;
+        private final long dataPosition;
+        private final long baseOffset;
+        private final byte[] baseId;
+
+        private PackEntry(Pack pack, long position, int type, int size, long dataPosition, long baseOffset, byte[] baseId) {
+            this.pack = pack;
+            this.position = position;
+            this.type = type;
+            this.size = size;
+            this.dataPosition = dataPosition;
+            this.baseOffset = baseOffset;
+            this.baseId = baseId;
+        }
+    }
+
+    /**
+     * One memory-mapped packfile and its index. Index version 2 holds a fanout table, the sorted object names,
+     * their CRCs, 31-bit offsets and a table of 64-bit offsets; version 1 interleaves offsets and names.
+     */
+    private static final class Pack {
+        private static final int INDEX_V2_MAGIC = 0xff744f63;
+
+        private final int number;
+        private final Path packFile;
+        private final ByteBuffer index;
+        private final int version;
+        private final int fanoutStart;
+        private final int objectCount;
+        private final long size;
+        private final MappedByteBuffer[] regions;
+
+        private Pack(int number, Path indexFile, Path packFile) throws IOException {
+            this.number = number;
+            this.packFile = packFile;
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                this.index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (index.capacity() >= 8 && index.getInt(0) == INDEX_V2_MAGIC) {
+                version = index.getInt(4);
+                if (version != 2) {
+                    throw new IOException("Unsupported pack index version " + version + ": " + indexFile);
+                }
+                fanoutStart = 8;
+            } else {
+                version = 1;
+                fanoutStart = 0;
+            }
+            if (index.capacity() < fanoutStart + 256 * 4) {
+                throw new IOException("Truncated pack index: " + indexFile);
+            }
+            objectCount = index.getInt(fanoutStart + 255 * 4);
+            try (FileChannel channel = FileChannel.open(packFile, StandardOpenOption.READ)) {
+                this.size = channel.size();
+                this.regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+                for (int i = 0; i < regions.length; i++) {
+                    long start = i * REGION_SIZE;
+                    regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+                }
+            }
+            if (size < 12 || byteAt(0) != 'P' || byteAt(1) != 'A' || byteAt(2) != 'C' || byteAt(3) != 'K') {
+                throw new IOException("Not a packfile: " + packFile);
+            }
+        }
+
+        private long key(long position) {
+            return (long) number << 48 | position;
+        }
+
+        /**
+         * Binary search within the fanout bucket of the first byte.
+         *
+         * @return the entry's offset in the pack, or -1 when the pack does not hold it
+         */
+        private long offsetOf(byte[] id) {
+            int first = id[0] & 0xff;
+            int low = first == 0 ? 0 : index.getInt(fanoutStart + (first - 1) * 4);
+            int high = index.getInt(fanoutStart + first * 4);
+            int idsStart = version == 2 ? fanoutStart + 256 * 4 : fanoutStart + 256 * 4 + 4;
+            int stride = version == 2 ? ID_LENGTH : ID_LENGTH + 4;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compareId(idsStart + middle * stride, id);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle;
+                } else {
+                    return offsetAt(middle);
+                }
+            }
+            return -1;
+        }
+
+        private int compareId(int position, byte[] id) {
+            for (int i = 0; i < ID_LENGTH; i++) {
+                int difference = (index.get(position + i) & 0xff) - (id[i] & 0xff);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return 0;
+        }
+
+        private long offsetAt(int entry) {
+            if (version == 1) {
+                return index.getInt(fanoutStart + 256 * 4 + entry * (ID_LENGTH + 4)) & 0xffffffffL;
+            }
+            int offsetsStart = fanoutStart + 256 * 4 + objectCount * (ID_LENGTH + 4);
+            int offset = index.getInt(offsetsStart + entry * 4);
+            if (offset >= 0) {
+                return offset;
+            }
+            // the high bit marks an index into the table of offsets past 2 GB
+            return index.getLong(offsetsStart + objectCount * 4 + (offset & 0x7fffffff) * 8);
+        }
+
+        private PackEntry entryAt(long position) throws IOException {
+            if (position < 12 || position >= size) {
+                throw new IOException("Pack offset " + position + " out of range in " + packFile);
+            }
+            long cursor = position;
+            int b = byteAt(cursor++);
+            int type = (b >> 4) & 0x7;
+            long entrySize = b & 0x0f;
+            int shift = 4;
+            while ((b & 0x80) != 0) {
+                b = byteAt(cursor++);
+                entrySize |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            }
+            if (entrySize > Integer.MAX_VALUE - 8) {
+                throw new IOException("Pack entry too large at " + position + " in " + packFile);
+            }
+            long baseOffset = -1;
+            byte[] baseId = null;
+            if (type == OBJ_OFS_DELTA) {
+                // a big-endian base-128 distance back to the base, each continuation adding one
+                b = byteAt(cursor++);
+                long distance = b & 0x7f;
+                while ((b & 0x80) != 0) {
+                    b = byteAt(cursor++);
+                    distance = ((distance + 1) << 7) | (b & 0x7f);
+                }
+                baseOffset = position - distance;
+            } else if (type == OBJ_REF_DELTA) {
+                baseId = new byte[ID_LENGTH];
+                for (int i = 0; i < ID_LENGTH; i++) {
+                    baseId[i] = (byte) byteAt(cursor++);
+                }
+            }
+            return new PackEntry(this, position, type, (int) entrySize, cursor, baseOffset, baseId);
+        }
+
+        private int byteAt(long position) {
+            return regions[(int) (position / REGION_SIZE)].get((int) (position % REGION_SIZE)) & 0xff;
+        }
+
+        /**
+         * The mapped bytes from {@code position} to the end of its region, for the inflater to read directly.
+         */
+        private ByteBuffer slice(long position) {
+            ByteBuffer region = regions[(int) (position / REGION_SIZE)].duplicate();
+            region.position((int) (position % REGION_SIZE));
+            return region;
+        }
+    }
+
+    /**
+     * Least recently used pack entries up to a total number of bytes. Entries bigger than an eighth of the
+     * budget are never kept, so one large blob cannot flush the trees and commits a history walk revisits.
+     */
+    private static final class ObjectCache {
+        private final long capacityBytes;
+        private final LinkedHashMap<Long, RawObject> entries = new LinkedHashMap<>(256, 0.75f, true);
+        private long bytes;
+
+        private ObjectCache(long capacityBytes) {
+            this.capacityBytes = capacityBytes;
+        }
+
+        private RawObject get(long key) {
+            return entries.get(key);
+        }
+
+        private void put(long key, RawObject object) {
+            if (object.data.length > capacityBytes / 8) {
+                return;
+            }
+            RawObject previous = entries.put(key, object);
+            bytes += object.data.length - (previous == null ? 0 : previous.data.length);
+            Iterator<Map.Entry<Long, RawObject>> eldest = entries.entrySet().iterator();
+            while (bytes > capacityBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().data.length;
+                eldest.remove();
+            }
+        }
+
+        private void clear() {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package analyser;
+
+import java.util.List;
+
+/**
+ * A source language the analyzer understands. Implementations can be added through
+ * {@link Languages#register} or as {@link java.util.ServiceLoader} providers of this interface.
+ */
+public interface Language {
+
+    String getName();
+
+    /**
+     * File extensions handled by this language, lower case and without the dot.
+     */
+    List<String> getExtensions();
+
+    /**
+     * Returns a fresh lexer for one file; lexers carry state from line to line and are not thread-safe.
+     */
+    Lexer newLexer();
+}
@@ -0,0 +1,89 @@
+package analyser;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of languages by file extension: the built-in rule sets, any {@link ServiceLoader} providers of
+ * {@link Language}, and languages registered at runtime. Unknown extensions fall back to {@link #GENERIC}.
+ */
+public final class Languages {
+
+    private static final String[] C_FAMILY_KEYWORDS = {"if", "for", "while", "case", "catch"};
+    private static final String[] C_FAMILY_OPERATORS = {"&&", "||", "?"};
+
+    public static final Language JAVA = LexerRules.builder("Java", "java")
+            .lineComment("//").blockComment("/*", "*/")
+            .quote("\"\"\"", true).quote("\"", false).quote("'", false)
+            .keywords(C_FAMILY_KEYWORDS).operators(C_FAMILY_OPERATORS)
+            .build();
+
+    public static final Language JAVASCRIPT = LexerRules.builder("JavaScript", "js", "jsx", "mjs", "cjs", "ts", "tsx")
+            .lineComment("//").blockComment("/*", "*/")
+            .quote("\"", false).quote("'", false).quote("`", true)
+            .keywords(C_FAMILY_KEYWORDS).operators(C_FAMILY_OPERATORS)
+            .build();
+
+    public static final Language C = LexerRules.builder("C/C++", "c", "h", "cpp", "cc", "cxx", "hpp", "hh", "hxx")
+            .lineComment("//").blockComment("/*", "*/")
+            .quote("\"", false).quote("'", false)
+            .keywords(C_FAMILY_KEYWORDS).operators(C_FAMILY_OPERATORS)
+            .build();
+
+    public static final Language PYTHON = LexerRules.builder("Python", "py", "pyw")
+            .lineComment("#")
+            .quote("\"\"\"", true).quote("'''", true).quote("\"", false).quote("'", false)
+            .docstrings()
+            .keywords("if", "elif", "for", "while", "except", "and", "or", "case")
+            .build();
+
+    public static final Language MARKUP = LexerRules.builder("HTML/XML", "html", "htm", "xhtml", "xml", "xsd", "xsl", "svg")
+            .blockComment("<!--", "-->")
+            .build();
+
+    public static final Language CSS = LexerRules.builder("CSS", "css", "scss", "less")
+            .blockComment("/*", "*/")
+            .quote("\"", false).quote("'", false)
+            .build();
+
+    /**
+     * Recognizes the common comment markers without knowing the language, as the analyzer always has.
+     */
+    public static final Language GENERIC = LexerRules.builder("Other")
+            .lineComment("//").lineComment("#").blockComment("/*", "*/").blockComment("<!--", "-->")
+            .build();
+
+    private static final Map<String, Language> BY_EXTENSION = new ConcurrentHashMap<>();
+
+    static {
+        for (Language language : new Language[]{JAVA, JAVASCRIPT, C, PYTHON, MARKUP, CSS}) {
+            register(language);
+        }
+        try {
+            for (Language language : ServiceLoader.load(Language.class)) {
+                register(language);
+            }
+        } catch (ServiceConfigurationError e) {
+            System.err.println("Error loading language plugins: " + e.getMessage());
+        }
+    }
+
+    private Languages() {
+    }
+
+    /**
+     * Makes {@code language} handle its extensions, replacing whatever handled them before.
+     */
+    public static void register(Language language) {
+        for (String extension : language.getExtensions()) {
+            BY_EXTENSION.put(extension.toLowerCase(Locale.ROOT), language);
+        }
+    }
+
+    public static Language forFileType(String fileType) {
+        return BY_EXTENSION.getOrDefault(fileType.toLowerCase(Locale.ROOT), GENERIC);
+    }
+}
@@ -0,0 +1,330 @@
+package analyser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A file viewed through memory-mapped regions and a line-offset table built in the background, edited
+ * through a line-level piece table. Nothing proportional to the file size is copied onto the heap except
+ * four bytes per line of offsets; saving streams unchanged ranges straight from the original file.
+ */
+public final class LargeFileDocument implements Closeable {
+
+    private static final long REGION_SIZE = 1L << 30;
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    public interface IndexListener {
+        void linesIndexed(int lineCount, boolean complete);
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private final MappedByteBuffer[] regions;
+    private final Thread indexer;
+
+    private long[] pageBases = new long[16];
+    private int[] relativeOffsets = new int[PAGE_SIZE * 16];
+    private volatile int indexedLines;
+    private volatile boolean indexComplete;
+    private volatile IOException indexFailure;
+
+    private List<Piece> pieces;
+    private final List<String> addedLines = new ArrayList<>();
+    private boolean modified;
+    private byte[] lineSeparator = {'\n'};
+
+    private static final class Piece {
+        private final boolean original;
+        private final int start;
+        private int count;
+
+        private Piece(boolean original, int start, int count) {
+            this.original = original;
+            this.start = start;
+            this.count = count;
+        }
+    }
+
+    private LargeFileDocument(Path path, IndexListener listener) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+        for (int i = 0; i < regions.length; i++) {
+            long start = i * REGION_SIZE;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+        }
+        this.indexer = new Thread(() -> buildIndex(listener), "line-indexer");
+        this.indexer.setDaemon(true);
+    }
+
+    public static LargeFileDocument open(Path path, IndexListener listener) throws IOException {
+        LargeFileDocument document = new LargeFileDocument(path, listener);
+        document.indexer.start();
+        return document;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isIndexComplete() {
+        return indexComplete;
+    }
+
+    public synchronized boolean isModified() {
+        return modified;
+    }
+
+    private void buildIndex(IndexListener listener) {
+        long lastNotified = System.nanoTime();
+        int lines = 0;
+        long lineStart = 0;
+        try {
+            for (int r = 0; r < regions.length && !Thread.currentThread().isInterrupted(); r++) {
+                MappedByteBuffer region = regions[r];
+                long regionStart = r * REGION_SIZE;
+                int limit = region.limit();
+                for (int i = 0; i < limit; i++) {
+                    if (region.get(i) == '\n') {
+                        if (lines == 0 && i > 0 && region.get(i - 1) == '\r') {
+                            lineSeparator = new byte[]{'\r', '\n'};
+                        }
+                        addLine(lines++, lineStart);
+                        lineStart = regionStart + i + 1;
+                        if ((lines & 0xFFFF) == 0 && System.nanoTime() - lastNotified > 100_000_000L) {
+                            lastNotified = System.nanoTime();
+                            listener.linesIndexed(lines, false);
+                        }
+                    }
+                }
+            }
+            if (lineStart < size) {
+                addLine(lines++, lineStart);
+            }
+            addLine(lines, size);
+        } catch (RuntimeException e) {
+            indexFailure = new IOException("Error indexing " + path, e);
+        }
+        synchronized (this) {
+            pieces = new ArrayList<>();
+            if (lines > 0) {
+                pieces.add(new Piece(true, 0, lines));
+            }
+        }
+        indexComplete = true;
+        listener.linesIndexed(lines, true);
+    }
+
+    private synchronized void addLine(int line, long offset) {
+        int page = line >>> PAGE_SHIFT;
+        if (page >= pageBases.length) {
+            pageBases = Arrays.copyOf(pageBases, pageBases.length * 2);
+        }
+        if ((line & (PAGE_SIZE - 1)) == 0) {
+            pageBases[page] = offset;
+        }
+        if (offset - pageBases[page] > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Lines too long to index");
+        }
+        if (line >= relativeOffsets.length) {
+            relativeOffsets = Arrays.copyOf(relativeOffsets, relativeOffsets.length * 2);
+        }
+        relativeOffsets[line] = (int) (offset - pageBases[page]);
+        if (line > 0) {
+            indexedLines = line;
+        }
+    }
+
+    private synchronized long offsetOf(int line) {
+        return pageBases[line >>> PAGE_SHIFT] + relativeOffsets[line];
+    }
+
+    /**
+     * Number of lines currently viewable; grows while the index is being built.
+     */
+    public synchronized int getLineCount() {
+        if (pieces == null) {
+            return indexedLines;
+        }
+        int count = 0;
+        for (Piece piece : pieces) {
+            count += piece.count;
+        }
+        return count;
+    }
+
+    public synchronized String getLine(int line) {
+        if (pieces == null) {
+            return originalLine(line);
+        }
+        for (Piece piece : pieces) {
+            if (line < piece.count) {
+                return piece.original ? originalLine(piece.start + line) : addedLines.get(piece.start + line);
+            }
+            line -= piece.count;
+        }
+        throw new IndexOutOfBoundsException("Line " + line);
+    }
+
+    private String originalLine(int line) {
+        long start = offsetOf(line);
+        long end = offsetOf(line + 1);
+        if (end > start && byteAt(end - 1) == '\n') {
+            end--;
+        }
+        if (end > start && byteAt(end - 1) == '\r') {
+            end--;
+        }
+        byte[] bytes = new byte[(int) (end - start)];
+        int region = (int) (start / REGION_SIZE);
+        int offset = (int) (start % REGION_SIZE);
+        if (offset + bytes.length <= regions[region].limit()) {
+            regions[region].duplicate().position(offset).get(bytes);
+        } else {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = byteAt(start + i);
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private byte byteAt(long position) {
+        return regions[(int) (position / REGION_SIZE)].get((int) (position % REGION_SIZE));
+    }
+
+    public synchronized void replaceLine(int line, String text) {
+        deleteLine(line);
+        insertLine(line, text);
+    }
+
+    public synchronized void insertLine(int line, String text) {
+        requireIndex();
+        addedLines.add(text);
+        Piece added = new Piece(false, addedLines.size() - 1, 1);
+        int index = 0;
+        for (; index < pieces.size(); index++) {
+            Piece piece = pieces.get(index);
+            if (line == 0) {
+                break;
+            }
+            if (line < piece.count) {
+                pieces.add(index + 1, new Piece(piece.original, piece.start + line, piece.count - line));
+                piece.count = line;
+                index++;
+                break;
+            }
+            line -= piece.count;
+        }
+        pieces.add(index, added);
+        modified = true;
+    }
+
+    public synchronized void deleteLine(int line) {
+        requireIndex();
+        for (int index = 0; index < pieces.size(); index++) {
+            Piece piece = pieces.get(index);
+            if (line < piece.count) {
+                if (piece.count == 1) {
+                    pieces.remove(index);
+                } else if (line == 0) {
+                    pieces.set(index, new Piece(piece.original, piece.start + 1, piece.count - 1));
+                } else if (line == piece.count - 1) {
+                    piece.count--;
+                } else {
+                    pieces.add(index + 1, new Piece(piece.original, piece.start + line + 1, piece.count - line - 1));
+                    piece.count = line;
+                }
+                modified = true;
+                return;
+            }
+            line -= piece.count;
+        }
+        throw new IndexOutOfBoundsException("Line " + line);
+    }
+
+    /**
+     * Where line {@code originalLine} of the file as opened is now, or -1 if it has been deleted or replaced.
+     */
+    public synchronized int currentLine(int originalLine) {
+        if (pieces == null) {
+            return originalLine < indexedLines ? originalLine : -1;
+        }
+        int line = 0;
+        for (Piece piece : pieces) {
+            if (piece.original && originalLine >= piece.start && originalLine < piece.start + piece.count) {
+                return line + originalLine - piece.start;
+            }
+            line += piece.count;
+        }
+        return -1;
+    }
+
+    private void requireIndex() {
+        if (!indexComplete) {
+            throw new IllegalStateException("The file is still being indexed");
+        }
+    }
+
+    /**
+     * Streams the edited document to a sibling temp file and atomically replaces the original. The document
+     * keeps mapping the old content, so callers should reopen the file afterwards.
+     */
+    public synchronized void save() throws IOException {
+        requireIndex();
+        if (indexFailure != null) {
+            throw indexFailure;
+        }
+        Path tempFile = path.resolveSibling(path.getFileName() + ".saving");
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            boolean endsWithNewline = true;
+            for (Piece piece : pieces) {
+                if (piece.original) {
+                    long start = offsetOf(piece.start);
+                    long end = offsetOf(piece.start + piece.count);
+                    if (!endsWithNewline) {
+                        out.write(ByteBuffer.wrap(lineSeparator));
+                    }
+                    for (long position = start; position < end; ) {
+                        position += channel.transferTo(position, end - position, out);
+                    }
+                    endsWithNewline = end > start && byteAt(end - 1) == '\n';
+                } else {
+                    for (int i = piece.start; i < piece.start + piece.count; i++) {
+                        if (!endsWithNewline) {
+                            out.write(ByteBuffer.wrap(lineSeparator));
+                        }
+                        out.write(ByteBuffer.wrap(addedLines.get(i).getBytes(StandardCharsets.UTF_8)));
+                        out.write(ByteBuffer.wrap(lineSeparator));
+                        endsWithNewline = true;
+                    }
+                }
+            }
+        }
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        modified = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        indexer.interrupt();
+        channel.close();
+    }
+}
@@ -0,0 +1,24 @@
+package analyser;
+
+/**
+ * Classifies the lines of one file in order, keeping block comments and multi-line strings open across lines.
+ */
+public interface Lexer {
+
+    int CODE = 1;
+    int COMMENT = 2;
+    int TODO = 4;
+    int FIXME = 8;
+
+    /**
+     * Scans one line, without its terminator, and returns a combination of the flags above; {@code 0} means
+     * the line is blank.
+     */
+    int scanLine(byte[] buffer, int start, int end);
+
+    /**
+     * Branch points seen so far ({@code if}, loops, {@code case}, {@code catch}, {@code &&}, ...), or
+     * {@code -1} if the language has no notion of control flow.
+     */
+    int getDecisionPoints();
+}
@@ -0,0 +1,323 @@
+package analyser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A language described by its comment delimiters, string quotes and branching keywords. The rules are compiled
+ * once into byte arrays and a first-byte table, so the lexers they create only look closer at bytes that can
+ * start a token of interest.
+ */
+public final class LexerRules implements Language {
+
+    private static final byte[] TODO_MARKER = bytes("TODO");
+    private static final byte[] FIXME_MARKER = bytes("FIXME");
+
+    private final String name;
+    private final List<String> extensions;
+    private final byte[][] lineComments;
+    private final byte[][] blockOpens;
+    private final byte[][] blockCloses;
+    private final byte[][] quotes;
+    private final boolean[] multiLineQuotes;
+    private final boolean docstrings;
+    private final byte escape;
+    private final byte[][] keywords;
+    private final byte[][] operators;
+    private final boolean[] tokenStart = new boolean[256];
+    private final boolean hasControlFlow;
+
+    private LexerRules(Builder builder) {
+        this.name = builder.name;
+        this.extensions = Collections.unmodifiableList(new ArrayList<>(builder.extensions));
+        this.lineComments = toBytes(builder.lineComments);
+        this.blockOpens = toBytes(builder.blockOpens);
+        this.blockCloses = toBytes(builder.blockCloses);
+        this.quotes = toBytes(builder.quotes);
+        this.multiLineQuotes = new boolean[builder.quotes.size()];
+        for (int i = 0; i < multiLineQuotes.length; i++) {
+            multiLineQuotes[i] = builder.multiLineQuotes.get(i);
+        }
+        this.docstrings = builder.docstrings;
+        this.escape = builder.escape;
+        this.keywords = toBytes(builder.keywords);
+        this.operators = toBytes(builder.operators);
+        this.hasControlFlow = !builder.keywords.isEmpty() || !builder.operators.isEmpty();
+        for (byte[][] tokens : new byte[][][]{lineComments, blockOpens, quotes, operators}) {
+            for (byte[] token : tokens) {
+                tokenStart[token[0] & 0xFF] = true;
+            }
+        }
+    }
+
+    public static Builder builder(String name, String... extensions) {
+        return new Builder(name, extensions);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return extensions;
+    }
+
+    @Override
+    public Lexer newLexer() {
+        return new RuleLexer(this);
+    }
+
+    public static final class Builder {
+        private final String name;
+        private final List<String> extensions;
+        private final List<String> lineComments = new ArrayList<>();
+        private final List<String> blockOpens = new ArrayList<>();
+        private final List<String> blockCloses = new ArrayList<>();
+        private final List<String> quotes = new ArrayList<>();
+        private final List<Boolean> multiLineQuotes = new ArrayList<>();
+        private final List<String> keywords = new ArrayList<>();
+        private final List<String> operators = new ArrayList<>();
+        private boolean docstrings;
+        private byte escape = '\\';
+
+        private Builder(String name, String... extensions) {
+            this.name = name;
+            this.extensions = Arrays.asList(extensions);
+        }
+
+        public Builder lineComment(String marker) {
+            lineComments.add(marker);
+            return this;
+        }
+
+        public Builder blockComment(String open, String close) {
+            blockOpens.add(open);
+            blockCloses.add(close);
+            return this;
+        }
+
+        /**
+         * Adds a string delimiter; longer delimiters must be added before their prefixes ({@code """} before {@code "}).
+         */
+        public Builder quote(String delimiter, boolean multiLine) {
+            quotes.add(delimiter);
+            multiLineQuotes.add(multiLine);
+            return this;
+        }
+
+        /**
+         * Counts a multi-line string that opens a line, like a Python docstring, as a comment rather than code.
+         */
+        public Builder docstrings() {
+            docstrings = true;
+            return this;
+        }
+
+        public Builder keywords(String... branchKeywords) {
+            keywords.addAll(Arrays.asList(branchKeywords));
+            return this;
+        }
+
+        /**
+         * Adds branching operators such as {@code &&}; {@code ?} is only counted where it reads as a conditional.
+         */
+        public Builder operators(String... branchOperators) {
+            operators.addAll(Arrays.asList(branchOperators));
+            return this;
+        }
+
+        public LexerRules build() {
+            return new LexerRules(this);
+        }
+    }
+
+    private static final class RuleLexer implements Lexer {
+        private static final int IN_CODE = 0;
+        private static final int IN_BLOCK_COMMENT = 1;
+        private static final int IN_STRING = 2;
+
+        private final LexerRules rules;
+        private int state = IN_CODE;
+        private int delimiter;
+        private boolean docstring;
+        private int decisionPoints;
+        private boolean tokenIsComment;
+
+        private RuleLexer(LexerRules rules) {
+            this.rules = rules;
+        }
+
+        @Override
+        public int getDecisionPoints() {
+            return rules.hasControlFlow ? decisionPoints : -1;
+        }
+
+        @Override
+        public int scanLine(byte[] buffer, int start, int end) {
+            int flags = 0;
+            int i = start;
+            while (i < end) {
+                if (state == IN_BLOCK_COMMENT) {
+                    byte[] close = rules.blockCloses[delimiter];
+                    int found = LineScanner.indexOf(buffer, i, end, close);
+                    int commentEnd = found < 0 ? end : found + close.length;
+                    flags |= comment(buffer, i, commentEnd);
+                    if (found >= 0) {
+                        state = IN_CODE;
+                    }
+                    i = commentEnd;
+                } else if (state == IN_STRING) {
+                    int from = i;
+                    i = scanString(buffer, i, end);
+                    flags |= docstring ? comment(buffer, from, i) : CODE;
+                } else {
+                    byte b = buffer[i];
+                    if (b == ' ' || b == '\t' || b == '\f' || b == 0x0B) {
+                        i++;
+                    } else if (rules.tokenStart[b & 0xFF]) {
+                        int next = scanToken(buffer, start, i, end, flags);
+                        flags |= next < 0 || tokenIsComment ? comment(buffer, i, next < 0 ? end : next) : CODE;
+                        i = next < 0 ? end : next;
+                    } else if (isIdentifierStart(b)) {
+                        int identifierEnd = i + 1;
+                        while (identifierEnd < end && isIdentifierPart(buffer[identifierEnd])) {
+                            identifierEnd++;
+                        }
+                        if (matchesAny(rules.keywords, buffer, i, identifierEnd)) {
+                            decisionPoints++;
+                        }
+                        flags |= CODE;
+                        i = identifierEnd;
+                    } else {
+                        flags |= CODE;
+                        i++;
+                    }
+                }
+            }
+            if (state == IN_STRING && !rules.multiLineQuotes[delimiter]) {
+                state = IN_CODE;
+            }
+            return flags;
+        }
+
+        /**
+         * Handles the token at {@code i}; returns where scanning resumes, or {@code -1} for a line comment.
+         */
+        private int scanToken(byte[] buffer, int lineStart, int i, int end, int flags) {
+            tokenIsComment = false;
+            for (byte[] marker : rules.lineComments) {
+                if (LineScanner.startsWith(buffer, i, end, marker)) {
+                    return -1;
+                }
+            }
+            for (int d = 0; d < rules.blockOpens.length; d++) {
+                if (LineScanner.startsWith(buffer, i, end, rules.blockOpens[d])) {
+                    state = IN_BLOCK_COMMENT;
+                    delimiter = d;
+                    tokenIsComment = true;
+                    return i + rules.blockOpens[d].length;
+                }
+            }
+            for (int d = 0; d < rules.quotes.length; d++) {
+                if (LineScanner.startsWith(buffer, i, end, rules.quotes[d])) {
+                    state = IN_STRING;
+                    delimiter = d;
+                    docstring = rules.docstrings && rules.multiLineQuotes[d] && (flags & CODE) == 0;
+                    tokenIsComment = docstring;
+                    return scanString(buffer, i + rules.quotes[d].length, end);
+                }
+            }
+            for (byte[] operator : rules.operators) {
+                if (LineScanner.startsWith(buffer, i, end, operator)) {
+                    if (operator.length != 1 || operator[0] != '?' || isConditional(buffer, lineStart, i, end)) {
+                        decisionPoints++;
+                    }
+                    return i + operator.length;
+                }
+            }
+            return i + 1;
+        }
+
+        /**
+         * Skips string content from {@code i}; leaves the string state once the closing quote is found.
+         */
+        private int scanString(byte[] buffer, int i, int end) {
+            byte[] quote = rules.quotes[delimiter];
+            while (i < end) {
+                if (buffer[i] == rules.escape) {
+                    i += 2;
+                } else if (LineScanner.startsWith(buffer, i, end, quote)) {
+                    state = IN_CODE;
+                    return i + quote.length;
+                } else {
+                    i++;
+                }
+            }
+            return end;
+        }
+
+        /**
+         * Tells {@code a ? b : c} from generic wildcards ({@code <?>}, {@code <?, ?>}) and {@code ?.}/{@code ??}.
+         */
+        private static boolean isConditional(byte[] buffer, int lineStart, int i, int end) {
+            int previous = i - 1;
+            while (previous >= lineStart && (buffer[previous] == ' ' || buffer[previous] == '\t')) {
+                previous--;
+            }
+            if (previous >= lineStart && (buffer[previous] == '<' || buffer[previous] == ',' || buffer[previous] == '?')) {
+                return false;
+            }
+            int next = i + 1;
+            return next >= end || (buffer[next] != '.' && buffer[next] != '?' && buffer[next] != '>' && buffer[next] != ',');
+        }
+
+        private static int comment(byte[] buffer, int start, int end) {
+            int first = LineScanner.firstNonBlank(buffer, start, end);
+            if (first == end) {
+                return 0;
+            }
+            int flags = COMMENT;
+            if (LineScanner.indexOf(buffer, first, end, TODO_MARKER) >= 0) {
+                flags |= TODO;
+            }
+            if (LineScanner.indexOf(buffer, first, end, FIXME_MARKER) >= 0) {
+                flags |= FIXME;
+            }
+            return flags;
+        }
+
+        private static boolean matchesAny(byte[][] words, byte[] buffer, int start, int end) {
+            for (byte[] word : words) {
+                if (word.length == end - start && LineScanner.startsWith(buffer, start, end, word)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isIdentifierStart(byte b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_' || b == '$' || b < 0;
+        }
+
+        private static boolean isIdentifierPart(byte b) {
+            return isIdentifierStart(b) || (b >= '0' && b <= '9');
+        }
+    }
+
+    private static byte[][] toBytes(List<String> values) {
+        byte[][] result = new byte[values.size()][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bytes(values.get(i));
+        }
+        return result;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
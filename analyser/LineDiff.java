@@ -0,0 +1,151 @@
+package analyser;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the lines of one version of a file to the next, patience-diff style: common prefixes and suffixes are
+ * matched first, then lines that occur exactly once on both sides serve as anchors (the longest run of them
+ * in the same order), and the gaps between anchors are matched the same way.
+ */
+public final class LineDiff {
+
+    private LineDiff() {
+    }
+
+    /**
+     * @return for every line of {@code before}, its index in {@code after}, or -1 if it was removed or changed
+     */
+    public static int[] map(List<String> before, List<String> after) {
+        int[] map = new int[before.size()];
+        Arrays.fill(map, -1);
+        Metrics.Sample sample = Metrics.start("diff");
+        match(before, 0, before.size(), after, 0, after.size(), map);
+        sample.stop(0);
+        return map;
+    }
+
+    /**
+     * The lines of {@code text} as a list that shares the text instead of copying it; a line is only
+     * extracted when it is requested.
+     */
+    public static List<String> lines(CharSequence text) {
+        int[] starts = new int[64];
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        if (count > 1 && starts[count - 1] == text.length()) {
+            count--;
+        }
+        int lineCount = text.length() == 0 ? 0 : count;
+        int[] lineStarts = starts;
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index < 0 || index >= lineCount) {
+                    throw new IndexOutOfBoundsException("Line " + index);
+                }
+                int end = index + 1 < lineCount ? lineStarts[index + 1] - 1 : text.length();
+                if (end > lineStarts[index] && text.charAt(end - 1) == '\n') {
+                    end--;
+                }
+                if (end > lineStarts[index] && text.charAt(end - 1) == '\r') {
+                    end--;
+                }
+                return text.subSequence(lineStarts[index], end).toString();
+            }
+
+            @Override
+            public int size() {
+                return lineCount;
+            }
+        };
+    }
+
+    private static void match(List<String> before, int beforeStart, int beforeEnd,
+                              List<String> after, int afterStart, int afterEnd, int[] map) {
+        while (beforeStart < beforeEnd && afterStart < afterEnd && before.get(beforeStart).equals(after.get(afterStart))) {
+            map[beforeStart++] = afterStart++;
+        }
+        while (beforeEnd > beforeStart && afterEnd > afterStart && before.get(beforeEnd - 1).equals(after.get(afterEnd - 1))) {
+            map[--beforeEnd] = --afterEnd;
+        }
+        if (beforeStart == beforeEnd || afterStart == afterEnd) {
+            return;
+        }
+        // occurrences before, position before, occurrences after, position after
+        Map<String, int[]> occurrences = new HashMap<>();
+        for (int i = beforeStart; i < beforeEnd; i++) {
+            int[] counts = occurrences.computeIfAbsent(before.get(i), k -> new int[4]);
+            counts[0]++;
+            counts[1] = i;
+        }
+        for (int j = afterStart; j < afterEnd; j++) {
+            int[] counts = occurrences.get(after.get(j));
+            if (counts != null) {
+                counts[2]++;
+                counts[3] = j;
+            }
+        }
+        List<int[]> unique = new ArrayList<>();
+        for (int i = beforeStart; i < beforeEnd; i++) {
+            int[] counts = occurrences.get(before.get(i));
+            if (counts[0] == 1 && counts[2] == 1) {
+                unique.add(new int[]{i, counts[3]});
+            }
+        }
+        if (unique.isEmpty()) {
+            return;
+        }
+        int nextBefore = beforeStart;
+        int nextAfter = afterStart;
+        for (int[] anchor : longestIncreasingRun(unique)) {
+            match(before, nextBefore, anchor[0], after, nextAfter, anchor[1], map);
+            map[anchor[0]] = anchor[1];
+            nextBefore = anchor[0] + 1;
+            nextAfter = anchor[1] + 1;
+        }
+        match(before, nextBefore, beforeEnd, after, nextAfter, afterEnd, map);
+    }
+
+    /**
+     * The longest subsequence of {@code pairs} (already ordered by their first element) whose second
+     * elements increase, found by patience sorting.
+     */
+    private static List<int[]> longestIncreasingRun(List<int[]> pairs) {
+        int[] tails = new int[pairs.size()];
+        int[] previous = new int[pairs.size()];
+        int length = 0;
+        for (int i = 0; i < pairs.size(); i++) {
+            int value = pairs.get(i)[1];
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (pairs.get(tails[middle])[1] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            length = Math.max(length, low + 1);
+        }
+        int[][] run = new int[length][];
+        for (int i = tails[length - 1], k = length - 1; i >= 0; i = previous[i], k--) {
+            run[k] = pairs.get(i);
+        }
+        return Arrays.asList(run);
+    }
+}
@@ -0,0 +1,284 @@
+package analyser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Checksum;
+
+/**
+ * Reads a file through one reusable byte buffer and hands each line to a visitor as a byte range,
+ * so classifying a line never allocates. Not thread-safe; use one scanner per thread.
+ * <p>
+ * The buffer grows to hold a long line, but only up to {@link #MAX_LINE_LENGTH} bytes
+ * ({@code analyser.scanner.maxLineLength}): a longer line, as in minified or generated files, is visited
+ * with its first {@code MAX_LINE_LENGTH} bytes and the rest of it is skipped.
+ */
+public final class LineScanner {
+
+    public static final long BINARY_FILE = -1;
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    static final int SNIFF_LENGTH = 8 * 1024;
+    public static final int MAX_LINE_LENGTH = Math.max(Integer.getInteger("analyser.scanner.maxLineLength", 1024 * 1024), SNIFF_LENGTH);
+    private static final ThreadLocal<LineScanner> SHARED = ThreadLocal.withInitial(LineScanner::new);
+
+    private byte[] buffer;
+    private int lineStart;
+    private int lineNumber;
+    private boolean skipLineFeed;
+    private boolean skippingLine;
+    private long bytesRead;
+    private int truncatedLines;
+
+    public interface LineVisitor {
+        void visit(byte[] buffer, int start, int end, int lineNumber);
+    }
+
+    public LineScanner() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public LineScanner(int bufferSize) {
+        this.buffer = new byte[Math.min(Math.max(bufferSize, SNIFF_LENGTH), MAX_LINE_LENGTH)];
+    }
+
+    public static LineScanner shared() {
+        return SHARED.get();
+    }
+
+    /**
+     * Returns the number of lines visited, or {@link #BINARY_FILE} if the file looks binary.
+     * Line terminators follow {@code BufferedReader}: {@code \n}, {@code \r} or {@code \r\n}.
+     */
+    public long scan(Path path, LineVisitor visitor) throws IOException {
+        return scan(path, visitor, null);
+    }
+
+    /**
+     * Like {@link #scan(Path, LineVisitor)}, additionally feeding every byte read into {@code checksum}
+     * so callers can hash content without a second pass.
+     */
+    public long scan(Path path, LineVisitor visitor, Checksum checksum) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            lineStart = 0;
+            lineNumber = 0;
+            skipLineFeed = false;
+            skippingLine = false;
+            bytesRead = 0;
+            truncatedLines = 0;
+            int limit = 0;
+            int searched = 0;
+            boolean sniffed = false;
+
+            while (true) {
+                if (limit == buffer.length) {
+                    if (lineStart > 0) {
+                        System.arraycopy(buffer, lineStart, buffer, 0, limit - lineStart);
+                        limit -= lineStart;
+                        searched -= lineStart;
+                        lineStart = 0;
+                    } else if (buffer.length < MAX_LINE_LENGTH) {
+                        byte[] grown = new byte[(int) Math.min((long) buffer.length * 2, MAX_LINE_LENGTH)];
+                        System.arraycopy(buffer, 0, grown, 0, limit);
+                        buffer = grown;
+                    } else {
+                        // no line end in a full buffer: visit what we have and drop the rest of the line
+                        if (!skippingLine) {
+                            visitor.visit(buffer, 0, limit, ++lineNumber);
+                            truncatedLines++;
+                            skippingLine = true;
+                        }
+                        skipLineFeed = false;
+                        limit = 0;
+                        searched = 0;
+                    }
+                }
+
+                int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+                if (read < 0) {
+                    if (!sniffed && looksBinary(buffer, 0, limit)) {
+                        return BINARY_FILE;
+                    }
+                    splitLines(searched, limit, visitor);
+                    if (limit > lineStart && !skippingLine) {
+                        visitor.visit(buffer, lineStart, limit, ++lineNumber);
+                    }
+                    return lineNumber;
+                }
+                if (checksum != null) {
+                    checksum.update(buffer, limit, read);
+                }
+                bytesRead += read;
+                limit += read;
+
+                if (!sniffed) {
+                    if (limit < SNIFF_LENGTH) {
+                        continue;
+                    }
+                    sniffed = true;
+                    if (looksBinary(buffer, 0, SNIFF_LENGTH)) {
+                        return BINARY_FILE;
+                    }
+                }
+                splitLines(searched, limit, visitor);
+                searched = limit;
+            }
+        }
+    }
+
+    /**
+     * Bytes read by the last {@link #scan}, which stops early for binary files.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Lines longer than {@link #MAX_LINE_LENGTH} in the last {@link #scan}, visited only in part.
+     */
+    public int getTruncatedLines() {
+        return truncatedLines;
+    }
+
+    private void splitLines(int from, int limit, LineVisitor visitor) {
+        byte[] bytes = buffer;
+        for (int i = from; i < limit; i++) {
+            byte b = bytes[i];
+            if (b == '\n' || b == '\r') {
+                if (skippingLine) {
+                    skippingLine = false;
+                    lineStart = i + 1;
+                    skipLineFeed = b == '\r';
+                    continue;
+                }
+                if (skipLineFeed && b == '\n' && i == lineStart) {
+                    lineStart = i + 1;
+                    skipLineFeed = false;
+                    continue;
+                }
+                visitor.visit(bytes, lineStart, i, ++lineNumber);
+                lineStart = i + 1;
+                skipLineFeed = b == '\r';
+            } else {
+                skipLineFeed = false;
+            }
+        }
+    }
+
+    public static boolean looksBinary(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean isBlank(byte[] bytes, int start, int end) {
+        return firstNonBlank(bytes, start, end) == end;
+    }
+
+    public static int firstNonBlank(byte[] bytes, int start, int end) {
+        while (start < end && (bytes[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    public static int lastNonBlank(byte[] bytes, int start, int end) {
+        while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    public static boolean startsWith(byte[] bytes, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static int indexOf(byte[] bytes, int start, int end, byte[] needle) {
+        if (needle.length == 0) {
+            return start;
+        }
+        byte first = needle[0];
+        int last = end - needle.length;
+        outer:
+        for (int i = start; i <= last; i++) {
+            if (bytes[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < needle.length; j++) {
+                if (bytes[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    public static int countOccurrences(byte[] bytes, int start, int end, byte[] needle) {
+        int count = 0;
+        int from = start;
+        int found;
+        while (needle.length > 0 && (found = indexOf(bytes, from, end, needle)) >= 0) {
+            count++;
+            from = found + needle.length;
+        }
+        return count;
+    }
+
+    /**
+     * Decodes a byte range as UTF-8, replacing malformed input instead of throwing.
+     */
+    public static String decode(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a whole file for display with lenient UTF-8 and {@code \n} line endings,
+     * or returns {@code null} if the file looks binary. Unlike {@link #scan}, lines are never truncated,
+     * since the text may be edited and saved back.
+     */
+    public static String readText(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (looksBinary(bytes, 0, Math.min(bytes.length, SNIFF_LENGTH))) {
+            return null;
+        }
+        int length = normalizeLineEnds(bytes);
+        if (length > 0 && bytes[length - 1] != '\n') {
+            return decode(bytes, 0, length) + '\n';
+        }
+        return decode(bytes, 0, length);
+    }
+
+    /**
+     * Rewrites {@code \r\n} and lone {@code \r} as {@code \n} in place and returns the new length.
+     */
+    private static int normalizeLineEnds(byte[] bytes) {
+        int length = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            byte b = bytes[i];
+            if (b == '\r') {
+                if (i + 1 < bytes.length && bytes[i + 1] == '\n') {
+                    i++;
+                }
+                b = '\n';
+            }
+            bytes[length++] = b;
+        }
+        return length;
+    }
+}
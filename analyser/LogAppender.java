@@ -0,0 +1,372 @@
+package analyser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single background appender for append-only files. Callers enqueue encoded records on a bounded lock-free
+ * queue; one writer thread keeps each target open, groups records per file and commits them every flush
+ * interval, so a burst of records costs one write (and optionally one fsync) per file instead of an
+ * open/write/close per record.
+ * <p>
+ * A record that cannot be written stays pending and is retried at every flush interval. At most
+ * {@code capacity} records are held back this way; beyond that the writer stops draining the queue, so
+ * appenders block until the file can be written again. Only records still unwritten when the appender is
+ * closed are lost, and that is reported on standard error.
+ */
+public final class LogAppender implements Closeable {
+
+    public enum FsyncPolicy {
+        NEVER,
+        ON_FLUSH,
+        EVERY_BATCH
+    }
+
+    private static final int MAX_BATCH = 4096;
+    private static final int MAX_PENDING_BYTES = 256 * 1024;
+
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<FlushRequest> flushRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final int capacity;
+    private final long flushIntervalNanos;
+    private final FsyncPolicy fsyncPolicy;
+    private final Map<Path, Target> targets = new HashMap<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    // flush markers drained since the last commit; writer thread only
+    private int reachedFlushes;
+
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong blockedAppends = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger unwritten = new AtomicInteger();
+    private final AtomicLong totalCommitNanos = new AtomicLong();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+    private final AtomicLong totalRecordLatencyNanos = new AtomicLong();
+
+    /**
+     * A record, or a flush marker queued behind the records it waits for.
+     */
+    private static final class Record {
+        private final Path target;
+        private final byte[] bytes;
+        private final FlushRequest flush;
+        private final long enqueuedNanos;
+
+        private Record(Path target, byte[] bytes) {
+            this.target = target;
+            this.bytes = bytes;
+            this.flush = null;
+            this.enqueuedNanos = System.nanoTime();
+        }
+
+        private Record(FlushRequest flush) {
+            this.target = null;
+            this.bytes = null;
+            this.flush = flush;
+            this.enqueuedNanos = System.nanoTime();
+        }
+    }
+
+    private static final class FlushRequest {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        // set by the writer once every record queued before the marker has been drained
+        private boolean reached;
+    }
+
+    private static final class Target {
+        private final Path path;
+        private FileChannel channel;
+        private ByteBuffer pending = ByteBuffer.allocate(8 * 1024);
+        private int pendingRecords;
+        private boolean failing;
+
+        private Target(Path path) {
+            this.path = path;
+        }
+
+        private void add(byte[] bytes) {
+            if (pending.remaining() < bytes.length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes.length));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            pending.put(bytes);
+            pendingRecords++;
+        }
+    }
+
+    public LogAppender(int capacity, long flushIntervalMillis, FsyncPolicy fsyncPolicy) {
+        this.capacity = capacity;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.fsyncPolicy = fsyncPolicy;
+        this.writer = new Thread(this::run, "log-appender");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Enqueues one encoded record for {@code target}, written as is; blocks only while the queue is full.
+     */
+    public void append(Path target, byte[] record) {
+        if (closed) {
+            throw new IllegalStateException("Log appender is closed");
+        }
+        int size = depth.incrementAndGet();
+        if (size > capacity) {
+            blockedAppends.incrementAndGet();
+            LockSupport.unpark(writer);
+            while (depth.get() > capacity && !closed) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+        // blocked appenders count in the depth while they wait, but never sit in the queue beyond the capacity
+        maxDepth.accumulateAndGet(Math.min(size, capacity), Math::max);
+        queue.add(new Record(target, record));
+        appended.incrementAndGet();
+        if (size >= capacity / 2) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Waits until everything appended before this call is written (and synced, if the policy asks for it).
+     * The request travels through the queue behind those records, so it cannot overtake one of them.
+     */
+    public void flush() {
+        FlushRequest request = new FlushRequest();
+        flushRequests.add(request);
+        queue.add(new Record(request));
+        LockSupport.unpark(writer);
+        try {
+            request.done.get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // the records stay queued for the next attempt; the failure has been counted and reported
+        }
+    }
+
+    private void run() {
+        long lastFlush = System.nanoTime();
+        while (true) {
+            boolean stopping = closed;
+            int drained = drain();
+            FlushRequest oldest = flushRequests.peek();
+            boolean flushDue = reachedFlushes > 0;
+            long now = System.nanoTime();
+            boolean idle = queue.isEmpty();
+
+            // nothing more is drained while the limit of unwritten records is reached: write them out now rather
+            // than at the next interval, so appenders are not held up; only failing writes keep it reached
+            boolean stalled = unwritten.get() >= capacity;
+
+            if (flushDue || now - lastFlush >= flushIntervalNanos || (stopping && (idle || stalled))) {
+                boolean complete = commit(true);
+                lastFlush = now;
+                completeFlushRequests(complete, false);
+            } else if (stalled || (drained > 0 && fsyncPolicy == FsyncPolicy.EVERY_BATCH)) {
+                commit(false);
+            }
+            boolean failing = unwritten.get() >= capacity;
+            if (stopping && (idle || failing)) {
+                break;
+            }
+            if (drained == 0 && (oldest == null || stalled) && (idle || failing)) {
+                LockSupport.parkNanos(this, Math.max(1, flushIntervalNanos - (System.nanoTime() - lastFlush)));
+            }
+        }
+        int lost = unwritten.get() + depth.get();
+        if (lost > 0) {
+            System.err.println("Log appender closed with " + lost + " records that could not be written.");
+        }
+        for (Target target : targets.values()) {
+            try {
+                if (target.channel != null) {
+                    target.channel.close();
+                }
+            } catch (IOException e) {
+                failures.incrementAndGet();
+            }
+        }
+        completeFlushRequests(lost == 0, true);
+    }
+
+    private int drain() {
+        int drained = 0;
+        Record record;
+        while (drained < MAX_BATCH && unwritten.get() < capacity && (record = queue.poll()) != null) {
+            if (record.flush != null) {
+                record.flush.reached = true;
+                reachedFlushes++;
+                continue;
+            }
+            depth.decrementAndGet();
+            drained++;
+            Target target = targets.get(record.target);
+            if (target == null) {
+                target = new Target(record.target);
+                targets.put(record.target, target);
+            }
+            target.add(record.bytes);
+            unwritten.incrementAndGet();
+            totalRecordLatencyNanos.addAndGet(System.nanoTime() - record.enqueuedNanos);
+            if (target.pending.position() >= MAX_PENDING_BYTES && !target.failing) {
+                try {
+                    write(target);
+                } catch (IOException e) {
+                    reportFailure(target, e);
+                }
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Writes every target's pending records.
+     *
+     * @return whether nothing is left pending
+     */
+    private boolean commit(boolean flush) {
+        long start = System.nanoTime();
+        Metrics.Sample sample = Metrics.start("log.write");
+        boolean wrote = false;
+        long bytes = 0;
+        for (Map.Entry<Path, Target> entry : targets.entrySet()) {
+            Target target = entry.getValue();
+            try {
+                if (target.pending.position() > 0) {
+                    bytes += target.pending.position();
+                    write(target);
+                    wrote = true;
+                    if (fsyncPolicy == FsyncPolicy.EVERY_BATCH || (flush && fsyncPolicy == FsyncPolicy.ON_FLUSH)) {
+                        target.channel.force(false);
+                    }
+                }
+            } catch (IOException e) {
+                reportFailure(target, e);
+            }
+        }
+        if (wrote) {
+            sample.stop(bytes);
+            long elapsed = System.nanoTime() - start;
+            commits.incrementAndGet();
+            totalCommitNanos.addAndGet(elapsed);
+            maxCommitNanos.accumulateAndGet(elapsed, Math::max);
+        }
+        return unwritten.get() == 0;
+    }
+
+    private void write(Target target) throws IOException {
+        ByteBuffer pending = target.pending;
+        pending.flip();
+        try {
+            if (target.channel == null) {
+                target.channel = FileChannel.open(target.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            while (pending.hasRemaining()) {
+                target.channel.write(pending);
+            }
+        } catch (IOException e) {
+            // keep the bytes not yet written, even half a record, so the retry continues exactly where this stopped
+            pending.compact();
+            throw e;
+        }
+        pending.clear();
+        written.addAndGet(target.pendingRecords);
+        unwritten.addAndGet(-target.pendingRecords);
+        target.pendingRecords = 0;
+        if (target.failing) {
+            target.failing = false;
+            System.err.println("Log file writable again: " + target.path);
+        }
+    }
+
+    private void reportFailure(Target target, IOException e) {
+        failures.incrementAndGet();
+        if (!target.failing) {
+            target.failing = true;
+            System.err.println("Error writing log file, records are kept for retry: " + target.path + ": " + e.getMessage());
+        }
+        if (target.channel != null) {
+            try {
+                target.channel.close();
+            } catch (IOException ignored) {
+                // reopened on the next attempt
+            }
+            target.channel = null;
+        }
+    }
+
+    /**
+     * Completes the flush requests whose markers were drained, or every request if {@code all}.
+     */
+    private void completeFlushRequests(boolean written, boolean all) {
+        reachedFlushes = 0;
+        FlushRequest request;
+        if (!written) {
+            // while writes fail, later records may not even be drained, so no waiting flush can succeed
+            while ((request = flushRequests.poll()) != null) {
+                request.done.completeExceptionally(new IOException("Log records could not be written"));
+            }
+            return;
+        }
+        // markers are drained in queue order, which need not be the order the requests were registered in
+        for (Iterator<FlushRequest> requests = flushRequests.iterator(); requests.hasNext(); ) {
+            request = requests.next();
+            if (all || request.reached) {
+                requests.remove();
+                request.done.complete(null);
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    public String getStats() {
+        long commitCount = commits.get();
+        long writtenCount = written.get();
+        return "Queue Depth: " + depth.get() + " (max " + maxDepth.get() + " of " + capacity + ")" +
+                "\nRecords Appended: " + appended.get() + ", Written: " + writtenCount + ", Awaiting Retry: " + unwritten.get() +
+                "\nCommits: " + commitCount + ", Blocked Appends: " + blockedAppends.get() + ", Failures: " + failures.get() +
+                "\nCommit Latency: avg " + (commitCount == 0 ? 0 : totalCommitNanos.get() / commitCount / 1000) +
+                " us, max " + maxCommitNanos.get() / 1000 + " us" +
+                "\nRecord Latency: avg " + (writtenCount == 0 ? 0 : totalRecordLatencyNanos.get() / writtenCount / 1000) + " us";
+    }
+
+    /**
+     * Stops accepting records and drains everything already queued before returning.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
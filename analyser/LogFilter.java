@@ -0,0 +1,57 @@
+package analyser;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+
+public final class LogFilter {
+
+    private final String user;
+    private final String file;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final String action;
+
+    /**
+     * Any argument may be {@code null} to leave that dimension unfiltered; both dates are inclusive.
+     */
+    public LogFilter(String user, String file, LocalDate from, LocalDate to, String action) {
+        this.user = emptyToNull(user);
+        this.file = emptyToNull(file);
+        this.from = from;
+        this.to = to;
+        this.action = emptyToNull(action);
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    long fromMillis() {
+        return from == null ? Long.MIN_VALUE : from.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    long toMillis() {
+        return to == null ? Long.MAX_VALUE : to.atTime(LocalTime.MAX).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+}
@@ -0,0 +1,47 @@
+package analyser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The records of a {@link RecordStore} query, addressable by row. The query resolves the matching record
+ * offsets from the in-memory index; a record is read and decoded when its row is first requested, and
+ * recently used rows are kept.
+ */
+public final class LogView {
+
+    private static final int CACHED_ROWS = 1024;
+
+    private final RecordStore store;
+    private final long[] offsets;
+    private final Map<Integer, StoredRecord> cache = new LinkedHashMap<Integer, StoredRecord>(CACHED_ROWS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, StoredRecord> eldest) {
+            return size() > CACHED_ROWS;
+        }
+    };
+
+    LogView(RecordStore store, long[] offsets) {
+        this.store = store;
+        this.offsets = offsets;
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    public synchronized StoredRecord get(int row) {
+        StoredRecord record = cache.get(row);
+        if (record == null) {
+            try {
+                record = store.read(offsets[row]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            cache.put(row, record);
+        }
+        return record;
+    }
+}
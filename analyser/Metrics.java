@@ -0,0 +1,400 @@
+package analyser;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for every timed operation, kept per operation and language. Recording
+ * is lock-free: a few adders and one histogram bucket per sample. Histograms are log-linear like
+ * HdrHistogram, 16 buckets per power of two, so percentiles are within about 6% of the true value.
+ * Results can be read directly, exported in the Prometheus text format or published as MXBeans. Each
+ * sample is also a JFR event ({@code analyser.Operation}), which costs nothing unless a recording
+ * enables it.
+ */
+public final class Metrics {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final ConcurrentHashMap<String, Operation> OPERATIONS = new ConcurrentHashMap<>();
+    private static volatile MBeanServer mbeanServer;
+
+    private Metrics() {
+    }
+
+    /**
+     * The attributes an operation publishes over JMX.
+     */
+    public interface OperationMXBean {
+        String getOperation();
+
+        String getLanguage();
+
+        long getCount();
+
+        long getErrors();
+
+        long getBytes();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP90Millis();
+
+        double getP99Millis();
+
+        double getMaxMillis();
+    }
+
+    public static final class Operation implements OperationMXBean {
+        private final String name;
+        private final String language;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private Operation(String name, String language) {
+            this.name = name;
+            this.language = language;
+        }
+
+        private void record(long nanos, long byteCount, boolean failed) {
+            count.increment();
+            if (failed) {
+                errors.increment();
+            }
+            bytes.add(byteCount);
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            buckets.incrementAndGet(bucketOf(nanos));
+        }
+
+        @Override
+        public String getOperation() {
+            return name;
+        }
+
+        /**
+         * The language of the file the operation worked on, or an empty string.
+         */
+        @Override
+        public String getLanguage() {
+            return language;
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long samples = count.sum();
+            return samples == 0 ? 0 : totalNanos.sum() / 1e6 / samples;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return percentileNanos(0.5) / 1e6;
+        }
+
+        @Override
+        public double getP90Millis() {
+            return percentileNanos(0.9) / 1e6;
+        }
+
+        @Override
+        public double getP99Millis() {
+            return percentileNanos(0.99) / 1e6;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * The smallest recorded duration that at least {@code quantile} of the samples do not exceed,
+         * rounded up to its bucket's bound.
+         */
+        public long percentileNanos(double quantile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), maxNanos.get());
+                }
+            }
+            return maxNanos.get();
+        }
+
+        private void reset() {
+            count.reset();
+            errors.reset();
+            bytes.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * One timing in progress; finish it with {@link #stop} or {@link #fail}.
+     */
+    public static final class Sample {
+        private final String operation;
+        private final long startNanos;
+        private final OperationEvent event = new OperationEvent();
+
+        private Sample(String operation) {
+            this.operation = operation;
+            this.event.begin();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * @return the elapsed time in nanoseconds
+         */
+        public long stop(String language, long bytes) {
+            return finish(language, bytes, false);
+        }
+
+        public long stop(long bytes) {
+            return finish("", bytes, false);
+        }
+
+        public long fail(String language) {
+            return finish(language, 0, true);
+        }
+
+        private long finish(String language, long bytes, boolean failed) {
+            long elapsed = System.nanoTime() - startNanos;
+            operation(operation, language).record(elapsed, bytes, failed);
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.language = language;
+                event.bytes = bytes;
+                event.failed = failed;
+                event.commit();
+            }
+            return elapsed;
+        }
+    }
+
+    @Name("analyser.Operation")
+    @Label("Analyser Operation")
+    @Category("Analyser")
+    @Description("A timed operation of the code analyser")
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Language")
+        String language;
+
+        @Label("Bytes")
+        long bytes;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    public static Sample start(String operation) {
+        return new Sample(operation);
+    }
+
+    public static Operation operation(String name, String language) {
+        String key = language.isEmpty() ? name : name + '\0' + language;
+        Operation operation = OPERATIONS.get(key);
+        if (operation != null) {
+            return operation;
+        }
+        Operation created = new Operation(name, language);
+        operation = OPERATIONS.putIfAbsent(key, created);
+        if (operation != null) {
+            return operation;
+        }
+        if (mbeanServer != null) {
+            register(mbeanServer, created);
+        }
+        return created;
+    }
+
+    /**
+     * Every operation recorded so far, ordered by name and language.
+     */
+    public static List<Operation> operations() {
+        List<Operation> operations = new ArrayList<>(OPERATIONS.values());
+        operations.sort(Comparator.comparing(Operation::getOperation).thenComparing(Operation::getLanguage));
+        return operations;
+    }
+
+    public static void reset() {
+        for (Operation operation : OPERATIONS.values()) {
+            operation.reset();
+        }
+    }
+
+    /**
+     * Publishes every operation, now and later, as an MXBean named
+     * {@code analyser:type=Operation,name=<operation>,language=<language>}.
+     */
+    public static synchronized void enableJmx() {
+        if (mbeanServer != null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        mbeanServer = server;
+        for (Operation operation : OPERATIONS.values()) {
+            register(server, operation);
+        }
+    }
+
+    private static void register(MBeanServer server, Operation operation) {
+        try {
+            ObjectName name = new ObjectName("analyser:type=Operation,name=" + ObjectName.quote(operation.name)
+                    + (operation.language.isEmpty() ? "" : ",language=" + ObjectName.quote(operation.language)));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(operation, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Error registering metrics for " + operation.name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The metrics in the Prometheus text exposition format: a summary of durations per operation and
+     * language, plus error and byte counters.
+     */
+    public static String toPrometheus() {
+        List<Operation> operations = operations();
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP analyser_operation_duration_seconds Time spent in each operation.\n");
+        text.append("# TYPE analyser_operation_duration_seconds summary\n");
+        for (Operation operation : operations) {
+            String labels = labels(operation);
+            for (double quantile : QUANTILES) {
+                text.append("analyser_operation_duration_seconds{").append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(operation.percentileNanos(quantile))).append('\n');
+            }
+            text.append("analyser_operation_duration_seconds_sum{").append(labels).append("} ").append(seconds(operation.getTotalNanos())).append('\n');
+            text.append("analyser_operation_duration_seconds_count{").append(labels).append("} ").append(operation.getCount()).append('\n');
+        }
+        text.append("# HELP analyser_operation_duration_max_seconds Longest single run of each operation.\n");
+        text.append("# TYPE analyser_operation_duration_max_seconds gauge\n");
+        for (Operation operation : operations) {
+            text.append("analyser_operation_duration_max_seconds{").append(labels(operation)).append("} ").append(seconds(operation.maxNanos.get())).append('\n');
+        }
+        text.append("# HELP analyser_operation_errors_total Runs of each operation that failed.\n");
+        text.append("# TYPE analyser_operation_errors_total counter\n");
+        for (Operation operation : operations) {
+            text.append("analyser_operation_errors_total{").append(labels(operation)).append("} ").append(operation.getErrors()).append('\n');
+        }
+        text.append("# HELP analyser_operation_bytes_total Bytes read or written by each operation.\n");
+        text.append("# TYPE analyser_operation_bytes_total counter\n");
+        for (Operation operation : operations) {
+            text.append("analyser_operation_bytes_total{").append(labels(operation)).append("} ").append(operation.getBytes()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes {@link #toPrometheus()} to {@code file} through a temp file, so a collector never reads half of it.
+     */
+    public static void writePrometheus(Path file) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(toPrometheus());
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String labels(Operation operation) {
+        return "operation=\"" + escape(operation.name) + "\",language=\"" + escape(operation.language) + "\"";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,745 @@
+package analyser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches for many terms at once. Literal terms, case-sensitive or not, are compiled into a single
+ * Aho-Corasick automaton over bytes, so every byte of a file is looked at once however many literals there
+ * are; case-insensitive literals are matched on ASCII-folded bytes and case-sensitive ones are confirmed
+ * against the original bytes. Regular expressions run on the same pass, against the line decoded once.
+ * Each matching line is reported as a {@link Hit} with its surrounding lines, as soon as it is found.
+ * <p>
+ * A search can be given a time limit for terms from untrusted users: regular expressions then read their line
+ * through a view that checks the clock, so even a pattern that backtracks without end gives up in time.
+ */
+public final class MultiPatternSearch {
+
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+    private static final int ALPHABET = 256;
+
+    public enum Kind {
+        LITERAL, IGNORE_CASE, REGEX
+    }
+
+    public static final class Term {
+        private final String text;
+        private final Kind kind;
+
+        private Term(String text, Kind kind) {
+            this.text = text;
+            this.kind = kind;
+        }
+
+        public static Term literal(String text) {
+            return new Term(text, Kind.LITERAL);
+        }
+
+        public static Term ignoreCase(String text) {
+            return new Term(text, Kind.IGNORE_CASE);
+        }
+
+        public static Term regex(String text) {
+            return new Term(text, Kind.REGEX);
+        }
+
+        /**
+         * Reads {@code re:pattern} as a regular expression, {@code i:text} as a case-insensitive literal and
+         * anything else as a literal.
+         */
+        public static Term parse(String spec) {
+            if (spec.startsWith("re:")) {
+                return regex(spec.substring(3));
+            } else if (spec.startsWith("i:")) {
+                return ignoreCase(spec.substring(2));
+            }
+            return literal(spec);
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        @Override
+        public String toString() {
+            return kind == Kind.REGEX ? "re:" + text : kind == Kind.IGNORE_CASE ? "i:" + text : text;
+        }
+    }
+
+    /**
+     * A line with at least one match, with up to the requested number of lines around it.
+     */
+    public static final class Hit {
+        private final Path file;
+        private final int lineNumber;
+        private final String line;
+        private final int[] terms;
+        private final int[] starts;
+        private final int[] ends;
+        private final List<String> before;
+        private final List<String> after = new ArrayList<>();
+
+        private Hit(Path file, int lineNumber, String line, int[] terms, int[] starts, int[] ends, List<String> before) {
+            this.file = file;
+            this.lineNumber = lineNumber;
+            this.line = line;
+            this.terms = terms;
+            this.starts = starts;
+            this.ends = ends;
+            this.before = before;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        public String getLine() {
+            return line;
+        }
+
+        public int getMatchCount() {
+            return terms.length;
+        }
+
+        /**
+         * Index into the searched terms of match {@code i}.
+         */
+        public int getTerm(int i) {
+            return terms[i];
+        }
+
+        /**
+         * Character offset in {@link #getLine()} where match {@code i} starts.
+         */
+        public int getStart(int i) {
+            return starts[i];
+        }
+
+        public int getEnd(int i) {
+            return ends[i];
+        }
+
+        public List<String> getBefore() {
+            return Collections.unmodifiableList(before);
+        }
+
+        public List<String> getAfter() {
+            return Collections.unmodifiableList(after);
+        }
+
+        @Override
+        public String toString() {
+            return file + ":" + lineNumber + ": " + line.trim();
+        }
+    }
+
+    public static final class Summary {
+        private final int fileCount;
+        private final int matchedFiles;
+        private final long hitCount;
+        private final long[] termMatches;
+        private final boolean truncated;
+        private final long elapsedMillis;
+
+        private Summary(int fileCount, int matchedFiles, long hitCount, long[] termMatches, boolean truncated, long elapsedMillis) {
+            this.fileCount = fileCount;
+            this.matchedFiles = matchedFiles;
+            this.hitCount = hitCount;
+            this.termMatches = termMatches;
+            this.truncated = truncated;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        public int getMatchedFiles() {
+            return matchedFiles;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getTermMatches(int term) {
+            return termMatches[term];
+        }
+
+        /**
+         * Whether the search stopped at the hit limit.
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+
+    private final List<Term> terms;
+    private final byte[][] literals;
+    private final boolean[] exact;
+    private final Pattern[] patterns;
+    private final int[] classOf = new int[ALPHABET];
+    private final int classCount;
+    private final int[] transitions;
+    private final int[][] outputs;
+
+    private MultiPatternSearch(List<Term> terms) {
+        this.terms = Collections.unmodifiableList(new ArrayList<>(terms));
+        int count = terms.size();
+        literals = new byte[count][];
+        exact = new boolean[count];
+        patterns = new Pattern[count];
+        for (int i = 0; i < count; i++) {
+            Term term = terms.get(i);
+            if (term.text.isEmpty()) {
+                throw new IllegalArgumentException("Empty search term");
+            }
+            if (term.kind == Kind.REGEX) {
+                patterns[i] = Pattern.compile(term.text);
+            } else if (term.kind == Kind.IGNORE_CASE && !isAscii(term.text)) {
+                // the automaton folds ASCII only; other scripts need the regex engine's case folding
+                patterns[i] = Pattern.compile(Pattern.quote(term.text), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            } else {
+                literals[i] = term.text.getBytes(StandardCharsets.UTF_8);
+                exact[i] = term.kind == Kind.LITERAL;
+            }
+        }
+
+        // bytes that occur in no literal share class 0 and always lead back towards the root
+        int classes = 1;
+        for (byte[] literal : literals) {
+            for (int j = 0; literal != null && j < literal.length; j++) {
+                int folded = fold(literal[j]);
+                if (classOf[folded] == 0) {
+                    classOf[folded] = classes++;
+                }
+            }
+        }
+        for (int b = 'A'; b <= 'Z'; b++) {
+            classOf[b] = classOf[b + ('a' - 'A')];
+        }
+        classCount = classes;
+
+        // trie
+        int maxStates = 1;
+        for (byte[] literal : literals) {
+            maxStates += literal == null ? 0 : literal.length;
+        }
+        int[] trie = new int[maxStates * classCount];
+        Arrays.fill(trie, -1);
+        List<int[]> stateOutputs = new ArrayList<>();
+        stateOutputs.add(null);
+        int states = 1;
+        for (int i = 0; i < count; i++) {
+            byte[] literal = literals[i];
+            if (literal == null) {
+                continue;
+            }
+            int state = 0;
+            for (byte b : literal) {
+                int index = state * classCount + classOf[b & 0xFF];
+                if (trie[index] < 0) {
+                    trie[index] = states++;
+                    stateOutputs.add(null);
+                }
+                state = trie[index];
+            }
+            stateOutputs.set(state, append(stateOutputs.get(state), i));
+        }
+
+        // failure links, folded into a complete transition table in breadth-first order
+        transitions = new int[states * classCount];
+        outputs = new int[states][];
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < classCount; c++) {
+            int next = trie[c];
+            if (next > 0) {
+                transitions[c] = next;
+                failure[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        outputs[0] = stateOutputs.get(0);
+        while (head < tail) {
+            int state = queue[head++];
+            outputs[state] = merge(stateOutputs.get(state), outputs[failure[state]]);
+            for (int c = 0; c < classCount; c++) {
+                int next = trie[state * classCount + c];
+                if (next > 0) {
+                    failure[next] = transitions[failure[state] * classCount + c];
+                    transitions[state * classCount + c] = next;
+                    queue[tail++] = next;
+                } else {
+                    transitions[state * classCount + c] = transitions[failure[state] * classCount + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException if a regular expression does not compile
+     * @throws IllegalArgumentException if there are no terms or one of them is empty
+     */
+    public static MultiPatternSearch compile(List<Term> terms) {
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("No search terms");
+        }
+        return new MultiPatternSearch(terms);
+    }
+
+    public List<Term> getTerms() {
+        return terms;
+    }
+
+    /**
+     * The files that can contain a match: with a search index over {@code files} and only literals of three
+     * bytes or more, the files the index cannot rule out; otherwise all of them.
+     */
+    public List<Path> candidates(List<Path> files, SearchIndex index) {
+        if (index == null) {
+            return files;
+        }
+        Set<Path> candidates = new LinkedHashSet<>();
+        for (byte[] literal : literals) {
+            if (literal == null || literal.length < 3) {
+                return files;
+            }
+            candidates.addAll(index.candidates(literal));
+        }
+        Set<Path> wanted = new LinkedHashSet<>(files);
+        candidates.retainAll(wanted);
+        return new ArrayList<>(candidates);
+    }
+
+    /**
+     * Searches {@code files} in parallel on {@code pool}, passing each hit to {@code sink} from the worker
+     * that found it. Stops once {@code maxHits} lines have been reported, or when {@code context} is cancelled.
+     */
+    public Summary search(List<Path> files, ForkJoinPool pool, int contextLines, long maxHits, Consumer<Hit> sink,
+                          TaskExecutor.Context context) throws IOException {
+        return search(files, pool, contextLines, maxHits, sink, context, 0);
+    }
+
+    /**
+     * Like {@link #search(List, ForkJoinPool, int, long, Consumer, TaskExecutor.Context)}, giving up after
+     * {@code timeoutMillis}, or never if it is 0.
+     *
+     * @throws SearchTimeoutException when the time is up; workers still searching stop within a few lines
+     */
+    public Summary search(List<Path> files, ForkJoinPool pool, int contextLines, long maxHits, Consumer<Hit> sink,
+                          TaskExecutor.Context context, long timeoutMillis) throws IOException {
+        long start = System.nanoTime();
+        long deadline = timeoutMillis > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        AtomicLong hits = new AtomicLong();
+        AtomicInteger matchedFiles = new AtomicInteger();
+        AtomicLongArray termMatches = new AtomicLongArray(terms.size());
+        AtomicBoolean timedOut = new AtomicBoolean();
+        if (context != null) {
+            context.setTotal(files.size());
+        }
+        try {
+            ForkJoinTask<?> task = pool.submit(() -> files.parallelStream().forEach(file -> {
+                if (hits.get() >= maxHits || (context != null && context.isCancelled())) {
+                    return;
+                }
+                if (expired(deadline)) {
+                    timedOut.set(true);
+                    return;
+                }
+                long[] matches = new long[terms.size()];
+                try {
+                    long found = searchFile(file, contextLines, hit -> {
+                        if (hits.incrementAndGet() <= maxHits) {
+                            sink.accept(hit);
+                        }
+                    }, matches, deadline);
+                    if (found > 0) {
+                        matchedFiles.incrementAndGet();
+                        for (int i = 0; i < matches.length; i++) {
+                            termMatches.addAndGet(i, matches[i]);
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error searching file: " + file);
+                }
+                if (context != null) {
+                    context.advance(1);
+                }
+            }));
+            if (deadline == 0) {
+                task.get();
+            } else {
+                task.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Search interrupted", e);
+        } catch (TimeoutException e) {
+            throw new SearchTimeoutException(timeoutMillis);
+        } catch (ExecutionException e) {
+            if (expired(deadline)) {
+                throw new SearchTimeoutException(timeoutMillis);
+            }
+            throw new IOException("Search failed", e.getCause());
+        }
+        if (context != null) {
+            context.checkCancelled();
+        }
+        if (timedOut.get()) {
+            throw new SearchTimeoutException(timeoutMillis);
+        }
+        long[] totals = new long[terms.size()];
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = termMatches.get(i);
+        }
+        return new Summary(files.size(), matchedFiles.get(), Math.min(hits.get(), maxHits), totals, hits.get() > maxHits,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Orders hits the way the index search ranks files: files with the most matches first, ties by path, and
+     * each file's lines in order. Hits arrive in whatever order the workers find them, so this is applied
+     * once a search has finished.
+     */
+    public static void rank(List<Hit> hits) {
+        Map<Path, Integer> matchesPerFile = new HashMap<>();
+        for (Hit hit : hits) {
+            matchesPerFile.merge(hit.file, hit.getMatchCount(), Integer::sum);
+        }
+        hits.sort(Comparator.<Hit>comparingInt(hit -> matchesPerFile.get(hit.file)).reversed()
+                .thenComparing(Hit::getFile)
+                .thenComparingInt(Hit::getLineNumber));
+    }
+
+    /**
+     * Searches one file on the calling thread.
+     *
+     * @param termMatches if not null, receives the number of matches of each term
+     * @return the number of matching lines, or 0 for a binary file
+     */
+    public long searchFile(Path file, int contextLines, Consumer<Hit> sink, long[] termMatches) throws IOException {
+        return searchFile(file, contextLines, sink, termMatches, 0);
+    }
+
+    private long searchFile(Path file, int contextLines, Consumer<Hit> sink, long[] termMatches, long deadline) throws IOException {
+        LineScanner scanner = LineScanner.shared();
+        FileSearch search = new FileSearch(file, contextLines, sink, termMatches, deadline);
+        Metrics.Sample sample = Metrics.start("search");
+        long bytesRead;
+        try {
+            FileContentCache.Content content = FileContentCache.shared().getIfPresent(file);
+            long lineCount = content != null ? content.scan(search, null) : scanner.scan(file, search);
+            bytesRead = content != null ? content.getSize() : scanner.getBytesRead();
+            if (lineCount == LineScanner.BINARY_FILE) {
+                sample.stop(CodeAnalyzer.languageOf(file), bytesRead);
+                return 0;
+            }
+        } catch (IOException | RuntimeException e) {
+            sample.fail(CodeAnalyzer.languageOf(file));
+            throw e;
+        }
+        search.finish();
+        sample.stop(CodeAnalyzer.languageOf(file), bytesRead);
+        return search.hitCount;
+    }
+
+    /**
+     * The state of one file's scan: the matches on the current line, the lines kept for context and the
+     * hits still waiting for the lines after them.
+     */
+    private final class FileSearch implements LineScanner.LineVisitor {
+        private final Path file;
+        private final int contextLines;
+        private final Consumer<Hit> sink;
+        private final long[] termMatches;
+        private final Matcher[] matchers = new Matcher[patterns.length];
+        private final long deadline;
+        private final DeadlineText timedLine;
+        private final byte[][] previous;
+        private final int[] previousLengths;
+        private final List<Hit> waiting = new ArrayList<>();
+        private int[] lineTerms = new int[8];
+        private int[] lineStarts = new int[8];
+        private int[] lineEnds = new int[8];
+        private long hitCount;
+
+        private FileSearch(Path file, int contextLines, Consumer<Hit> sink, long[] termMatches, long deadline) {
+            this.file = file;
+            this.deadline = deadline;
+            this.timedLine = deadline != 0 ? new DeadlineText(deadline) : null;
+            this.contextLines = contextLines;
+            this.sink = sink;
+            this.termMatches = termMatches;
+            this.previous = new byte[contextLines][];
+            this.previousLengths = new int[contextLines];
+        }
+
+        @Override
+        public void visit(byte[] buffer, int start, int end, int lineNumber) {
+            if (deadline != 0 && lineNumber % DEADLINE_CHECK_INTERVAL == 0 && expired(deadline)) {
+                throw new DeadlineExpired();
+            }
+            String decoded = null;
+            if (!waiting.isEmpty()) {
+                decoded = LineScanner.decode(buffer, start, end);
+                for (int i = 0; i < waiting.size(); i++) {
+                    Hit hit = waiting.get(i);
+                    hit.after.add(decoded);
+                    if (hit.after.size() == contextLines) {
+                        sink.accept(hit);
+                        waiting.remove(i--);
+                    }
+                }
+            }
+
+            int found = 0;
+            if (transitions.length > classCount) {
+                int state = 0;
+                for (int i = start; i < end; i++) {
+                    state = transitions[state * classCount + classOf[buffer[i] & 0xFF]];
+                    int[] ended = outputs[state];
+                    if (ended != null) {
+                        for (int term : ended) {
+                            int matchStart = i + 1 - literals[term].length;
+                            if (!exact[term] || regionEquals(buffer, matchStart, literals[term])) {
+                                found = add(found, term, matchStart - start, i + 1 - start);
+                            }
+                        }
+                    }
+                }
+            }
+            int literalMatches = found;
+            for (int term = 0; term < patterns.length; term++) {
+                if (patterns[term] == null) {
+                    continue;
+                }
+                if (decoded == null) {
+                    decoded = LineScanner.decode(buffer, start, end);
+                }
+                CharSequence input = decoded;
+                if (timedLine != null) {
+                    timedLine.text = decoded;
+                    input = timedLine;
+                }
+                Matcher matcher = matchers[term] == null ? matchers[term] = patterns[term].matcher(input) : matchers[term].reset(input);
+                while (matcher.find()) {
+                    found = add(found, term, matcher.start(), matcher.end());
+                    if (matcher.end() == matcher.start() && matcher.end() == decoded.length()) {
+                        break;
+                    }
+                }
+            }
+
+            if (found > 0) {
+                if (decoded == null) {
+                    decoded = LineScanner.decode(buffer, start, end);
+                }
+                int[] starts = Arrays.copyOf(lineStarts, found);
+                int[] ends = Arrays.copyOf(lineEnds, found);
+                for (int i = 0; i < literalMatches; i++) {
+                    // literal offsets are in bytes, regex offsets already in characters
+                    starts[i] = charOffset(buffer, start, starts[i]);
+                    ends[i] = charOffset(buffer, start, ends[i]);
+                }
+                Hit hit = new Hit(file, lineNumber, decoded, Arrays.copyOf(lineTerms, found), starts, ends, previousLines(lineNumber));
+                hitCount++;
+                if (termMatches != null) {
+                    for (int i = 0; i < found; i++) {
+                        termMatches[lineTerms[i]]++;
+                    }
+                }
+                if (contextLines == 0) {
+                    sink.accept(hit);
+                } else {
+                    waiting.add(hit);
+                }
+            }
+            if (contextLines > 0) {
+                remember(buffer, start, end, lineNumber);
+            }
+        }
+
+        private int add(int found, int term, int start, int end) {
+            if (found == lineTerms.length) {
+                lineTerms = Arrays.copyOf(lineTerms, found * 2);
+                lineStarts = Arrays.copyOf(lineStarts, found * 2);
+                lineEnds = Arrays.copyOf(lineEnds, found * 2);
+            }
+            lineTerms[found] = term;
+            lineStarts[found] = start;
+            lineEnds[found] = end;
+            return found + 1;
+        }
+
+        private void remember(byte[] buffer, int start, int end, int lineNumber) {
+            int slot = lineNumber % contextLines;
+            int length = end - start;
+            if (previous[slot] == null || previous[slot].length < length) {
+                previous[slot] = new byte[Math.max(length, 128)];
+            }
+            System.arraycopy(buffer, start, previous[slot], 0, length);
+            previousLengths[slot] = length;
+        }
+
+        private List<String> previousLines(int lineNumber) {
+            List<String> lines = new ArrayList<>(contextLines);
+            for (int line = Math.max(1, lineNumber - contextLines); line < lineNumber; line++) {
+                int slot = line % contextLines;
+                lines.add(LineScanner.decode(previous[slot], 0, previousLengths[slot]));
+            }
+            return lines;
+        }
+
+        private void finish() {
+            for (Hit hit : waiting) {
+                sink.accept(hit);
+            }
+            waiting.clear();
+        }
+    }
+
+    /**
+     * A line as a regular expression reads it under a time limit, checking the clock every so many characters.
+     */
+    private static final class DeadlineText implements CharSequence {
+        private final long deadline;
+        private String text = "";
+        private int reads;
+
+        private DeadlineText(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads == DEADLINE_CHECK_INTERVAL) {
+                reads = 0;
+                if (expired(deadline)) {
+                    throw new DeadlineExpired();
+                }
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private static final class DeadlineExpired extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private DeadlineExpired() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static boolean expired(long deadline) {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    private static boolean regionEquals(byte[] buffer, int start, byte[] literal) {
+        for (int i = 0; i < literal.length; i++) {
+            if (buffer[start + i] != literal[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts a byte offset within a UTF-8 line to a character offset.
+     */
+    private static int charOffset(byte[] buffer, int lineStart, int byteOffset) {
+        int chars = 0;
+        for (int i = lineStart; i < lineStart + byteOffset; i++) {
+            int b = buffer[i] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                chars += b >= 0xF0 ? 2 : 1;
+            }
+        }
+        return chars;
+    }
+
+    private static int fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xFF;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] append(int[] values, int value) {
+        if (values == null) {
+            return new int[]{value};
+        }
+        int[] appended = Arrays.copyOf(values, values.length + 1);
+        appended[values.length] = value;
+        return appended;
+    }
+
+    private static int[] merge(int[] own, int[] inherited) {
+        if (own == null) {
+            return inherited;
+        }
+        if (inherited == null) {
+            return own;
+        }
+        int[] merged = Arrays.copyOf(own, own.length + inherited.length);
+        System.arraycopy(inherited, 0, merged, own.length, inherited.length);
+        return merged;
+    }
+}
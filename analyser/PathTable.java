@@ -0,0 +1,317 @@
+package analyser;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A compact, ordered list of file paths. Each entry is a directory id and a shared file name, so a million
+ * files cost a few ints and a reference each instead of a full path string; directory paths are stored once.
+ * An open-addressing table of entry slots finds a path without scanning the list.
+ *
+ * <p>Removed entries leave a hole in their slot until more than half of the slots are holes and the table is
+ * compacted, so a removal does not shift every entry behind it. While there are holes, a Fenwick tree of live
+ * slots maps between list indices and slots, and the slots of each directory are listed so that removing a
+ * directory touches only what is below it. Both are built by the first removal, so a list that only grows
+ * pays for neither. Not thread-safe.
+ */
+public final class PathTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Map<Path, Integer> directoryIds = new HashMap<>();
+    // directory paths in tree order, so everything below a directory follows it
+    private final NavigableMap<Path, Integer> directoryTree = new TreeMap<>(AnalysisCache::compareInTreeOrder);
+    private final List<String> directories = new ArrayList<>();
+    private final Map<String, String> names = new HashMap<>();
+    private int[] entryDirectories = new int[INITIAL_CAPACITY];
+    private String[] entryNames = new String[INITIAL_CAPACITY];
+    // slot + 1 of each entry, by hash of directory and name; 0 is empty
+    private int[] lookup = new int[INITIAL_CAPACITY * 2];
+    private int slots;
+    private int size;
+    // only while there are holes
+    private int[] liveTree;
+    private List<IntList> directorySlots;
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(Path file) {
+        if (slots == entryNames.length) {
+            grow();
+        }
+        int directory = directoryId(file.getParent());
+        String name = names.computeIfAbsent(file.getFileName().toString(), k -> k);
+        int slot = slots++;
+        entryDirectories[slot] = directory;
+        entryNames[slot] = name;
+        insert(slot);
+        if (liveTree != null) {
+            for (int i = slot + 1; i < liveTree.length; i += i & -i) {
+                liveTree[i]++;
+            }
+            directorySlots.get(directory).add(slot);
+        }
+        size++;
+    }
+
+    public void addAll(List<Path> files) {
+        for (Path file : files) {
+            add(file);
+        }
+    }
+
+    public String get(int index) {
+        checkIndex(index);
+        int slot = slotOf(index);
+        return directories.get(entryDirectories[slot]) + File.separator + entryNames[slot];
+    }
+
+    public Path getPath(int index) {
+        return Paths.get(get(index));
+    }
+
+    public List<Path> toPaths() {
+        List<Path> paths = new ArrayList<>(size);
+        for (int slot = 0; slot < slots; slot++) {
+            if (entryNames[slot] != null) {
+                paths.add(Paths.get(directories.get(entryDirectories[slot]) + File.separator + entryNames[slot]));
+            }
+        }
+        return paths;
+    }
+
+    public int indexOf(Path file) {
+        int slot = find(file);
+        return slot < 0 ? -1 : indexOfSlot(slot);
+    }
+
+    /**
+     * Removes {@code path} and, if it is a directory, everything below it.
+     *
+     * @return the removed indices in ascending order, as they were before the removal
+     */
+    public int[] removeUnder(Path path) {
+        IntList removed = new IntList();
+        int slot = find(path);
+        if (slot >= 0) {
+            removed.add(slot);
+        }
+        for (Map.Entry<Path, Integer> entry : directoryTree.tailMap(path, true).entrySet()) {
+            if (!entry.getKey().startsWith(path)) {
+                break;
+            }
+            trackHoles();
+            IntList directory = directorySlots.get(entry.getValue());
+            for (int i = 0; i < directory.size; i++) {
+                if (entryNames[directory.values[i]] != null) {
+                    removed.add(directory.values[i]);
+                }
+            }
+            directorySlots.set(entry.getValue(), new IntList());
+        }
+        if (removed.size == 0) {
+            return new int[0];
+        }
+        trackHoles();
+        int[] removedSlots = Arrays.copyOf(removed.values, removed.size);
+        Arrays.sort(removedSlots);
+        int[] indices = new int[removedSlots.length];
+        for (int i = 0; i < removedSlots.length; i++) {
+            indices[i] = indexOfSlot(removedSlots[i]);
+        }
+        for (int removedSlot : removedSlots) {
+            entryNames[removedSlot] = null;
+            for (int i = removedSlot + 1; i < liveTree.length; i += i & -i) {
+                liveTree[i]--;
+            }
+        }
+        size -= removedSlots.length;
+        if (slots - size > size) {
+            compact();
+        }
+        return indices;
+    }
+
+    public void clear() {
+        directoryIds.clear();
+        directoryTree.clear();
+        directories.clear();
+        names.clear();
+        entryDirectories = new int[INITIAL_CAPACITY];
+        entryNames = new String[INITIAL_CAPACITY];
+        lookup = new int[INITIAL_CAPACITY * 2];
+        slots = 0;
+        size = 0;
+        liveTree = null;
+        directorySlots = null;
+    }
+
+    private int directoryId(Path directory) {
+        Integer id = directoryIds.get(directory);
+        if (id == null) {
+            id = directories.size();
+            directories.add(directory.toString());
+            directoryIds.put(directory, id);
+            directoryTree.put(directory, id);
+            if (directorySlots != null) {
+                directorySlots.add(new IntList());
+            }
+        }
+        return id;
+    }
+
+    /**
+     * The live slot holding {@code file}, or -1.
+     */
+    private int find(Path file) {
+        Integer directory = file.getParent() == null ? null : directoryIds.get(file.getParent());
+        if (directory == null) {
+            return -1;
+        }
+        String name = file.getFileName().toString();
+        int mask = lookup.length - 1;
+        for (int i = hash(directory, name) & mask; lookup[i] != 0; i = (i + 1) & mask) {
+            int slot = lookup[i] - 1;
+            if (entryDirectories[slot] == directory && name.equals(entryNames[slot])) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(int slot) {
+        int mask = lookup.length - 1;
+        int i = hash(entryDirectories[slot], entryNames[slot]) & mask;
+        while (lookup[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        lookup[i] = slot + 1;
+    }
+
+    private static int hash(int directory, String name) {
+        int h = directory * 0x9E3779B9 + name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int slotOf(int index) {
+        if (liveTree == null) {
+            return index;
+        }
+        // the slot after the index + 1 live slots before it, found by descending the tree
+        int slot = 0;
+        int remaining = index + 1;
+        for (int step = Integer.highestOneBit(liveTree.length - 1); step > 0; step >>= 1) {
+            if (slot + step < liveTree.length && liveTree[slot + step] < remaining) {
+                slot += step;
+                remaining -= liveTree[slot];
+            }
+        }
+        return slot;
+    }
+
+    private int indexOfSlot(int slot) {
+        if (liveTree == null) {
+            return slot;
+        }
+        int live = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            live += liveTree[i];
+        }
+        return live;
+    }
+
+    /**
+     * Builds the tree of live slots and the slots of each directory, if there are no holes yet.
+     */
+    private void trackHoles() {
+        if (liveTree != null) {
+            return;
+        }
+        liveTree = buildLiveTree(entryNames.length);
+        directorySlots = new ArrayList<>(directories.size());
+        for (int i = 0; i < directories.size(); i++) {
+            directorySlots.add(new IntList());
+        }
+        for (int slot = 0; slot < slots; slot++) {
+            directorySlots.get(entryDirectories[slot]).add(slot);
+        }
+    }
+
+    private int[] buildLiveTree(int capacity) {
+        int[] tree = new int[capacity + 1];
+        for (int i = 1; i <= capacity; i++) {
+            tree[i] += i <= slots && entryNames[i - 1] != null ? 1 : 0;
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+        return tree;
+    }
+
+    private void grow() {
+        int capacity = entryNames.length * 2;
+        entryDirectories = Arrays.copyOf(entryDirectories, capacity);
+        entryNames = Arrays.copyOf(entryNames, capacity);
+        rehash(capacity * 2);
+        if (liveTree != null) {
+            liveTree = buildLiveTree(capacity);
+        }
+    }
+
+    private void rehash(int tableSize) {
+        lookup = new int[tableSize];
+        for (int slot = 0; slot < slots; slot++) {
+            if (entryNames[slot] != null) {
+                insert(slot);
+            }
+        }
+    }
+
+    /**
+     * Moves the live entries together, dropping the holes and everything kept to track them.
+     */
+    private void compact() {
+        int kept = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (entryNames[slot] != null) {
+                entryDirectories[kept] = entryDirectories[slot];
+                entryNames[kept] = entryNames[slot];
+                kept++;
+            }
+        }
+        Arrays.fill(entryNames, kept, slots, null);
+        slots = kept;
+        rehash(lookup.length);
+        liveTree = null;
+        directorySlots = null;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
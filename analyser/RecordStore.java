@@ -0,0 +1,852 @@
+package analyser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only file of binary records for all of the application's tables. Each record is framed by a
+ * sync marker, its length and a CRC32C, so a torn or damaged record is skipped instead of taking the rest
+ * of the file with it. Records are written through the shared {@link LogAppender}; user, file, action and
+ * timestamp are kept in memory per table as dictionary ids with posting lists, so a filtered query touches
+ * only the records it returns. The index is saved next to the file on {@link #close()} and only the tail
+ * appended since is scanned on the next open.
+ *
+ * <p>In a keyed table only the latest record of each key is live, the key being the user or, in a table keyed
+ * by id, the record's first value; superseded records and tombstones are dropped by compaction, which runs
+ * when the store is opened and at least a quarter of it is dead.
+ */
+public final class RecordStore implements Closeable {
+
+    public static final int SCHEMA_VERSION = 1;
+
+    private static final int MAGIC = 0x47434153;
+    private static final int INDEX_MAGIC = 0x47434149;
+    private static final int INDEX_VERSION = 2;
+    private static final int HEADER_BYTES = 16;
+    private static final int SYNC = 0x5245430A;
+    private static final int FRAME_BYTES = 12;
+    private static final int MIN_BODY_BYTES = 26;
+    private static final int MAX_BODY_BYTES = 64 * 1024 * 1024;
+    private static final byte DELETED = 1;
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final Path file;
+    private final LogAppender appender;
+    private final Set<Byte> keyedTables;
+    private final Set<Byte> idKeyedTables;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final TableIndex[] tables = new TableIndex[256];
+    private FileChannel channel;
+    private long generation;
+    private long indexedBytes;
+    private long skippedBytes;
+    private volatile boolean appended;
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static final class TableIndex {
+        private final boolean keyed;
+        private final boolean keyedById;
+        private long[] offsets = new long[64];
+        private long[] timestamps = new long[64];
+        private int[] users = new int[64];
+        private int[] files = new int[64];
+        private int[] actions = new int[64];
+        private int[] keys = new int[64];
+        private byte[] flags = new byte[64];
+        private int size;
+        private int dead;
+        private boolean ordered = true;
+        private final Map<Integer, IntList> byUser = new HashMap<>();
+        private final Map<Integer, IntList> byFile = new HashMap<>();
+        private final Map<Integer, IntList> byAction = new HashMap<>();
+        private final Map<Integer, Integer> latest = new HashMap<>();
+
+        private TableIndex(boolean keyed, boolean keyedById) {
+            this.keyed = keyed || keyedById;
+            this.keyedById = keyedById;
+        }
+
+        private void add(long offset, long timestamp, int user, int file, int action, int key, byte recordFlags) {
+            if (size == offsets.length) {
+                int capacity = size * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                users = Arrays.copyOf(users, capacity);
+                files = Arrays.copyOf(files, capacity);
+                actions = Arrays.copyOf(actions, capacity);
+                keys = Arrays.copyOf(keys, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+            }
+            ordered &= size == 0 || timestamps[size - 1] <= timestamp;
+            int position = size++;
+            offsets[position] = offset;
+            timestamps[position] = timestamp;
+            users[position] = user;
+            files[position] = file;
+            actions[position] = action;
+            keys[position] = key;
+            flags[position] = recordFlags;
+            byUser.computeIfAbsent(user, k -> new IntList()).add(position);
+            byFile.computeIfAbsent(file, k -> new IntList()).add(position);
+            byAction.computeIfAbsent(action, k -> new IntList()).add(position);
+            if ((recordFlags & DELETED) != 0) {
+                dead++;
+            }
+            if (keyed) {
+                Integer previous = (recordFlags & DELETED) != 0 ? latest.remove(key) : latest.put(key, position);
+                if (previous != null) {
+                    dead++;
+                }
+            }
+        }
+
+        private boolean isLive(int position) {
+            if ((flags[position] & DELETED) != 0) {
+                return false;
+            }
+            Integer latestPosition = keyed ? latest.get(keys[position]) : null;
+            return !keyed || (latestPosition != null && latestPosition == position);
+        }
+    }
+
+    private RecordStore(Path file, LogAppender appender, Set<Byte> keyedTables, Set<Byte> idKeyedTables) {
+        this.file = file;
+        this.appender = appender;
+        this.keyedTables = keyedTables;
+        this.idKeyedTables = idKeyedTables;
+    }
+
+    /**
+     * Opens {@code file}, creating it if needed, and compacts it if that would reclaim enough space.
+     * Must be called before anything is appended to the file through {@code appender}.
+     *
+     * @param keyedTables tables in which a record replaces the earlier records of the same user
+     */
+    public static RecordStore open(Path file, LogAppender appender, byte... keyedTables) throws IOException {
+        return open(file, appender, keyedTables, new byte[0]);
+    }
+
+    /**
+     * Like {@link #open(Path, LogAppender, byte...)}, with tables keyed by id as well as by user.
+     *
+     * @param idKeyedTables tables in which a record replaces the earlier records with the same first value
+     */
+    public static RecordStore open(Path file, LogAppender appender, byte[] keyedTables, byte[] idKeyedTables) throws IOException {
+        Metrics.Sample sample = Metrics.start("store.open");
+        try {
+            RecordStore store = openStore(file, appender, keyedTables, idKeyedTables);
+            sample.stop(store.indexedBytes);
+            return store;
+        } catch (IOException e) {
+            sample.fail("");
+            throw e;
+        }
+    }
+
+    private static RecordStore openStore(Path file, LogAppender appender, byte[] keyedTables, byte[] idKeyedTables) throws IOException {
+        Set<Byte> keyed = new HashSet<>();
+        for (byte table : keyedTables) {
+            keyed.add(table);
+        }
+        Set<Byte> keyedById = new HashSet<>();
+        for (byte table : idKeyedTables) {
+            keyedById.add(table);
+        }
+        RecordStore store = new RecordStore(file, appender, keyed, keyedById);
+        if (!Files.exists(file)) {
+            store.create(file, ThreadLocalRandom.current().nextLong());
+        }
+        store.openChannel();
+        store.loadIndex();
+        store.scan();
+        if (store.indexedBytes < store.channel.size()) {
+            // a record torn by a crash; later appends must not be framed behind it
+            store.skippedBytes += store.channel.size() - store.indexedBytes;
+            store.channel.truncate(store.indexedBytes);
+        }
+        if (store.isWorthCompacting()) {
+            store.rewrite();
+        }
+        return store;
+    }
+
+    /**
+     * Encodes {@code record} and hands it to the appender; it is visible to queries once written.
+     */
+    public void append(StoredRecord record) {
+        appended = true;
+        appender.append(file, encode(record));
+    }
+
+    /**
+     * Writes records directly and durably, bypassing the appender; used to import data in bulk.
+     */
+    public synchronized void importRecords(List<StoredRecord> records) throws IOException {
+        appender.flush();
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+            for (StoredRecord record : records) {
+                byte[] frame = encode(record);
+                if (buffer.remaining() < frame.length) {
+                    writeFully(out, buffer);
+                }
+                if (frame.length > buffer.capacity()) {
+                    ByteBuffer large = ByteBuffer.wrap(frame);
+                    large.position(frame.length);
+                    writeFully(out, large);
+                } else {
+                    buffer.put(frame);
+                }
+            }
+            writeFully(out, buffer);
+            out.force(false);
+        }
+        scan();
+    }
+
+    /**
+     * The live records of {@code table} matching {@code filter}, oldest first.
+     */
+    public LogView query(byte table, LogFilter filter) throws IOException {
+        Metrics.Sample sample = Metrics.start("store.query");
+        try {
+            // waiting outside the lock lets concurrent queries share one flush of the appender
+            appender.flush();
+            LogView view;
+            synchronized (this) {
+                scan();
+                view = find(table, filter);
+            }
+            sample.stop(0);
+            return view;
+        } catch (IOException e) {
+            sample.fail("");
+            throw e;
+        }
+    }
+
+    private LogView find(byte table, LogFilter filter) throws IOException {
+        TableIndex index = tables[table & 0xFF];
+        if (index == null) {
+            return new LogView(this, new long[0]);
+        }
+        int user = idOf(filter.getUser());
+        int file = idOf(filter.getFile());
+        int action = idOf(filter.getAction());
+        if (user == -2 || file == -2 || action == -2) {
+            return new LogView(this, new long[0]);
+        }
+        long fromMillis = filter.fromMillis();
+        long toMillis = filter.toMillis();
+
+        IntList candidates = null;
+        IntList[] postingLists = {
+                user >= 0 ? index.byUser.getOrDefault(user, new IntList()) : null,
+                file >= 0 ? index.byFile.getOrDefault(file, new IntList()) : null,
+                action >= 0 ? index.byAction.getOrDefault(action, new IntList()) : null};
+        for (IntList postings : postingLists) {
+            if (postings != null && (candidates == null || postings.size < candidates.size)) {
+                candidates = postings;
+            }
+        }
+        int first = 0;
+        int last = index.size;
+        if (candidates == null && index.ordered) {
+            first = lowerBound(index.timestamps, index.size, fromMillis);
+            last = toMillis == Long.MAX_VALUE ? index.size : lowerBound(index.timestamps, index.size, toMillis + 1);
+        }
+        int count = candidates == null ? Math.max(0, last - first) : candidates.size;
+        int[] matches = new int[count];
+        int matched = 0;
+        for (int i = 0; i < count; i++) {
+            int position = candidates == null ? first + i : candidates.values[i];
+            long timestamp = index.timestamps[position];
+            if (timestamp >= fromMillis && timestamp <= toMillis
+                    && (user < 0 || index.users[position] == user)
+                    && (file < 0 || index.files[position] == file)
+                    && (action < 0 || index.actions[position] == action)
+                    && index.isLive(position)) {
+                matches[matched++] = position;
+            }
+        }
+        long[] offsets = new long[matched];
+        if (index.ordered) {
+            for (int i = 0; i < matched; i++) {
+                offsets[i] = index.offsets[matches[i]];
+            }
+        } else {
+            Integer[] sorted = new Integer[matched];
+            for (int i = 0; i < matched; i++) {
+                sorted[i] = matches[i];
+            }
+            long[] timestamps = index.timestamps;
+            Arrays.sort(sorted, (a, b) -> Long.compare(timestamps[a], timestamps[b]));
+            for (int i = 0; i < matched; i++) {
+                offsets[i] = index.offsets[sorted[i]];
+            }
+        }
+        return new LogView(this, offsets);
+    }
+
+    /**
+     * The live record of each key in {@code table}, by key, in the order they were last written.
+     */
+    public synchronized Map<String, StoredRecord> latest(byte table) throws IOException {
+        refresh();
+        Map<String, StoredRecord> records = new LinkedHashMap<>();
+        TableIndex index = tables[table & 0xFF];
+        if (index == null) {
+            return records;
+        }
+        Map<Integer, Integer> latest = new HashMap<>();
+        for (int position = 0; position < index.size; position++) {
+            if ((index.flags[position] & DELETED) != 0) {
+                latest.remove(index.keys[position]);
+            } else {
+                latest.put(index.keys[position], position);
+            }
+        }
+        for (int position = 0; position < index.size; position++) {
+            if (Integer.valueOf(position).equals(latest.get(index.keys[position]))) {
+                records.put(strings.get(index.keys[position]), read(index.offsets[position]));
+            }
+        }
+        return records;
+    }
+
+    public synchronized TreeSet<String> actions(byte table) throws IOException {
+        refresh();
+        TreeSet<String> actions = new TreeSet<>();
+        TableIndex index = tables[table & 0xFF];
+        if (index != null) {
+            for (int id : index.byAction.keySet()) {
+                if (!strings.get(id).isEmpty()) {
+                    actions.add(strings.get(id));
+                }
+            }
+        }
+        return actions;
+    }
+
+    public synchronized String getStats() throws IOException {
+        refresh();
+        StringBuilder stats = new StringBuilder();
+        stats.append("File: ").append(file).append(" (").append(channel.size()).append(" bytes, schema ").append(SCHEMA_VERSION).append(")")
+                .append("\nDistinct Strings: ").append(strings.size())
+                .append("\nSkipped Bytes: ").append(skippedBytes);
+        for (int table = 0; table < tables.length; table++) {
+            if (tables[table] != null) {
+                stats.append("\nTable ").append(table).append(": ").append(tables[table].size).append(" records, ")
+                        .append(tables[table].dead).append(" dead");
+            }
+        }
+        return stats.toString();
+    }
+
+    StoredRecord read(long offset) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+        readFully(channel, frame, offset);
+        frame.flip();
+        int sync = frame.getInt();
+        int length = frame.getInt();
+        int crc = frame.getInt();
+        if (sync != SYNC || length < MIN_BODY_BYTES || length > MAX_BODY_BYTES) {
+            throw new IOException("No record at offset " + offset + " of " + file);
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(channel, body, offset + FRAME_BYTES);
+        if (checksum(body.array(), 0, length) != crc) {
+            throw new IOException("Corrupt record at offset " + offset + " of " + file);
+        }
+        body.flip();
+        byte table = body.get();
+        byte recordFlags = body.get();
+        long timestamp = body.getLong();
+        String user = readString(body);
+        String recordFile = readString(body);
+        String action = readString(body);
+        String[] values = new String[body.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readString(body);
+        }
+        return StoredRecord.decoded(table, timestamp, user, recordFile, action, (recordFlags & DELETED) != 0, values);
+    }
+
+    /**
+     * Writes out any pending appends and indexes whatever has been appended since the last call.
+     */
+    private void refresh() throws IOException {
+        appender.flush();
+        scan();
+    }
+
+    private void scan() throws IOException {
+        long size = channel.size();
+        long position = indexedBytes;
+        byte[] buffer = new byte[1 << 20];
+        long bufferStart = position;
+        int bufferLength = 0;
+        while (size - position >= FRAME_BYTES) {
+            if (position + FRAME_BYTES > bufferStart + bufferLength) {
+                bufferStart = position;
+                bufferLength = fill(buffer, position, size);
+            }
+            ByteBuffer view = ByteBuffer.wrap(buffer);
+            int at = (int) (position - bufferStart);
+            int length = view.getInt(at + 4);
+            if (view.getInt(at) != SYNC || length < MIN_BODY_BYTES || length > MAX_BODY_BYTES) {
+                long next = resync(position + 1, size);
+                skippedBytes += next - position;
+                position = next;
+                continue;
+            }
+            long end = position + FRAME_BYTES + length;
+            if (end > size) {
+                // a record still being written or torn by a crash, unless it is a damaged length with whole records behind it
+                long next = nextValidRecord(position + 1, size);
+                if (next == size) {
+                    break;
+                }
+                skippedBytes += next - position;
+                position = next;
+                continue;
+            }
+            if (end > bufferStart + bufferLength) {
+                if (FRAME_BYTES + length > buffer.length) {
+                    buffer = new byte[FRAME_BYTES + length];
+                    view = ByteBuffer.wrap(buffer);
+                }
+                bufferStart = position;
+                bufferLength = fill(buffer, position, size);
+                at = 0;
+            }
+            if (checksum(buffer, at + FRAME_BYTES, length) != view.getInt(at + 8)) {
+                if (end == size) {
+                    // possibly still being written
+                    break;
+                }
+                long next = resync(position + 1, size);
+                skippedBytes += next - position;
+                position = next;
+                continue;
+            }
+            index(view, at + FRAME_BYTES, position);
+            position = end;
+        }
+        indexedBytes = position;
+    }
+
+    private void index(ByteBuffer body, int at, long offset) {
+        body.position(at);
+        byte table = body.get();
+        byte recordFlags = body.get();
+        long timestamp = body.getLong();
+        int user = intern(readString(body));
+        int recordFile = intern(readString(body));
+        int action = intern(readString(body));
+        TableIndex index = tableIndex(table);
+        int key = user;
+        if (index.keyedById) {
+            key = intern(body.getInt() > 0 ? readString(body) : "");
+        }
+        index.add(offset, timestamp, user, recordFile, action, key, recordFlags);
+    }
+
+    private TableIndex tableIndex(byte table) {
+        TableIndex index = tables[table & 0xFF];
+        if (index == null) {
+            index = new TableIndex(keyedTables.contains(table), idKeyedTables.contains(table));
+            tables[table & 0xFF] = index;
+        }
+        return index;
+    }
+
+    private int fill(byte[] buffer, long position, long size) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, size - position));
+        readFully(channel, target, position);
+        return target.position();
+    }
+
+    /**
+     * Finds the next sync marker at or after {@code from}, or the end of the file if there is none.
+     */
+    private long resync(long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = from;
+        while (position + 4 <= size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - position));
+            readFully(channel, buffer, position);
+            for (int i = 0; i + 4 <= buffer.limit(); i++) {
+                if (buffer.getInt(i) == SYNC) {
+                    return position + i;
+                }
+            }
+            position += buffer.limit() - 3;
+        }
+        return size;
+    }
+
+    /**
+     * Finds the next complete record with a matching checksum at or after {@code from}, or the end of the file.
+     */
+    private long nextValidRecord(long from, long size) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+        long position = resync(from, size);
+        while (position + FRAME_BYTES <= size) {
+            frame.clear();
+            readFully(channel, frame, position);
+            int length = frame.getInt(4);
+            if (length >= MIN_BODY_BYTES && length <= MAX_BODY_BYTES && position + FRAME_BYTES + length <= size) {
+                ByteBuffer body = ByteBuffer.allocate(length);
+                readFully(channel, body, position + FRAME_BYTES);
+                if (checksum(body.array(), 0, length) == frame.getInt(8)) {
+                    return position;
+                }
+            }
+            position = resync(position + 1, size);
+        }
+        return size;
+    }
+
+    private boolean isWorthCompacting() {
+        int records = 0;
+        int dead = 0;
+        for (TableIndex index : tables) {
+            if (index != null) {
+                records += index.size;
+                dead += index.dead;
+            }
+        }
+        return skippedBytes > 0 || (dead > 0 && dead * 4 >= records);
+    }
+
+    /**
+     * Rewrites the file with only its live records, so superseded and deleted values are gone from the disk
+     * instead of just hidden. Like {@link #open}, this must happen before anything is appended through the
+     * appender, which would keep writing to the replaced file.
+     */
+    public synchronized void compact() throws IOException {
+        if (appended) {
+            throw new IllegalStateException("Records have already been appended to " + file);
+        }
+        scan();
+        rewrite();
+    }
+
+    /**
+     * Rewrites the live records into a new file with a new generation and swaps it in.
+     */
+    private void rewrite() throws IOException {
+        int records = 0;
+        for (TableIndex index : tables) {
+            records += index == null ? 0 : index.size;
+        }
+        long[] offsets = new long[records];
+        int live = 0;
+        for (TableIndex index : tables) {
+            for (int position = 0; index != null && position < index.size; position++) {
+                if (index.isLive(position)) {
+                    offsets[live++] = index.offsets[position];
+                }
+            }
+        }
+        offsets = Arrays.copyOf(offsets, live);
+        Arrays.sort(offsets);
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        long newGeneration = ThreadLocalRandom.current().nextLong();
+        create(tempFile, newGeneration);
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (long offset : offsets) {
+                ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+                readFully(channel, frame, offset);
+                ByteBuffer record = ByteBuffer.allocate(FRAME_BYTES + frame.getInt(4));
+                readFully(channel, record, offset);
+                writeFully(out, record);
+            }
+            out.force(false);
+        }
+        channel.close();
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Arrays.fill(tables, null);
+        dictionary.clear();
+        strings.clear();
+        skippedBytes = 0;
+        openChannel();
+        scan();
+        saveIndex();
+    }
+
+    private void create(Path target, long newGeneration) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(SCHEMA_VERSION).putLong(newGeneration);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, header);
+            out.force(true);
+        }
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        try {
+            readFully(channel, header, 0);
+        } catch (EOFException e) {
+            channel.close();
+            throw new IOException("Not a record store: " + file);
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException("Not a record store: " + file);
+        }
+        int version = header.getInt();
+        if (version != SCHEMA_VERSION) {
+            channel.close();
+            throw new IOException("Unsupported record store schema " + version + ": " + file);
+        }
+        generation = header.getLong();
+        indexedBytes = HEADER_BYTES;
+    }
+
+    private void loadIndex() {
+        Path indexFile = file.resolveSibling(file.getFileName() + INDEX_SUFFIX);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || in.readLong() != generation) {
+                return;
+            }
+            long savedBytes = in.readLong();
+            long savedSkipped = in.readLong();
+            if (savedBytes > channel.size()) {
+                return;
+            }
+            List<String> savedStrings = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                savedStrings.add(readString(in));
+            }
+            for (String value : savedStrings) {
+                intern(value);
+            }
+            for (int t = in.readInt(); t > 0; t--) {
+                TableIndex index = tableIndex(in.readByte());
+                if (in.readBoolean() != index.keyedById) {
+                    throw new IOException("Index keyed differently: " + indexFile);
+                }
+                for (int i = in.readInt(); i > 0; i--) {
+                    index.add(in.readLong(), in.readLong(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readByte());
+                }
+            }
+            indexedBytes = savedBytes;
+            skippedBytes = savedSkipped;
+        } catch (NoSuchFileException e) {
+            // first open, or the index was never saved
+        } catch (IOException e) {
+            Arrays.fill(tables, null);
+            dictionary.clear();
+            strings.clear();
+            indexedBytes = HEADER_BYTES;
+            skippedBytes = 0;
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        Path indexFile = file.resolveSibling(file.getFileName() + INDEX_SUFFIX);
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(generation);
+            out.writeLong(indexedBytes);
+            out.writeLong(skippedBytes);
+            out.writeInt(strings.size());
+            for (String value : strings) {
+                writeString(out, value);
+            }
+            int tableCount = 0;
+            for (TableIndex index : tables) {
+                tableCount += index == null ? 0 : 1;
+            }
+            out.writeInt(tableCount);
+            for (int table = 0; table < tables.length; table++) {
+                TableIndex index = tables[table];
+                if (index == null) {
+                    continue;
+                }
+                out.writeByte(table);
+                out.writeBoolean(index.keyedById);
+                out.writeInt(index.size);
+                for (int i = 0; i < index.size; i++) {
+                    out.writeLong(index.offsets[i]);
+                    out.writeLong(index.timestamps[i]);
+                    out.writeInt(index.users[i]);
+                    out.writeInt(index.files[i]);
+                    out.writeInt(index.actions[i]);
+                    out.writeInt(index.keys[i]);
+                    out.writeByte(index.flags[i]);
+                }
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Indexes what the appender has written so far and saves the index; close the appender first.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            scan();
+            saveIndex();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private int intern(String value) {
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            dictionary.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * The dictionary id of a filter value: -1 for no filter, -2 for a value that never occurs.
+     */
+    private int idOf(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = dictionary.get(value);
+        return id == null ? -2 : id;
+    }
+
+    private static int lowerBound(long[] values, int size, long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static byte[] encode(StoredRecord record) {
+        byte[][] fields = new byte[3 + record.getValueCount()][];
+        fields[0] = record.getUser().getBytes(StandardCharsets.UTF_8);
+        fields[1] = record.getFile().getBytes(StandardCharsets.UTF_8);
+        fields[2] = record.getAction().getBytes(StandardCharsets.UTF_8);
+        for (int i = 3; i < fields.length; i++) {
+            fields[i] = record.getValue(i - 3).getBytes(StandardCharsets.UTF_8);
+        }
+        long length = MIN_BODY_BYTES;
+        for (byte[] field : fields) {
+            length += field.length;
+        }
+        length += 4L * (fields.length - 3);
+        if (length > MAX_BODY_BYTES) {
+            throw new IllegalArgumentException("Record too large: " + length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_BYTES + (int) length);
+        buffer.putInt(SYNC).putInt((int) length).putInt(0);
+        buffer.put(record.getTable()).put(record.isDeleted() ? DELETED : 0).putLong(record.getTimestampMillis());
+        for (int i = 0; i < fields.length; i++) {
+            if (i == 3) {
+                buffer.putInt(fields.length - 3);
+            }
+            buffer.putInt(fields[i].length).put(fields[i]);
+        }
+        if (fields.length == 3) {
+            buffer.putInt(0);
+        }
+        byte[] frame = buffer.array();
+        buffer.putInt(8, checksum(frame, FRAME_BYTES, (int) length));
+        return frame;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void readFully(FileChannel source, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = source.read(target, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel target, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,85 @@
+package analyser;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public final class RepositoryAnalysis {
+
+    private final Path root;
+    private final List<FileAnalysis> files;
+    private final List<Path> failedFiles;
+    private final List<Path> binaryFiles;
+    private final Map<String, AnalysisTotals> directoryTotals;
+    private final Map<String, AnalysisTotals> extensionTotals;
+    private final AnalysisTotals totals;
+    private final long elapsedMillis;
+
+    RepositoryAnalysis(Path root, List<FileAnalysis> files, List<Path> failedFiles, List<Path> binaryFiles,
+                       Map<String, AnalysisTotals> directoryTotals, Map<String, AnalysisTotals> extensionTotals,
+                       AnalysisTotals totals, long elapsedMillis) {
+        this.root = root;
+        this.files = Collections.unmodifiableList(files);
+        this.failedFiles = Collections.unmodifiableList(failedFiles);
+        this.binaryFiles = Collections.unmodifiableList(binaryFiles);
+        this.directoryTotals = Collections.unmodifiableMap(directoryTotals);
+        this.extensionTotals = Collections.unmodifiableMap(extensionTotals);
+        this.totals = totals;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public List<FileAnalysis> getFiles() {
+        return files;
+    }
+
+    public List<Path> getFailedFiles() {
+        return failedFiles;
+    }
+
+    public List<Path> getBinaryFiles() {
+        return binaryFiles;
+    }
+
+    public Map<String, AnalysisTotals> getDirectoryTotals() {
+        return directoryTotals;
+    }
+
+    public Map<String, AnalysisTotals> getExtensionTotals() {
+        return extensionTotals;
+    }
+
+    public AnalysisTotals getTotals() {
+        return totals;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public String toReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("Repository: ").append(root)
+                .append("\nAnalyzed in ").append(elapsedMillis).append(" ms")
+                .append("\n").append(totals);
+        if (!failedFiles.isEmpty()) {
+            report.append("\nUnreadable Files: ").append(failedFiles.size());
+        }
+        if (!binaryFiles.isEmpty()) {
+            report.append("\nSkipped Binary Files: ").append(binaryFiles.size());
+        }
+        report.append("\n\nBy Extension:\n");
+        for (Map.Entry<String, AnalysisTotals> entry : extensionTotals.entrySet()) {
+            report.append(entry.getKey().isEmpty() ? "(none)" : entry.getKey()).append(" -> ").append(entry.getValue()).append("\n");
+        }
+        report.append("\nBy Directory:\n");
+        for (Map.Entry<String, AnalysisTotals> entry : directoryTotals.entrySet()) {
+            report.append(entry.getKey()).append(" -> ").append(entry.getValue()).append("\n");
+        }
+        return report.toString();
+    }
+}
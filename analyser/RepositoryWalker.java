@@ -0,0 +1,275 @@
+package analyser;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Lists the files of a repository in parallel, one fork/join task per directory. Directories named in
+ * {@code excludedDirectories} and paths matched by {@code .gitignore} (and {@code .git/info/exclude}) are
+ * pruned without being read, symbolic links are followed but a directory reached twice is skipped, and files
+ * can be limited by extension and size. Results are handed to the caller in batches as they are found.
+ */
+public final class RepositoryWalker {
+
+    public static final Set<String> DEFAULT_EXCLUDED_DIRECTORIES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(".git", ".hg", ".svn", "node_modules")));
+
+    private static final int BATCH_SIZE = 4096;
+
+    private final Set<String> extensions;
+    private final long maxFileSize;
+    private final boolean useGitignore;
+    private final Set<String> excludedDirectories;
+
+    public RepositoryWalker() {
+        this(Collections.emptySet(), Long.MAX_VALUE, true, DEFAULT_EXCLUDED_DIRECTORIES);
+    }
+
+    /**
+     * @param extensions file extensions to keep, without the dot; empty keeps every file
+     */
+    public RepositoryWalker(Set<String> extensions, long maxFileSize, boolean useGitignore, Set<String> excludedDirectories) {
+        Set<String> lowerCase = new HashSet<>();
+        for (String extension : extensions) {
+            lowerCase.add(extension.toLowerCase(Locale.ROOT));
+        }
+        this.extensions = lowerCase;
+        this.maxFileSize = maxFileSize;
+        this.useGitignore = useGitignore;
+        this.excludedDirectories = new HashSet<>(excludedDirectories);
+    }
+
+    public List<Path> list(Path root, ForkJoinPool pool) throws IOException {
+        List<Path> files = new ArrayList<>();
+        walk(root, pool, files::addAll, null);
+        return files;
+    }
+
+    /**
+     * Walks {@code root}, passing the accepted files to {@code sink} in batches. The sink is called from
+     * worker threads but never concurrently. Unreadable directories are skipped.
+     *
+     * @return the number of files accepted
+     */
+    public long walk(Path root, ForkJoinPool pool, Consumer<List<Path>> sink, TaskExecutor.Context context) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        Metrics.Sample sample = Metrics.start("walk");
+        Walk walk = new Walk(sink, context);
+        BasicFileAttributes attributes = Files.readAttributes(root, BasicFileAttributes.class);
+        walk.visited.add(directoryKey(root, attributes));
+        pool.invoke(new DirectoryTask(walk, root, useGitignore ? rootRules(root) : null));
+        walk.flush();
+        sample.stop(0);
+        if (context != null) {
+            context.checkCancelled();
+        }
+        return walk.accepted.get();
+    }
+
+    /**
+     * Applies the same rules as {@link #walk} to a single path below {@code root}, for files that appear later.
+     */
+    public boolean accepts(Path root, Path file) {
+        if (!acceptsDirectory(root, file.getParent())) {
+            return false;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.isRegularFile() && includesFile(file, attributes, rulesFor(root, file.getParent()));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether the walk would descend into {@code directory}, ignoring symbolic link loops.
+     */
+    public boolean acceptsDirectory(Path root, Path directory) {
+        GitIgnore ignore = rulesFor(root, root);
+        Path current = root;
+        for (Path name : directory.equals(root) ? Collections.<Path>emptyList() : root.relativize(directory)) {
+            current = current.resolve(name);
+            if (!includesDirectory(current, ignore)) {
+                return false;
+            }
+            ignore = useGitignore ? loadIgnore(ignore, current) : null;
+        }
+        return true;
+    }
+
+    private GitIgnore rulesFor(Path root, Path directory) {
+        if (!useGitignore) {
+            return null;
+        }
+        GitIgnore ignore = loadIgnore(rootRules(root), root);
+        Path current = root;
+        for (Path name : directory.equals(root) ? Collections.<Path>emptyList() : root.relativize(directory)) {
+            current = current.resolve(name);
+            ignore = loadIgnore(ignore, current);
+        }
+        return ignore;
+    }
+
+    private static GitIgnore rootRules(Path root) {
+        return GitIgnore.load(null, root, root.resolve(".git").resolve("info").resolve("exclude"));
+    }
+
+    private boolean includesDirectory(Path directory, GitIgnore ignore) {
+        return !excludedDirectories.contains(directory.getFileName().toString())
+                && (ignore == null || !ignore.isIgnored(directory, true));
+    }
+
+    private boolean includesFile(Path file, BasicFileAttributes attributes, GitIgnore ignore) {
+        if (attributes.size() > maxFileSize) {
+            return false;
+        }
+        if (!extensions.isEmpty()) {
+            String name = file.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            if (dot < 0 || !extensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+                return false;
+            }
+        }
+        return ignore == null || !ignore.isIgnored(file, false);
+    }
+
+    private static GitIgnore loadIgnore(GitIgnore parent, Path directory) {
+        return GitIgnore.load(parent, directory, directory.resolve(".gitignore"));
+    }
+
+    private static Object directoryKey(Path directory, BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        if (fileKey != null) {
+            return fileKey;
+        }
+        try {
+            return directory.toRealPath();
+        } catch (IOException e) {
+            return directory.toAbsolutePath().normalize();
+        }
+    }
+
+    private static final class Walk {
+        private final Consumer<List<Path>> sink;
+        private final TaskExecutor.Context context;
+        private final Set<Object> visited = ConcurrentHashMap.newKeySet();
+        private final AtomicLong accepted = new AtomicLong();
+        private List<Path> batch = new ArrayList<>(BATCH_SIZE);
+
+        private Walk(Consumer<List<Path>> sink, TaskExecutor.Context context) {
+            this.sink = sink;
+            this.context = context;
+        }
+
+        private synchronized void add(List<Path> files) {
+            batch.addAll(files);
+            accepted.addAndGet(files.size());
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        private synchronized void flush() {
+            if (!batch.isEmpty()) {
+                sink.accept(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        private boolean isCancelled() {
+            return context != null && context.isCancelled();
+        }
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Walk walk;
+        private final transient Path directory;
+        private final transient GitIgnore parentIgnore;
+
+        private DirectoryTask(Walk walk, Path directory, GitIgnore parentIgnore) {
+            this.walk = walk;
+            this.directory = directory;
+            this.parentIgnore = parentIgnore;
+        }
+
+        @Override
+        protected void compute() {
+            if (walk.isCancelled()) {
+                return;
+            }
+            List<Path> entries = new ArrayList<>();
+            List<BasicFileAttributes> entryAttributes = new ArrayList<>();
+            boolean hasIgnoreFile = false;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                // relative to the open directory, so the kernel does not resolve every entry's full path again
+                SecureDirectoryStream<Path> secure = stream instanceof SecureDirectoryStream ? (SecureDirectoryStream<Path>) stream : null;
+                for (Path entry : stream) {
+                    try {
+                        entryAttributes.add(secure == null ? Files.readAttributes(entry, BasicFileAttributes.class)
+                                : secure.getFileAttributeView(entry.getFileName(), BasicFileAttributeView.class).readAttributes());
+                        entries.add(entry);
+                        hasIgnoreFile |= entry.getFileName().toString().equals(".gitignore");
+                    } catch (IOException e) {
+                        // broken symbolic link or removed while listing
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                return;
+            }
+            // The directory's own rules have to be known before any of its entries can be filtered
+            GitIgnore ignore = hasIgnoreFile && useGitignore ? loadIgnore(parentIgnore, directory) : parentIgnore;
+            // Subdirectories are forked as they are found, so idle workers list them while this one filters files
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                BasicFileAttributes attributes = entryAttributes.get(i);
+                if (attributes.isDirectory()) {
+                    Path entry = entries.get(i);
+                    if (includesDirectory(entry, ignore) && walk.visited.add(directoryKey(entry, attributes))) {
+                        DirectoryTask task = new DirectoryTask(walk, entry, ignore);
+                        task.fork();
+                        subdirectories.add(task);
+                    }
+                }
+            }
+            List<Path> files = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                BasicFileAttributes attributes = entryAttributes.get(i);
+                if (attributes.isRegularFile() && includesFile(entries.get(i), attributes, ignore)) {
+                    files.add(entries.get(i));
+                }
+            }
+            if (!files.isEmpty()) {
+                Collections.sort(files);
+                walk.add(files);
+                if (walk.context != null) {
+                    walk.context.advance(files.size());
+                }
+            }
+            // joined newest first, so a task not yet stolen runs here without waiting
+            for (int i = subdirectories.size() - 1; i >= 0; i--) {
+                subdirectories.get(i).join();
+            }
+        }
+    }
+}
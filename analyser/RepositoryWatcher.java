@@ -0,0 +1,165 @@
+package analyser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Watches every directory below a repository root and reports created, modified and deleted paths in
+ * debounced batches, so only the affected files need to be re-analyzed and re-indexed.
+ */
+public final class RepositoryWatcher implements Closeable {
+
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    public interface Listener {
+        void onChanges(Set<Path> created, Set<Path> modified, Set<Path> deleted);
+
+        void onOverflow();
+    }
+
+    private final Path root;
+    private final Listener listener;
+    private final Predicate<Path> directoryFilter;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    private RepositoryWatcher(Path root, Predicate<Path> directoryFilter, Listener listener) throws IOException {
+        this.root = root;
+        this.directoryFilter = directoryFilter;
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::run, "repository-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    public static RepositoryWatcher start(Path root, Listener listener) throws IOException {
+        return start(root, directory -> true, listener);
+    }
+
+    /**
+     * Watches only the directories accepted by {@code directoryFilter}, and nothing below a rejected one.
+     */
+    public static RepositoryWatcher start(Path root, Predicate<Path> directoryFilter, Listener listener) throws IOException {
+        RepositoryWatcher watcher = new RepositoryWatcher(root, directoryFilter, listener);
+        try {
+            watcher.registerTree(root, null);
+        } catch (IOException e) {
+            watcher.close();
+            throw e;
+        }
+        watcher.thread.start();
+        return watcher;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    private void registerTree(Path directory, Set<Path> created) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attributes) throws IOException {
+                if (!directoryFilter.test(path)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                directories.put(path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), path);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                if (created != null && attributes.isRegularFile()) {
+                    created.add(path);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Set<Path> created = new LinkedHashSet<>();
+                Set<Path> modified = new LinkedHashSet<>();
+                Set<Path> deleted = new LinkedHashSet<>();
+                boolean overflow = false;
+
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    overflow |= collect(key, created, modified, deleted);
+                    key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+
+                if (overflow) {
+                    listener.onOverflow();
+                } else if (!created.isEmpty() || !modified.isEmpty() || !deleted.isEmpty()) {
+                    listener.onChanges(created, modified, deleted);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean collect(WatchKey key, Set<Path> created, Set<Path> modified, Set<Path> deleted) {
+        Path directory = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                overflow = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                deleted.remove(path);
+                if (Files.isDirectory(path)) {
+                    try {
+                        registerTree(path, created);
+                    } catch (IOException e) {
+                        overflow = true;
+                    }
+                } else {
+                    created.add(path);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+                if (!created.contains(path) && Files.isRegularFile(path)) {
+                    modified.add(path);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                modified.remove(path);
+                if (!created.remove(path)) {
+                    deleted.add(path);
+                }
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+}
@@ -0,0 +1,517 @@
+package analyser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Trigram inverted index over every text file of a repository, stored on disk and memory-mapped for queries.
+ * Trigrams are ASCII case-folded, so the index yields a superset of candidates that is then confirmed
+ * by scanning only those files. Files changed since the build are tracked in an in-memory overlay.
+ *
+ * <pre>
+ * int magic, int version, string root, int fileCount, string[fileCount] relative paths,
+ * int trigramCount, (int trigram, int postingOffset, int postingCount)[trigramCount] sorted by trigram,
+ * postings: varint-encoded ascending file id deltas
+ * </pre>
+ */
+public final class SearchIndex {
+
+    private static final int MAGIC = 0x47434149;
+    private static final int VERSION = 1;
+    private static final int TABLE_ENTRY_SIZE = 12;
+    private static final ThreadLocal<TrigramCollector> COLLECTORS = ThreadLocal.withInitial(TrigramCollector::new);
+
+    private final Path root;
+    private final String[] files;
+    private final ByteBuffer data;
+    private final int trigramCount;
+    private final int tableOffset;
+    private final int postingsOffset;
+    private final Map<String, int[]> overlay = new ConcurrentHashMap<>();
+    private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+    private SearchIndex(Path root, String[] files, ByteBuffer data, int trigramCount, int tableOffset, int postingsOffset) {
+        this.root = root;
+        this.files = files;
+        this.data = data;
+        this.trigramCount = trigramCount;
+        this.tableOffset = tableOffset;
+        this.postingsOffset = postingsOffset;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public int getFileCount() {
+        return files.length;
+    }
+
+    public Path getFile(int fileId) {
+        return root.resolve(files[fileId]);
+    }
+
+    public static SearchIndex open(Path indexFile) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.remaining() < 8 || data.getInt() != MAGIC || data.getInt() != VERSION) {
+            throw new IOException("Not a search index: " + indexFile);
+        }
+        Path root = Path.of(readString(data));
+        String[] files = new String[data.getInt()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = readString(data);
+        }
+        int trigramCount = data.getInt();
+        int tableOffset = data.position();
+        int postingsOffset = tableOffset + trigramCount * TABLE_ENTRY_SIZE;
+        return new SearchIndex(root, files, data, trigramCount, tableOffset, postingsOffset);
+    }
+
+    public static SearchIndex build(Path root, List<Path> files, Path indexFile, ForkJoinPool pool) throws IOException {
+        Metrics.Sample sample = Metrics.start("index.build");
+        int[][] fileTrigrams;
+        try {
+            fileTrigrams = pool.submit(() -> IntStream.range(0, files.size()).parallel()
+                    .mapToObj(i -> trigramsOf(files.get(i)))
+                    .toArray(int[][]::new)).get();
+        } catch (InterruptedException e) {
+            sample.fail("");
+            Thread.currentThread().interrupt();
+            throw new IOException("Index build interrupted", e);
+        } catch (ExecutionException e) {
+            sample.fail("");
+            throw new IOException("Index build failed", e.getCause());
+        }
+
+        IntIntMap counts = new IntIntMap(1 << 16);
+        for (int[] trigrams : fileTrigrams) {
+            for (int trigram : trigrams) {
+                counts.increment(trigram);
+            }
+        }
+        int[] keys = counts.keys();
+        Arrays.sort(keys);
+        int[] start = new int[keys.length + 1];
+        for (int i = 0; i < keys.length; i++) {
+            start[i + 1] = start[i] + counts.get(keys[i]);
+            counts.put(keys[i], i);
+        }
+        int[] postings = new int[start[keys.length]];
+        int[] cursor = Arrays.copyOf(start, keys.length);
+        for (int fileId = 0; fileId < fileTrigrams.length; fileId++) {
+            for (int trigram : fileTrigrams[fileId]) {
+                postings[cursor[counts.get(trigram)]++] = fileId;
+            }
+            fileTrigrams[fileId] = null;
+        }
+
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, root.toString());
+            out.writeInt(files.size());
+            for (Path file : files) {
+                writeString(out, root.relativize(file).toString());
+            }
+            out.writeInt(keys.length);
+
+            VarIntBuffer encoded = new VarIntBuffer();
+            for (int i = 0; i < keys.length; i++) {
+                out.writeInt(keys[i]);
+                out.writeInt(encoded.size());
+                out.writeInt(start[i + 1] - start[i]);
+                int previous = 0;
+                for (int p = start[i]; p < start[i + 1]; p++) {
+                    encoded.write(postings[p] - previous);
+                    previous = postings[p];
+                }
+            }
+            out.write(encoded.bytes, 0, encoded.size());
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sample.stop(Files.size(indexFile));
+        return open(indexFile);
+    }
+
+    public SearchResult search(String term, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        Metrics.Sample sample = Metrics.start("index.search");
+        byte[] needle = term.getBytes(StandardCharsets.UTF_8);
+        List<Path> candidates = candidates(needle);
+
+        List<SearchResult.FileHits> hits;
+        try {
+            hits = pool.submit(() -> candidates.parallelStream()
+                    .map(file -> confirm(file, needle))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toCollection(ArrayList::new))).get();
+        } catch (InterruptedException e) {
+            sample.fail("");
+            Thread.currentThread().interrupt();
+            throw new IOException("Search interrupted", e);
+        } catch (ExecutionException e) {
+            sample.fail("");
+            throw new IOException("Search failed", e.getCause());
+        }
+        sample.stop(0);
+        hits.sort(Comparator.comparingInt(SearchResult.FileHits::getTotalOccurrences).reversed()
+                .thenComparing(SearchResult.FileHits::getFile));
+        return new SearchResult(term, hits, candidates.size(), files.length, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    List<Path> candidates(byte[] needle) {
+        int[] trigrams = null;
+        int[] baseCandidates;
+        if (needle.length < 3) {
+            baseCandidates = IntStream.range(0, files.length).toArray();
+        } else {
+            trigrams = COLLECTORS.get().collect(needle, 0, needle.length);
+            baseCandidates = baseCandidates(trigrams);
+        }
+
+        List<Path> result = new ArrayList<>(baseCandidates.length + overlay.size());
+        boolean changed = !overlay.isEmpty() || !removed.isEmpty();
+        for (int fileId : baseCandidates) {
+            if (!changed || (!overlay.containsKey(files[fileId]) && !removed.contains(files[fileId]))) {
+                result.add(getFile(fileId));
+            }
+        }
+        for (Map.Entry<String, int[]> entry : overlay.entrySet()) {
+            if (trigrams == null || containsAll(entry.getValue(), trigrams)) {
+                result.add(root.resolve(entry.getKey()));
+            }
+        }
+        return result;
+    }
+
+    private int[] baseCandidates(int[] trigrams) {
+        int[][] lists = new int[trigrams.length][];
+        for (int i = 0; i < trigrams.length; i++) {
+            int entry = findTrigram(trigrams[i]);
+            if (entry < 0) {
+                return new int[0];
+            }
+            lists[i] = decodePostings(entry);
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+        int[] result = lists[0];
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            result = intersect(result, lists[i]);
+        }
+        return result;
+    }
+
+    private static boolean containsAll(int[] sortedTrigrams, int[] required) {
+        for (int trigram : required) {
+            if (Arrays.binarySearch(sortedTrigrams, trigram) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Re-indexes a created or modified file in the in-memory overlay; the mapped base stays untouched
+     * until the next full rebuild.
+     */
+    public void update(Path file) {
+        String relative = root.relativize(file).toString();
+        removed.remove(relative);
+        overlay.put(relative, trigramsOf(file));
+    }
+
+    public void remove(Path path) {
+        String relative = root.relativize(path).toString();
+        String prefix = relative + root.getFileSystem().getSeparator();
+        overlay.keySet().removeIf(key -> key.equals(relative) || key.startsWith(prefix));
+        for (String file : files) {
+            if (file.equals(relative) || file.startsWith(prefix)) {
+                removed.add(file);
+            }
+        }
+    }
+
+    public int getPendingChanges() {
+        return overlay.size() + removed.size();
+    }
+
+    private int findTrigram(int trigram) {
+        int low = 0;
+        int high = trigramCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = data.getInt(tableOffset + middle * TABLE_ENTRY_SIZE);
+            if (value < trigram) {
+                low = middle + 1;
+            } else if (value > trigram) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int[] decodePostings(int entry) {
+        int position = postingsOffset + data.getInt(tableOffset + entry * TABLE_ENTRY_SIZE + 4);
+        int[] fileIds = new int[data.getInt(tableOffset + entry * TABLE_ENTRY_SIZE + 8)];
+        int previous = 0;
+        for (int i = 0; i < fileIds.length; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += value;
+            fileIds[i] = previous;
+        }
+        return fileIds;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    static SearchResult.FileHits confirm(Path file, byte[] needle) {
+        int[][] lineHits = {new int[8], new int[8]};
+        int[] state = new int[2];
+        LineScanner scanner = LineScanner.shared();
+        Metrics.Sample sample = Metrics.start("search");
+        try {
+            long lineCount = scanner.scan(file, (buffer, start, end, lineNumber) -> {
+                int occurrences = LineScanner.countOccurrences(buffer, start, end, needle);
+                if (occurrences > 0) {
+                    if (state[0] == lineHits[0].length) {
+                        lineHits[0] = Arrays.copyOf(lineHits[0], state[0] * 2);
+                        lineHits[1] = Arrays.copyOf(lineHits[1], state[0] * 2);
+                    }
+                    lineHits[0][state[0]] = lineNumber;
+                    lineHits[1][state[0]++] = occurrences;
+                    state[1] += occurrences;
+                }
+            });
+            sample.stop(CodeAnalyzer.languageOf(file), scanner.getBytesRead());
+            if (lineCount == LineScanner.BINARY_FILE || state[0] == 0) {
+                return null;
+            }
+        } catch (IOException e) {
+            sample.fail(CodeAnalyzer.languageOf(file));
+            return null;
+        }
+        return new SearchResult.FileHits(file, Arrays.copyOf(lineHits[0], state[0]), Arrays.copyOf(lineHits[1], state[0]), state[1]);
+    }
+
+    private static int[] trigramsOf(Path file) {
+        TrigramCollector collector = COLLECTORS.get();
+        LineScanner scanner = LineScanner.shared();
+        Metrics.Sample sample = Metrics.start("index");
+        try {
+            long lineCount = scanner.scan(file, collector);
+            sample.stop(CodeAnalyzer.languageOf(file), scanner.getBytesRead());
+            if (lineCount == LineScanner.BINARY_FILE) {
+                collector.reset();
+                return new int[0];
+            }
+        } catch (IOException e) {
+            sample.fail(CodeAnalyzer.languageOf(file));
+            collector.reset();
+            return new int[0];
+        }
+        return collector.drain();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static final class TrigramCollector implements LineScanner.LineVisitor {
+        private final long[] seen = new long[(1 << 24) / 64];
+        private int[] trigrams = new int[1024];
+        private int size;
+
+        @Override
+        public void visit(byte[] buffer, int start, int end, int lineNumber) {
+            add(buffer, start, end);
+        }
+
+        private int[] collect(byte[] bytes, int start, int end) {
+            add(bytes, start, end);
+            return drain();
+        }
+
+        private void add(byte[] bytes, int start, int end) {
+            if (end - start < 3) {
+                return;
+            }
+            int trigram = fold(bytes[start]) << 8 | fold(bytes[start + 1]);
+            for (int i = start + 2; i < end; i++) {
+                trigram = (trigram << 8 | fold(bytes[i])) & 0xFFFFFF;
+                long bit = 1L << trigram;
+                if ((seen[trigram >>> 6] & bit) == 0) {
+                    seen[trigram >>> 6] |= bit;
+                    if (size == trigrams.length) {
+                        trigrams = Arrays.copyOf(trigrams, size * 2);
+                    }
+                    trigrams[size++] = trigram;
+                }
+            }
+        }
+
+        private int[] drain() {
+            int[] result = Arrays.copyOf(trigrams, size);
+            reset();
+            Arrays.sort(result);
+            return result;
+        }
+
+        private void reset() {
+            for (int i = 0; i < size; i++) {
+                seen[trigrams[i] >>> 6] = 0;
+            }
+            size = 0;
+        }
+
+        private static int fold(byte b) {
+            return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xFF;
+        }
+    }
+
+    private static final class VarIntBuffer {
+        private byte[] bytes = new byte[1 << 16];
+        private int size;
+
+        private void write(int value) {
+            if (bytes.length - size < 5) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+
+    private static final class IntIntMap {
+        private int[] keys;
+        private int[] values;
+        private int size;
+
+        private IntIntMap(int capacity) {
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(values, -1);
+        }
+
+        private int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                if (values[i] < 0) {
+                    return -1;
+                }
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+        }
+
+        private void increment(int key) {
+            int current = get(key);
+            put(key, current < 0 ? 1 : current + 1);
+        }
+
+        private int[] keys() {
+            int[] result = new int[size];
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] >= 0) {
+                    result[count++] = keys[i];
+                }
+            }
+            return result;
+        }
+
+        private void put(int key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                int[] oldKeys = keys;
+                int[] oldValues = values;
+                keys = new int[oldKeys.length * 2];
+                values = new int[oldKeys.length * 2];
+                Arrays.fill(values, -1);
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldValues[i] >= 0) {
+                        put(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (values[i] >= 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] < 0) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
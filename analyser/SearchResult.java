@@ -0,0 +1,99 @@
+package analyser;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+public final class SearchResult {
+
+    private final String term;
+    private final List<FileHits> hits;
+    private final int candidateCount;
+    private final int fileCount;
+    private final long elapsedMillis;
+
+    SearchResult(String term, List<FileHits> hits, int candidateCount, int fileCount, long elapsedMillis) {
+        this.term = term;
+        this.hits = Collections.unmodifiableList(hits);
+        this.candidateCount = candidateCount;
+        this.fileCount = fileCount;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public List<FileHits> getHits() {
+        return hits;
+    }
+
+    public int getCandidateCount() {
+        return candidateCount;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public long getTotalOccurrences() {
+        long total = 0;
+        for (FileHits fileHits : hits) {
+            total += fileHits.getTotalOccurrences();
+        }
+        return total;
+    }
+
+    public String toReport(int maxLinesPerFile) {
+        StringBuilder report = new StringBuilder("Search results for '" + term + "':\n");
+        report.append(hits.size()).append(" file(s), ").append(getTotalOccurrences()).append(" occurrence(s) in ")
+                .append(elapsedMillis).append(" ms (").append(candidateCount).append(" of ").append(fileCount)
+                .append(" files scanned)\n\n");
+        for (FileHits fileHits : hits) {
+            report.append(fileHits.getFile()).append(" (").append(fileHits.getTotalOccurrences()).append(" occurrence(s))\n");
+            int shown = Math.min(fileHits.getLineNumbers().length, maxLinesPerFile);
+            for (int i = 0; i < shown; i++) {
+                report.append("    Line ").append(fileHits.getLineNumbers()[i]).append(": ")
+                        .append(fileHits.getOccurrences()[i]).append(" occurrence(s)\n");
+            }
+            if (shown < fileHits.getLineNumbers().length) {
+                report.append("    ... ").append(fileHits.getLineNumbers().length - shown).append(" more line(s)\n");
+            }
+        }
+        return report.toString();
+    }
+
+    public static final class FileHits {
+        private final Path file;
+        private final int[] lineNumbers;
+        private final int[] occurrences;
+        private final int totalOccurrences;
+
+        FileHits(Path file, int[] lineNumbers, int[] occurrences, int totalOccurrences) {
+            this.file = file;
+            this.lineNumbers = lineNumbers;
+            this.occurrences = occurrences;
+            this.totalOccurrences = totalOccurrences;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public int[] getLineNumbers() {
+            return lineNumbers;
+        }
+
+        public int[] getOccurrences() {
+            return occurrences;
+        }
+
+        public int getTotalOccurrences() {
+            return totalOccurrences;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package analyser;
+
+import java.io.IOException;
+
+public class SearchTimeoutException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SearchTimeoutException(long timeoutMillis) {
+        super("Search took longer than " + timeoutMillis + " ms");
+    }
+}
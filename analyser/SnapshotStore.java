@@ -0,0 +1,794 @@
+package analyser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Every saved version of every edited file, in one append-only file. A version is stored as a line diff
+ * against the version before it, or whole as a keyframe once the diffs since the last keyframe add up to
+ * more than the text itself or number {@link #MAX_CHAIN_LENGTH}. Rebuilding a version therefore reads one
+ * keyframe and a bounded run of diffs no bigger than it, while the keyframes, paid for by at least their own
+ * size in edits, keep the store growing with the edits rather than with the files. Diffs and full texts are
+ * deflated chunks named by the SHA-256 of their content and stored once, so reverting to an earlier text
+ * costs no more than its version record.
+ *
+ * <p>Frames start with a sync marker, as in {@link RecordStore}, so a damaged frame is skipped rather than
+ * taking the rest of the file with it. Only the versions that need it are lost: its own, or every version
+ * whose chain runs through a damaged chunk or a lost version.
+ *
+ * <pre>
+ * int magic, int version, then frames of (int sync, int length, int crc32c, body):
+ * chunk:   byte 1, byte[32] sha-256, int raw length, deflated (byte kind, payload)
+ * version: byte 2, string file, int number, long timestamp, string user, byte[32] chunk, int base,
+ *          long chain bytes, int lines, long bytes, int added, int removed
+ * diff payload: (byte 1, int start, int count | byte 2, int count, string[count] lines)*, byte 0
+ * </pre>
+ */
+public final class SnapshotStore implements Closeable {
+
+    public static final int MAX_CHAIN_LENGTH = 64;
+
+    private static final int MAGIC = 0x47435348;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 8;
+    private static final int SYNC = 0x534E500A;
+    private static final int FRAME_BYTES = 12;
+    private static final int MAX_FRAME_BYTES = 256 * 1024 * 1024;
+    private static final byte CHUNK = 1;
+    private static final byte SNAPSHOT = 2;
+    private static final byte FULL = 1;
+    private static final byte DIFF = 2;
+    private static final byte END = 0;
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+    private static final int ID_BYTES = 32;
+    private static final int CACHED_TEXTS = 16;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Map<ByteBuffer, Long> chunks = new HashMap<>();
+    // indexed by version number - 1; a version lost to damage is null
+    private final Map<String, List<Version>> versions = new HashMap<>();
+    private final Map<String, String> latestTexts = new LinkedHashMap<String, String>(CACHED_TEXTS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CACHED_TEXTS;
+        }
+    };
+    private long skippedBytes;
+    private int lostVersions;
+
+    public static final class Version {
+        private final String file;
+        private final int number;
+        private final long timestampMillis;
+        private final String user;
+        private final byte[] chunk;
+        private final int base;
+        private final long chainBytes;
+        private final int lineCount;
+        private final long byteCount;
+        private final int linesAdded;
+        private final int linesRemoved;
+
+        private Version(String file, int number, long timestampMillis, String user, byte[] chunk, int base, long chainBytes,
+                        int lineCount, long byteCount, int linesAdded, int linesRemoved) {
+            this.file = file;
+            this.number = number;
+            this.timestampMillis = timestampMillis;
+            this.user = user;
+            this.chunk = chunk;
+            this.base = base;
+            this.chainBytes = chainBytes;
+            this.lineCount = lineCount;
+            this.byteCount = byteCount;
+            this.linesAdded = linesAdded;
+            this.linesRemoved = linesRemoved;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * One-based, in the order the versions were recorded.
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+        /**
+         * Who saved the version; empty for a text found on disk that was changed outside the application.
+         */
+        public String getUser() {
+            return user;
+        }
+
+        /**
+         * Whether the version is stored whole rather than as a diff.
+         */
+        public boolean isKeyframe() {
+            return base == 0;
+        }
+
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        public int getLinesAdded() {
+            return linesAdded;
+        }
+
+        public int getLinesRemoved() {
+            return linesRemoved;
+        }
+
+        @Override
+        public String toString() {
+            return "Version " + number + " " + (user.isEmpty() ? "found on disk" : "by " + user) + " at " +
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(timestampMillis), ZoneId.systemDefault()) +
+                    ": +" + linesAdded + " -" + linesRemoved + " lines, " + lineCount + " lines in total";
+        }
+    }
+
+    private SnapshotStore(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    public static SnapshotStore open(Path file) throws IOException {
+        Metrics.Sample sample = Metrics.start("snapshots.open");
+        boolean created = !Files.exists(file);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            SnapshotStore store = new SnapshotStore(file, channel);
+            if (created || channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                writeFully(channel, header, 0);
+                channel.force(true);
+            } else {
+                store.scan();
+            }
+            sample.stop(channel.size());
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            sample.fail("");
+            throw e;
+        }
+    }
+
+    /**
+     * Reads every frame, checking its checksum, and keeps the version records and where each chunk is in memory.
+     * A damaged frame with valid frames behind it is skipped. One with nothing valid behind it is a write torn
+     * by a crash and is cut off, so that later appends do not land behind it.
+     */
+    private void scan() throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a snapshot store: " + file);
+        }
+        long position = HEADER_BYTES;
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+        while (position < size) {
+            int length = 0;
+            byte[] body = null;
+            if (size - position >= FRAME_BYTES) {
+                frame.clear();
+                readFully(channel, frame, position);
+                length = frame.getInt(4);
+                if (frame.getInt(0) == SYNC && length > 0 && length <= MAX_FRAME_BYTES && position + FRAME_BYTES + length <= size) {
+                    body = readBody(position, length);
+                }
+            }
+            if (body == null || !index(body, position)) {
+                long next = nextValidFrame(position + 1, size);
+                if (next == size) {
+                    channel.truncate(position);
+                    channel.force(true);
+                    break;
+                }
+                skippedBytes += next - position;
+                position = next;
+                continue;
+            }
+            position += FRAME_BYTES + length;
+        }
+        dropBrokenChains();
+        if (skippedBytes > 0) {
+            System.err.println("Snapshot store " + file + ": skipped " + skippedBytes + " damaged bytes, " +
+                    lostVersions + " versions lost");
+        }
+    }
+
+    /**
+     * Takes in the chunk or version record of a frame whose checksum matched.
+     *
+     * @return false when the frame is not one this store writes
+     */
+    private boolean index(byte[] body, long position) {
+        if (body[0] == CHUNK && body.length > 1 + ID_BYTES + 4) {
+            chunks.put(ByteBuffer.wrap(Arrays.copyOfRange(body, 1, 1 + ID_BYTES)), position);
+            return true;
+        }
+        if (body[0] != SNAPSHOT) {
+            return false;
+        }
+        Version version;
+        try {
+            version = decodeVersion(body);
+        } catch (IOException e) {
+            return false;
+        }
+        List<Version> fileVersions = versions.computeIfAbsent(version.file, k -> new ArrayList<>());
+        if (version.number <= fileVersions.size()) {
+            return false;
+        }
+        // versions between the last one read and this one were in damaged frames
+        while (fileVersions.size() < version.number - 1) {
+            fileVersions.add(null);
+        }
+        fileVersions.add(version);
+        return true;
+    }
+
+    /**
+     * Drops every version that cannot be rebuilt because its chunk or a version earlier in its chain is lost.
+     */
+    private void dropBrokenChains() {
+        for (List<Version> fileVersions : versions.values()) {
+            for (int i = 0; i < fileVersions.size(); i++) {
+                Version version = fileVersions.get(i);
+                if (version != null && (!chunks.containsKey(ByteBuffer.wrap(version.chunk))
+                        || version.base != 0 && (version.base > i || fileVersions.get(version.base - 1) == null))) {
+                    fileVersions.set(i, null);
+                }
+                if (fileVersions.get(i) == null) {
+                    lostVersions++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the first whole frame with a matching checksum at or after {@code from}, or the end of the file if
+     * there is none. Only offsets holding a sync marker are tried.
+     */
+    private long nextValidFrame(long from, long size) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+        for (long position = resync(from, size); position + FRAME_BYTES <= size; position = resync(position + 1, size)) {
+            frame.clear();
+            readFully(channel, frame, position);
+            int length = frame.getInt(4);
+            if (length > 0 && length <= MAX_FRAME_BYTES && position + FRAME_BYTES + length <= size && readBody(position, length) != null) {
+                return position;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Finds the next sync marker at or after {@code from}, or the end of the file if there is none.
+     */
+    private long resync(long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = from;
+        while (position + 4 <= size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - position));
+            readFully(channel, buffer, position);
+            for (int i = 0; i + 4 <= buffer.limit(); i++) {
+                if (buffer.getInt(i) == SYNC) {
+                    return position + i;
+                }
+            }
+            position += buffer.limit() - 3;
+        }
+        return size;
+    }
+
+    /**
+     * Records {@code text} as the next version of {@code file}.
+     *
+     * @return the new version, or null when {@code text} is the latest version already
+     */
+    public synchronized Version record(String file, String text, String user) throws IOException {
+        Metrics.Sample sample = Metrics.start("snapshots.record");
+        try {
+            List<Version> fileVersions = versions.getOrDefault(file, Collections.emptyList());
+            Version latest = latest(fileVersions, fileVersions.size());
+            String latestText = latest == null ? null : text(latest);
+            if (text.equals(latestText)) {
+                sample.stop(0);
+                return null;
+            }
+            List<String> lines = splitLines(text);
+            byte[] full = encodeFull(text);
+            byte[] payload = full;
+            int base = 0;
+            long chainBytes = 0;
+            int[] counts = {lines.size(), latest == null ? 0 : latest.lineCount};
+            if (latest != null) {
+                byte[] diff = encodeDiff(splitLines(latestText), lines, counts);
+                long diffBytes = latest.chainBytes + diff.length;
+                // once the diffs outweigh the text, or the chain is at its limit, the version starts a new chain
+                if (latest.number - keyframeOf(latest).number < MAX_CHAIN_LENGTH && diffBytes < full.length) {
+                    payload = diff;
+                    base = latest.number;
+                    chainBytes = diffBytes;
+                }
+            }
+            byte[] id = sha256(payload);
+            long appended = 0;
+            if (!chunks.containsKey(ByteBuffer.wrap(id))) {
+                appended += append(encodeChunk(id, payload));
+            }
+            Version version = new Version(file, fileVersions.size() + 1, System.currentTimeMillis(), user == null ? "" : user,
+                    id, base, chainBytes, lines.size(), text.getBytes(StandardCharsets.UTF_8).length, counts[0], counts[1]);
+            appended += append(encodeVersion(version));
+            channel.force(false);
+            versions.computeIfAbsent(file, k -> new ArrayList<>()).add(version);
+            latestTexts.put(file, text);
+            sample.stop(appended);
+            return version;
+        } catch (IOException | RuntimeException e) {
+            sample.fail("");
+            throw e;
+        }
+    }
+
+    /**
+     * The versions of {@code file}, oldest first, without those lost to damage.
+     */
+    public synchronized List<Version> versions(String file) {
+        List<Version> fileVersions = new ArrayList<>(versions.getOrDefault(file, Collections.emptyList()));
+        fileVersions.removeIf(version -> version == null);
+        return fileVersions;
+    }
+
+    /**
+     * Version {@code number} of {@code file}.
+     */
+    public synchronized Version version(String file, int number) throws IOException {
+        List<Version> fileVersions = versions.getOrDefault(file, Collections.emptyList());
+        if (number < 1 || number > fileVersions.size()) {
+            throw new IOException("No version " + number + " of " + file);
+        }
+        Version version = fileVersions.get(number - 1);
+        if (version == null) {
+            throw new IOException("Version " + number + " of " + file + " was lost to damage in " + this.file);
+        }
+        return version;
+    }
+
+    /**
+     * The text of version {@code number} of {@code file}, rebuilt from its keyframe.
+     */
+    public synchronized String text(String file, int number) throws IOException {
+        return text(version(file, number));
+    }
+
+    /**
+     * The lines removed and added by version {@code number}, compared with the version before it that is left.
+     */
+    public synchronized String changes(String file, int number) throws IOException {
+        Version previous = latest(versions.get(file), version(file, number).number - 1);
+        List<String> before = previous != null ? splitLines(text(previous)) : Collections.emptyList();
+        List<String> after = splitLines(text(file, number));
+        int[] source = sources(before, after);
+        StringBuilder report = new StringBuilder();
+        int next = 0;
+        boolean inHunk = false;
+        for (int j = 0; j <= after.size(); j++) {
+            int matched = j < after.size() ? source[j] : before.size();
+            if (matched < 0 || matched > next) {
+                if (!inHunk) {
+                    report.append("@@ line ").append(j + 1).append(" @@\n");
+                    inHunk = true;
+                }
+                for (; matched >= 0 && next < matched; next++) {
+                    report.append("- ").append(stripTerminator(before.get(next))).append('\n');
+                }
+                if (j < after.size() && source[j] < 0) {
+                    report.append("+ ").append(stripTerminator(after.get(j))).append('\n');
+                }
+            } else {
+                inHunk = false;
+            }
+            if (matched >= 0) {
+                next = matched + 1;
+            }
+        }
+        return report.length() == 0 ? "No changes\n" : report.toString();
+    }
+
+    /**
+     * Damaged bytes skipped when the store was opened.
+     */
+    public synchronized long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * Versions known to be lost when the store was opened, because their own frame or their chain was damaged.
+     * A damaged last version of a file leaves no later version to show the gap and is not counted.
+     */
+    public synchronized int getLostVersions() {
+        return lostVersions;
+    }
+
+    /**
+     * Bytes used by the store file.
+     */
+    public synchronized long getStoredBytes() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * The last version left among the first {@code count} versions, or null.
+     */
+    private static Version latest(List<Version> fileVersions, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (fileVersions.get(i) != null) {
+                return fileVersions.get(i);
+            }
+        }
+        return null;
+    }
+
+    private Version keyframeOf(Version version) {
+        List<Version> fileVersions = versions.get(version.file);
+        while (version.base != 0) {
+            version = fileVersions.get(version.base - 1);
+        }
+        return version;
+    }
+
+    private String text(Version version) throws IOException {
+        List<Version> fileVersions = versions.get(version.file);
+        if (version.number == fileVersions.size()) {
+            String cached = latestTexts.get(version.file);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        List<Version> chain = new ArrayList<>();
+        for (Version current = version; ; current = fileVersions.get(current.base - 1)) {
+            chain.add(current);
+            if (current.base == 0) {
+                break;
+            }
+        }
+        List<String> lines = null;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            byte[] payload = readChunk(chain.get(i).chunk);
+            if (payload[0] == FULL) {
+                lines = splitLines(new String(payload, 1, payload.length - 1, StandardCharsets.UTF_8));
+            } else if (lines != null) {
+                lines = applyDiff(lines, payload);
+            } else {
+                throw new IOException("Snapshot chain of " + version.file + " does not start with a full text");
+            }
+        }
+        String text = String.join("", lines);
+        if (version.number == fileVersions.size()) {
+            latestTexts.put(version.file, text);
+        }
+        return text;
+    }
+
+    private byte[] readChunk(byte[] id) throws IOException {
+        Long position = chunks.get(ByteBuffer.wrap(id));
+        if (position == null) {
+            throw new IOException("Missing snapshot chunk in " + file);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+        readFully(channel, frame, position);
+        byte[] body = readBody(position, frame.getInt(4));
+        if (body == null) {
+            throw new IOException("Damaged snapshot chunk at " + position + " in " + file);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        buffer.position(1 + ID_BYTES);
+        byte[] payload = new byte[buffer.getInt()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body, buffer.position(), buffer.remaining());
+            int filled = 0;
+            while (filled < payload.length) {
+                int n = inflater.inflate(payload, filled, payload.length - filled);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated snapshot chunk at " + position + " in " + file);
+                }
+                filled += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged snapshot chunk at " + position + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+        return payload;
+    }
+
+    /**
+     * @return the body of the frame at {@code position}, or null when its checksum does not match
+     */
+    private byte[] readBody(long position, int length) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES + length);
+        readFully(channel, frame, position);
+        CRC32C crc = new CRC32C();
+        crc.update(frame.array(), FRAME_BYTES, length);
+        if ((int) crc.getValue() != frame.getInt(8)) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        System.arraycopy(frame.array(), FRAME_BYTES, body, 0, length);
+        return body;
+    }
+
+    private long append(byte[] body) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES + body.length);
+        frame.putInt(SYNC).putInt(body.length).putInt((int) crc.getValue()).put(body);
+        frame.flip();
+        long position = channel.size();
+        writeFully(channel, frame, position);
+        if (body[0] == CHUNK) {
+            byte[] id = new byte[ID_BYTES];
+            System.arraycopy(body, 1, id, 0, ID_BYTES);
+            chunks.put(ByteBuffer.wrap(id), position);
+        }
+        return FRAME_BYTES + body.length;
+    }
+
+    private static byte[] encodeChunk(byte[] id, byte[] payload) {
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + payload.length / 2);
+        bytes.write(CHUNK);
+        bytes.write(id, 0, id.length);
+        bytes.write(payload.length >>> 24);
+        bytes.write(payload.length >>> 16);
+        bytes.write(payload.length >>> 8);
+        bytes.write(payload.length);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                bytes.write(buffer, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeVersion(Version version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(SNAPSHOT);
+        writeString(out, version.file);
+        out.writeInt(version.number);
+        out.writeLong(version.timestampMillis);
+        writeString(out, version.user);
+        out.write(version.chunk);
+        out.writeInt(version.base);
+        out.writeLong(version.chainBytes);
+        out.writeInt(version.lineCount);
+        out.writeLong(version.byteCount);
+        out.writeInt(version.linesAdded);
+        out.writeInt(version.linesRemoved);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Version decodeVersion(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, 1, body.length - 1));
+        String file = readString(in);
+        int number = in.readInt();
+        long timestamp = in.readLong();
+        String user = readString(in);
+        byte[] chunk = new byte[ID_BYTES];
+        in.readFully(chunk);
+        return new Version(file, number, timestamp, user, chunk, in.readInt(), in.readLong(), in.readInt(), in.readLong(), in.readInt(), in.readInt());
+    }
+
+    private static byte[] encodeFull(String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[utf8.length + 1];
+        payload[0] = FULL;
+        System.arraycopy(utf8, 0, payload, 1, utf8.length);
+        return payload;
+    }
+
+    /**
+     * Copies of unchanged runs of {@code before} and the inserted lines in between.
+     *
+     * @param counts receives the lines added and removed
+     */
+    private static byte[] encodeDiff(List<String> before, List<String> after, int[] counts) throws IOException {
+        int[] source = sources(before, after);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DIFF);
+        int copied = 0;
+        int added = 0;
+        int j = 0;
+        while (j < after.size()) {
+            int start = j;
+            if (source[j] >= 0) {
+                while (j + 1 < after.size() && source[j + 1] == source[j] + 1) {
+                    j++;
+                }
+                j++;
+                out.writeByte(COPY);
+                out.writeInt(source[start]);
+                out.writeInt(j - start);
+                copied += j - start;
+            } else {
+                while (j < after.size() && source[j] < 0) {
+                    j++;
+                }
+                out.writeByte(INSERT);
+                out.writeInt(j - start);
+                for (int k = start; k < j; k++) {
+                    writeString(out, after.get(k));
+                }
+                added += j - start;
+            }
+        }
+        out.writeByte(END);
+        out.flush();
+        counts[0] = added;
+        counts[1] = before.size() - copied;
+        return bytes.toByteArray();
+    }
+
+    private static List<String> applyDiff(List<String> before, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1));
+        List<String> lines = new ArrayList<>(before.size());
+        for (byte op = in.readByte(); op != END; op = in.readByte()) {
+            if (op == COPY) {
+                int start = in.readInt();
+                int count = in.readInt();
+                if (start < 0 || start + count > before.size()) {
+                    throw new IOException("Snapshot diff copies past the end of its base");
+                }
+                lines.addAll(before.subList(start, start + count));
+            } else if (op == INSERT) {
+                for (int count = in.readInt(); count > 0; count--) {
+                    lines.add(readString(in));
+                }
+            } else {
+                throw new IOException("Unknown snapshot diff operation " + op);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * For every line of {@code after}, the line of {@code before} it was carried over from, or -1.
+     */
+    private static int[] sources(List<String> before, List<String> after) {
+        int[] map = LineDiff.map(before, after);
+        int[] source = new int[after.size()];
+        Arrays.fill(source, -1);
+        for (int i = 0; i < map.length; i++) {
+            if (map[i] >= 0) {
+                source[map[i]] = i;
+            }
+        }
+        return source;
+    }
+
+    /**
+     * The lines of {@code text} with their terminators, so that joining them gives back the exact text.
+     */
+    private static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+
+    private static String stripTerminator(String line) {
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\n') {
+            end--;
+        }
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("Unexpected end of snapshot store");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package analyser;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * One record of a {@link RecordStore}. User, file, action and timestamp are indexed; {@code values} holds
+ * whatever else the table needs and is only decoded when the record is read.
+ */
+public final class StoredRecord {
+
+    private final byte table;
+    private final long timestampMillis;
+    private final String user;
+    private final String file;
+    private final String action;
+    private final String[] values;
+    private final boolean deleted;
+
+    public StoredRecord(byte table, long timestampMillis, String user, String file, String action, String... values) {
+        this(table, timestampMillis, user, file, action, false, values);
+    }
+
+    private StoredRecord(byte table, long timestampMillis, String user, String file, String action, boolean deleted, String... values) {
+        this.table = table;
+        this.timestampMillis = timestampMillis;
+        this.user = user == null ? "" : user;
+        this.file = file == null ? "" : file;
+        this.action = action == null ? "" : action;
+        this.values = values.clone();
+        this.deleted = deleted;
+    }
+
+    /**
+     * A tombstone that hides earlier records of {@code user} from {@link RecordStore#latest}.
+     */
+    public static StoredRecord deletion(byte table, long timestampMillis, String user) {
+        return new StoredRecord(table, timestampMillis, user, "", "", true);
+    }
+
+    /**
+     * A tombstone that hides earlier records with the first value {@code id} in a table keyed by id.
+     */
+    public static StoredRecord deletion(byte table, long timestampMillis, String user, String file, String id) {
+        return new StoredRecord(table, timestampMillis, user, file, "", true, id);
+    }
+
+    static StoredRecord decoded(byte table, long timestampMillis, String user, String file, String action, boolean deleted, String[] values) {
+        return new StoredRecord(table, timestampMillis, user, file, action, deleted, values);
+    }
+
+    public byte getTable() {
+        return table;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestampMillis), ZoneId.systemDefault());
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public int getValueCount() {
+        return values.length;
+    }
+
+    public String getValue(int index) {
+        return index < values.length ? values[index] : "";
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public String toString() {
+        return "StoredRecord{table=" + table + ", timestamp=" + getTimestamp() + ", user=" + user + ", file=" + file +
+                ", action=" + action + ", values=" + Arrays.toString(values) + (deleted ? ", deleted" : "") + "}";
+    }
+}
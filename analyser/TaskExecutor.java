@@ -0,0 +1,397 @@
+package analyser;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs blocking operations on a bounded worker pool and publishes progress and results through a callback
+ * executor (the Swing event thread in the GUI). Tasks submitted with the same key run one at a time in
+ * submission order, and a task still waiting behind another replaces any queued task of the same operation,
+ * so a burst of saves or selections on one file collapses into the last one. The key therefore has to name
+ * what the task works on, such as a file or a user, and work that must not be dropped is submitted without
+ * coalescing. A replaced task is reported as cancelled. A result that arrives after its task was cancelled is
+ * dropped, and closed if it is {@link Closeable}.
+ */
+public final class TaskExecutor implements Closeable {
+
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    public interface Task<T> {
+        T run(Context context) throws Exception;
+    }
+
+    public interface Callback<T> {
+        default void progress(long done, long total) {
+        }
+
+        void succeeded(T result);
+
+        void failed(Exception e);
+
+        default void cancelled() {
+        }
+    }
+
+    /**
+     * Handed to a running task so it can report progress and notice cancellation. Cancellation is
+     * cooperative: tasks are never interrupted, so a half-written file cannot be left behind.
+     */
+    public static final class Context {
+        private final Handle handle;
+        private final Callback<?> callback;
+        private final AtomicLong done = new AtomicLong();
+        private final AtomicLong lastPublished = new AtomicLong();
+        private volatile long total = -1;
+
+        private Context(Handle handle, Callback<?> callback) {
+            this.handle = handle;
+            this.callback = callback;
+        }
+
+        public boolean isCancelled() {
+            return handle.cancelled;
+        }
+
+        public void checkCancelled() {
+            if (handle.cancelled) {
+                throw new CancellationException(handle.operation);
+            }
+        }
+
+        public void setTotal(long total) {
+            this.total = total;
+        }
+
+        public void advance(long amount) {
+            long current = done.addAndGet(amount);
+            long now = System.nanoTime();
+            long last = lastPublished.get();
+            if (now - last >= PROGRESS_INTERVAL_NANOS && lastPublished.compareAndSet(last, now)) {
+                long currentTotal = total;
+                handle.executor.post(handle, () -> callback.progress(current, currentTotal));
+            }
+        }
+    }
+
+    public static final class Handle {
+        private final TaskExecutor executor;
+        private final String operation;
+        private final Object key;
+        private final boolean coalesce;
+        private final long submittedNanos = System.nanoTime();
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private Runnable body;
+        private Runnable superseded;
+
+        private Handle(TaskExecutor executor, String operation, Object key, boolean coalesce) {
+            this.executor = executor;
+            this.operation = operation;
+            this.key = key;
+            this.coalesce = coalesce;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static final class OperationStats {
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong cancelled = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong totalQueueNanos = new AtomicLong();
+        private final AtomicLong maxQueueNanos = new AtomicLong();
+        private final AtomicLong totalRunNanos = new AtomicLong();
+        private final AtomicLong maxRunNanos = new AtomicLong();
+        private final AtomicLong totalCallbackNanos = new AtomicLong();
+        private final AtomicLong maxCallbackNanos = new AtomicLong();
+    }
+
+    private static final class KeyState {
+        private Handle running;
+        private final List<Handle> pending = new ArrayList<>();
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final Executor callbackExecutor;
+    private final Map<Object, KeyState> keys = new HashMap<>();
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong totalProbeNanos = new AtomicLong();
+    private final AtomicLong maxProbeNanos = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private volatile Thread probe;
+
+    public TaskExecutor(int threads, Executor callbackExecutor) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "task-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pool.allowCoreThreadTimeOut(true);
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Queues {@code task}, replacing a queued task of the same operation on the same key; {@code key} may be
+     * {@code null} for tasks that never conflict with each other.
+     */
+    public <T> Handle submit(String operation, Object key, Task<T> task, Callback<T> callback) {
+        return submit(operation, key, true, task, callback);
+    }
+
+    /**
+     * Queues {@code task}. With {@code coalesce} false it runs even when a later task of the same operation on
+     * the same key is submitted while it waits, as for adding a comment, where each task is distinct work.
+     */
+    public <T> Handle submit(String operation, Object key, boolean coalesce, Task<T> task, Callback<T> callback) {
+        Handle handle = new Handle(this, operation, key, coalesce);
+        OperationStats operationStats = statsFor(operation);
+        operationStats.submitted.incrementAndGet();
+        handle.body = () -> execute(handle, task, callback, operationStats);
+        handle.superseded = () -> post(handle, callback::cancelled);
+        if (key == null) {
+            pool.execute(handle.body);
+            return handle;
+        }
+        boolean dispatch;
+        Handle replaced = null;
+        synchronized (keys) {
+            KeyState state = keys.computeIfAbsent(key, k -> new KeyState());
+            dispatch = state.running == null;
+            if (dispatch) {
+                state.running = handle;
+            } else {
+                replaced = supersede(state, handle);
+                if (replaced == null) {
+                    state.pending.add(handle);
+                }
+            }
+        }
+        if (dispatch) {
+            pool.execute(handle.body);
+        }
+        if (replaced != null) {
+            replaced.superseded.run();
+        }
+        return handle;
+    }
+
+    /**
+     * @return the queued task {@code handle} took the place of, or null
+     */
+    private Handle supersede(KeyState state, Handle handle) {
+        if (!handle.coalesce) {
+            return null;
+        }
+        for (int i = 0; i < state.pending.size(); i++) {
+            Handle queued = state.pending.get(i);
+            if (queued.coalesce && queued.operation.equals(handle.operation)) {
+                state.pending.set(i, handle);
+                queued.cancelled = true;
+                queued.done = true;
+                statsFor(queued.operation).coalesced.incrementAndGet();
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    private <T> void execute(Handle handle, Task<T> task, Callback<T> callback, OperationStats operationStats) {
+        long started = System.nanoTime();
+        record(operationStats.totalQueueNanos, operationStats.maxQueueNanos, started - handle.submittedNanos);
+        active.incrementAndGet();
+        try {
+            if (handle.cancelled) {
+                operationStats.cancelled.incrementAndGet();
+                post(handle, callback::cancelled);
+                return;
+            }
+            T result = task.run(new Context(handle, callback));
+            if (handle.cancelled) {
+                if (result instanceof Closeable) {
+                    ((Closeable) result).close();
+                }
+                operationStats.cancelled.incrementAndGet();
+                post(handle, callback::cancelled);
+            } else {
+                operationStats.succeeded.incrementAndGet();
+                post(handle, () -> callback.succeeded(result));
+            }
+        } catch (CancellationException e) {
+            operationStats.cancelled.incrementAndGet();
+            post(handle, callback::cancelled);
+        } catch (Exception e) {
+            operationStats.failed.incrementAndGet();
+            post(handle, () -> callback.failed(e));
+        } finally {
+            handle.done = true;
+            active.decrementAndGet();
+            record(operationStats.totalRunNanos, operationStats.maxRunNanos, System.nanoTime() - started);
+            if (handle.key != null) {
+                runNext(handle.key);
+            }
+        }
+    }
+
+    private void runNext(Object key) {
+        Handle next;
+        synchronized (keys) {
+            KeyState state = keys.get(key);
+            next = state.pending.isEmpty() ? null : state.pending.remove(0);
+            state.running = next;
+            if (next == null) {
+                keys.remove(key);
+            }
+        }
+        if (next != null) {
+            pool.execute(next.body);
+        }
+    }
+
+    private void post(Handle handle, Runnable callback) {
+        OperationStats operationStats = statsFor(handle.operation);
+        callbackExecutor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                callback.run();
+            } finally {
+                record(operationStats.totalCallbackNanos, operationStats.maxCallbackNanos, System.nanoTime() - start);
+            }
+        });
+    }
+
+    private OperationStats statsFor(String operation) {
+        return stats.computeIfAbsent(operation, k -> new OperationStats());
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long nanos) {
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Periodically posts an empty runnable to the callback executor and records how long it waits, which is
+     * how long the callback thread was busy; waits over {@code stallMillis} are counted as stalls.
+     */
+    public synchronized void startLatencyProbe(long intervalMillis, long stallMillis) {
+        if (probe != null) {
+            return;
+        }
+        probe = new Thread(() -> {
+            long stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+            while (!pool.isShutdown()) {
+                long posted = System.nanoTime();
+                AtomicLong ran = new AtomicLong();
+                callbackExecutor.execute(() -> {
+                    ran.set(System.nanoTime());
+                    synchronized (ran) {
+                        ran.notifyAll();
+                    }
+                });
+                try {
+                    synchronized (ran) {
+                        while (ran.get() == 0 && !pool.isShutdown()) {
+                            ran.wait(intervalMillis);
+                        }
+                    }
+                    if (ran.get() != 0) {
+                        long waited = ran.get() - posted;
+                        probes.incrementAndGet();
+                        record(totalProbeNanos, maxProbeNanos, waited);
+                        if (waited >= stallNanos) {
+                            stalls.incrementAndGet();
+                        }
+                    }
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "callback-latency-probe");
+        probe.setDaemon(true);
+        probe.start();
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getQueuedCount() {
+        return pool.getQueue().size();
+    }
+
+    public String getStats() {
+        StringBuilder report = new StringBuilder();
+        report.append("Workers: ").append(pool.getPoolSize()).append(" of ").append(pool.getMaximumPoolSize())
+                .append(", Active: ").append(active.get()).append(", Queued: ").append(pool.getQueue().size());
+        long probeCount = probes.get();
+        report.append("\nCallback Thread Latency: avg ").append(probeCount == 0 ? 0 : totalProbeNanos.get() / probeCount / 1000)
+                .append(" us, max ").append(maxProbeNanos.get() / 1000).append(" us, stalls ").append(stalls.get())
+                .append(" of ").append(probeCount).append(" probes\n");
+        for (Map.Entry<String, OperationStats> entry : new TreeMap<>(stats).entrySet()) {
+            OperationStats operationStats = entry.getValue();
+            long started = operationStats.succeeded.get() + operationStats.failed.get() + operationStats.cancelled.get();
+            report.append("\n").append(entry.getKey()).append(":")
+                    .append("\n  Submitted: ").append(operationStats.submitted.get())
+                    .append(", Succeeded: ").append(operationStats.succeeded.get())
+                    .append(", Failed: ").append(operationStats.failed.get())
+                    .append(", Cancelled: ").append(operationStats.cancelled.get())
+                    .append(", Coalesced: ").append(operationStats.coalesced.get())
+                    .append("\n  Queue Wait: avg ").append(average(operationStats.totalQueueNanos, started))
+                    .append(" ms, max ").append(operationStats.maxQueueNanos.get() / 1_000_000).append(" ms")
+                    .append("\n  Run Time: avg ").append(average(operationStats.totalRunNanos, started))
+                    .append(" ms, max ").append(operationStats.maxRunNanos.get() / 1_000_000).append(" ms")
+                    .append("\n  Event Thread Time: avg ").append(started == 0 ? 0 : operationStats.totalCallbackNanos.get() / started / 1000)
+                    .append(" us, max ").append(operationStats.maxCallbackNanos.get() / 1000).append(" us");
+        }
+        return report.toString();
+    }
+
+    private static long average(AtomicLong totalNanos, long count) {
+        return count == 0 ? 0 : totalNanos.get() / count / 1_000_000;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Thread current = probe;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+}
@@ -0,0 +1,741 @@
+package benchmarks;
+
+import analyser.AnalysisCache;
+import analyser.AnnotationStore;
+import analyser.CodeAnalyzer;
+import analyser.CredentialStore;
+import analyser.DuplicateFinder;
+import analyser.FileContentCache;
+import analyser.LargeFileDocument;
+import analyser.LineDiff;
+import analyser.LineScanner;
+import analyser.LogAppender;
+import analyser.LogFilter;
+import analyser.LogView;
+import analyser.MultiPatternSearch;
+import analyser.RecordStore;
+import analyser.RepositoryWalker;
+import analyser.SearchIndex;
+import analyser.SnapshotStore;
+import analyser.StoredRecord;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for the analyser's hot paths, run against a synthetic repository (see {@link SyntheticRepository}
+ * for the {@code bench.*} properties that shape it):
+ * <pre>
+ * javac -d out GitHubCodeAnalyser.java analyser/*.java benchmarks/*.java
+ * java -cp out benchmarks.AnalyserBenchmarks [regex] [--output results.csv] [--baseline old.csv] [--tolerance 0.1]
+ * </pre>
+ * Only benchmarks whose name matches the regex run. With a baseline, the exit status is 1 if any benchmark
+ * regressed. Iterations are set with {@code bench.warmup}, {@code bench.iterations} and
+ * {@code bench.iterationMillis}; {@code bench.repo} benchmarks an existing tree instead of generating one.
+ */
+public final class AnalyserBenchmarks {
+
+    private static final byte USERS_TABLE = 1;
+    private static final byte HISTORY_TABLE = 2;
+    private static final byte REPORTS_TABLE = 3;
+    private static final byte COMMENTS_TABLE = 4;
+
+    private final BenchmarkRunner runner;
+    private final Path workDirectory;
+    private final Path repository;
+    private final List<Path> files;
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private AnalyserBenchmarks(BenchmarkRunner runner, Path workDirectory, Path repository, List<Path> files) {
+        this.runner = runner;
+        this.workDirectory = workDirectory;
+        this.repository = repository;
+        this.files = files;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Pattern filter = null;
+        Path output = null;
+        Path baseline = null;
+        double tolerance = 0.10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--output":
+                    output = Paths.get(args[++i]);
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(args[++i]);
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    filter = Pattern.compile(args[i]);
+            }
+        }
+        BenchmarkRunner runner = new BenchmarkRunner(Integer.getInteger("bench.warmup", 3), Integer.getInteger("bench.iterations", 5),
+                Long.getLong("bench.iterationMillis", 1000), filter, System.out);
+
+        Path workDirectory = Files.createTempDirectory("analyser-bench");
+        try {
+            Path repository;
+            if (System.getProperty("bench.repo") != null) {
+                repository = Paths.get(System.getProperty("bench.repo")).toAbsolutePath();
+            } else {
+                repository = workDirectory.resolve("repository");
+                long start = System.nanoTime();
+                SyntheticRepository.Stats stats = SyntheticRepository.fromProperties().generate(repository);
+                System.out.println("Generated " + stats + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            List<Path> files = new RepositoryWalker().list(repository, ForkJoinPool.commonPool());
+            AnalyserBenchmarks benchmarks = new AnalyserBenchmarks(runner, workDirectory, repository, files);
+            benchmarks.walk();
+            benchmarks.largeTree();
+            benchmarks.analysis();
+            benchmarks.search();
+            benchmarks.scanSizes();
+            benchmarks.display();
+            benchmarks.appends();
+            benchmarks.logs();
+            benchmarks.credentials();
+            benchmarks.diff();
+            benchmarks.startup();
+        } finally {
+            deleteTree(workDirectory);
+        }
+
+        if (output != null) {
+            runner.writeCsv(output);
+        }
+        if (baseline != null) {
+            List<String> regressions = runner.compare(baseline, tolerance);
+            for (String regression : regressions) {
+                System.out.println("Regression: " + regression);
+            }
+            System.exit(regressions.isEmpty() ? 0 : 1);
+        }
+    }
+
+    private boolean anySelected(String... names) {
+        for (String name : names) {
+            if (runner.isSelected(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void walk() throws Exception {
+        RepositoryWalker walker = new RepositoryWalker();
+        runner.run("walk.repository", "files", () -> walker.walk(repository, pool, BenchmarkRunner::consume, null));
+        runner.run("walk.filesWalk", "files", () -> {
+            // the baseline the walker replaced
+            try (Stream<Path> paths = Files.walk(repository)) {
+                return paths.filter(Files::isRegularFile).count();
+            }
+        });
+    }
+
+    private void largeTree() throws Exception {
+        if (!anySelected("walk.largeTree.repository", "walk.largeTree.filesWalk")) {
+            return;
+        }
+        // a monorepo-sized tree of tiny files, so the cost is in the walk rather than in reading
+        int fileCount = Integer.getInteger("bench.walkFiles", 1_000_000);
+        Path tree = workDirectory.resolve("large-tree");
+        long start = System.nanoTime();
+        SyntheticRepository.Stats stats = new SyntheticRepository(17, fileCount, 64, 0, 64,
+                SyntheticRepository.parseLanguages(SyntheticRepository.DEFAULT_LANGUAGES), 0, 100).generate(tree);
+        System.out.println("Generated " + stats + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        RepositoryWalker walker = new RepositoryWalker();
+        runner.run("walk.largeTree.repository", "files", () -> walker.walk(tree, pool, BenchmarkRunner::consume, null));
+        runner.run("walk.largeTree.filesWalk", "files", () -> {
+            try (Stream<Path> paths = Files.walk(tree)) {
+                return paths.filter(Files::isRegularFile).count();
+            }
+        });
+        deleteTree(tree);
+    }
+
+    private void analysis() throws Exception {
+        Map<String, Path> representatives = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Path>> entry : byExtension().entrySet()) {
+            List<Path> sorted = entry.getValue();
+            representatives.put(entry.getKey(), sorted.get(sorted.size() / 2));
+        }
+        for (Map.Entry<String, Path> entry : representatives.entrySet()) {
+            Path file = entry.getValue();
+            runner.run("analyze.file." + entry.getKey(), "bytes", () -> {
+                BenchmarkRunner.consume(CodeAnalyzer.analyzeFile(file));
+                return Files.size(file);
+            });
+        }
+        runner.run("analyze.repository", "files", () -> {
+            BenchmarkRunner.consume(CodeAnalyzer.analyzeFiles(repository, files, pool));
+            return files.size();
+        });
+        if (anySelected("analyze.repository.cached")) {
+            AnalysisCache cache = new AnalysisCache();
+            CodeAnalyzer.analyzeFiles(repository, files, pool, cache);
+            runner.run("analyze.repository.cached", "files", () -> {
+                BenchmarkRunner.consume(CodeAnalyzer.analyzeFiles(repository, files, pool, cache));
+                return files.size();
+            });
+        }
+        runner.run("analyze.repository.duplicates", "files", () -> {
+            BenchmarkRunner.consume(DuplicateFinder.find(files, DuplicateFinder.DEFAULT_MIN_LINES, pool, null));
+            return files.size();
+        });
+    }
+
+    private void search() throws Exception {
+        Path largest = largestFile();
+        byte[] needle = "TODO".getBytes(StandardCharsets.UTF_8);
+        runner.run("search.file.scanner", "bytes", () -> {
+            long[] count = {0};
+            LineScanner.shared().scan(largest, (buffer, start, end, lineNumber) -> count[0] += LineScanner.countOccurrences(buffer, start, end, needle));
+            BenchmarkRunner.consume(count);
+            return Files.size(largest);
+        });
+        runner.run("search.file.readAllLines", "bytes", () -> {
+            // the original implementation, for comparison
+            long count = 0;
+            for (String line : Files.readAllLines(largest)) {
+                for (int index = line.indexOf("TODO"); index >= 0; index = line.indexOf("TODO", index + 4)) {
+                    count++;
+                }
+            }
+            BenchmarkRunner.consume(count);
+            return Files.size(largest);
+        });
+        List<MultiPatternSearch.Term> terms = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            terms.add(MultiPatternSearch.Term.literal("value" + (i * 37 + 100) + " "));
+        }
+        MultiPatternSearch literals = MultiPatternSearch.compile(terms);
+        runner.run("search.file.multi24", "bytes", () -> {
+            BenchmarkRunner.consume(literals.searchFile(largest, 0, BenchmarkRunner::consume, null));
+            return Files.size(largest);
+        });
+        runner.run("search.file.perTerm24", "bytes", () -> {
+            // one scan per term, as before the automaton
+            long count = 0;
+            for (MultiPatternSearch.Term term : terms) {
+                byte[] bytes = term.getText().getBytes(StandardCharsets.UTF_8);
+                long[] found = {0};
+                LineScanner.shared().scan(largest, (buffer, start, end, lineNumber) -> found[0] += LineScanner.countOccurrences(buffer, start, end, bytes));
+                count += found[0];
+            }
+            BenchmarkRunner.consume(count);
+            return Files.size(largest);
+        });
+        List<MultiPatternSearch.Term> mixedTerms = new ArrayList<>(terms);
+        mixedTerms.add(MultiPatternSearch.Term.ignoreCase("todo"));
+        mixedTerms.add(MultiPatternSearch.Term.regex("FIXME: check bound \\d{3}"));
+        MultiPatternSearch mixed = MultiPatternSearch.compile(mixedTerms);
+        runner.run("search.file.multiMixed", "bytes", () -> {
+            BenchmarkRunner.consume(mixed.searchFile(largest, 2, BenchmarkRunner::consume, null));
+            return Files.size(largest);
+        });
+        runner.run("search.repository.scan", "files", () -> {
+            AtomicLong count = new AtomicLong();
+            pool.submit(() -> files.parallelStream().forEach(file -> {
+                try {
+                    LineScanner.shared().scan(file, (buffer, start, end, lineNumber) -> count.addAndGet(LineScanner.countOccurrences(buffer, start, end, needle)));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            })).get();
+            BenchmarkRunner.consume(count);
+            return files.size();
+        });
+        if (anySelected("search.repository.index.common", "search.repository.index.rare")) {
+            SearchIndex index = SearchIndex.build(repository, files, workDirectory.resolve("search_index.bin"), pool);
+            runner.run("search.repository.index.common", "files", () -> {
+                BenchmarkRunner.consume(index.search("TODO", pool));
+                return files.size();
+            });
+            runner.run("search.repository.index.rare", "files", () -> {
+                BenchmarkRunner.consume(index.search("value123 = value", pool));
+                return files.size();
+            });
+        }
+    }
+
+    /**
+     * The scanner against the {@code Files.readAllLines} it replaced on single files of {@code bench.scanSizes}
+     * ({@code 1m,100m,1g} by default). readAllLines holds the whole file as strings, so on a small heap the
+     * largest size reports running out of memory instead of a time.
+     */
+    private void scanSizes() throws Exception {
+        for (String size : System.getProperty("bench.scanSizes", "1m,100m,1g").split(",")) {
+            String name = "scan.file." + size.trim();
+            if (!anySelected(name + ".scanner", name + ".readAllLines")) {
+                continue;
+            }
+            Path file = workDirectory.resolve("scan-" + size.trim() + ".java");
+            new SyntheticRepository(19, 1, 0, 0, 0, SyntheticRepository.parseLanguages("java"), 0.01, 1)
+                    .generateFile(file, "java", (int) Math.min(parseSize(size), Integer.MAX_VALUE - 8));
+            long bytes = Files.size(file);
+            byte[] needle = "TODO".getBytes(StandardCharsets.UTF_8);
+            runner.run(name + ".scanner", "bytes", () -> {
+                long[] count = {0};
+                LineScanner.shared().scan(file, (buffer, start, end, lineNumber) -> count[0] += LineScanner.countOccurrences(buffer, start, end, needle));
+                BenchmarkRunner.consume(count);
+                return bytes;
+            });
+            try {
+                runner.run(name + ".readAllLines", "bytes", () -> {
+                    long count = 0;
+                    for (String line : Files.readAllLines(file)) {
+                        for (int index = line.indexOf("TODO"); index >= 0; index = line.indexOf("TODO", index + 4)) {
+                            count++;
+                        }
+                    }
+                    BenchmarkRunner.consume(count);
+                    return bytes;
+                });
+            } catch (OutOfMemoryError e) {
+                System.out.printf(Locale.ROOT, "%-40s out of memory with a %d MB heap%n", name + ".readAllLines",
+                        Runtime.getRuntime().maxMemory() >> 20);
+            }
+            Files.delete(file);
+        }
+    }
+
+    private void display() throws Exception {
+        Path typical = files.stream().sorted(Comparator.comparingLong(AnalyserBenchmarks::sizeOf)).skip(files.size() / 2).findFirst().orElseThrow();
+        runner.run("display.text", "bytes", () -> {
+            BenchmarkRunner.consume(LineScanner.readText(typical));
+            return Files.size(typical);
+        });
+        FileContentCache contents = new FileContentCache(64L << 20, FileContentCache.Storage.HEAP);
+        runner.run("display.text.contentCache", "bytes", () -> {
+            BenchmarkRunner.consume(contents.readText(typical));
+            return Files.size(typical);
+        });
+        if (anySelected("display.contentCache.churn")) {
+            // a cache far smaller than the repository, so nearly every lookup loads and evicts
+            FileContentCache small = new FileContentCache(4L << 20, FileContentCache.Storage.HEAP);
+            runner.run("display.contentCache.churn", "files", () -> {
+                for (Path file : files) {
+                    BenchmarkRunner.consume(small.get(file));
+                }
+                return files.size();
+            });
+        }
+        if (!anySelected("display.largeFile.open", "display.largeFile.scroll", "display.largeFile.save", "display.largeFile.memory")) {
+            return;
+        }
+        Path large = workDirectory.resolve("large.java");
+        new SyntheticRepository(7, 1, 0, 0, 0, SyntheticRepository.parseLanguages("java"), 0.01, 1)
+                .generateFile(large, "java", Integer.getInteger("bench.largeFileBytes", 64 << 20));
+        runner.run("display.largeFile.open", "bytes", () -> {
+            CountDownLatch indexed = new CountDownLatch(1);
+            try (LargeFileDocument document = LargeFileDocument.open(large, (lineCount, complete) -> {
+                if (complete) {
+                    indexed.countDown();
+                }
+            })) {
+                indexed.await();
+                BenchmarkRunner.consume(document.getLine(document.getLineCount() - 1));
+            }
+            return Files.size(large);
+        });
+        CountDownLatch indexed = new CountDownLatch(1);
+        try (LargeFileDocument document = LargeFileDocument.open(large, (lineCount, complete) -> {
+            if (complete) {
+                indexed.countDown();
+            }
+        })) {
+            indexed.await();
+            SplittableRandom random = new SplittableRandom(1);
+            int lineCount = document.getLineCount();
+            runner.run("display.largeFile.scroll", "lines", () -> {
+                // one screenful at a random position
+                int first = random.nextInt(Math.max(1, lineCount - 50));
+                for (int line = first; line < Math.min(lineCount, first + 50); line++) {
+                    BenchmarkRunner.consume(document.getLine(line));
+                }
+                return 50;
+            });
+        }
+        int[] edits = {0};
+        runner.run("display.largeFile.save", "bytes", () -> {
+            // the document maps the file it saves over, so every save starts from a fresh open
+            try (LargeFileDocument document = openIndexed(large)) {
+                int lineCount = document.getLineCount();
+                document.replaceLine(lineCount / 2, "// edit " + edits[0]++);
+                document.insertLine(lineCount / 3, "// inserted");
+                document.deleteLine(lineCount / 4);
+                document.save();
+            }
+            return Files.size(large);
+        });
+        if (runner.isSelected("display.largeFile.memory")) {
+            long before = usedHeap();
+            try (LargeFileDocument document = openIndexed(large)) {
+                long documentBytes = usedHeap() - before;
+                BenchmarkRunner.consume(document.getLine(0));
+                String text = LineScanner.readText(large);
+                long textBytes = usedHeap() - before - documentBytes;
+                BenchmarkRunner.consume(text);
+                System.out.printf(Locale.ROOT, "%-40s %.1f MB file: document holds %.1f MB of heap, readText %.1f MB%n",
+                        "display.largeFile.memory", Files.size(large) / 1e6, documentBytes / 1e6, textBytes / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Appending CSV history lines through the appender, against the FileWriter opened and closed per line
+     * that it replaced.
+     */
+    private void appends() throws Exception {
+        if (!anySelected("log.append.appender", "log.append.fileWriter")) {
+            return;
+        }
+        String line = "user7," + LocalDateTime.now() + ",File Analyzed," + files.get(0);
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        Path target = workDirectory.resolve("history-appender.csv");
+        LogAppender appender = new LogAppender(65536, 200, LogAppender.FsyncPolicy.ON_FLUSH);
+        runner.run("log.append.appender", "records", () -> {
+            for (int i = 0; i < 1000; i++) {
+                appender.append(target, bytes);
+            }
+            appender.flush();
+            return 1000;
+        });
+        appender.close();
+        File baseline = workDirectory.resolve("history-fileWriter.csv").toFile();
+        runner.run("log.append.fileWriter", "records", () -> {
+            for (int i = 0; i < 1000; i++) {
+                try (BufferedWriter writer = new BufferedWriter(new FileWriter(baseline, true))) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+            return 1000;
+        });
+    }
+
+    private void logs() throws Exception {
+        if (!anySelected("log.history.append", "log.history.query", "log.report.query", "log.comments.forFile", "log.store.open",
+                "log.history.append.csv", "log.history.query.csv", "log.report.query.csv")) {
+            return;
+        }
+        int recordCount = Integer.getInteger("bench.records", 100_000);
+        Path storeFile = workDirectory.resolve("analyser.db");
+        LogAppender appender = new LogAppender(65536, 200, LogAppender.FsyncPolicy.ON_FLUSH);
+        RecordStore imported = RecordStore.open(storeFile, appender, new byte[]{USERS_TABLE}, new byte[]{COMMENTS_TABLE});
+        SplittableRandom random = new SplittableRandom(3);
+        List<StoredRecord> records = new ArrayList<>();
+        long now = System.currentTimeMillis() - recordCount * 1000L;
+        for (int i = 0; i < recordCount; i++) {
+            String user = "user" + random.nextInt(100);
+            String file = files.get(random.nextInt(files.size())).toString();
+            records.add(i % 4 == 0
+                    ? new StoredRecord(REPORTS_TABLE, now + i * 1000L, user, file, null, "Report " + i)
+                    : new StoredRecord(HISTORY_TABLE, now + i * 1000L, user, null, i % 3 == 0 ? "Login" : "File Analyzed", file));
+        }
+        imported.importRecords(records);
+        imported.close();
+        // the same records in the CSV files the store replaced, written as the application used to write them
+        Path historyCsv = workDirectory.resolve("history.csv");
+        Path reportsCsv = workDirectory.resolve("reports.csv");
+        try (BufferedWriter history = Files.newBufferedWriter(historyCsv, StandardCharsets.UTF_8);
+             BufferedWriter reports = Files.newBufferedWriter(reportsCsv, StandardCharsets.UTF_8)) {
+            for (StoredRecord record : records) {
+                if (record.getTable() == HISTORY_TABLE) {
+                    history.write(record.getUser() + "," + record.getTimestamp() + "," + record.getAction() + "," + record.getValue(0));
+                    history.newLine();
+                } else {
+                    reports.write(record.getUser() + "," + record.getFile() + "," + record.getValue(0).replace("\n", "\\n"));
+                    reports.newLine();
+                }
+            }
+        }
+        // before the append benchmark grows the store
+        runner.run("log.store.open", "records", () -> {
+            RecordStore reopened = RecordStore.open(storeFile, appender, new byte[]{USERS_TABLE}, new byte[]{COMMENTS_TABLE});
+            reopened.close();
+            return recordCount;
+        });
+        RecordStore store = RecordStore.open(storeFile, appender, new byte[]{USERS_TABLE}, new byte[]{COMMENTS_TABLE});
+
+        int[] sequence = {0};
+        runner.run("log.history.append", "records", () -> {
+            for (int i = 0; i < 1000; i++) {
+                store.append(new StoredRecord(HISTORY_TABLE, System.currentTimeMillis(), "user" + (sequence[0]++ % 100), null, "Search", "term"));
+            }
+            appender.flush();
+            return 1000;
+        });
+        File historyFile = historyCsv.toFile();
+        int[] csvSequence = {0};
+        runner.run("log.history.append.csv", "records", () -> {
+            for (int i = 0; i < 1000; i++) {
+                try (BufferedWriter writer = new BufferedWriter(new FileWriter(historyFile, true))) {
+                    writer.write("user" + (csvSequence[0]++ % 100) + "," + LocalDateTime.now() + ",Search,term");
+                    writer.newLine();
+                }
+            }
+            return 1000;
+        });
+        runner.run("log.history.query", "records", () -> {
+            LogView view = store.query(HISTORY_TABLE, new LogFilter("user7", null, null, null, "Login"));
+            for (int row = 0; row < view.size(); row++) {
+                BenchmarkRunner.consume(view.get(row));
+            }
+            return view.size();
+        });
+        runner.run("log.history.query.csv", "records", () -> {
+            // every line read and split, as the viewer did before the store
+            List<String[]> rows = new ArrayList<>();
+            for (String line : Files.readAllLines(historyCsv)) {
+                String[] fields = line.split(",", 4);
+                if (fields.length == 4 && fields[0].equals("user7") && fields[2].equals("Login")) {
+                    rows.add(fields);
+                }
+            }
+            BenchmarkRunner.consume(rows);
+            return rows.size();
+        });
+        String reportedFile = files.get(files.size() / 2).toString();
+        runner.run("log.report.query", "records", () -> {
+            LogView view = store.query(REPORTS_TABLE, new LogFilter(null, reportedFile, null, null, null));
+            for (int row = 0; row < view.size(); row++) {
+                BenchmarkRunner.consume(view.get(row));
+            }
+            return view.size();
+        });
+        runner.run("log.report.query.csv", "records", () -> {
+            List<String[]> rows = new ArrayList<>();
+            for (String line : Files.readAllLines(reportsCsv)) {
+                String[] fields = line.split(",", 3);
+                if (fields.length == 3 && fields[1].equals(reportedFile)) {
+                    fields[2] = fields[2].replace("\\n", "\n");
+                    rows.add(fields);
+                }
+            }
+            BenchmarkRunner.consume(rows);
+            return rows.size();
+        });
+        if (anySelected("log.comments.forFile")) {
+            AnnotationStore annotations = new AnnotationStore(store, COMMENTS_TABLE);
+            Path annotated = largestFile();
+            List<String> lines = LineDiff.lines(LineScanner.readText(annotated));
+            for (int i = 0; i < 20; i++) {
+                int line = i * lines.size() / 20;
+                annotations.add(annotated.toString(), line, lines.get(line), "user1", "Comment " + i);
+            }
+            appender.flush();
+            runner.run("log.comments.forFile", "annotations", () -> {
+                BenchmarkRunner.consume(annotations.forFile(annotated.toString(), lines::get, lines.size()));
+                return 20;
+            });
+        }
+        appender.close();
+        store.close();
+    }
+
+    private void credentials() throws Exception {
+        manyUsers();
+        if (!anySelected("auth.register", "auth.verify.derived", "auth.verify.session")) {
+            return;
+        }
+        LogAppender appender = new LogAppender(65536, 200, LogAppender.FsyncPolicy.ON_FLUSH);
+        RecordStore store = RecordStore.open(workDirectory.resolve("users.db"), appender, USERS_TABLE);
+        CredentialStore credentials = CredentialStore.open(store, USERS_TABLE, Integer.getInteger("bench.authIterations", 210_000));
+        char[] password = "correct horse battery staple".toCharArray();
+        int[] sequence = {0};
+        runner.run("auth.register", "users", () -> credentials.register("user" + sequence[0]++, password) ? 1 : 0);
+        credentials.register("benchmark", password);
+        runner.run("auth.verify.derived", "logins", () -> {
+            credentials.invalidate("benchmark");
+            return credentials.verify("benchmark", password) ? 1 : 0;
+        });
+        runner.run("auth.verify.session", "logins", () -> credentials.verify("benchmark", password) ? 1 : 0);
+        appender.close();
+        store.close();
+    }
+
+    /**
+     * Loading and logging in against {@code bench.users} users (100k by default). Their records are imported
+     * with random salts and hashes, since only the benchmark user has to log in and registering them all would
+     * take one key derivation each.
+     */
+    private void manyUsers() throws Exception {
+        if (!anySelected("auth.open.manyUsers", "auth.verify.derived.manyUsers", "auth.verify.session.manyUsers")) {
+            return;
+        }
+        int userCount = Integer.getInteger("bench.users", 100_000);
+        int iterations = Integer.getInteger("bench.authIterations", 210_000);
+        LogAppender appender = new LogAppender(65536, 200, LogAppender.FsyncPolicy.ON_FLUSH);
+        RecordStore store = RecordStore.open(workDirectory.resolve("many-users.db"), appender, USERS_TABLE);
+        SplittableRandom random = new SplittableRandom(23);
+        Base64.Encoder encoder = Base64.getEncoder();
+        List<StoredRecord> users = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            byte[] salt = new byte[16];
+            byte[] hash = new byte[32];
+            random.nextBytes(salt);
+            random.nextBytes(hash);
+            users.add(new StoredRecord(USERS_TABLE, i, "user" + i, null, null,
+                    "PBKDF2WithHmacSHA256", String.valueOf(iterations), encoder.encodeToString(salt), encoder.encodeToString(hash)));
+        }
+        store.importRecords(users);
+        runner.run("auth.open.manyUsers", "users", () -> {
+            BenchmarkRunner.consume(CredentialStore.open(store, USERS_TABLE, iterations));
+            return userCount;
+        });
+        CredentialStore credentials = CredentialStore.open(store, USERS_TABLE, iterations);
+        char[] password = "correct horse battery staple".toCharArray();
+        credentials.register("benchmark", password);
+        runner.run("auth.verify.derived.manyUsers", "logins", () -> {
+            credentials.invalidate("benchmark");
+            return credentials.verify("benchmark", password) ? 1 : 0;
+        });
+        runner.run("auth.verify.session.manyUsers", "logins", () -> credentials.verify("benchmark", password) ? 1 : 0);
+        appender.close();
+        store.close();
+    }
+
+    private void diff() throws Exception {
+        if (!anySelected("diff.lines", "snapshots.record", "snapshots.rebuild")) {
+            return;
+        }
+        Path source = workDirectory.resolve("diff.java");
+        new SyntheticRepository(11, 1, 0, 0, 0, SyntheticRepository.parseLanguages("java"), 0.01, 1)
+                .generateFile(source, "java", Integer.getInteger("bench.diffBytes", 1 << 20));
+        String before = LineScanner.readText(source);
+        List<String> beforeLines = LineDiff.lines(before);
+        StringBuilder after = new StringBuilder();
+        SplittableRandom random = new SplittableRandom(5);
+        for (String line : beforeLines) {
+            double edit = random.nextDouble();
+            if (edit < 0.005) {
+                continue;
+            } else if (edit < 0.01) {
+                after.append("// inserted\n");
+            }
+            after.append(line).append('\n');
+        }
+        List<String> afterLines = LineDiff.lines(after);
+        runner.run("diff.lines", "lines", () -> {
+            BenchmarkRunner.consume(LineDiff.map(beforeLines, afterLines));
+            return beforeLines.size();
+        });
+        Path snapshotFile = workDirectory.resolve("snapshots.bin");
+        int latest;
+        try (SnapshotStore snapshots = SnapshotStore.open(snapshotFile)) {
+            String afterText = after.toString();
+            boolean[] edited = {false};
+            // alternating two texts makes every save a new version with the same edit
+            runner.run("snapshots.record", "saves", () -> {
+                edited[0] = !edited[0];
+                BenchmarkRunner.consume(snapshots.record("diff.java", edited[0] ? afterText : before, "user1"));
+                return 1;
+            });
+            latest = snapshots.versions("diff.java").size();
+        }
+        if (latest > 0) {
+            runner.run("snapshots.rebuild", "versions", () -> {
+                try (SnapshotStore snapshots = SnapshotStore.open(snapshotFile)) {
+                    BenchmarkRunner.consume(snapshots.text("diff.java", latest));
+                }
+                return 1;
+            });
+        }
+    }
+
+    private void startup() throws Exception {
+        if (!anySelected("startup.batch")) {
+            return;
+        }
+        Path small = workDirectory.resolve("startup-repository");
+        new SyntheticRepository(13, 20, 2000, 0.5, 1 << 16, SyntheticRepository.parseLanguages(SyntheticRepository.DEFAULT_LANGUAGES), 0.01, 10)
+                .generate(small);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "analyser.BatchRunner", small.toString())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT);
+        runner.run("startup.batch", "runs", () -> {
+            int status = process.start().waitFor();
+            if (status != 0) {
+                throw new IllegalStateException("Batch run exited with " + status);
+            }
+            return 1;
+        });
+    }
+
+    private static LargeFileDocument openIndexed(Path file) throws Exception {
+        CountDownLatch indexed = new CountDownLatch(1);
+        LargeFileDocument document = LargeFileDocument.open(file, (lineCount, complete) -> {
+            if (complete) {
+                indexed.countDown();
+            }
+        });
+        indexed.await();
+        return document;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Parses a size such as {@code 512k}, {@code 100m} or {@code 1g}.
+     */
+    private static long parseSize(String value) {
+        String size = value.trim().toLowerCase(Locale.ROOT);
+        int shift = size.endsWith("k") ? 10 : size.endsWith("m") ? 20 : size.endsWith("g") ? 30 : 0;
+        return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+    }
+
+    private Map<String, List<Path>> byExtension() {
+        Map<String, List<Path>> groups = new LinkedHashMap<>();
+        files.stream().filter(file -> !file.getFileName().toString().startsWith("."))
+                .sorted(Comparator.comparingLong(AnalyserBenchmarks::sizeOf))
+                .forEach(file -> groups.computeIfAbsent(CodeAnalyzer.fileTypeOf(file), k -> new ArrayList<>()).add(file));
+        groups.remove("");
+        return groups;
+    }
+
+    private Path largestFile() {
+        return files.stream().max(Comparator.comparingLong(AnalyserBenchmarks::sizeOf)).orElseThrow();
+    }
+
+    private static long sizeOf(Path file) {
+        return file.toFile().length();
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A small harness in the manner of JMH's average-time mode: every benchmark runs a number of warmup
+ * iterations, whose results are discarded, then measured iterations of a fixed duration. It reports the
+ * mean time per operation with a 99.9% confidence interval and the throughput in the benchmark's own
+ * units (files, bytes, records). Results can be saved as CSV and compared against an earlier run to flag
+ * regressions.
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * One invocation of the code under test.
+     *
+     * @return the units of work done, e.g. files walked or bytes scanned, for the throughput column
+     */
+    public interface Operation {
+        long run() throws Exception;
+    }
+
+    public static final class Result {
+        private final String name;
+        private final String unit;
+        private final double nanosPerOperation;
+        private final double error;
+        private final double unitsPerSecond;
+
+        private Result(String name, String unit, double nanosPerOperation, double error, double unitsPerSecond) {
+            this.name = name;
+            this.unit = unit;
+            this.nanosPerOperation = nanosPerOperation;
+            this.error = error;
+            this.unitsPerSecond = unitsPerSecond;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getNanosPerOperation() {
+            return nanosPerOperation;
+        }
+
+        public double getError() {
+            return error;
+        }
+
+        public double getUnitsPerSecond() {
+            return unitsPerSecond;
+        }
+    }
+
+    // two-sided 99.9% quantiles of Student's t for 1..10 degrees of freedom, as JMH reports
+    private static final double[] T_999 = {636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587};
+
+    private static volatile Object sink;
+
+    private final int warmupIterations;
+    private final int measuredIterations;
+    private final long iterationNanos;
+    private final Pattern filter;
+    private final PrintStream log;
+    private final List<Result> results = new ArrayList<>();
+
+    public BenchmarkRunner(int warmupIterations, int measuredIterations, long iterationMillis, Pattern filter, PrintStream log) {
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = Math.max(1, measuredIterations);
+        this.iterationNanos = iterationMillis * 1_000_000;
+        this.filter = filter;
+        this.log = log;
+    }
+
+    /**
+     * Keeps a result alive so the JIT cannot drop the computation that produced it.
+     */
+    public static void consume(Object value) {
+        sink = value;
+    }
+
+    public boolean isSelected(String name) {
+        return filter == null || filter.matcher(name).find();
+    }
+
+    public void run(String name, String unit, Operation operation) throws Exception {
+        if (!isSelected(name)) {
+            return;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            double[] iteration = iterate(operation);
+            log.printf(Locale.ROOT, "%-40s warmup %d: %s%n", name, i + 1, formatNanos(iteration[0]));
+        }
+        double[] nanos = new double[measuredIterations];
+        double units = 0;
+        double seconds = 0;
+        for (int i = 0; i < measuredIterations; i++) {
+            double[] iteration = iterate(operation);
+            nanos[i] = iteration[0];
+            units += iteration[1];
+            seconds += iteration[2];
+        }
+        double mean = 0;
+        for (double value : nanos) {
+            mean += value / nanos.length;
+        }
+        double variance = 0;
+        for (double value : nanos) {
+            variance += (value - mean) * (value - mean) / Math.max(1, nanos.length - 1);
+        }
+        double t = nanos.length < 2 ? 0 : nanos.length - 1 <= T_999.length ? T_999[nanos.length - 2] : 3.291;
+        double error = t * Math.sqrt(variance / nanos.length);
+        Result result = new Result(name, unit, mean, error, units / seconds);
+        results.add(result);
+        log.printf(Locale.ROOT, "%-40s %14s +- %-12s %14.1f %s/s%n", name, formatNanos(mean), formatNanos(error), result.unitsPerSecond, unit);
+    }
+
+    /**
+     * Runs the operation until one iteration's time is used up.
+     *
+     * @return nanoseconds per operation, units done and seconds elapsed
+     */
+    private double[] iterate(Operation operation) throws Exception {
+        long operations = 0;
+        long units = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            units += operation.run();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return new double[]{(double) elapsed / operations, units, elapsed / 1e9};
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    public void writeCsv(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("benchmark,nanosPerOp,error,unit,unitsPerSecond\n");
+            for (Result result : results) {
+                writer.write(String.format(Locale.ROOT, "%s,%.1f,%.1f,%s,%.3f%n", result.name, result.nanosPerOperation,
+                        result.error, result.unit, result.unitsPerSecond));
+            }
+        }
+    }
+
+    /**
+     * Compares this run against a CSV written by {@link #writeCsv}. A benchmark regressed when it is slower by
+     * more than {@code tolerance} and the difference exceeds both runs' error margins.
+     *
+     * @return a description of every regression; empty if there is none
+     */
+    public List<String> compare(Path baselineFile, double tolerance) throws IOException {
+        Map<String, double[]> baseline = new HashMap<>();
+        List<String> lines = Files.readAllLines(baselineFile, StandardCharsets.UTF_8);
+        for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+            String[] fields = line.split(",");
+            if (fields.length >= 3) {
+                baseline.put(fields[0], new double[]{Double.parseDouble(fields[1]), Double.parseDouble(fields[2])});
+            }
+        }
+        List<String> regressions = new ArrayList<>();
+        for (Result result : results) {
+            double[] previous = baseline.get(result.name);
+            if (previous == null) {
+                continue;
+            }
+            double slowdown = result.nanosPerOperation / previous[0] - 1;
+            if (slowdown > tolerance && result.nanosPerOperation - result.error > previous[0] + previous[1]) {
+                regressions.add(String.format(Locale.ROOT, "%s: %s -> %s (+%.0f%%)", result.name,
+                        formatNanos(previous[0]), formatNanos(result.nanosPerOperation), slowdown * 100));
+            }
+        }
+        return regressions;
+    }
+
+    static String formatNanos(double nanos) {
+        if (nanos >= 1e9) {
+            return String.format(Locale.ROOT, "%.3f s", nanos / 1e9);
+        } else if (nanos >= 1e6) {
+            return String.format(Locale.ROOT, "%.3f ms", nanos / 1e6);
+        } else if (nanos >= 1e3) {
+            return String.format(Locale.ROOT, "%.3f us", nanos / 1e3);
+        }
+        return String.format(Locale.ROOT, "%.1f ns", nanos);
+    }
+}
@@ -0,0 +1,359 @@
+package benchmarks;
+
+import analyser.AnalysisCache;
+import analyser.AnalysisServer;
+import analyser.CredentialStore;
+import analyser.LogAppender;
+import analyser.RecordStore;
+import analyser.RepositoryWalker;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Drives an {@link AnalysisServer} with many concurrent sessions and reports latency percentiles per endpoint:
+ * <pre>
+ * javac -d out GitHubCodeAnalyser.java analyser/*.java benchmarks/*.java
+ * java -cp out benchmarks.ServerLoadTest [--url http://127.0.0.1:8377] [--repository dir] [--sessions 1000]
+ *                                        [--users 10] [--warmup 5] [--seconds 30]
+ * </pre>
+ * Without {@code --url} a server is started in this process on temporary stores. Without {@code --repository}
+ * a synthetic one is generated from the {@code bench.*} properties; it must be readable by the server and inside
+ * its {@code analyser.server.root}, which is why only a local instance can be tested; the local one takes the
+ * repository itself as its root. Each session logs in, uploads the repository and then, on its own thread,
+ * sends one request after another with no think time: a page of files (30%), a file analysis (30%), a search
+ * (15%), its history (10%), its reports (10%) or a repository analysis (5%). Only responses received after
+ * the warmup are counted.
+ */
+public final class ServerLoadTest {
+
+    private static final byte USERS_TABLE = 1;
+    private static final byte HISTORY_TABLE = 2;
+    private static final byte REPORTS_TABLE = 3;
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final String[] OPERATIONS = {"files", "analysis.file", "search", "history", "reports", "analysis.repository"};
+    private static final int[] WEIGHTS = {30, 30, 15, 10, 10, 5};
+    private static final String[] TERMS = {"TODO", "FIXME", "i:return", "re:if\\s*\\("};
+    private static final Pattern TOKEN = Pattern.compile("\"token\":\"([^\"]+)\"");
+    private static final Pattern STRING = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final URI base;
+    private final AtomicLong errors = new AtomicLong();
+
+    private ServerLoadTest(URI base) {
+        this.base = base;
+    }
+
+    /**
+     * Latencies of one operation on one thread, merged after the run.
+     */
+    private static final class Latencies {
+        private long[] nanos = new long[1024];
+        private int size;
+
+        private void add(long value) {
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, size * 2);
+            }
+            nanos[size++] = value;
+        }
+
+        private void addAll(Latencies other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.nanos[i]);
+            }
+        }
+
+        private long percentile(double fraction) {
+            return size == 0 ? 0 : nanos[Math.min(size - 1, (int) Math.ceil(fraction * size) - 1)];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        Path repository = null;
+        int sessions = 1000;
+        int users = 10;
+        int warmupSeconds = 5;
+        int seconds = 30;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url":
+                    url = args[++i];
+                    break;
+                case "--repository":
+                    repository = Paths.get(args[++i]).toAbsolutePath();
+                    break;
+                case "--sessions":
+                    sessions = Integer.parseInt(args[++i]);
+                    break;
+                case "--users":
+                    users = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmupSeconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        Path workDirectory = Files.createTempDirectory("analyser-load");
+        LogAppender appender = null;
+        RecordStore store = null;
+        AnalysisServer server = null;
+        try {
+            if (repository == null) {
+                repository = workDirectory.resolve("repository");
+                long start = System.nanoTime();
+                SyntheticRepository.Stats stats = SyntheticRepository.fromProperties().generate(repository);
+                System.out.println("Generated " + stats + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            if (url == null) {
+                appender = new LogAppender(65536, 200, LogAppender.FsyncPolicy.ON_FLUSH);
+                store = RecordStore.open(workDirectory.resolve("analyser.db"), appender, USERS_TABLE);
+                CredentialStore credentials = CredentialStore.open(store, USERS_TABLE, Integer.getInteger("bench.authIterations", 210_000));
+                server = new AnalysisServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), repository, store, credentials,
+                        new AnalysisCache(), null, new RepositoryWalker(), HISTORY_TABLE, REPORTS_TABLE);
+                server.start();
+                url = "http://127.0.0.1:" + server.getPort();
+            }
+            new ServerLoadTest(URI.create(url.endsWith("/") ? url : url + "/")).run(repository, sessions, users, warmupSeconds, seconds);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            if (appender != null) {
+                appender.close();
+            }
+            if (store != null) {
+                store.close();
+            }
+            deleteTree(workDirectory);
+        }
+    }
+
+    private void run(Path repository, int sessions, int users, int warmupSeconds, int seconds) throws Exception {
+        long setupStart = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            // a 409 means the user exists from an earlier run against the same server
+            send("POST", "api/register", credentials(i), null);
+        }
+        // one login per user first, so the remaining sessions find the password already verified
+        String[] tokens = new String[sessions];
+        for (int i = 0; i < Math.min(users, sessions); i++) {
+            tokens[i] = login(i);
+        }
+        List<String> files = new ArrayList<>();
+        String body = "{\"path\":" + json(repository.toString()) + "}";
+        check(send("POST", "api/repositories", body, tokens[0]), "upload");
+        HttpResponse<String> page = check(send("GET", "api/files?limit=1000", null, tokens[0]), "files");
+        Matcher matcher = STRING.matcher(page.body().substring(page.body().indexOf("\"files\":[")));
+        matcher.find();
+        while (matcher.find()) {
+            files.add(matcher.group(1));
+        }
+        System.out.println("Registered " + users + " users and uploaded " + repository + " in " +
+                (System.nanoTime() - setupStart) / 1_000_000 + " ms");
+
+        CountDownLatch ready = new CountDownLatch(sessions);
+        CountDownLatch go = new CountDownLatch(1);
+        Latencies[][] latencies = new Latencies[sessions][OPERATIONS.length];
+        List<Thread> threads = new ArrayList<>();
+        AtomicLong setupErrors = new AtomicLong();
+        long[] window = new long[2];
+        for (int s = 0; s < sessions; s++) {
+            int session = s;
+            for (int o = 0; o < OPERATIONS.length; o++) {
+                latencies[s][o] = new Latencies();
+            }
+            Thread thread = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(session);
+                String token = tokens[session];
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        if (token == null) {
+                            token = login(session % users);
+                        }
+                        check(send("POST", "api/repositories", body, token), "upload");
+                        break;
+                    } catch (IOException | InterruptedException e) {
+                        // the server may close a pooled connection as it is reused, which only a retry can tell
+                        if (attempt < 3 && e instanceof IOException) {
+                            continue;
+                        }
+                        if (setupErrors.incrementAndGet() == 1) {
+                            System.out.println("Session failed to start: " + e);
+                        }
+                        ready.countDown();
+                        return;
+                    }
+                }
+                ready.countDown();
+                try {
+                    go.await();
+                    while (System.nanoTime() - window[1] < 0) {
+                        int operation = pick(random);
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<String> response = send("GET", path(operation, random, files), null, token);
+                            if (response.statusCode() != 200) {
+                                error(response.statusCode() + " " + response.body());
+                            } else if (start - window[0] >= 0) {
+                                latencies[session][operation].add(System.nanoTime() - start);
+                            }
+                        } catch (IOException e) {
+                            error(e.toString());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "session-" + s);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        ready.await();
+        System.out.println("Logged in " + (sessions - setupErrors.get()) + " sessions in " +
+                (System.nanoTime() - setupStart) / 1_000_000 + " ms");
+        long start = System.nanoTime();
+        window[0] = start + warmupSeconds * 1_000_000_000L;
+        window[1] = window[0] + seconds * 1_000_000_000L;
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Latencies all = new Latencies();
+        System.out.println(String.format(Locale.ROOT, "%-20s %9s %12s %12s %12s %12s", "operation", "count", "p50", "p90", "p99", "max"));
+        for (int o = 0; o < OPERATIONS.length; o++) {
+            Latencies merged = new Latencies();
+            for (Latencies[] session : latencies) {
+                merged.addAll(session[o]);
+            }
+            all.addAll(merged);
+            print(OPERATIONS[o], merged);
+        }
+        print("all", all);
+        System.out.println(String.format(Locale.ROOT, "%d sessions, %d requests in %d s (%.0f/s), %d errors, %d sessions failed to start",
+                sessions, all.size, seconds, all.size / (double) seconds, errors.get(), setupErrors.get()));
+    }
+
+    private void error(String message) {
+        if (errors.incrementAndGet() == 1) {
+            System.out.println("First error: " + message);
+        }
+    }
+
+    private static void print(String name, Latencies latencies) {
+        Arrays.sort(latencies.nanos, 0, latencies.size);
+        System.out.println(String.format(Locale.ROOT, "%-20s %9d %12s %12s %12s %12s", name, latencies.size,
+                BenchmarkRunner.formatNanos(latencies.percentile(0.50)), BenchmarkRunner.formatNanos(latencies.percentile(0.90)),
+                BenchmarkRunner.formatNanos(latencies.percentile(0.99)), BenchmarkRunner.formatNanos(latencies.percentile(1.0))));
+    }
+
+    private static int pick(SplittableRandom random) {
+        int roll = random.nextInt(100);
+        for (int i = 0; i < WEIGHTS.length; i++) {
+            roll -= WEIGHTS[i];
+            if (roll < 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static String path(int operation, SplittableRandom random, List<String> files) {
+        switch (OPERATIONS[operation]) {
+            case "files":
+                return "api/files?offset=" + random.nextInt(Math.max(1, files.size())) + "&limit=100";
+            case "analysis.file":
+                return "api/analysis?file=" + encode(files.get(random.nextInt(files.size())));
+            case "search":
+                return "api/search?term=" + encode(TERMS[random.nextInt(TERMS.length)]) + "&limit=100";
+            case "history":
+                return "api/history?limit=50";
+            case "reports":
+                return "api/reports?limit=10";
+            default:
+                return "api/analysis";
+        }
+    }
+
+    private String login(int user) throws IOException, InterruptedException {
+        Matcher matcher = TOKEN.matcher(check(send("POST", "api/login", credentials(user), null), "login").body());
+        if (!matcher.find()) {
+            throw new IOException("No token in login response");
+        }
+        return matcher.group(1);
+    }
+
+    private static String credentials(int user) {
+        return "{\"user\":" + json("load-user-" + user) + ",\"password\":" + json(PASSWORD) + "}";
+    }
+
+    private HttpResponse<String> send(String method, String path, String body, String token) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(base.resolve(path)).timeout(Duration.ofSeconds(60));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        if (body == null) {
+            request.GET();
+        } else {
+            request.header("Content-Type", "application/json").method(method, HttpRequest.BodyPublishers.ofString(body));
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> check(HttpResponse<String> response, String operation) throws IOException {
+        if (response.statusCode() != 200) {
+            throw new IOException(operation + " failed with " + response.statusCode() + ": " + response.body());
+        }
+        return response;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String json(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Writes a repository of generated source files. The same settings always give byte-for-byte the same tree,
+ * because every file draws from its own random stream derived from the seed and the file's index. File sizes
+ * follow a log-normal distribution around {@code medianBytes}; lines are code, branches, comments and blanks
+ * in the style of the file's language, with TODO and FIXME comments at the requested density. A
+ * {@code .gitignore}, a few ignored files and an excluded {@code node_modules} directory exercise the walker's
+ * rules.
+ */
+public final class SyntheticRepository {
+
+    public static final String DEFAULT_LANGUAGES = "java:5,py:3,js:3,c:2,html:1,css:1,md:1";
+
+    private final long seed;
+    private final int fileCount;
+    private final int medianBytes;
+    private final double sizeSpread;
+    private final int maxBytes;
+    private final Map<String, Integer> languageMix;
+    private final double todoDensity;
+    private final int filesPerDirectory;
+
+    /**
+     * Totals of a generated tree, for checking analysis results against.
+     */
+    public static final class Stats {
+        private long files;
+        private long bytes;
+        private long lines;
+        private long todoCount;
+        private long fixmeCount;
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getTodoCount() {
+            return todoCount;
+        }
+
+        public long getFixmeCount() {
+            return fixmeCount;
+        }
+
+        @Override
+        public String toString() {
+            return files + " files, " + bytes + " bytes, " + lines + " lines, " + todoCount + " TODO, " + fixmeCount + " FIXME";
+        }
+    }
+
+    private static final class Style {
+        private final String lineComment;
+        private final String[] code;
+        private final String[] branches;
+        private final String close;
+
+        private Style(String lineComment, String close, String[] code, String[] branches) {
+            this.lineComment = lineComment;
+            this.close = close;
+            this.code = code;
+            this.branches = branches;
+        }
+    }
+
+    private static final Map<String, Style> STYLES = new LinkedHashMap<>();
+
+    static {
+        STYLES.put("java", new Style("//", "}", new String[]{
+                "int value%d = value%d * %d + 1;",
+                "String name%d = \"item-%d\" + name%d;",
+                "list.add(new Entry(%d, \"key%d\", %d));",
+                "return compute(value%d, %d, %d);"},
+                new String[]{"if (value%d > %d && ready) {", "for (int i = 0; i < %d; i++) {", "while (queue.size() > %d) {"}));
+        STYLES.put("js", new Style("//", "}", new String[]{
+                "const value%d = value%d * %d + 1;",
+                "let name%d = `item-${%d}` + name%d;",
+                "items.push({ id: %d, key: 'key%d', size: %d });",
+                "return compute(value%d, %d, %d);"},
+                new String[]{"if (value%d > %d || ready) {", "for (let i = 0; i < %d; i++) {", "while (queue.length > %d) {"}));
+        STYLES.put("c", new Style("//", "}", new String[]{
+                "int value%d = value%d * %d + 1;",
+                "buffer[%d] = (char) ('a' + %d %% %d);",
+                "total += compute(%d, %d, %d);",
+                "return value%d + %d - %d;"},
+                new String[]{"if (value%d > %d && ready) {", "for (int i = 0; i < %d; i++) {", "while (count > %d) {"}));
+        STYLES.put("py", new Style("#", "", new String[]{
+                "    value%d = value%d * %d + 1",
+                "    name%d = 'item-%d' + str(name%d)",
+                "    items.append((%d, \"key%d\", %d))",
+                "    return compute(value%d, %d, %d)"},
+                new String[]{"    if value%d > %d and ready:", "    for i in range(%d):", "    while len(queue) > %d:"}));
+        STYLES.put("html", new Style(null, "</div>", new String[]{
+                "<p class=\"item-%d\">Value %d of %d</p>",
+                "<a href=\"/page/%d\">Link %d</a> <span>%d</span>",
+                "<li data-id=\"%d\">Entry %d (%d)</li>",
+                "<img src=\"img%d.png\" width=\"%d\" height=\"%d\">"},
+                new String[]{"<div id=\"section-%d\" data-size=\"%d\">"}));
+        STYLES.put("css", new Style(null, "}", new String[]{
+                "  margin: %dpx %dpx %dpx 0;",
+                "  color: #%d%d%d;",
+                "  width: calc(100%% - %dpx); z-index: %d; order: %d;",
+                "  padding: %dpx %dpx %dpx;"},
+                new String[]{".item-%d > .child-%d {"}));
+        STYLES.put("md", new Style(null, "", new String[]{
+                "Paragraph %d describes value %d and its %d neighbours.",
+                "- item %d: see section %d, page %d",
+                "The result of step %d is %d, which exceeds %d.",
+                "`code %d` is called %d times in %d places."},
+                new String[]{"## Section %d (%d)"}));
+    }
+
+    public SyntheticRepository(long seed, int fileCount, int medianBytes, double sizeSpread, int maxBytes,
+                               Map<String, Integer> languageMix, double todoDensity, int filesPerDirectory) {
+        for (String extension : languageMix.keySet()) {
+            if (!STYLES.containsKey(extension)) {
+                throw new IllegalArgumentException("No generator for ." + extension + " files; known: " + STYLES.keySet());
+            }
+        }
+        this.seed = seed;
+        this.fileCount = fileCount;
+        this.medianBytes = medianBytes;
+        this.sizeSpread = sizeSpread;
+        this.maxBytes = maxBytes;
+        this.languageMix = new LinkedHashMap<>(languageMix);
+        this.todoDensity = todoDensity;
+        this.filesPerDirectory = Math.max(1, filesPerDirectory);
+    }
+
+    /**
+     * Reads the settings from {@code bench.seed}, {@code bench.files}, {@code bench.medianBytes},
+     * {@code bench.sizeSpread}, {@code bench.maxBytes}, {@code bench.languages} ({@code ext:weight,...}),
+     * {@code bench.todoDensity} (per line) and {@code bench.filesPerDirectory}.
+     */
+    public static SyntheticRepository fromProperties() {
+        return new SyntheticRepository(Long.getLong("bench.seed", 42),
+                Integer.getInteger("bench.files", 2000),
+                Integer.getInteger("bench.medianBytes", 6000),
+                Double.parseDouble(System.getProperty("bench.sizeSpread", "1.0")),
+                Integer.getInteger("bench.maxBytes", 1 << 20),
+                parseLanguages(System.getProperty("bench.languages", DEFAULT_LANGUAGES)),
+                Double.parseDouble(System.getProperty("bench.todoDensity", "0.01")),
+                Integer.getInteger("bench.filesPerDirectory", 40));
+    }
+
+    public static Map<String, Integer> parseLanguages(String value) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String part : value.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (!pair[0].isEmpty()) {
+                mix.put(pair[0], pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1);
+            }
+        }
+        return mix;
+    }
+
+    public Stats generate(Path root) throws IOException {
+        Files.createDirectories(root);
+        Files.write(root.resolve(".gitignore"), "*.log\nbuild/\n".getBytes(StandardCharsets.UTF_8));
+        Stats stats = new Stats();
+        int totalWeight = languageMix.values().stream().mapToInt(Integer::intValue).sum();
+        for (int index = 0; index < fileCount; index++) {
+            SplittableRandom random = new SplittableRandom(fileSeed(index));
+            String extension = pickLanguage(random.nextInt(totalWeight));
+            Path directory = root.resolve(directoryOf(index));
+            Files.createDirectories(directory);
+            writeFile(directory.resolve("file" + index + "." + extension), STYLES.get(extension), random, stats);
+            if (index % 100 == 0) {
+                Files.write(directory.resolve("run" + index + ".log"), ("ignored " + index + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        Path excluded = root.resolve("node_modules").resolve("dependency");
+        Files.createDirectories(excluded);
+        Files.write(excluded.resolve("index.js"), "module.exports = {};\n".getBytes(StandardCharsets.UTF_8));
+        return stats;
+    }
+
+    /**
+     * Writes one file of about {@code bytes} bytes in the style of {@code extension}; used for single large files.
+     */
+    public Stats generateFile(Path file, String extension, int bytes) throws IOException {
+        Style style = STYLES.get(extension);
+        if (style == null) {
+            throw new IllegalArgumentException("No generator for ." + extension + " files");
+        }
+        Stats stats = new Stats();
+        writeLines(file, style, new SplittableRandom(seed), bytes, stats);
+        return stats;
+    }
+
+    /**
+     * Seeds that differ by a multiple of SplittableRandom's own increment, as {@code seed ^ index * golden}
+     * often do, give the same sequence shifted, and so files sharing long runs of identical lines. Mixing the
+     * index first keeps the streams unrelated.
+     */
+    private long fileSeed(int index) {
+        long z = seed + index * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private String directoryOf(int index) {
+        // a balanced tree: up to filesPerDirectory files, then ten subdirectories per level
+        int directory = index / filesPerDirectory;
+        StringBuilder path = new StringBuilder("src");
+        for (String part : Integer.toString(directory).split("")) {
+            path.append("/d").append(part);
+        }
+        return path.toString();
+    }
+
+    private String pickLanguage(int point) {
+        for (Map.Entry<String, Integer> entry : languageMix.entrySet()) {
+            point -= entry.getValue();
+            if (point < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty language mix");
+    }
+
+    private void writeFile(Path file, Style style, SplittableRandom random, Stats stats) throws IOException {
+        double size = medianBytes * Math.exp(sizeSpread * random.nextGaussian());
+        writeLines(file, style, random, (int) Math.max(1, Math.min(maxBytes, size)), stats);
+    }
+
+    private void writeLines(Path file, Style style, SplittableRandom random, int targetBytes, Stats stats) throws IOException {
+        long written = 0;
+        int open = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            while (written < targetBytes) {
+                String line;
+                double kind = random.nextDouble();
+                if (kind < todoDensity) {
+                    line = comment(style, "TODO: handle case " + random.nextInt(1000));
+                    stats.todoCount++;
+                } else if (kind < todoDensity * 1.5) {
+                    line = comment(style, "FIXME: check bound " + random.nextInt(1000));
+                    stats.fixmeCount++;
+                } else if (kind < 0.10) {
+                    line = "";
+                } else if (kind < 0.20) {
+                    line = comment(style, "Explains step " + random.nextInt(10_000) + " of the computation");
+                } else if (kind < 0.30 && open < 4) {
+                    line = format(style.branches[random.nextInt(style.branches.length)], random);
+                    open++;
+                } else if (kind < 0.36 && open > 0 && !style.close.isEmpty()) {
+                    line = style.close;
+                    open--;
+                } else {
+                    line = format(style.code[random.nextInt(style.code.length)], random);
+                }
+                writer.write(line);
+                writer.write('\n');
+                written += line.length() + 1;
+                stats.lines++;
+            }
+            for (; open > 0 && !style.close.isEmpty(); open--) {
+                writer.write(style.close);
+                writer.write('\n');
+                written += style.close.length() + 1;
+                stats.lines++;
+            }
+        }
+        stats.files++;
+        stats.bytes += written;
+    }
+
+    private static String comment(Style style, String text) {
+        if (style.lineComment != null) {
+            return style.lineComment + " " + text;
+        }
+        return style.close.equals("}") ? "/* " + text + " */" : "<!-- " + text + " -->";
+    }
+
+    private static String format(String template, SplittableRandom random) {
+        return String.format(template, random.nextInt(1000), random.nextInt(1000), random.nextInt(100) + 1);
+    }
+
+    /**
+     * Generates a tree from the {@code bench.*} properties into the directory given as argument.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java -Dbench.files=N ... benchmarks.SyntheticRepository <directory>");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        Stats stats = fromProperties().generate(Paths.get(args[0]));
+        System.out.println("Generated " + stats + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
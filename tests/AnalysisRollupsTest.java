@@ -0,0 +1,193 @@
+package tests;
+
+import analyser.AnalysisRollups;
+import analyser.CodeAnalyzer;
+import analyser.FileAnalysis;
+import analyser.LogAppender;
+import analyser.LogFilter;
+import analyser.RecordStore;
+import analyser.RepositoryAnalysis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertFalse;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Opening {@link AnalysisRollups} against saved rollups that are behind or ahead of the record store, files
+ * that come and go, and re-analyses that change nothing.
+ */
+final class AnalysisRollupsTest {
+
+    private static final byte METRICS = 6;
+    private static final LogFilter ALL = new LogFilter(null, null, null, null, null);
+
+    private AnalysisRollupsTest() {
+    }
+
+    /**
+     * A store, its appender and the rollups over it. Closing does not save the rollups, as after a crash.
+     */
+    private static final class Opened implements AutoCloseable {
+        private final LogAppender appender = new LogAppender(1024, 10, LogAppender.FsyncPolicy.NEVER);
+        private final RecordStore store;
+        private final AnalysisRollups rollups;
+
+        private Opened(Path directory) throws IOException {
+            store = RecordStore.open(directory.resolve("analyser.db"), appender);
+            rollups = AnalysisRollups.open(directory.resolve("rollups.bin"), store, METRICS);
+        }
+
+        private int recordCount() throws IOException {
+            return store.query(METRICS, ALL).size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            appender.close();
+            store.close();
+        }
+    }
+
+    static void testStaleRollupsFileReplaysTheRecordsAfterIt(Path directory) throws Exception {
+        Path root = directory.resolve("repo");
+        try (Opened opened = new Opened(directory)) {
+            opened.rollups.update(root, analysis(root.resolve("src/A.java"), 10, 1), "alice");
+            opened.rollups.update(root, analysis(root.resolve("src/B.java"), 20, 0), "alice");
+            opened.rollups.save();
+            opened.rollups.update(root, analysis(root.resolve("lib/C.java"), 30, 2), "bob");
+            opened.rollups.remove(root, root.resolve("src/B.java"), "bob");
+        }
+        String reopened;
+        try (Opened opened = new Opened(directory)) {
+            AnalysisRollups.Snapshot snapshot = opened.rollups.snapshot(root);
+            assertEquals(2, snapshot.getTotals().getFileCount(), "files after replaying the records behind the saved rollups");
+            assertEquals(40, snapshot.getTotals().getLineCount(), "lines of A and C");
+            assertEquals(4L, snapshot.getChanges().values().stream().mapToLong(Long::longValue).sum(), "changes recorded");
+            reopened = describe(snapshot);
+        }
+        Files.delete(directory.resolve("rollups.bin"));
+        try (Opened opened = new Opened(directory)) {
+            assertEquals(reopened, describe(opened.rollups.snapshot(root)), "same rollups as a replay of every record");
+        }
+    }
+
+    static void testRollupsAheadOfTheStoreAreRebuilt(Path directory) throws Exception {
+        Path root = directory.resolve("repo");
+        Path backup = Files.createDirectory(directory.resolve("backup"));
+        try (Opened opened = new Opened(directory)) {
+            opened.rollups.update(root, analysis(root.resolve("A.java"), 10, 0), "alice");
+            opened.rollups.update(root, analysis(root.resolve("B.java"), 20, 0), "alice");
+        }
+        copyStore(directory, backup);
+        try (Opened opened = new Opened(directory)) {
+            opened.rollups.update(root, analysis(root.resolve("C.java"), 30, 0), "alice");
+            opened.rollups.save();
+        }
+        // the store loses its last record, as if it never reached the disk, but the rollups counted it
+        copyStore(backup, directory);
+
+        try (Opened opened = new Opened(directory)) {
+            AnalysisRollups.Snapshot snapshot = opened.rollups.snapshot(root);
+            assertEquals(2, snapshot.getTotals().getFileCount(), "files in the store");
+            assertEquals(30, snapshot.getTotals().getLineCount(), "lines in the store");
+            assertTrue(opened.rollups.update(root, analysis(root.resolve("C.java"), 30, 0), "alice"), "the lost file is new again");
+            assertEquals(3, opened.recordCount(), "records after analyzing it again");
+            opened.rollups.save();
+        }
+        try (Opened opened = new Opened(directory)) {
+            assertEquals(60, opened.rollups.snapshot(root).getTotals().getLineCount(), "lines after reopening");
+        }
+    }
+
+    static void testRemovedAndReAddedFile(Path directory) throws Exception {
+        Path root = directory.resolve("repo");
+        Path a = root.resolve("src/A.java");
+        String expected;
+        try (Opened opened = new Opened(directory)) {
+            AnalysisRollups rollups = opened.rollups;
+            rollups.update(root, analysis(a, 10, 1), "alice");
+            rollups.update(root, analysis(root.resolve("src/B.java"), 20, 0), "alice");
+            rollups.remove(root, a, "alice");
+            assertEquals(1, rollups.snapshot(root).getDirectories().get("src").getFileCount(), "files under src after removing A");
+            assertEquals(0, rollups.snapshot(root).getTotals().getTodoCount(), "TODOs after removing A");
+
+            assertTrue(rollups.update(root, analysis(a, 10, 1), "alice"), "A added back with its old counts");
+            assertEquals(30, rollups.snapshot(root).getTotals().getLineCount(), "lines after adding A back");
+            assertEquals(1, rollups.snapshot(root).getTotals().getTodoCount(), "TODOs after adding A back");
+
+            rollups.remove(root, root.resolve("src"), "alice");
+            AnalysisRollups.Snapshot empty = rollups.snapshot(root);
+            assertEquals(0, empty.getTotals().getFileCount(), "files after removing the directory");
+            assertTrue(empty.getDirectories().isEmpty(), "no directories left: " + empty.getDirectories());
+            assertTrue(empty.getLanguages().isEmpty(), "no languages left: " + empty.getLanguages());
+
+            rollups.update(root, analysis(a, 12, 0), "alice");
+            assertEquals(7, opened.recordCount(), "one record per change, and one per file for the directory");
+            expected = describe(rollups.snapshot(root));
+        }
+        try (Opened opened = new Opened(directory)) {
+            assertEquals(expected, describe(opened.rollups.snapshot(root)), "replayed from the records");
+            opened.rollups.save();
+        }
+        try (Opened opened = new Opened(directory)) {
+            assertEquals(expected, describe(opened.rollups.snapshot(root)), "loaded from the saved rollups");
+        }
+    }
+
+    static void testUnchangedReanalysisWritesNothing(Path directory) throws Exception {
+        Path root = Files.createDirectories(directory.resolve("repo"));
+        Path rollupsFile = directory.resolve("rollups.bin");
+        Files.write(root.resolve("A.java"), List.of("class A {", "    // TODO", "}"), StandardCharsets.UTF_8);
+        Files.write(root.resolve("b.py"), List.of("def b(x):", "    return x and 1"), StandardCharsets.UTF_8);
+        try (Opened opened = new Opened(directory)) {
+            assertEquals(2, opened.rollups.update(analyze(root), "alice"), "files recorded by the first analysis");
+            opened.rollups.save();
+            assertEquals(2, opened.recordCount(), "records after the first analysis");
+            Files.delete(rollupsFile);
+
+            RepositoryAnalysis again = analyze(root);
+            assertEquals(0, opened.rollups.update(again, "alice"), "files changed by the same analysis");
+            for (FileAnalysis file : again.getFiles()) {
+                assertFalse(opened.rollups.update(root, file, "bob"), "unchanged " + file.getPath());
+            }
+            assertEquals(2, opened.recordCount(), "records after analyzing again");
+            opened.rollups.save();
+            assertFalse(Files.exists(rollupsFile), "rollups saved although nothing changed");
+
+            Files.write(root.resolve("A.java"), List.of("class A {", "}"), StandardCharsets.UTF_8);
+            Files.delete(root.resolve("b.py"));
+            assertEquals(2, opened.rollups.update(analyze(root), "alice"), "one file changed and one removed");
+            assertEquals(4, opened.recordCount(), "records after the change");
+            assertEquals(2, opened.rollups.snapshot(root).getTotals().getLineCount(), "lines left");
+        }
+    }
+
+    private static FileAnalysis analysis(Path file, int lines, int todos) {
+        return new FileAnalysis(file, "java", "Java", lines, lines - todos, 0, todos, todos, 0, 1, Collections.emptyList());
+    }
+
+    private static RepositoryAnalysis analyze(Path root) throws IOException {
+        return CodeAnalyzer.analyzeRepository(root, ForkJoinPool.commonPool());
+    }
+
+    private static String describe(AnalysisRollups.Snapshot snapshot) {
+        return snapshot.getTotals() + " " + snapshot.getDirectories() + " " + snapshot.getLanguages() + " " + snapshot.getChanges();
+    }
+
+    private static void copyStore(Path from, Path to) throws IOException {
+        for (String name : new String[]{"analyser.db", "analyser.db.idx"}) {
+            if (Files.exists(from.resolve(name))) {
+                Files.copy(from.resolve(name), to.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
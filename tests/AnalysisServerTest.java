@@ -0,0 +1,152 @@
+package tests;
+
+import analyser.AnalysisCache;
+import analyser.AnalysisServer;
+import analyser.CredentialStore;
+import analyser.LogAppender;
+import analyser.RecordStore;
+import analyser.RepositoryWalker;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertFalse;
+import static tests.Assertions.assertThrows;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Uploads and file requests to {@link AnalysisServer} staying inside its repository root, symbolic links included.
+ */
+final class AnalysisServerTest {
+
+    private static final byte USERS = 1;
+    private static final byte HISTORY = 2;
+    private static final byte REPORTS = 3;
+    private static final Pattern TOKEN = Pattern.compile("\"token\":\"([^\"]+)\"");
+
+    private AnalysisServerTest() {
+    }
+
+    /**
+     * A server on a fresh store with one logged in user, serving {@code root}.
+     */
+    private static final class Server implements AutoCloseable {
+        private final LogAppender appender = new LogAppender(1024, 10, LogAppender.FsyncPolicy.NEVER);
+        private final RecordStore store;
+        private final AnalysisServer server;
+        private final HttpClient client = HttpClient.newHttpClient();
+        private final String token;
+
+        private Server(Path directory, Path root) throws Exception {
+            store = RecordStore.open(directory.resolve("analyser.db"), appender, USERS);
+            server = new AnalysisServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), root, store,
+                    CredentialStore.open(store, USERS, 1000), new AnalysisCache(), null, new RepositoryWalker(), HISTORY, REPORTS);
+            server.start();
+            String credentials = "{\"user\":\"mallory\",\"password\":\"secret\"}";
+            assertEquals(200, send("POST", "register", credentials, null).statusCode(), "register");
+            Matcher matcher = TOKEN.matcher(send("POST", "login", credentials, null).body());
+            assertTrue(matcher.find(), "login returns a token");
+            token = matcher.group(1);
+        }
+
+        private HttpResponse<String> upload(String path) throws Exception {
+            return send("POST", "repositories", "{\"path\":\"" + path.replace("\\", "\\\\") + "\"}", token);
+        }
+
+        private HttpResponse<String> get(String endpoint) throws Exception {
+            return send("GET", endpoint, null, token);
+        }
+
+        private HttpResponse<String> send(String method, String endpoint, String body, String bearer) throws Exception {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + "/api/" + endpoint))
+                    .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body));
+            if (bearer != null) {
+                request.header("Authorization", "Bearer " + bearer);
+            }
+            return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            appender.close();
+            store.close();
+        }
+    }
+
+    static void testUploadsResolveAgainstTheRoot(Path directory) throws Exception {
+        Path root = Files.createDirectories(directory.resolve("root"));
+        Path repository = Files.createDirectories(root.resolve("repository"));
+        Files.write(repository.resolve("a.java"), "class A {}\n".getBytes(StandardCharsets.UTF_8));
+
+        try (Server server = new Server(directory, root)) {
+            HttpResponse<String> relative = server.upload("repository");
+            assertEquals(200, relative.statusCode(), "upload relative to the root");
+            assertTrue(relative.body().contains("\"files\":1"), relative.body());
+            assertEquals(200, server.upload(repository.toString()).statusCode(), "upload by absolute path inside the root");
+            assertEquals(200, server.get("analysis?file=a.java").statusCode(), "analysis of a file in the repository");
+        }
+    }
+
+    static void testUploadsOutsideTheRootAreRefused(Path directory) throws Exception {
+        Path root = Files.createDirectories(directory.resolve("root"));
+        Path outside = Files.createDirectories(directory.resolve("outside"));
+        Files.write(outside.resolve("secret.txt"), "password\n".getBytes(StandardCharsets.UTF_8));
+
+        try (Server server = new Server(directory, root)) {
+            assertEquals(404, server.upload(outside.toString()).statusCode(), "absolute path outside the root");
+            assertEquals(404, server.upload("../outside").statusCode(), "relative path leaving the root");
+            assertEquals(404, server.upload("/").statusCode(), "file system root");
+            assertEquals(409, server.get("files").statusCode(), "no repository after refused uploads");
+        }
+    }
+
+    static void testSymbolicLinksCannotLeaveTheRoot(Path directory) throws Exception {
+        Path root = Files.createDirectories(directory.resolve("root"));
+        Path repository = Files.createDirectories(root.resolve("repository"));
+        Path outside = Files.createDirectories(directory.resolve("outside"));
+        Files.write(outside.resolve("secret.txt"), "password\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(repository.resolve("a.java"), "class A {}\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.createSymbolicLink(root.resolve("escape"), outside);
+            Files.createSymbolicLink(repository.resolve("linked"), outside);
+            Files.createSymbolicLink(repository.resolve("secret.txt"), outside.resolve("secret.txt"));
+        } catch (UnsupportedOperationException | IOException e) {
+            System.out.println("Symbolic links are not supported here: " + e);
+            return;
+        }
+
+        try (Server server = new Server(directory, root)) {
+            assertEquals(404, server.upload("escape").statusCode(), "linked directory outside the root");
+
+            HttpResponse<String> upload = server.upload("repository");
+            assertEquals(200, upload.statusCode(), "upload");
+            assertTrue(upload.body().contains("\"files\":1"), "files behind links left out: " + upload.body());
+            assertFalse(server.get("files").body().contains("secret"), "linked files listed");
+            assertEquals(404, server.get("analysis?file=secret.txt").statusCode(), "linked file outside the root");
+            assertEquals(404, server.get("analysis?file=" + URLEncoder.encode("linked/secret.txt", StandardCharsets.UTF_8)).statusCode(),
+                    "file in a linked directory outside the root");
+            assertEquals(404, server.get("analysis?file=" + URLEncoder.encode("../../outside/secret.txt", StandardCharsets.UTF_8)).statusCode(),
+                    "relative path leaving the repository");
+            assertFalse(server.get("search?term=password").body().contains("secret"), "search reads files behind links");
+        }
+    }
+
+    static void testMissingRootIsRejected(Path directory) {
+        assertThrows(IOException.class, () -> new AnalysisServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                directory.resolve("missing"), null, null, new AnalysisCache(), null, new RepositoryWalker(), HISTORY, REPORTS),
+                "server on a missing root");
+    }
+}
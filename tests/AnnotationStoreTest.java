@@ -0,0 +1,113 @@
+package tests;
+
+import analyser.AnnotationStore;
+import analyser.LogAppender;
+import analyser.LogFilter;
+import analyser.RecordStore;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertFalse;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Records left behind by moving, adopting and deleting {@link AnnotationStore} annotations.
+ */
+final class AnnotationStoreTest {
+
+    private static final byte USERS = 1;
+    private static final byte COMMENTS = 4;
+    private static final String FILE = "src/A.java";
+
+    private AnnotationStoreTest() {
+    }
+
+    /**
+     * A store keyed like the application's, its appender and the annotations in it.
+     */
+    private static final class Opened implements AutoCloseable {
+        private final LogAppender appender = new LogAppender(1024, 10, LogAppender.FsyncPolicy.NEVER);
+        private final RecordStore store;
+        private final AnnotationStore annotations;
+
+        private Opened(Path directory) throws IOException {
+            store = RecordStore.open(directory.resolve("analyser.db"), appender, new byte[]{USERS}, new byte[]{COMMENTS});
+            annotations = new AnnotationStore(store, COMMENTS);
+        }
+
+        private int liveRecords() throws IOException {
+            return store.query(COMMENTS, new LogFilter(null, FILE, null, null, null)).size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            appender.close();
+            store.close();
+        }
+    }
+
+    static void testRepeatedRemapsDoNotGrowLoad(Path directory) throws Exception {
+        List<String> lines = new ArrayList<>(List.of("class A {", "    int x;", "    int y;", "    int z;", "}"));
+        long grown;
+        try (Opened opened = new Opened(directory)) {
+            for (int line = 1; line <= 3; line++) {
+                opened.annotations.add(FILE, line, lines.get(line), "alice", "Note " + line);
+            }
+            for (int edit = 0; edit < 200; edit++) {
+                lines.add(0, "// line " + edit);
+                assertEquals(3, opened.annotations.remap(FILE, line -> line + 1, lines::get, lines.size()), "moved by edit " + edit);
+                assertEquals(3, opened.liveRecords(), "records read by load after edit " + edit);
+            }
+            List<AnnotationStore.Annotation> annotations = opened.annotations.forFile(FILE, lines::get, lines.size());
+            assertEquals(3, annotations.size(), "annotations after the edits");
+            assertEquals("    int x;", lines.get(annotations.get(0).getLine()), "first annotation followed its line");
+            opened.appender.flush();
+            grown = Files.size(directory.resolve("analyser.db"));
+        }
+        try (Opened opened = new Opened(directory)) {
+            assertTrue(Files.size(directory.resolve("analyser.db")) * 10 < grown, "superseded records compacted away");
+            assertEquals(3, opened.annotations.forFile(FILE, lines::get, lines.size()).size(), "annotations after reopening");
+        }
+    }
+
+    static void testDeletedTextIsCompactedAway(Path directory) throws Exception {
+        List<String> lines = List.of("class A {", "    int x;", "}");
+        try (Opened opened = new Opened(directory)) {
+            AnnotationStore.Annotation secret = opened.annotations.add(FILE, 1, lines.get(1), "alice", "password is hunter2");
+            opened.annotations.add(FILE, 0, lines.get(0), "bob", "Kept");
+            opened.annotations.delete(secret);
+            assertEquals(1, opened.annotations.forFile(FILE, lines::get, lines.size()).size(), "annotations after the delete");
+            assertEquals(1, opened.liveRecords(), "records read by load after the delete");
+        }
+        try (Opened opened = new Opened(directory)) {
+            List<AnnotationStore.Annotation> annotations = opened.annotations.forFile(FILE, lines::get, lines.size());
+            assertEquals(1, annotations.size(), "annotations after reopening");
+            assertEquals("Kept", annotations.get(0).getText(), "the annotation that was not deleted");
+        }
+        String contents = new String(Files.readAllBytes(directory.resolve("analyser.db")), StandardCharsets.ISO_8859_1);
+        assertFalse(contents.contains("hunter2"), "deleted text still on disk");
+    }
+
+    static void testImportedAnnotationAdoptsItsLineOnce(Path directory) throws Exception {
+        List<String> lines = List.of("class A {", "    int x;", "}");
+        try (Opened opened = new Opened(directory)) {
+            opened.store.importRecords(List.of(AnnotationStore.imported(COMMENTS, 1000, "alice", FILE, "2", "Imported")));
+            AnnotationStore.Annotation annotation = opened.annotations.forFile(FILE, lines::get, lines.size()).get(0);
+            assertEquals(1, annotation.getLine(), "one-based line of comments.csv");
+            assertEquals("Imported", annotation.getText(), "text of comments.csv");
+            opened.annotations.forFile(FILE, lines::get, lines.size());
+            assertEquals(1, opened.liveRecords(), "records once the anchor is adopted");
+            opened.annotations.delete(annotation);
+            assertTrue(opened.annotations.forFile(FILE, lines::get, lines.size()).isEmpty(), "imported annotation deleted");
+        }
+        try (Opened opened = new Opened(directory)) {
+            assertTrue(opened.annotations.forFile(FILE, lines::get, lines.size()).isEmpty(), "still deleted after reopening");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package tests;
+
+import analyser.CredentialStore;
+import analyser.CsvMigrator;
+import analyser.LogAppender;
+import analyser.RecordStore;
+import analyser.StoredRecord;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertFalse;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Registration, login and the migration of cleartext passwords in {@link CredentialStore}.
+ */
+final class CredentialStoreTest {
+
+    private static final byte USERS = 1;
+    private static final int ITERATIONS = 1000;
+
+    private CredentialStoreTest() {
+    }
+
+    static void testMigratedPasswordsLeaveNoCleartextOnDisk(Path directory) throws Exception {
+        Path legacy = directory.resolve("users.csv");
+        Files.write(legacy, "alice,Tr0ub4dor&3-legacy\nbob,hunter2-legacy\n".getBytes(StandardCharsets.UTF_8));
+        Path file = directory.resolve("analyser.db");
+
+        LogAppender appender = new LogAppender(1024, 10, LogAppender.FsyncPolicy.NEVER);
+        RecordStore store = RecordStore.open(file, appender, USERS);
+        CsvMigrator migrator = new CsvMigrator();
+        migrator.addSensitive(legacy, 2, (fields, fallback) -> new StoredRecord(USERS, fallback, fields[0], null, null, fields[1]));
+        assertEquals(2, migrator.migrate(store), "imported users");
+        CredentialStore credentials = CredentialStore.open(store, USERS, ITERATIONS);
+        assertTrue(credentials.verify("alice", "Tr0ub4dor&3-legacy".toCharArray()), "login with a migrated password");
+        appender.close();
+        store.close();
+
+        assertFalse(Files.exists(legacy), "legacy user file still exists");
+        assertFalse(Files.exists(directory.resolve("users.csv.migrated")), "legacy user file kept under another name");
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.collect(Collectors.toList());
+        }
+        for (Path path : files) {
+            byte[] bytes = Files.readAllBytes(path);
+            for (String password : new String[]{"Tr0ub4dor&3-legacy", "hunter2-legacy"}) {
+                assertFalse(contains(bytes, password.getBytes(StandardCharsets.UTF_8)), path.getFileName() + " contains the password " + password);
+            }
+        }
+
+        try (Reopened reopened = new Reopened(file)) {
+            assertTrue(reopened.credentials.verify("bob", "hunter2-legacy".toCharArray()), "login after reopening");
+            assertFalse(reopened.credentials.verify("bob", "hunter2".toCharArray()), "login with a wrong password");
+        }
+    }
+
+    static void testRegisteredUsersSurviveReopen(Path directory) throws Exception {
+        Path file = directory.resolve("analyser.db");
+        try (Reopened reopened = new Reopened(file)) {
+            assertTrue(reopened.credentials.register("carol", "first password".toCharArray()), "first registration");
+            assertFalse(reopened.credentials.register("carol", "second password".toCharArray()), "registration of a taken name");
+            assertTrue(reopened.credentials.verify("carol", "first password".toCharArray()), "login");
+            assertTrue(reopened.credentials.verify("carol", "first password".toCharArray()), "login from the remembered session");
+            assertFalse(reopened.credentials.verify("carol", "second password".toCharArray()), "login with the rejected password");
+            assertFalse(reopened.credentials.verify("dave", "first password".toCharArray()), "login of an unknown user");
+        }
+        try (Reopened reopened = new Reopened(file)) {
+            assertEquals(1, reopened.credentials.size(), "users after reopening");
+            assertTrue(reopened.credentials.verify("carol", "first password".toCharArray()), "login after reopening");
+        }
+    }
+
+    private static final class Reopened implements AutoCloseable {
+        private final LogAppender appender = new LogAppender(1024, 10, LogAppender.FsyncPolicy.NEVER);
+        private final RecordStore store;
+        private final CredentialStore credentials;
+
+        private Reopened(Path file) throws IOException {
+            store = RecordStore.open(file, appender, USERS);
+            credentials = CredentialStore.open(store, USERS, ITERATIONS);
+        }
+
+        @Override
+        public void close() throws IOException {
+            appender.close();
+            store.close();
+        }
+    }
+
+    private static boolean contains(byte[] bytes, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= bytes.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (bytes[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,148 @@
+package tests;
+
+import analyser.FileContentCache;
+import analyser.LineScanner;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertFalse;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Validation, W-TinyLFU admission and eviction, and line tables of {@link FileContentCache}.
+ */
+final class FileContentCacheTest {
+
+    private static final long CAPACITY = 64 * 1024;
+    private static final int FILE_BYTES = 3000;
+
+    private FileContentCacheTest() {
+    }
+
+    static void testChangedFilesAreReadAgain(Path directory) throws Exception {
+        FileContentCache cache = new FileContentCache(CAPACITY, FileContentCache.Storage.HEAP);
+        Path file = write(directory, "a.txt", "one\n");
+
+        FileContentCache.Content first = cache.get(file);
+        assertTrue(first == cache.get(file), "second lookup returns the cached content");
+        assertEquals(1, cache.getHits(), "hits");
+        assertEquals(1, cache.getMisses(), "misses");
+
+        write(directory, "a.txt", "one\ntwo\n");
+        assertEquals("one\ntwo\n", cache.get(file).getText(), "text after the file changed");
+        assertEquals(2, cache.getMisses(), "misses after the file changed");
+
+        cache.invalidate(file);
+        assertEquals(null, cache.getIfPresent(file), "invalidated entry");
+        assertEquals(0, cache.size(), "entries after invalidating");
+    }
+
+    static void testFrequentlyUsedFilesSurviveAScan(Path directory) throws Exception {
+        FileContentCache cache = new FileContentCache(CAPACITY, FileContentCache.Storage.HEAP);
+        List<Path> hot = files(directory, "hot", 8);
+        for (int round = 0; round < 5; round++) {
+            for (Path file : hot) {
+                cache.get(file);
+            }
+        }
+        // a pass over a repository many times the capacity, every file read once
+        List<Path> cold = files(directory, "cold", 100);
+        for (Path file : cold) {
+            cache.get(file);
+            assertTrue(cache.getWeightedSize() <= CAPACITY, "weighted size " + cache.getWeightedSize() + " over the capacity");
+        }
+        assertEquals(hot.size() + cold.size() - cache.size(), cache.getEvictions(), "every loaded file is cached or evicted");
+
+        for (Path file : hot) {
+            assertTrue(cache.getIfPresent(file) != null, file.getFileName() + " evicted by files read once");
+        }
+        assertEquals(null, cache.getIfPresent(cold.get(50)), "file read once in the middle of the pass");
+    }
+
+    static void testFrequentCandidateDisplacesEntriesUsedOnce(Path directory) throws Exception {
+        FileContentCache cache = new FileContentCache(CAPACITY, FileContentCache.Storage.HEAP);
+        List<Path> cold = files(directory, "cold", 20);
+        for (Path file : cold) {
+            cache.get(file);
+        }
+        Path hot = files(directory, "hot", 1).get(0);
+        for (int i = 0; i < 4; i++) {
+            // lookups of uncached files are counted too, so a file asked for often is admitted on its first load
+            assertEquals(null, cache.getIfPresent(hot), "hot file before it is loaded");
+        }
+        cache.get(hot);
+        // push the hot file out of the window into the full main area
+        for (Path file : files(directory, "later", 4)) {
+            cache.get(file);
+        }
+
+        assertTrue(cache.getIfPresent(hot) != null, "hot file admitted to the main area");
+        assertEquals(null, cache.getIfPresent(cold.get(0)), "least recently used entry of the main area");
+        assertTrue(cache.getIfPresent(cold.get(1)) != null, "next entry of the main area");
+        assertTrue(cache.getWeightedSize() <= CAPACITY, "weighted size " + cache.getWeightedSize() + " over the capacity");
+    }
+
+    static void testFilesLargerThanTheWindowAreNotCached(Path directory) throws Exception {
+        FileContentCache cache = new FileContentCache(4 * 1024, FileContentCache.Storage.HEAP);
+        Path file = files(directory, "large", 1).get(0);
+
+        assertEquals(null, cache.get(file), "content of a file larger than the window");
+        assertEquals(LineScanner.readText(file), cache.readText(file), "text read from disk instead");
+        assertEquals(0, cache.size(), "entries");
+    }
+
+    static void testLinesMatchTheScanner(Path directory) throws Exception {
+        Path file = write(directory, "a.txt", "one\r\ntwo\rthree\n\nfour");
+        Path binary = Files.write(directory.resolve("a.bin"), new byte[]{'a', 0, 'b', '\n'});
+        List<String> scanned = lines(file);
+
+        for (FileContentCache.Storage storage : FileContentCache.Storage.values()) {
+            FileContentCache cache = new FileContentCache(CAPACITY, storage);
+            FileContentCache.Content content = cache.get(file);
+            assertEquals(5, content.getLineCount(), "lines stored " + storage);
+            assertEquals("two", content.getLine(1), "second line stored " + storage);
+            assertEquals("", content.getLine(3), "empty line stored " + storage);
+            assertEquals(LineScanner.readText(file), content.getText(), "text stored " + storage);
+
+            List<String> visited = new ArrayList<>();
+            assertEquals(5, content.scan((bytes, start, end, line) -> visited.add(line + ":" + LineScanner.decode(bytes, start, end)), null),
+                    "lines scanned " + storage);
+            assertEquals(scanned, visited, "lines visited " + storage);
+
+            assertTrue(cache.get(binary).isBinary(), "binary file stored " + storage);
+            assertEquals(null, cache.readText(binary), "text of a binary file stored " + storage);
+            assertFalse(content.isBinary(), "text file stored " + storage + " is binary");
+        }
+    }
+
+    private static List<String> lines(Path file) throws Exception {
+        List<String> lines = new ArrayList<>();
+        new LineScanner().scan(file, (bytes, start, end, line) -> lines.add(line + ":" + LineScanner.decode(bytes, start, end)));
+        return lines;
+    }
+
+    /**
+     * Text files of {@link #FILE_BYTES} bytes each, so that a quarter of {@link #CAPACITY} holds four of them.
+     */
+    private static List<Path> files(Path directory, String prefix, int count) throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < FILE_BYTES) {
+                text.append(prefix).append(' ').append(i).append(" line ").append(text.length()).append('\n');
+            }
+            text.setLength(FILE_BYTES - 1);
+            files.add(write(directory, prefix + i + ".txt", text + "\n"));
+        }
+        return files;
+    }
+
+    private static Path write(Path directory, String name, String text) throws Exception {
+        return Files.write(directory.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,253 @@
+package tests;
+
+import analyser.GitRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertFalse;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Reads fixture repositories made by the {@code git} command, loose, packed with offset or reference deltas and
+ * both at once, and compares every commit, tree and blob with what {@code git} itself reports. Skipped when
+ * {@code git} is not installed.
+ */
+final class GitRepositoryTest {
+
+    private static final int COMMITS = 12;
+
+    private GitRepositoryTest() {
+    }
+
+    static void testLooseObjects(Path directory) throws Exception {
+        Path work = fixture(directory);
+        if (work == null) {
+            return;
+        }
+        assertEquals(0, packs(work).size(), "packs in a fresh repository");
+
+        try (GitRepository repository = GitRepository.open(work)) {
+            assertEquals("main", repository.getBranch(), "branch");
+            compareWithGit(work, repository);
+        }
+    }
+
+    static void testPackedObjectsWithOffsetDeltas(Path directory) throws Exception {
+        Path work = fixture(directory);
+        if (work == null) {
+            return;
+        }
+        git(work, "gc", "-q");
+        assertTrue(Files.isRegularFile(work.resolve(".git/packed-refs")), "refs packed by gc");
+        assertFalse(Files.exists(work.resolve(".git/refs/heads/main")), "loose ref left after gc");
+        assertTrue(hasDeltas(work), "gc stored some objects as deltas");
+
+        try (GitRepository repository = GitRepository.open(work)) {
+            compareWithGit(work, repository);
+            assertTrue(repository.getBytesInflated() > 0, "bytes inflated");
+        }
+    }
+
+    static void testPackedObjectsWithReferenceDeltas(Path directory) throws Exception {
+        Path work = fixture(directory);
+        if (work == null) {
+            return;
+        }
+        git(work, "-c", "repack.useDeltaBaseOffset=false", "repack", "-adq");
+        assertTrue(hasDeltas(work), "repack stored some objects as deltas");
+
+        try (GitRepository repository = GitRepository.open(work)) {
+            compareWithGit(work, repository);
+        }
+    }
+
+    static void testLooseObjectsOnTopOfAPack(Path directory) throws Exception {
+        Path work = fixture(directory);
+        if (work == null) {
+            return;
+        }
+        git(work, "gc", "-q");
+        commit(work, COMMITS);
+        git(work, "tag", "-a", "-m", "annotated", "v2");
+
+        try (GitRepository repository = GitRepository.open(work)) {
+            compareWithGit(work, repository);
+            GitRepository.ObjectId head = repository.resolve("HEAD");
+            assertEquals(git(work, "rev-parse", "HEAD").trim(), head.toString(), "HEAD after packing");
+            assertEquals(head, repository.resolve("v2"), "annotated tag peeled to its commit");
+            assertEquals(git(work, "rev-parse", "v1^{commit}").trim(), repository.resolve("refs/tags/v1").toString(), "packed tag");
+            assertEquals(head, repository.resolve("main"), "branch name");
+            assertEquals(null, repository.resolve("missing"), "unknown name");
+
+            git(work, "checkout", "-q", "--detach", "HEAD~1");
+            assertEquals(null, repository.getBranch(), "detached HEAD has no branch");
+            assertEquals(git(work, "rev-parse", "HEAD").trim(), repository.resolve("HEAD").toString(), "detached HEAD");
+        }
+    }
+
+    static void testLinkedWorktreeAndShallowClone(Path directory) throws Exception {
+        Path work = fixture(directory);
+        if (work == null) {
+            return;
+        }
+        Path linked = directory.resolve("linked");
+        git(work, "worktree", "add", "-q", "-b", "side", linked.toString(), "HEAD~2");
+        try (GitRepository repository = GitRepository.open(linked)) {
+            assertEquals("side", repository.getBranch(), "branch of the linked worktree");
+            assertEquals(git(linked, "rev-parse", "HEAD").trim(), repository.resolve("HEAD").toString(), "HEAD of the linked worktree");
+            assertEquals(git(work, "rev-parse", "main").trim(), repository.resolve("main").toString(), "branch shared with the main worktree");
+        }
+
+        Path shallow = directory.resolve("shallow");
+        git(directory, "clone", "-q", "--depth", "1", "file://" + work.toAbsolutePath(), shallow.toString());
+        try (GitRepository repository = GitRepository.open(shallow)) {
+            GitRepository.Commit head = repository.readCommit(repository.resolve("HEAD"));
+            assertTrue(repository.isShallow(head.getId()), "the only commit of a depth 1 clone is shallow");
+            assertEquals(1, head.getParents().size(), "parent recorded though not fetched");
+            assertFalse(repository.isShallow(head.getParents().get(0)), "parent is not the shallow commit");
+        }
+    }
+
+    static void testDirectoryWithoutGit(Path directory) throws Exception {
+        assertEquals(null, GitRepository.open(directory), "repository in a plain directory");
+        assertFalse(GitRepository.isRepository(directory), "plain directory is a repository");
+    }
+
+    /**
+     * A repository with {@link #COMMITS} commits, each editing a few lines of the same files so that packing
+     * finds deltas, and a tag on the first commit. Returns null when {@code git} cannot be run.
+     */
+    private static Path fixture(Path directory) throws Exception {
+        Path work = directory.resolve("work");
+        Files.createDirectories(work);
+        try {
+            git(work, "init", "-q", "-b", "main");
+        } catch (IOException e) {
+            System.out.println("git is not available, skipping: " + e.getMessage());
+            return null;
+        }
+        Files.createDirectories(work.resolve("src/nested"));
+        for (int i = 0; i < COMMITS; i++) {
+            commit(work, i);
+            if (i == 0) {
+                git(work, "tag", "v1");
+            }
+        }
+        return work;
+    }
+
+    private static void commit(Path work, int number) throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < 300; line++) {
+            text.append("line ").append(line).append(line % 50 == number % 50 ? " changed in " + number : "").append('\n');
+        }
+        Files.write(work.resolve("src/Main.java"), text.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(work.resolve("src/nested/notes.txt"), ("notes " + number / 3 + "\n" + text).getBytes(StandardCharsets.UTF_8));
+        Files.write(work.resolve("README"), ("readme " + number + "\n").getBytes(StandardCharsets.UTF_8));
+        git(work, "add", "-A");
+        git(work, "commit", "-q", "-m", "commit " + number);
+    }
+
+    /**
+     * Checks every commit reachable from any ref against {@code git rev-list}, {@code git ls-tree} and
+     * {@code git cat-file}.
+     */
+    private static void compareWithGit(Path work, GitRepository repository) throws Exception {
+        String[] commits = git(work, "rev-list", "--all", "--parents").trim().split("\n");
+        assertTrue(commits.length >= COMMITS, "commits listed by git");
+        for (String line : commits) {
+            String[] ids = line.split(" ");
+            GitRepository.Commit commit = repository.readCommit(GitRepository.ObjectId.parse(ids[0]));
+            assertEquals(ids[0], commit.getId().toString(), "commit id");
+            List<String> parents = new ArrayList<>();
+            for (GitRepository.ObjectId parent : commit.getParents()) {
+                parents.add(parent.toString());
+            }
+            assertEquals(Arrays.asList(ids).subList(1, ids.length), parents, "parents of " + ids[0]);
+            assertEquals(git(work, "rev-parse", ids[0] + "^{tree}").trim(), commit.getTree().toString(), "tree of " + ids[0]);
+            assertEquals("Test Author", commit.getAuthorName(), "author");
+            assertEquals("author@example.com", commit.getAuthorEmail(), "author email");
+            assertEquals(Long.parseLong(git(work, "log", "-1", "--format=%ct", ids[0]).trim()), commit.getCommitTimeSeconds(), "commit time");
+            compareTree(work, repository, commit.getTree());
+        }
+        assertEquals(git(work, "rev-parse", "HEAD").trim(), repository.resolve("HEAD").toString(), "HEAD");
+        assertEquals(git(work, "rev-parse", "v1^{commit}").trim(), repository.resolve("v1").toString(), "tag v1");
+    }
+
+    private static void compareTree(Path work, GitRepository repository, GitRepository.ObjectId id) throws Exception {
+        GitRepository.Tree tree = repository.readTree(id);
+        String[] entries = git(work, "ls-tree", id.toString()).trim().split("\n");
+        assertEquals(entries.length, tree.size(), "entries of tree " + id);
+        for (int entry = 0; entry < tree.size(); entry++) {
+            // <mode> SP <type> SP <id> TAB <name>
+            String[] fields = entries[entry].split("[ \t]", 4);
+            assertEquals(fields[3], tree.getName(entry), "name of entry " + entry + " of " + id);
+            assertEquals(fields[2], tree.getId(entry).toString(), "id of " + fields[3]);
+            assertEquals(fields[1].equals("tree"), tree.isTree(entry), "whether " + fields[3] + " is a tree");
+            if (tree.isTree(entry)) {
+                compareTree(work, repository, tree.getId(entry));
+            } else {
+                byte[] expected = gitBytes(work, "cat-file", "blob", fields[2]);
+                assertTrue(Arrays.equals(expected, repository.readBlob(tree.getId(entry))), "content of blob " + fields[3] + " " + fields[2]);
+            }
+        }
+    }
+
+    private static boolean hasDeltas(Path work) throws Exception {
+        for (Path pack : packs(work)) {
+            for (String line : git(work, "verify-pack", "-v", pack.toString()).split("\n")) {
+                // a deltified object lists its depth and base after the sizes and offset
+                if (line.matches("[0-9a-f]{40} \\w+\\s+\\d+ \\d+ \\d+ \\d+ [0-9a-f]{40}")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<Path> packs(Path work) throws IOException {
+        Path packDirectory = work.resolve(".git/objects/pack");
+        if (!Files.isDirectory(packDirectory)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(packDirectory)) {
+            List<Path> packs = new ArrayList<>();
+            files.filter(file -> file.toString().endsWith(".idx")).forEach(packs::add);
+            return packs;
+        }
+    }
+
+    private static String git(Path directory, String... args) throws Exception {
+        return new String(gitBytes(directory, args), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gitBytes(Path directory, String... args) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList("git", "-c", "user.name=Test Author", "-c", "user.email=author@example.com",
+                "-c", "gc.auto=0", "-c", "commit.gpgsign=false", "-c", "tag.gpgsign=false"));
+        command.addAll(Arrays.asList(args));
+        ProcessBuilder builder = new ProcessBuilder(command).directory(directory.toFile());
+        builder.environment().put("GIT_CONFIG_NOSYSTEM", "1");
+        builder.environment().put("GIT_CONFIG_GLOBAL", "/dev/null");
+        Process process = builder.start();
+        byte[] output;
+        byte[] errors;
+        try (InputStream in = process.getInputStream(); InputStream err = process.getErrorStream()) {
+            output = in.readAllBytes();
+            errors = err.readAllBytes();
+        }
+        int status = process.waitFor();
+        if (status != 0) {
+            throw new AssertionError("git " + String.join(" ", args) + " failed with " + status + ": " + new String(errors, StandardCharsets.UTF_8));
+        }
+        return output;
+    }
+}
@@ -0,0 +1,178 @@
+package tests;
+
+import analyser.CodeAnalyzer;
+import analyser.FileAnalysis;
+import analyser.Language;
+import analyser.Languages;
+import analyser.Lexer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static tests.Assertions.assertEquals;
+
+/**
+ * Line classes and decision points of the built-in {@link Languages}: strings that look like comments, comments
+ * that end before code, and what counts as a branch.
+ */
+final class LexerRulesTest {
+
+    private LexerRulesTest() {
+    }
+
+    static void testJavaTextBlockIsCode(Path directory) {
+        assertEquals("[code, code, code, code, code]", classify(Languages.JAVA,
+                "String query = \"\"\"",
+                "    // TODO not a comment",
+                "    /* nor this */ \"quoted\" text",
+                "    \"\"\";",
+                "int x = 1;"), "everything between the delimiters is string content");
+        assertEquals("[code, code, code]", classify(Languages.JAVA,
+                "String s = \"\"\"",
+                "    escaped \\\"\"\" is not the end",
+                "    \"\"\"; int y;"), "an escaped quote does not close the block");
+        assertEquals("[code, code comment todo]", classify(Languages.JAVA,
+                "String empty = \"\";",
+                "String also = \"\" + \"\"; // TODO"), "an empty string is not a text block");
+    }
+
+    static void testJavaCharLiterals(Path directory) {
+        assertEquals("[code, code comment todo, code, code, code]", classify(Languages.JAVA,
+                "char quote = '\"';",
+                "char slash = '/'; // TODO after a char",
+                "char escaped = '\\'';",
+                "char backslash = '\\\\'; int after = 1;",
+                "char star = '*'; char open = '/';"), "char literals holding quotes and comment characters");
+        assertEquals("[code, code]", classify(Languages.JAVA,
+                "boolean b = c == '/' && d == '*';",
+                "int x = 1;"), "a slash and a star in separate literals do not open a comment");
+    }
+
+    static void testPythonDocstringsAreComments(Path directory) {
+        assertEquals("[code, comment todo, code]", classify(Languages.PYTHON,
+                "def f():",
+                "    \"\"\"One line docstring. TODO document the rest\"\"\"",
+                "    return 1"), "one-line docstring");
+        assertEquals("[code, comment, comment, blank, comment fixme, comment, code]", classify(Languages.PYTHON,
+                "def g():",
+                "    '''",
+                "    Multi-line docstring.",
+                "",
+                "    FIXME: wrong",
+                "    '''",
+                "    return 2"), "multi-line docstring, blank lines inside it stay blank");
+    }
+
+    static void testPythonStringsAssignedInCodeAreCode(Path directory) {
+        assertEquals("[code, code, code, code, comment todo]", classify(Languages.PYTHON,
+                "template = '''",
+                "# TODO not a comment",
+                "text",
+                "'''",
+                "# TODO a real one"), "a triple-quoted string assigned to a name");
+        assertEquals("[code, code]", classify(Languages.PYTHON,
+                "call(\"\"\"first",
+                "last\"\"\")"), "a triple-quoted string passed as an argument");
+        assertEquals("[code, code]", classify(Languages.PYTHON,
+                "hash = '#'",
+                "empty = '' + \"\""), "single-quoted strings holding a hash");
+    }
+
+    static void testJavaScriptTemplateLiterals(Path directory) {
+        assertEquals("[code, code, code, code, comment todo]", classify(Languages.JAVASCRIPT,
+                "const html = `<div>",
+                "  // TODO not a comment ${name}",
+                "  /* nor this`;",
+                "let x = `one line`; let y = '`';",
+                "// TODO a real one"), "template literals span lines and hide comment markers");
+    }
+
+    static void testBlockCommentClosingBeforeCode(Path directory) {
+        assertEquals("[comment, code comment, comment todo, comment, code comment todo, code comment]", classify(Languages.JAVA,
+                "/* starts here",
+                "   ends here */ int x = 1;",
+                "/* TODO",
+                "   */",
+                "/* TODO */ int y = 2;",
+                "int z = 3; /* trailing */"), "code after a closing delimiter makes the line code");
+        assertEquals("[code comment]", classify(Languages.C, "a = 1; /* one */ b = 2; /* two"),
+                "a second comment opened on the same line");
+        assertEquals("[comment, code comment]", classify(Languages.MARKUP, "<!-- header", "--> <p>text</p>"),
+                "markup comments close the same way");
+    }
+
+    static void testTernariesCountButWildcardsAndNullOperatorsDoNot(Path directory) throws IOException {
+        assertEquals(3, decisionPoints(Languages.JAVA,
+                "int a = x > 0 ? 1 : 2;",
+                "int b = y ? z ? 1 : 2 : 3;"), "each conditional operator");
+        assertEquals(0, decisionPoints(Languages.JAVA,
+                "List<?> any;",
+                "Map<?, ?> both;",
+                "Class<? extends T> bound;",
+                "char q = '?'; String s = \"a ? b : c\"; // c ? d : e"), "wildcards, literals and comments");
+        assertEquals(1, decisionPoints(Languages.JAVASCRIPT,
+                "const a = b?.c ?? d;",
+                "const e = f ? g : h;"), "optional chaining and nullish coalescing");
+        assertEquals(3, decisionPoints(Languages.JAVA, "if (a && b || c) {"), "keyword and logical operators");
+
+        Path file = directory.resolve("Ternary.java");
+        Files.write(file, List.of("class Ternary {", "    int f(int x) { return x > 0 ? x : -x; }", "}"), StandardCharsets.UTF_8);
+        assertEquals(2, CodeAnalyzer.analyzeFile(file).getComplexity(), "complexity is one more than the decision points");
+    }
+
+    static void testPythonAndOrCountAsBranches(Path directory) throws IOException {
+        assertEquals(4, decisionPoints(Languages.PYTHON,
+                "if a and b or c:",
+                "    x = d and e"), "and/or and the if");
+        assertEquals(0, decisionPoints(Languages.PYTHON,
+                "android = order + band",
+                "s = 'a and b or c'",
+                "# if a and b"), "names containing and/or, strings and comments");
+
+        Path file = directory.resolve("branches.py");
+        Files.write(file, List.of("def f(a, b):", "    \"\"\"True if a or b.\"\"\"", "    return a and not b or b"),
+                StandardCharsets.UTF_8);
+        FileAnalysis analysis = CodeAnalyzer.analyzeFile(file);
+        assertEquals(3, analysis.getComplexity(), "the docstring's or is not counted");
+        assertEquals(1, analysis.getCommentLineCount(), "the docstring is a comment line");
+    }
+
+    static void testMarkupHasNoComplexity(Path directory) {
+        assertEquals(-1, decisionPoints(Languages.MARKUP, "<p>if a && b ? c : d</p>"), "no control flow");
+    }
+
+    private static String classify(Language language, String... lines) {
+        Lexer lexer = language.newLexer();
+        List<String> classes = new ArrayList<>();
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            int flags = lexer.scanLine(bytes, 0, bytes.length);
+            StringBuilder names = new StringBuilder();
+            append(names, flags, Lexer.CODE, "code");
+            append(names, flags, Lexer.COMMENT, "comment");
+            append(names, flags, Lexer.TODO, "todo");
+            append(names, flags, Lexer.FIXME, "fixme");
+            classes.add(names.length() == 0 ? "blank" : names.toString());
+        }
+        return classes.toString();
+    }
+
+    private static void append(StringBuilder names, int flags, int flag, String name) {
+        if ((flags & flag) != 0) {
+            names.append(names.length() == 0 ? "" : " ").append(name);
+        }
+    }
+
+    private static int decisionPoints(Language language, String... lines) {
+        Lexer lexer = language.newLexer();
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            lexer.scanLine(bytes, 0, bytes.length);
+        }
+        return lexer.getDecisionPoints();
+    }
+}
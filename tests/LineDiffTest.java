@@ -0,0 +1,134 @@
+package tests;
+
+import analyser.LineDiff;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertThrows;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Line mappings of {@link LineDiff}: edits, moves, repeated lines and the line splitting it works on.
+ */
+final class LineDiffTest {
+
+    private LineDiffTest() {
+    }
+
+    static void testIdenticalAndEmptyVersions(Path directory) {
+        List<String> lines = Arrays.asList("a", "b", "a");
+        assertEquals("[0, 1, 2]", map(lines, lines), "identical versions");
+        assertEquals("[-1, -1, -1]", map(lines, Collections.emptyList()), "everything removed");
+        assertEquals("[]", map(Collections.emptyList(), lines), "everything added");
+    }
+
+    static void testInsertedRemovedAndChangedLines(Path directory) {
+        List<String> before = Arrays.asList("one", "two", "three", "four", "five");
+
+        assertEquals("[1, 2, 3, 4, 5]", map(before, Arrays.asList("zero", "one", "two", "three", "four", "five")), "line added first");
+        assertEquals("[0, 1, 3, 4, 5]", map(before, Arrays.asList("one", "two", "2.5", "three", "four", "five")), "line added inside");
+        assertEquals("[0, -1, 1, -1, 2]", map(before, Arrays.asList("one", "three", "five")), "lines removed");
+        assertEquals("[0, 1, -1, 3, 4]", map(before, Arrays.asList("one", "two", "THREE", "four", "five")), "line changed");
+    }
+
+    static void testMovedBlockKeepsTheLongestRunInOrder(Path directory) {
+        List<String> before = Arrays.asList("a", "b", "c", "d", "e");
+        List<String> after = Arrays.asList("d", "e", "x", "a", "b", "c");
+
+        assertEquals("[3, 4, 5, -1, -1]", map(before, after), "the longer block stays, the shorter one counts as moved");
+    }
+
+    static void testRepeatedLinesAreMatchedAroundUniqueAnchors(Path directory) {
+        // braces and blank lines repeat; the method names anchor them
+        List<String> before = Arrays.asList("void a() {", "    x();", "    z();", "}", "", "void b() {", "    y();", "}");
+        List<String> after = Arrays.asList("void b() {", "    y();", "}", "", "void a() {", "    x();", "    z();", "}", "", "void c() {", "}");
+
+        assertEquals("[4, 5, 6, 7, 8, -1, -1, 10]", map(before, after), "longer method kept when methods swap places");
+        assertEquals("[-1, -1, -1]", map(Arrays.asList("}", "}", "x"), Arrays.asList("y", "}", "}", "}")),
+                "only repeated lines in between, nothing anchors them");
+    }
+
+    static void testRandomEditsKeepEveryUnchangedLine(Path directory) {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<String> before = new ArrayList<>();
+            for (int i = 0, size = 1 + random.nextInt(60); i < size; i++) {
+                before.add("line " + i);
+            }
+            // every line is unique, so each line that is neither removed nor changed must be found again
+            List<String> after = new ArrayList<>();
+            int[] expected = new int[before.size()];
+            for (int i = 0; i < before.size(); i++) {
+                while (random.nextInt(4) == 0) {
+                    after.add("added " + round + "." + after.size());
+                }
+                int edit = random.nextInt(5);
+                if (edit == 0) {
+                    expected[i] = -1;
+                } else if (edit == 1) {
+                    expected[i] = -1;
+                    after.add(before.get(i) + " changed");
+                } else {
+                    expected[i] = after.size();
+                    after.add(before.get(i));
+                }
+            }
+
+            assertEquals(Arrays.toString(expected), map(before, after), "map of round " + round);
+        }
+    }
+
+    static void testMapMatchesEqualLinesInOrder(Path directory) {
+        Random random = new Random(7);
+        String[] alphabet = {"{", "}", "", "x", "y", "return;"};
+        for (int round = 0; round < 200; round++) {
+            List<String> before = randomLines(random, alphabet);
+            List<String> after = randomLines(random, alphabet);
+            int[] map = LineDiff.map(before, after);
+
+            int previous = -1;
+            for (int i = 0; i < map.length; i++) {
+                if (map[i] >= 0) {
+                    assertEquals(before.get(i), after.get(map[i]), "line " + i + " mapped to an equal line in round " + round);
+                    assertTrue(map[i] > previous, "mapping out of order at line " + i + " in round " + round);
+                    previous = map[i];
+                }
+            }
+        }
+    }
+
+    static void testLinesSplitsAtLineEnds(Path directory) {
+        assertEquals(Arrays.asList("a", "b"), LineDiff.lines("a\nb\n"), "trailing line end");
+        assertEquals(Arrays.asList("a", "b"), LineDiff.lines("a\r\nb"), "carriage returns and no trailing line end");
+        assertEquals(Arrays.asList("a", "", ""), LineDiff.lines("a\n\n\n"), "empty lines at the end");
+        assertEquals(Collections.singletonList(""), LineDiff.lines("\n"), "one empty line");
+        assertEquals(Collections.emptyList(), LineDiff.lines(""), "no text");
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        List<String> lines = LineDiff.lines(text);
+        assertEquals(200, lines.size(), "lines beyond the initial table");
+        assertEquals("line 199", lines.get(199), "last line");
+        assertThrows(IndexOutOfBoundsException.class, () -> lines.get(200), "line past the end");
+    }
+
+    private static String map(List<String> before, List<String> after) {
+        return Arrays.toString(LineDiff.map(before, after));
+    }
+
+    private static List<String> randomLines(Random random, String[] alphabet) {
+        List<String> lines = new ArrayList<>();
+        for (int i = random.nextInt(30); i > 0; i--) {
+            lines.add(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,80 @@
+package tests;
+
+import analyser.LogAppender;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Read-your-writes through {@link LogAppender#flush()} while other threads append and flush concurrently.
+ */
+final class LogAppenderTest {
+
+    private LogAppenderTest() {
+    }
+
+    static void testFlushWritesEveryRecordAppendedBeforeIt(Path directory) throws Exception {
+        int threads = 8;
+        int recordsPerThread = 300;
+        LogAppender appender = new LogAppender(64, 1000, LogAppender.FsyncPolicy.NEVER);
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Path file = directory.resolve("log-" + t);
+            int thread = t;
+            workers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < recordsPerThread && failure.get() == null; i++) {
+                        appender.append(file, (thread + ":" + i + "\n").getBytes(StandardCharsets.UTF_8));
+                        appender.flush();
+                        long lines = Files.size(file) == 0 ? 0 : Files.readAllLines(file).size();
+                        if (lines != i + 1) {
+                            failure.compareAndSet(null, "thread " + thread + " saw " + lines + " lines after flushing record " + (i + 1));
+                        }
+                    }
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e.toString());
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        appender.close();
+        assertEquals(null, failure.get(), "first record missing after its flush");
+        for (int t = 0; t < threads; t++) {
+            assertEquals(recordsPerThread, Files.readAllLines(directory.resolve("log-" + t)).size(), "records of thread " + t);
+        }
+    }
+
+    static void testMaxDepthDoesNotExceedTheCapacity(Path directory) throws Exception {
+        Path file = directory.resolve("log");
+        LogAppender appender = new LogAppender(4, 1000, LogAppender.FsyncPolicy.NEVER);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    appender.append(file, "x\n".getBytes(StandardCharsets.UTF_8));
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        appender.flush();
+        String stats = appender.getStats();
+        appender.close();
+        int max = Integer.parseInt(stats.replaceAll("(?s).*\\(max (\\d+) of.*", "$1"));
+        assertTrue(max <= 4, "max depth above the capacity: " + stats);
+        assertEquals(2000, Files.readAllLines(file).size(), "records written");
+    }
+}
@@ -0,0 +1,210 @@
+package tests;
+
+import analyser.MultiPatternSearch;
+import analyser.SearchTimeoutException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertThrows;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Matching many terms at once with {@link MultiPatternSearch}: overlapping literals, case folding, regular
+ * expressions on the same pass, context lines and ranking.
+ */
+final class MultiPatternSearchTest {
+
+    private MultiPatternSearchTest() {
+    }
+
+    static void testOverlappingLiteralsAllMatch(Path directory) throws Exception {
+        Path file = write(directory, "a.txt", "ushers\nnothing\n");
+        MultiPatternSearch search = compile("he", "she", "his", "hers");
+        List<MultiPatternSearch.Hit> hits = search(file, 0, search);
+
+        assertEquals(1, hits.size(), "matching lines");
+        assertEquals(1, hits.get(0).getLineNumber(), "line number");
+        assertEquals(Arrays.asList("she 1-4", "he 2-4", "hers 2-6"), matches(search, hits.get(0)), "matches");
+    }
+
+    static void testTermInsideAnotherTermIsFoundThroughTheFailureLinks(Path directory) throws Exception {
+        // "abcd" fails at 'x' after "abc"; "bc" and "c" are only reached through the failure links
+        Path file = write(directory, "a.txt", "abcx bcd abcd\n");
+        MultiPatternSearch search = compile("abcd", "bc", "c");
+        List<MultiPatternSearch.Hit> hits = search(file, 0, search);
+
+        assertEquals(Arrays.asList("bc 1-3", "c 2-3", "bc 5-7", "c 6-7", "abcd 9-13", "bc 10-12", "c 11-12"),
+                matches(search, hits.get(0)), "matches");
+    }
+
+    static void testSelfOverlappingTerms(Path directory) throws Exception {
+        Path file = write(directory, "a.txt", "aaaa\n");
+        MultiPatternSearch search = compile("aa", "aaa");
+        long[] termMatches = new long[2];
+        List<MultiPatternSearch.Hit> hits = new ArrayList<>();
+        search.searchFile(file, 0, hits::add, termMatches);
+
+        assertEquals(Arrays.asList("aa 0-2", "aaa 0-3", "aa 1-3", "aaa 1-4", "aa 2-4"), matches(search, hits.get(0)), "matches");
+        assertEquals(3, termMatches[0], "matches of aa");
+        assertEquals(2, termMatches[1], "matches of aaa");
+    }
+
+    static void testCaseSensitiveAndIgnoreCaseTermsShareTheAutomaton(Path directory) throws Exception {
+        Path file = write(directory, "a.txt", "// TODO one\n// todo two\n// ToDo three\n");
+        MultiPatternSearch both = compile("TODO", "i:todo");
+        List<MultiPatternSearch.Hit> hits = search(file, 0, both);
+
+        assertEquals(Arrays.asList(1), lineNumbers(search(file, 0, compile("TODO"))), "lines with TODO");
+        assertEquals(Arrays.asList(1, 2, 3), lineNumbers(search(file, 0, compile("i:todo"))), "lines with any case of todo");
+        assertEquals(Arrays.asList("TODO 3-7", "i:todo 3-7"), matches(both, hits.get(0)), "both terms on the first line");
+        assertEquals(Arrays.asList("i:todo 3-7"), matches(both, hits.get(2)), "third line");
+    }
+
+    static void testRegexRunsOnTheSamePass(Path directory) throws Exception {
+        Path file = write(directory, "a.txt", "int x = 42;\nFIXME later\nnone\n");
+        MultiPatternSearch search = compile("FIXME", "re:\\d+");
+        List<MultiPatternSearch.Hit> hits = search(file, 0, search);
+
+        assertEquals(Arrays.asList(1, 2), lineNumbers(hits), "matching lines");
+        assertEquals(Arrays.asList("re:\\d+ 8-10"), matches(search, hits.get(0)), "regex match");
+        assertEquals(Arrays.asList("FIXME 0-5"), matches(search, hits.get(1)), "literal match");
+    }
+
+    static void testOffsetsAreInCharacters(Path directory) throws Exception {
+        Path file = write(directory, "a.txt", "// h\u00e9llo w\u00f6rld TODO\n");
+        MultiPatternSearch search = compile("TODO", "i:W\u00d6RLD");
+        MultiPatternSearch.Hit hit = search(file, 0, search).get(0);
+
+        assertEquals(Arrays.asList("i:W\u00d6RLD 9-14", "TODO 15-19"), matches(search, hit), "matches");
+        assertEquals("TODO", hit.getLine().substring(hit.getStart(0), hit.getEnd(0)), "matched text");
+    }
+
+    static void testContextLines(Path directory) throws Exception {
+        Path file = write(directory, "a.txt", "one\ntwo\nTODO three\nfour\nTODO five\n");
+        List<MultiPatternSearch.Hit> hits = search(file, 1, compile("TODO"));
+
+        assertEquals(Arrays.asList(3, 5), lineNumbers(hits), "matching lines");
+        assertEquals(Arrays.asList("two"), hits.get(0).getBefore(), "before the first hit");
+        assertEquals(Arrays.asList("four"), hits.get(0).getAfter(), "after the first hit");
+        assertEquals(Arrays.asList("four"), hits.get(1).getBefore(), "before the last hit");
+        assertEquals(Collections.emptyList(), hits.get(1).getAfter(), "nothing after the last line");
+    }
+
+    static void testSearchCountsFilesAndStopsAtTheLimit(Path directory) throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            files.add(write(directory, i + ".txt", i % 2 == 0 ? "TODO\nTODO\n" : "clean\n"));
+        }
+        MultiPatternSearch search = compile("TODO");
+        List<MultiPatternSearch.Hit> hits = Collections.synchronizedList(new ArrayList<>());
+        MultiPatternSearch.Summary summary = search.search(files, ForkJoinPool.commonPool(), 0, 100, hits::add, null);
+
+        assertEquals(3, summary.getMatchedFiles(), "matched files");
+        assertEquals(6, summary.getHitCount(), "hits");
+        assertEquals(6, summary.getTermMatches(0), "term matches");
+        assertEquals(6, hits.size(), "reported hits");
+
+        hits.clear();
+        MultiPatternSearch.Summary limited = search.search(files, ForkJoinPool.commonPool(), 0, 3, hits::add, null);
+        assertTrue(limited.isTruncated(), "truncated at the limit");
+        assertEquals(3, hits.size(), "hits reported up to the limit");
+    }
+
+    static void testBacktrackingRegexGivesUpAtTheTimeLimit(Path directory) throws Exception {
+        Path slow = write(directory, "slow.txt", "a".repeat(60) + "!\n");
+        Path quick = write(directory, "quick.txt", "a".repeat(20) + "!x\n");
+        MultiPatternSearch search = compile("re:(.*a){20}!x");
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            long start = System.nanoTime();
+            assertThrows(SearchTimeoutException.class, () -> search.search(Arrays.asList(slow, quick), pool, 0, 100, hit -> {
+            }, null, 200), "catastrophic backtracking");
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "gave up in time");
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS), "workers stopped after the time limit");
+
+            List<MultiPatternSearch.Hit> hits = Collections.synchronizedList(new ArrayList<>());
+            search.search(List.of(quick), pool, 0, 100, hits::add, null, 10_000);
+            assertEquals(1, hits.size(), "hits within the time limit");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    static void testRankPutsFilesWithMostMatchesFirst(Path directory) throws Exception {
+        Path few = write(directory, "few.txt", "x\nTODO\n");
+        Path many = write(directory, "many.txt", "TODO TODO\nx\nTODO\n");
+        Path tied = write(directory, "a-tied.txt", "TODO\n");
+        MultiPatternSearch search = compile("TODO");
+        List<MultiPatternSearch.Hit> hits = new ArrayList<>();
+        for (Path file : Arrays.asList(few, many, tied)) {
+            search.searchFile(file, 0, hits::add, null);
+        }
+        Collections.reverse(hits);
+        MultiPatternSearch.rank(hits);
+
+        List<String> ranked = new ArrayList<>();
+        for (MultiPatternSearch.Hit hit : hits) {
+            ranked.add(hit.getFile().getFileName() + ":" + hit.getLineNumber());
+        }
+        assertEquals(Arrays.asList("many.txt:1", "many.txt:3", "a-tied.txt:1", "few.txt:2"), ranked, "ranked hits");
+    }
+
+    static void testEmptyTermsAreRejected(Path directory) {
+        assertThrows(IllegalArgumentException.class, () -> compile("TODO", ""), "empty term");
+        assertThrows(IllegalArgumentException.class, () -> MultiPatternSearch.compile(new ArrayList<>()), "no terms");
+    }
+
+    private static MultiPatternSearch compile(String... specs) {
+        List<MultiPatternSearch.Term> terms = new ArrayList<>();
+        for (String spec : specs) {
+            terms.add(MultiPatternSearch.Term.parse(spec));
+        }
+        return MultiPatternSearch.compile(terms);
+    }
+
+    private static List<MultiPatternSearch.Hit> search(Path file, int contextLines, MultiPatternSearch search) throws Exception {
+        List<MultiPatternSearch.Hit> hits = new ArrayList<>();
+        search.searchFile(file, contextLines, hits::add, null);
+        hits.sort(Comparator.comparingInt(MultiPatternSearch.Hit::getLineNumber));
+        return hits;
+    }
+
+    /**
+     * The matches of a hit as {@code term start-end}, ordered by position and then by term, so the order the
+     * automaton reports them in does not matter.
+     */
+    private static List<String> matches(MultiPatternSearch search, MultiPatternSearch.Hit hit) {
+        List<int[]> positions = new ArrayList<>();
+        for (int i = 0; i < hit.getMatchCount(); i++) {
+            positions.add(new int[]{hit.getStart(i), hit.getEnd(i), hit.getTerm(i)});
+        }
+        positions.sort(Comparator.<int[]>comparingInt(p -> p[0]).thenComparingInt(p -> p[1]).thenComparingInt(p -> p[2]));
+        List<String> matches = new ArrayList<>();
+        for (int[] position : positions) {
+            matches.add(search.getTerms().get(position[2]) + " " + position[0] + "-" + position[1]);
+        }
+        return matches;
+    }
+
+    private static List<Integer> lineNumbers(List<MultiPatternSearch.Hit> hits) {
+        List<Integer> lineNumbers = new ArrayList<>();
+        for (MultiPatternSearch.Hit hit : hits) {
+            lineNumbers.add(hit.getLineNumber());
+        }
+        return lineNumbers;
+    }
+
+    private static Path write(Path directory, String name, String text) throws Exception {
+        return Files.write(directory.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
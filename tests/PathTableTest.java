@@ -0,0 +1,95 @@
+package tests;
+
+import analyser.PathTable;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Lookups and removals of {@link PathTable}, checked against a plain list of paths.
+ */
+final class PathTableTest {
+
+    private PathTableTest() {
+    }
+
+    static void testIndexOfFindsEveryPath(Path directory) {
+        PathTable table = new PathTable();
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Path path = Paths.get("/repo", "d" + i % 37, "s" + i % 5, "file" + i + ".java");
+            table.add(path);
+            paths.add(path);
+        }
+
+        for (int i = 0; i < paths.size(); i++) {
+            assertEquals(i, table.indexOf(paths.get(i)), "index of " + paths.get(i));
+        }
+        assertEquals(-1, table.indexOf(Paths.get("/repo", "d1", "s1", "missing.java")), "index of a missing file");
+        assertEquals(-1, table.indexOf(Paths.get("/elsewhere", "file1.java")), "index of a file in an unknown directory");
+        assertEquals(paths, table.toPaths(), "paths");
+    }
+
+    static void testRemovingADirectoryRemovesOnlyWhatIsBelowIt(Path directory) {
+        PathTable table = new PathTable();
+        List<Path> paths = Arrays.asList(Paths.get("/repo/a/x.java"), Paths.get("/repo/a-b/y.java"), Paths.get("/repo/a/b/z.java"),
+                Paths.get("/repo/ab/w.java"), Paths.get("/repo/a/v.java"), Paths.get("/repo/c.java"));
+        table.addAll(paths);
+
+        int[] removed = table.removeUnder(Paths.get("/repo/a"));
+
+        assertEquals("[0, 2, 4]", Arrays.toString(removed), "removed indices");
+        assertEquals(Arrays.asList(paths.get(1), paths.get(3), paths.get(5)), table.toPaths(), "paths left");
+        assertEquals(1, table.indexOf(paths.get(3)), "index after the removal");
+        assertEquals("/repo/c.java", table.get(2), "last path");
+        assertEquals(0, table.removeUnder(Paths.get("/repo/a")).length, "removing it again");
+
+        table.add(paths.get(0));
+        assertEquals(3, table.indexOf(paths.get(0)), "index of a path added again");
+    }
+
+    static void testRandomAddsAndRemovalsMatchAList(Path directory) {
+        Random random = new Random(7);
+        PathTable table = new PathTable();
+        List<Path> expected = new ArrayList<>();
+        for (int round = 0; round < 3000; round++) {
+            int choice = random.nextInt(10);
+            if (choice < 6) {
+                Path path = Paths.get("/repo", "d" + random.nextInt(8), "e" + random.nextInt(4), "f" + random.nextInt(400));
+                if (!expected.contains(path)) {
+                    table.add(path);
+                    expected.add(path);
+                }
+            } else {
+                Path target = choice < 8 || expected.isEmpty()
+                        ? Paths.get("/repo", "d" + random.nextInt(8), "e" + random.nextInt(4))
+                        : expected.get(random.nextInt(expected.size()));
+                List<Integer> indices = new ArrayList<>();
+                for (int i = 0; i < expected.size(); i++) {
+                    if (expected.get(i).startsWith(target)) {
+                        indices.add(i);
+                    }
+                }
+                int[] removed = table.removeUnder(target);
+                assertEquals(indices.toString(), Arrays.toString(removed), "indices removed under " + target + " in round " + round);
+                expected.removeIf(path -> path.startsWith(target));
+            }
+            assertEquals(expected.size(), table.size(), "size in round " + round);
+            if (round % 50 == 0) {
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).toString(), table.get(i), "path " + i + " in round " + round);
+                    assertEquals(i, table.indexOf(expected.get(i)), "index of " + expected.get(i) + " in round " + round);
+                }
+            }
+        }
+        assertTrue(table.size() > 0, "paths left at the end");
+        assertEquals(expected, table.toPaths(), "paths at the end");
+    }
+}
@@ -0,0 +1,260 @@
+package tests;
+
+import analyser.LogAppender;
+import analyser.LogFilter;
+import analyser.LogView;
+import analyser.RecordStore;
+import analyser.StoredRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertFalse;
+import static tests.Assertions.assertThrows;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Round trips, torn tails and damaged records of {@link RecordStore}.
+ */
+final class RecordStoreTest {
+
+    private static final byte USERS = 1;
+    private static final byte HISTORY = 2;
+    private static final int HEADER_BYTES = 16;
+    private static final LogFilter ALL = new LogFilter(null, null, null, null, null);
+
+    private RecordStoreTest() {
+    }
+
+    /**
+     * A store and the appender that writes to it, closed in the order the store requires.
+     */
+    private static final class OpenStore implements AutoCloseable {
+        private final LogAppender appender = new LogAppender(1024, 10, LogAppender.FsyncPolicy.NEVER);
+        private final RecordStore store;
+
+        private OpenStore(Path file) throws IOException {
+            RecordStore opened;
+            try {
+                opened = RecordStore.open(file, appender, USERS);
+            } catch (IOException e) {
+                appender.close();
+                throw e;
+            }
+            this.store = opened;
+        }
+
+        @Override
+        public void close() throws IOException {
+            appender.close();
+            store.close();
+        }
+    }
+
+    static void testRecordsSurviveReopenWithAndWithoutTheSavedIndex(Path directory) throws Exception {
+        Path file = directory.resolve("analyser.db");
+        List<String> written = new ArrayList<>();
+        try (OpenStore open = new OpenStore(file)) {
+            for (int i = 0; i < 500; i++) {
+                StoredRecord record = new StoredRecord(HISTORY, 1_000_000L * i, "user" + i % 7, "file" + i % 11, "action" + i % 3,
+                        "details " + i, "multi\nline, with commas " + i);
+                open.store.append(record);
+                written.add(record.toString());
+            }
+            assertEquals(written, read(open.store.query(HISTORY, ALL)), "records before reopen");
+        }
+        try (OpenStore open = new OpenStore(file)) {
+            assertEquals(written, read(open.store.query(HISTORY, ALL)), "records read through the saved index");
+        }
+        Files.delete(file.resolveSibling(file.getFileName() + ".idx"));
+        try (OpenStore open = new OpenStore(file)) {
+            assertEquals(written, read(open.store.query(HISTORY, ALL)), "records read by scanning the file");
+        }
+    }
+
+    static void testQueriesFilterOnEveryIndexedColumn(Path directory) throws Exception {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate day = LocalDate.of(2024, 3, 1);
+        try (OpenStore open = new OpenStore(directory.resolve("analyser.db"))) {
+            for (int i = 0; i < 30; i++) {
+                long timestamp = day.plusDays(i % 10).atTime(12, 0).atZone(zone).toInstant().toEpochMilli();
+                open.store.append(new StoredRecord(HISTORY, timestamp, i % 2 == 0 ? "alice" : "bob", "file" + i % 3, i % 5 == 0 ? "Search" : "View"));
+            }
+            assertEquals(15, open.store.query(HISTORY, new LogFilter("alice", null, null, null, null)).size(), "records of one user");
+            assertEquals(10, open.store.query(HISTORY, new LogFilter(null, "file1", null, null, null)).size(), "records of one file");
+            assertEquals(6, open.store.query(HISTORY, new LogFilter(null, null, null, null, "Search")).size(), "records of one action");
+            assertEquals(9, open.store.query(HISTORY, new LogFilter(null, null, day.plusDays(2), day.plusDays(4), null)).size(), "records of three days");
+            assertEquals(1, open.store.query(HISTORY, new LogFilter("alice", "file0", day, day.plusDays(9), "Search")).size(), "records matching every filter");
+            assertEquals(0, open.store.query(HISTORY, new LogFilter("carol", null, null, null, null)).size(), "records of an unknown user");
+            assertEquals(0, open.store.query(USERS, ALL).size(), "records of an empty table");
+        }
+    }
+
+    static void testKeyedTableKeepsTheLatestRecordOfEachUser(Path directory) throws Exception {
+        Path file = directory.resolve("analyser.db");
+        try (OpenStore open = new OpenStore(file)) {
+            open.store.append(new StoredRecord(USERS, 1, "alice", null, null, "first"));
+            open.store.append(new StoredRecord(USERS, 2, "bob", null, null, "only"));
+            open.store.append(new StoredRecord(USERS, 3, "alice", null, null, "second"));
+            open.store.append(new StoredRecord(USERS, 4, "carol", null, null, "removed"));
+            open.store.append(StoredRecord.deletion(USERS, 5, "carol"));
+            assertEquals(Arrays.asList("bob=only", "alice=second"), values(open.store.latest(USERS)), "live users");
+        }
+        try (OpenStore open = new OpenStore(file)) {
+            assertEquals(Arrays.asList("bob=only", "alice=second"), values(open.store.latest(USERS)), "live users after reopen");
+            assertEquals(2, open.store.query(USERS, ALL).size(), "live records returned by a query");
+        }
+    }
+
+    static void testTornTailIsCutOffAndLaterAppendsAreReadable(Path directory) throws Exception {
+        Path file = directory.resolve("analyser.db");
+        List<String> written = writeHistory(file, 10);
+        long validLength = Files.size(file);
+        byte[] bytes = Files.readAllBytes(file);
+        List<Long> offsets = frameOffsets(bytes);
+        // the first 30 bytes of a record, as if the process died while writing it
+        byte[] torn = Arrays.copyOfRange(bytes, offsets.get(0).intValue(), offsets.get(0).intValue() + 30);
+        Files.write(file, concat(bytes, torn));
+
+        try (OpenStore open = new OpenStore(file)) {
+            assertEquals(written, read(open.store.query(HISTORY, ALL)), "records before the torn one");
+            assertEquals(validLength, Files.size(file), "file length after the torn record is cut off");
+            StoredRecord record = new StoredRecord(HISTORY, 100_000, "late", "file", "action", "after the crash");
+            open.store.append(record);
+            written.add(record.toString());
+        }
+        try (OpenStore open = new OpenStore(file)) {
+            assertEquals(written, read(open.store.query(HISTORY, ALL)), "records after appending behind the cut");
+        }
+    }
+
+    static void testDamagedRecordInTheMiddleIsSkipped(Path directory) throws Exception {
+        Path file = directory.resolve("analyser.db");
+        List<String> written = writeHistory(file, 10);
+        byte[] bytes = Files.readAllBytes(file);
+        long offset = frameOffsets(bytes).get(3);
+        bytes[(int) offset + 20] ^= 0x55;
+        Files.write(file, bytes);
+        deleteIndex(file);
+
+        written.remove(3);
+        try (OpenStore open = new OpenStore(file)) {
+            assertEquals(written, read(open.store.query(HISTORY, ALL)), "records around the damaged one");
+        }
+        try (OpenStore open = new OpenStore(file)) {
+            assertEquals(written, read(open.store.query(HISTORY, ALL)), "records after compaction dropped the damaged one");
+            assertTrue(open.store.getStats().contains("Skipped Bytes: 0"), "compaction left no skipped bytes: " + open.store.getStats());
+        }
+    }
+
+    static void testDamagedLengthInTheMiddleKeepsTheRecordsBehindIt(Path directory) throws Exception {
+        Path file = directory.resolve("analyser.db");
+        List<String> written = writeHistory(file, 10);
+        byte[] bytes = Files.readAllBytes(file);
+        long offset = frameOffsets(bytes).get(4);
+        // a length that runs past the end of the file, like a torn tail would
+        ByteBuffer.wrap(bytes).putInt((int) offset + 4, 1 << 20);
+        Files.write(file, bytes);
+        deleteIndex(file);
+
+        written.remove(4);
+        try (OpenStore open = new OpenStore(file)) {
+            assertEquals(written, read(open.store.query(HISTORY, ALL)), "records around the one with a damaged length");
+        }
+    }
+
+    static void testGarbageBetweenRecordsIsSkipped(Path directory) throws Exception {
+        Path file = directory.resolve("analyser.db");
+        List<String> written = writeHistory(file, 10);
+        byte[] bytes = Files.readAllBytes(file);
+        int offset = frameOffsets(bytes).get(6).intValue();
+        byte[] garbage = new byte[100];
+        Arrays.fill(garbage, (byte) 0x7F);
+        // a sync marker with nothing valid behind it must not hide the next record
+        garbage[10] = 'R';
+        garbage[11] = 'E';
+        garbage[12] = 'C';
+        garbage[13] = '\n';
+        Files.write(file, concat(Arrays.copyOf(bytes, offset), garbage, Arrays.copyOfRange(bytes, offset, bytes.length)));
+        deleteIndex(file);
+
+        try (OpenStore open = new OpenStore(file)) {
+            assertEquals(written, read(open.store.query(HISTORY, ALL)), "records on both sides of the garbage");
+        }
+    }
+
+    static void testForeignFileIsRejected(Path directory) throws Exception {
+        Path file = directory.resolve("analyser.db");
+        Files.write(file, "user,password\nalice,secret\n".getBytes());
+        IOException e = assertThrows(IOException.class, () -> new OpenStore(file).close(), "opening a CSV file");
+        assertTrue(e.getMessage().contains("Not a record store"), "message: " + e.getMessage());
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".idx")), "index written for a foreign file");
+    }
+
+    private static List<String> writeHistory(Path file, int count) throws IOException {
+        List<String> written = new ArrayList<>();
+        try (OpenStore open = new OpenStore(file)) {
+            for (int i = 0; i < count; i++) {
+                StoredRecord record = new StoredRecord(HISTORY, 1000L * i, "user" + i, "file" + i, "action", "value " + i);
+                open.store.append(record);
+                written.add(record.toString());
+            }
+        }
+        return written;
+    }
+
+    private static List<String> read(LogView view) {
+        List<String> records = new ArrayList<>();
+        for (int row = 0; row < view.size(); row++) {
+            records.add(view.get(row).toString());
+        }
+        return records;
+    }
+
+    private static List<String> values(Map<String, StoredRecord> records) {
+        List<String> values = new ArrayList<>();
+        for (Map.Entry<String, StoredRecord> entry : records.entrySet()) {
+            values.add(entry.getKey() + "=" + entry.getValue().getValue(0));
+        }
+        return values;
+    }
+
+    /**
+     * Start offsets of the records in an undamaged store file, from the length in each frame.
+     */
+    private static List<Long> frameOffsets(byte[] bytes) {
+        List<Long> offsets = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = HEADER_BYTES;
+        while (position < bytes.length) {
+            offsets.add(position);
+            position += 12 + buffer.getInt((int) position + 4);
+        }
+        return offsets;
+    }
+
+    private static void deleteIndex(Path file) throws IOException {
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".idx"));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] part : parts) {
+            buffer.put(part);
+        }
+        return buffer.array();
+    }
+}
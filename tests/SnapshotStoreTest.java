@@ -0,0 +1,268 @@
+package tests;
+
+import analyser.SnapshotStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static tests.Assertions.assertEquals;
+import static tests.Assertions.assertFalse;
+import static tests.Assertions.assertThrows;
+import static tests.Assertions.assertTrue;
+
+/**
+ * Round trips, torn tails and damaged frames of {@link SnapshotStore}.
+ */
+final class SnapshotStoreTest {
+
+    private static final int HEADER_BYTES = 8;
+    private static final int FRAME_BYTES = 12;
+    private static final byte CHUNK = 1;
+    private static final byte SNAPSHOT = 2;
+
+    private SnapshotStoreTest() {
+    }
+
+    static void testVersionsSurviveReopen(Path directory) throws Exception {
+        Path file = directory.resolve("snapshots.db");
+        List<String> texts = edits(SnapshotStore.MAX_CHAIN_LENGTH + 10);
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            for (String text : texts) {
+                store.record("src/A.java", text, "alice");
+            }
+            store.record("src/B.java", "class B {}\n", "bob");
+            assertEquals(null, store.record("src/B.java", "class B {}\n", "bob"), "unchanged text recorded again");
+        }
+
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            List<SnapshotStore.Version> versions = store.versions("src/A.java");
+            assertEquals(texts.size(), versions.size(), "versions of A");
+            assertTrue(versions.get(0).isKeyframe(), "first version is a keyframe");
+            assertFalse(versions.get(1).isKeyframe(), "small edit is stored as a diff");
+            boolean laterKeyframe = false;
+            for (int number = 1; number <= texts.size(); number++) {
+                assertEquals(texts.get(number - 1), store.text("src/A.java", number), "text of version " + number);
+                laterKeyframe |= number > 1 && versions.get(number - 1).isKeyframe();
+            }
+            assertTrue(laterKeyframe, "a long chain starts a new keyframe");
+            assertEquals("alice", versions.get(0).getUser(), "user");
+            assertEquals("class B {}\n", store.text("src/B.java", 1), "text of B");
+            assertEquals(1, store.versions("src/B.java").size(), "versions of B");
+        }
+    }
+
+    static void testRevertingStoresNoNewChunk(Path directory) throws Exception {
+        Path file = directory.resolve("snapshots.db");
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            String original = String.join("", edits(1));
+            store.record("a.txt", original, "alice");
+            store.record("a.txt", original + "added\n", "alice");
+            store.record("a.txt", original, "alice");
+            long before = store.getStoredBytes();
+            store.record("a.txt", original + "added\n", "alice");
+            long versionBytes = store.getStoredBytes() - before;
+
+            assertTrue(versionBytes < 200, "reverting to a stored text costs " + versionBytes + " bytes");
+            assertEquals(original + "added\n", store.text("a.txt", 4), "text after reverting");
+        }
+    }
+
+    static void testChangesListsRemovedAndAddedLines(Path directory) throws Exception {
+        try (SnapshotStore store = SnapshotStore.open(directory.resolve("snapshots.db"))) {
+            store.record("a.txt", "one\ntwo\nthree\n", "alice");
+            SnapshotStore.Version version = store.record("a.txt", "one\n2\nthree\nfour\n", "alice");
+
+            assertEquals(2, version.getLinesAdded(), "lines added");
+            assertEquals(1, version.getLinesRemoved(), "lines removed");
+            assertEquals("@@ line 2 @@\n+ 2\n- two\n+ four\n", store.changes("a.txt", 2), "changes");
+        }
+    }
+
+    static void testTornTailIsCutOffAndLaterVersionsAreReadable(Path directory) throws Exception {
+        Path file = directory.resolve("snapshots.db");
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            store.record("a.txt", "one\n", "alice");
+            store.record("a.txt", "one\ntwo\n", "alice");
+        }
+        long complete = Files.size(file);
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            store.record("a.txt", "one\ntwo\nthree\n", "alice");
+        }
+        // every prefix of the last version's frames is a write torn at a different point
+        for (long cut = Files.size(file) - 1; cut > complete; cut -= 7) {
+            Path torn = directory.resolve("torn-" + cut + ".db");
+            Files.write(torn, Arrays.copyOf(Files.readAllBytes(file), (int) cut));
+            try (SnapshotStore store = SnapshotStore.open(torn)) {
+                assertEquals(2, store.versions("a.txt").size(), "versions kept when torn at " + cut);
+                assertTrue(Files.size(torn) <= cut && Files.size(torn) >= complete, "torn bytes cut off at " + cut);
+                store.record("a.txt", "one\ntwo\n3\n", "bob");
+            }
+            try (SnapshotStore store = SnapshotStore.open(torn)) {
+                assertEquals("one\ntwo\n3\n", store.text("a.txt", 3), "version appended after the cut at " + cut);
+            }
+        }
+    }
+
+    static void testDamagedLastVersionIsCutOff(Path directory) throws Exception {
+        Path file = directory.resolve("snapshots.db");
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            store.record("a.txt", "one\n", "alice");
+            store.record("a.txt", "one\ntwo\n", "alice");
+        }
+        List<Long> frames = frames(file);
+        long last = frames.get(frames.size() - 1);
+        flipByte(file, last + FRAME_BYTES + 3);
+
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            assertEquals(1, store.versions("a.txt").size(), "versions left");
+            assertEquals(last, Files.size(file), "file size");
+        }
+    }
+
+    static void testDamagedVersionInTheMiddleIsSkipped(Path directory) throws Exception {
+        Path file = directory.resolve("snapshots.db");
+        writeThreeFiles(file);
+        long version = framesOfKind(file, SNAPSHOT).get(0);
+        flipByte(file, version + FRAME_BYTES + 5);
+        byte[] damaged = Files.readAllBytes(file);
+
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            assertTrue(store.versions("a.txt").isEmpty(), "the damaged version is lost");
+            assertThrows(IOException.class, () -> store.text("a.txt", 1), "text of the damaged version");
+            assertEquals("b\n", store.text("b.txt", 1), "text behind the damage");
+            assertEquals("c\n", store.text("c.txt", 1), "text of the last file");
+            assertTrue(store.getSkippedBytes() > 0, "skipped bytes");
+        }
+        assertTrue(Arrays.equals(damaged, Files.readAllBytes(file)), "the damaged file is left as it was");
+    }
+
+    static void testDamagedLengthInTheMiddleIsSkipped(Path directory) throws Exception {
+        Path file = directory.resolve("snapshots.db");
+        writeThreeFiles(file);
+        long chunk = framesOfKind(file, CHUNK).get(1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 1 << 30), chunk + 4);
+        }
+        long size = Files.size(file);
+
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            assertEquals("a\n", store.text("a.txt", 1), "text ahead of the damage");
+            assertTrue(store.versions("b.txt").isEmpty(), "the version of the damaged chunk is lost");
+            assertEquals("c\n", store.text("c.txt", 1), "text behind the damage");
+        }
+        assertEquals(size, Files.size(file), "file size");
+    }
+
+    static void testUnknownFrameKindInTheMiddleIsSkipped(Path directory) throws Exception {
+        Path file = directory.resolve("snapshots.db");
+        writeThreeFiles(file);
+        long version = framesOfKind(file, SNAPSHOT).get(1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{7}), version + FRAME_BYTES);
+        }
+
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            assertTrue(store.versions("b.txt").isEmpty(), "the damaged version is lost");
+            assertEquals("c\n", store.text("c.txt", 1), "text behind the damage");
+        }
+    }
+
+    static void testDamagedChunkLosesOnlyTheVersionsThatNeedIt(Path directory) throws Exception {
+        Path file = directory.resolve("snapshots.db");
+        List<String> texts = edits(4);
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            for (String text : texts) {
+                store.record("a.txt", text, "alice");
+            }
+            store.record("b.txt", "b\n", "alice");
+        }
+        // chunks in order: a's keyframe, the diffs of versions 2 to 4, b's text
+        long diff = framesOfKind(file, CHUNK).get(2);
+        flipByte(file, diff + FRAME_BYTES + 40);
+
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            List<SnapshotStore.Version> versions = store.versions("a.txt");
+            assertEquals(2, versions.size(), "versions left of a");
+            assertEquals(1, versions.get(0).getNumber(), "first version left");
+            assertEquals(2, versions.get(1).getNumber(), "second version left");
+            assertEquals(texts.get(1), store.text("a.txt", 2), "text ahead of the damaged diff");
+            assertThrows(IOException.class, () -> store.text("a.txt", 4), "text of a version whose chain is damaged");
+            assertEquals(2, store.getLostVersions(), "lost versions");
+            assertEquals("b\n", store.text("b.txt", 1), "text of another file");
+
+            SnapshotStore.Version next = store.record("a.txt", texts.get(3), "bob");
+            assertEquals(5, next.getNumber(), "number of the next version");
+        }
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            assertEquals(texts.get(3), store.text("a.txt", 5), "version recorded after the damage");
+            assertTrue(store.changes("a.txt", 5).contains("+ edit 3"), "changes against the last version left");
+        }
+    }
+
+    static void testForeignFileIsRejected(Path directory) throws Exception {
+        Path file = directory.resolve("snapshots.db");
+        Files.write(file, "not a snapshot store at all".getBytes());
+
+        assertThrows(IOException.class, () -> SnapshotStore.open(file).close(), "open a foreign file");
+        assertEquals(27, Files.size(file), "foreign file size");
+    }
+
+    private static void writeThreeFiles(Path file) throws IOException {
+        try (SnapshotStore store = SnapshotStore.open(file)) {
+            store.record("a.txt", "a\n", "alice");
+            store.record("b.txt", "b\n", "alice");
+            store.record("c.txt", "c\n", "alice");
+        }
+    }
+
+    /**
+     * Texts of growing length, each a small edit of the one before it.
+     */
+    private static List<String> edits(int count) {
+        List<String> texts = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("line ").append(i).append(" of a file that is edited one line at a time\n");
+        }
+        for (int i = 0; i < count; i++) {
+            text.replace(0, 0, "edit " + i + "\n");
+            texts.add(text.toString());
+        }
+        return texts;
+    }
+
+    private static List<Long> frames(Path file) throws IOException {
+        return framesOfKind(file, (byte) 0);
+    }
+
+    /**
+     * Offsets of the frames of one kind, or of all frames for kind 0.
+     */
+    private static List<Long> framesOfKind(Path file, byte kind) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        List<Long> frames = new ArrayList<>();
+        for (int position = HEADER_BYTES; position + FRAME_BYTES < bytes.limit(); position += FRAME_BYTES + bytes.getInt(position + 4)) {
+            if (kind == 0 || bytes.get(position + FRAME_BYTES) == kind) {
+                frames.add((long) position);
+            }
+        }
+        return frames;
+    }
+
+    private static void flipByte(Path file, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, offset);
+            b.put(0, (byte) (b.get(0) ^ 0x5A));
+            b.rewind();
+            channel.write(b, offset);
+        }
+    }
+}
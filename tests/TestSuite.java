@@ -0,0 +1,90 @@
+package tests;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Runs the analyser's tests without a build tool or test library:
+ * <pre>
+ * javac -d out GitHubCodeAnalyser.java analyser/*.java benchmarks/*.java tests/*.java
+ * java -cp out tests.TestSuite [regex]
+ * </pre>
+ * A test is a static method named {@code test*} of one of the {@link #TEST_CLASSES}, taking a fresh temporary
+ * directory that is deleted afterwards. Only tests whose {@code Class.method} name matches the regex run. The
+ * exit status is 1 if any test failed.
+ */
+public final class TestSuite {
+
+    private static final Class<?>[] TEST_CLASSES = {
+            RecordStoreTest.class,
+            CredentialStoreTest.class,
+            MultiPatternSearchTest.class,
+            SnapshotStoreTest.class,
+            AnalysisServerTest.class,
+            GitRepositoryTest.class,
+            FileContentCacheTest.class,
+            LineDiffTest.class,
+            PathTableTest.class,
+            LexerRulesTest.class,
+            AnalysisRollupsTest.class,
+            LogAppenderTest.class,
+            AnnotationStoreTest.class,
+    };
+
+    private TestSuite() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Pattern filter = args.length > 0 ? Pattern.compile(args[0]) : null;
+        int passed = 0;
+        List<String> failures = new ArrayList<>();
+        for (Class<?> testClass : TEST_CLASSES) {
+            List<Method> tests = new ArrayList<>();
+            for (Method method : testClass.getDeclaredMethods()) {
+                if (method.getName().startsWith("test") && Modifier.isStatic(method.getModifiers())) {
+                    tests.add(method);
+                }
+            }
+            tests.sort(Comparator.comparing(Method::getName));
+            for (Method test : tests) {
+                String name = testClass.getSimpleName() + "." + test.getName();
+                if (filter != null && !filter.matcher(name).find()) {
+                    continue;
+                }
+                Path directory = Files.createTempDirectory("analyser-test");
+                long start = System.nanoTime();
+                try {
+                    test.setAccessible(true);
+                    test.invoke(null, directory);
+                    passed++;
+                    System.out.printf("PASS %-60s %6d ms%n", name, (System.nanoTime() - start) / 1_000_000);
+                } catch (InvocationTargetException e) {
+                    failures.add(name);
+                    System.out.printf("FAIL %s%n", name);
+                    e.getCause().printStackTrace(System.out);
+                } finally {
+                    deleteTree(directory);
+                }
+            }
+        }
+        System.out.println(passed + " passed, " + failures.size() + " failed" + (failures.isEmpty() ? "" : ": " + failures));
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    private static void deleteTree(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}